@@ -0,0 +1,181 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.esigate.benchmarks;
+
+import java.util.Random;
+
+/**
+ * The pages used by the benchmarks.
+ * <p>
+ * Pages look like what a CMS would produce: a head with stylesheets and scripts, then sections with titles, text,
+ * relative and absolute links and images. The includes are spread over the sections and alternate between a plain
+ * include, an include inside esi:try and an include inside esi:choose. Each included fragment includes a fragment of
+ * the next level until the nesting depth of the page is reached.
+ * <p>
+ * Pages are generated with a fixed seed so that the results can be compared between runs.
+ */
+public enum Corpus {
+    /** An article: a few includes, no nested include, 8 KB. */
+    SMALL(3, 1, 8 * 1024),
+    /** A portal home page: 20 includes with 2 levels of fragments, 64 KB. */
+    MEDIUM(20, 2, 64 * 1024),
+    /** A product catalog: 100 includes with 3 levels of fragments, 512 KB. */
+    LARGE(100, 3, 512 * 1024);
+
+    /** The uri of the page on the backend. */
+    public static final String PAGE = "/page.html";
+    /** The uri of the fragments on the backend: /fragments/&lt;level&gt;/&lt;index&gt;.html */
+    public static final String FRAGMENTS = "/fragments/";
+
+    private static final int SECTION_LENGTH = 700;
+
+    private final int includes;
+    private final int depth;
+    private final String page;
+
+    private Corpus(int includes, int depth, int size) {
+        this.includes = includes;
+        this.depth = depth;
+        this.page = generatePage(includes, size);
+    }
+
+    /**
+     * @return the number of includes in the page, not counting the includes of the fragments
+     */
+    public int getIncludes() {
+        return includes;
+    }
+
+    /**
+     * @return the number of levels of fragments
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return the content of the page
+     */
+    public String getPage() {
+        return page;
+    }
+
+    /**
+     * @param level
+     *            the level of the fragment, starting from 1 for the fragments included by the page
+     * @param index
+     *            the index of the include in the page
+     * @return the content of the fragment
+     */
+    public String getFragment(int level, int index) {
+        Random random = new Random(level * 1000 + index);
+        StringBuilder fragment = new StringBuilder(1024);
+        fragment.append("<div class=\"fragment level").append(level).append("\">\n");
+        fragment.append("<h3>Fragment ").append(level).append('-').append(index).append("</h3>\n<ul>\n");
+        for (int i = 0; i < 5; i++) {
+            fragment.append("<li><a href=\"/catalog/").append(index).append('/').append(i).append(".html\">");
+            Lorem.appendWords(fragment, random, 3);
+            fragment.append("</a></li>\n");
+        }
+        fragment.append("</ul>\n");
+        if (level < depth) {
+            fragment.append("<esi:include src=\"").append(fragmentUri(level + 1, index)).append("\"/>\n");
+        }
+        fragment.append("</div>\n");
+        return fragment.toString();
+    }
+
+    /**
+     * @return the uri of a fragment on the backend
+     */
+    public static String fragmentUri(int level, int index) {
+        return FRAGMENTS + level + "/" + index + ".html";
+    }
+
+    private static String generatePage(int includes, int size) {
+        Random random = new Random(size);
+        StringBuilder page = new StringBuilder(size + SECTION_LENGTH * 2);
+        page.append("<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"UTF-8\">\n");
+        page.append("<title>ESIGate benchmark page</title>\n");
+        page.append("<link rel=\"stylesheet\" type=\"text/css\" href=\"/static/css/site.css\">\n");
+        page.append("<link rel=\"stylesheet\" type=\"text/css\" href=\"static/css/print.css\" media=\"print\">\n");
+        page.append("<script type=\"text/javascript\" src=\"/static/js/site.js\"></script>\n");
+        page.append("</head>\n<body>\n");
+        page.append("<esi:vars><p class=\"greeting\">Welcome on $(HTTP_HOST), you searched for "
+                + "$(QUERY_STRING{q})</p></esi:vars>\n");
+        // Spread the includes over the sections
+        int stride = Math.max(1, size / SECTION_LENGTH / Math.max(1, includes));
+        int include = 0;
+        for (int section = 0; page.length() < size || include < includes; section++) {
+            page.append("<div class=\"section\" id=\"section").append(section).append("\">\n");
+            page.append("<h2><a href=\"/articles/").append(section).append(".html\">");
+            Lorem.appendWords(page, random, 4);
+            page.append("</a></h2>\n<p>");
+            Lorem.appendWords(page, random, 40);
+            page.append(" <a href=\"http://localhost:8080/articles/").append(section)
+                    .append(".html?page=2\">read more</a></p>\n");
+            page.append("<img src=\"../images/").append(section).append(".png\" alt=\"\" width=\"120\">\n");
+            if (section % 5 == 0) {
+                page.append("<!--esi <p class=\"host\">Served for $(HTTP_HOST)</p> -->\n");
+            }
+            if (include < includes && section % stride == 0) {
+                appendInclude(page, include);
+                include++;
+            }
+            page.append("</div>\n");
+        }
+        page.append("<form action=\"/search\" method=\"get\"><input type=\"text\" name=\"q\"></form>\n");
+        page.append("</body>\n</html>\n");
+        return page.toString();
+    }
+
+    private static void appendInclude(StringBuilder page, int index) {
+        String uri = fragmentUri(1, index);
+        switch (index % 3) {
+            case 0:
+                page.append("<esi:include src=\"").append(uri).append("\"/>\n");
+                break;
+            case 1:
+                page.append("<esi:try><esi:attempt><esi:include src=\"").append(uri)
+                        .append("\"/></esi:attempt><esi:except><p>Not available</p></esi:except></esi:try>\n");
+                break;
+            default:
+                page.append("<esi:choose><esi:when test=\"'$(HTTP_HOST)'=='localhost:8080'\"><esi:include src=\"")
+                        .append(uri).append("\"/></esi:when><esi:otherwise><p>Not available</p>")
+                        .append("</esi:otherwise></esi:choose>\n");
+                break;
+        }
+    }
+
+    /**
+     * Random text. The words are not declared in the enum itself as the enum constants are initialized first.
+     */
+    private static final class Lorem {
+        private static final String[] WORDS = new String[] {"lorem", "ipsum", "dolor", "sit", "amet", "consectetur",
+                "adipiscing", "elit", "sed", "do", "eiusmod", "tempor", "incididunt", "ut", "labore", "et", "dolore",
+                "magna", "aliqua", "enim", "ad", "minim", "veniam", "quis", "nostrud", "exercitation", "ullamco",
+                "laboris", "nisi", "aliquip", "ex", "ea", "commodo", "consequat"};
+
+        static void appendWords(StringBuilder out, Random random, int count) {
+            for (int i = 0; i < count; i++) {
+                if (i > 0) {
+                    out.append(' ');
+                }
+                out.append(WORDS[random.nextInt(WORDS.length)]);
+            }
+        }
+    }
+
+}
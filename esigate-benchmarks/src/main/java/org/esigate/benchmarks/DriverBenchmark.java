@@ -0,0 +1,94 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.esigate.benchmarks;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.esigate.Driver;
+import org.esigate.HttpErrorPage;
+import org.esigate.Parameters;
+import org.esigate.http.IncomingRequest;
+import org.esigate.test.TestUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Renders and proxies the pages of the {@link Corpus} with all their includes, with each ESI implementation. The
+ * backend is a {@link MockBackend}, so the whole request processing is measured except the network.
+ * <p>
+ * The http cache is disabled so that every include is actually processed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DriverBenchmark {
+    private static final String REQUEST_URL = "http://localhost:8080" + Corpus.PAGE + "?q=esigate";
+
+    @Param
+    private Corpus corpus;
+
+    @Param({"org.esigate.extension.Esi", "org.esigate.extension.parallelesi.Esi"})
+    private String esi;
+
+    private Driver driver;
+
+    @Setup
+    public void setUp() throws IOException, HttpErrorPage {
+        Properties properties = new Properties();
+        properties.setProperty(Parameters.EXTENSIONS.getName(), esi);
+        properties.setProperty(Parameters.USE_CACHE.getName(), "false");
+        properties.setProperty("esi_max_threads", "20");
+        driver = new MockBackend(corpus).createDriver(properties);
+        // Fail now rather than measuring error pages
+        if (proxy().indexOf("<esi:") >= 0) {
+            throw new IllegalStateException("ESI tags were not processed");
+        }
+    }
+
+    @Benchmark
+    public String render() throws IOException, HttpErrorPage {
+        return toString(driver.render(Corpus.PAGE, createRequest()));
+    }
+
+    @Benchmark
+    public String proxy() throws IOException, HttpErrorPage {
+        return toString(driver.proxy(Corpus.PAGE, createRequest()));
+    }
+
+    private static IncomingRequest createRequest() {
+        return TestUtils.createIncomingRequest(REQUEST_URL).build();
+    }
+
+    private static String toString(HttpResponse response) throws IOException {
+        return EntityUtils.toString(response.getEntity());
+    }
+
+}
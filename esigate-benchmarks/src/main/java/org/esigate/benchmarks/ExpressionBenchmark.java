@@ -0,0 +1,76 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.esigate.benchmarks;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.impl.cookie.BasicClientCookie;
+import org.esigate.HttpErrorPage;
+import org.esigate.impl.DriverRequest;
+import org.esigate.test.TestUtils;
+import org.esigate.vars.Operations;
+import org.esigate.vars.VariablesResolver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Evaluates the test attribute of an esi:when tag, as done for each request on a page served from the cache: the
+ * current way, replacing the variables in the text and parsing the result, and with the compiled expressions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExpressionBenchmark {
+
+    @Param({"1==1", "$(HTTP_COOKIE{user})=='anonymous'",
+            "($(HTTP_USER_AGENT{os})==WIN)&($(HTTP_ACCEPT_LANGUAGE{fr})==true)|($(QUERY_STRING{page})>=10)"})
+    private String test;
+
+    private DriverRequest request;
+
+    @Setup
+    public void setUp() throws HttpErrorPage {
+        MockBackend backend = new MockBackend(Corpus.SMALL);
+        request = new DriverRequest(TestUtils.createIncomingRequest("http://localhost:8080/page.html?page=12")
+                .addHeader("Accept-Language", "fr-FR,fr;q=0.8,en;q=0.6")
+                .addHeader("User-Agent", "Mozilla/5.0 (Windows NT 6.1; rv:27.0) Gecko/20100101 Firefox/27.0")
+                .addCookie(new BasicClientCookie("user", "esigate")).build(),
+                backend.createDriver(new Properties()), false);
+    }
+
+    @Benchmark
+    public boolean operations() {
+        return Operations.processOperators(VariablesResolver.replaceAllVariables(test, request));
+    }
+
+    @Benchmark
+    public boolean compiled() {
+        return Operations.evaluate(test, request);
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.esigate.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.Future;
+
+import org.esigate.parser.future.CharSequenceFuture;
+import org.esigate.parser.future.FutureElement;
+import org.esigate.parser.future.FutureElementType;
+import org.esigate.parser.future.FutureParserContext;
+
+/**
+ * Same as {@link PassThroughElementType} for the {@link org.esigate.parser.future.FutureParser}.
+ */
+class FuturePassThroughElementType implements FutureElementType {
+    private final String startTag;
+    private final String endTag;
+    private final boolean writeTags;
+
+    FuturePassThroughElementType(String startTag, String endTag, boolean writeTags) {
+        this.startTag = startTag;
+        this.endTag = endTag;
+        this.writeTags = writeTags;
+    }
+
+    @Override
+    public boolean isStartTag(String tag) {
+        return tag.startsWith(startTag);
+    }
+
+    @Override
+    public boolean isEndTag(String tag) {
+        return tag.startsWith(endTag);
+    }
+
+    @Override
+    public FutureElement newInstance() {
+        return new PassThroughElement(writeTags);
+    }
+
+    private static final class PassThroughElement implements FutureElement {
+        private final boolean writeTags;
+        private FutureElement parent;
+        private boolean closed;
+
+        private PassThroughElement(boolean writeTags) {
+            this.writeTags = writeTags;
+        }
+
+        @Override
+        public void onTagStart(String tag, FutureParserContext ctx) throws IOException {
+            parent = ctx.getCurrent();
+            closed = tag.endsWith("/>");
+            if (writeTags) {
+                parent.characters(new CharSequenceFuture(tag));
+            }
+        }
+
+        @Override
+        public void onTagEnd(String tag, FutureParserContext ctx) throws IOException {
+            if (writeTags && !closed) {
+                parent.characters(new CharSequenceFuture(tag));
+            }
+        }
+
+        @Override
+        public boolean onError(Exception e, FutureParserContext ctx) {
+            return false;
+        }
+
+        @Override
+        public void characters(Future<CharSequence> csq) throws IOException {
+            parent.characters(csq);
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        public FutureElement getParent() {
+            return parent;
+        }
+    }
+
+}
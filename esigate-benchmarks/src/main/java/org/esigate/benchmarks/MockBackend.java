@@ -0,0 +1,83 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.esigate.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.http.Consts;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.esigate.Driver;
+import org.esigate.Parameters;
+import org.esigate.http.HttpClientRequestExecutor;
+import org.esigate.test.conn.IResponseHandler;
+import org.esigate.test.conn.MockConnectionManager;
+import org.esigate.test.http.HttpResponseBuilder;
+import org.esigate.util.UriUtils;
+
+/**
+ * Serves the page and the fragments of a {@link Corpus} entry from memory, to be used with a
+ * {@link org.esigate.test.conn.MockConnectionManager}.
+ * <p>
+ * The content is encoded once, only the response objects are created for each request.
+ */
+public class MockBackend implements IResponseHandler {
+    private static final ContentType TEXT_HTML = ContentType.create("text/html", Consts.UTF_8);
+    private final Map<String, byte[]> resources = new HashMap<String, byte[]>();
+
+    public MockBackend(Corpus corpus) {
+        resources.put(Corpus.PAGE, corpus.getPage().getBytes(Consts.UTF_8));
+        for (int level = 1; level <= corpus.getDepth(); level++) {
+            for (int index = 0; index < corpus.getIncludes(); index++) {
+                resources.put(Corpus.fragmentUri(level, index),
+                        corpus.getFragment(level, index).getBytes(Consts.UTF_8));
+            }
+        }
+    }
+
+    /**
+     * Creates a Driver whose requests are served by this backend.
+     * 
+     * @param properties
+     *            the configuration of the Driver, remoteUrlBase is set if missing
+     * @return the Driver
+     */
+    public Driver createDriver(Properties properties) {
+        if (properties.getProperty(Parameters.REMOTE_URL_BASE.getName()) == null) {
+            properties.setProperty(Parameters.REMOTE_URL_BASE.getName(), "http://backend:8080/");
+        }
+        MockConnectionManager connectionManager = new MockConnectionManager();
+        connectionManager.setResponseHandler(this);
+        return Driver.builder().setName("benchmark").setProperties(properties)
+                .setRequestExecutorBuilder(HttpClientRequestExecutor.builder().setConnectionManager(connectionManager))
+                .build();
+    }
+
+    @Override
+    public HttpResponse execute(HttpRequest request) {
+        String path = UriUtils.getPath(request.getRequestLine().getUri());
+        byte[] content = resources.get(path);
+        if (content == null) {
+            return new HttpResponseBuilder().status(HttpStatus.SC_NOT_FOUND).reason("Not found").build();
+        }
+        return new HttpResponseBuilder().entity(new ByteArrayEntity(content, TEXT_HTML)).build();
+    }
+
+}
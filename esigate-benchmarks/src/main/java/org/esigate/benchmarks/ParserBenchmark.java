@@ -0,0 +1,93 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.esigate.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.esigate.HttpErrorPage;
+import org.esigate.parser.EsiParser;
+import org.esigate.parser.Parser;
+import org.esigate.parser.future.FutureParser;
+import org.esigate.parser.future.StringBuilderFutureAppendable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parses the pages of the {@link Corpus} with the three parsers, without processing the elements.
+ * <p>
+ * The regular expression based parsers need two passes, one for the esi comments and one for the tags, like the
+ * renderers using them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+    private static final Pattern PATTERN = Pattern
+            .compile("(<esi:\\w+((\\s+\\w+(\\s*=\\s*(?:\".*?\"|'.*?'|[^'\">\\s]+))?)+\\s*|\\s*)/?>)|(</esi:[^>]*>)");
+    private static final Pattern PATTERN_COMMENTS = Pattern.compile("(<!--esi)|(-->)");
+
+    @Param
+    private Corpus corpus;
+
+    private final PassThroughElementType esiType = new PassThroughElementType("<esi:", "</esi:", true);
+    private final EsiParser esiParser = new EsiParser(esiType);
+    private final Parser parserComments = new Parser(PATTERN_COMMENTS, new PassThroughElementType("<!--esi", "-->",
+            false));
+    private final Parser parser = new Parser(PATTERN, esiType);
+    private final FutureParser futureParserComments = new FutureParser(PATTERN_COMMENTS,
+            new FuturePassThroughElementType("<!--esi", "-->", false));
+    private final FutureParser futureParser = new FutureParser(PATTERN, new FuturePassThroughElementType("<esi:",
+            "</esi:", true));
+
+    @Benchmark
+    public String esiParser() throws IOException, HttpErrorPage {
+        StringBuilder out = new StringBuilder(corpus.getPage().length());
+        esiParser.parse(corpus.getPage(), out);
+        return out.toString();
+    }
+
+    @Benchmark
+    public String parser() throws IOException, HttpErrorPage {
+        StringBuilder withoutComments = new StringBuilder(corpus.getPage().length());
+        parserComments.parse(corpus.getPage(), withoutComments);
+        StringBuilder out = new StringBuilder(corpus.getPage().length());
+        parser.parse(withoutComments, out);
+        return out.toString();
+    }
+
+    @Benchmark
+    public CharSequence futureParser() throws IOException, HttpErrorPage, ExecutionException {
+        StringBuilderFutureAppendable withoutComments = new StringBuilderFutureAppendable();
+        futureParserComments.parse(corpus.getPage(), withoutComments);
+        StringBuilderFutureAppendable out = new StringBuilderFutureAppendable();
+        futureParser.parse(withoutComments.get(), out);
+        return out.get();
+    }
+
+}
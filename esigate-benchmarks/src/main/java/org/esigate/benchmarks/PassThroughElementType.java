@@ -0,0 +1,112 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.esigate.benchmarks;
+
+import java.io.IOException;
+
+import org.esigate.parser.Element;
+import org.esigate.parser.ParserContext;
+import org.esigate.parser.TagElementType;
+
+/**
+ * Element type that copies its tags and its content to the output, so that the parsers can be measured without the
+ * cost of processing the elements.
+ */
+class PassThroughElementType implements TagElementType {
+    private final String startTag;
+    private final String endTag;
+    private final boolean writeTags;
+
+    /**
+     * @param startTag
+     *            the beginning of the opening tag
+     * @param endTag
+     *            the beginning of the closing tag
+     * @param writeTags
+     *            false to remove the tags and only keep the content, as for esi comments
+     */
+    PassThroughElementType(String startTag, String endTag, boolean writeTags) {
+        this.startTag = startTag;
+        this.endTag = endTag;
+        this.writeTags = writeTags;
+    }
+
+    @Override
+    public boolean isStartTag(String tag) {
+        return tag.startsWith(startTag);
+    }
+
+    @Override
+    public boolean isEndTag(String tag) {
+        return tag.startsWith(endTag);
+    }
+
+    @Override
+    public String getStartTag() {
+        return startTag;
+    }
+
+    @Override
+    public String getEndTag() {
+        return endTag;
+    }
+
+    @Override
+    public Element newInstance() {
+        return new PassThroughElement(writeTags);
+    }
+
+    private static final class PassThroughElement implements Element {
+        private final boolean writeTags;
+        private Element parent;
+        private boolean closed;
+
+        private PassThroughElement(boolean writeTags) {
+            this.writeTags = writeTags;
+        }
+
+        @Override
+        public void onTagStart(String tag, ParserContext ctx) throws IOException {
+            parent = ctx.getCurrent();
+            closed = tag.endsWith("/>");
+            if (writeTags) {
+                parent.characters(tag, 0, tag.length());
+            }
+        }
+
+        @Override
+        public void onTagEnd(String tag, ParserContext ctx) throws IOException {
+            if (writeTags && !closed) {
+                parent.characters(tag, 0, tag.length());
+            }
+        }
+
+        @Override
+        public boolean onError(Exception e, ParserContext ctx) {
+            return false;
+        }
+
+        @Override
+        public void characters(CharSequence csq, int start, int end) throws IOException {
+            parent.characters(csq, start, end);
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+    }
+
+}
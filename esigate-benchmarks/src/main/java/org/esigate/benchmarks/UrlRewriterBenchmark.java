@@ -0,0 +1,68 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.esigate.benchmarks;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.esigate.Parameters;
+import org.esigate.impl.UrlRewriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Rewrites the links and images of the pages of the {@link Corpus}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UrlRewriterBenchmark {
+    private static final String BASE_URL = "http://backend:8080/context/";
+    private static final String REQUEST_URL = "/context/news/page.html";
+
+    @Param
+    private Corpus corpus;
+
+    @Param({"absolute", "relative"})
+    private String fixMode;
+
+    private UrlRewriter urlRewriter;
+
+    @Setup
+    public void setUp() {
+        Properties properties = new Properties();
+        properties.setProperty(Parameters.FIX_MODE.getName(), fixMode);
+        properties.setProperty(Parameters.VISIBLE_URL_BASE.getName(), "http://www.example.com/");
+        urlRewriter = new UrlRewriter(properties);
+    }
+
+    @Benchmark
+    public CharSequence rewriteHtml() {
+        return urlRewriter.rewriteHtml(corpus.getPage(), REQUEST_URL, BASE_URL);
+    }
+
+}
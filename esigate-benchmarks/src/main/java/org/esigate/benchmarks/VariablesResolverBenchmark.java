@@ -0,0 +1,74 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.esigate.benchmarks;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.esigate.HttpErrorPage;
+import org.esigate.impl.DriverRequest;
+import org.esigate.test.TestUtils;
+import org.esigate.vars.VariablesResolver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Replaces the ESI variables in an include url, as done for each include, and in whole pages of the {@link Corpus}, as
+ * done for the content of esi:vars.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VariablesResolverBenchmark {
+    private static final String URL = "/search?q=$(QUERY_STRING{q})&host=$(HTTP_HOST)"
+            + "&lang=$(HTTP_ACCEPT_LANGUAGE{fr})&os=$(HTTP_USER_AGENT{os})&user=$(HTTP_COOKIE{user}|'anonymous')";
+
+    @Param
+    private Corpus corpus;
+
+    private DriverRequest request;
+
+    @Setup
+    public void setUp() throws HttpErrorPage {
+        MockBackend backend = new MockBackend(corpus);
+        request = new DriverRequest(TestUtils.createIncomingRequest("http://localhost:8080/page.html?q=esigate")
+                .addHeader("Accept-Language", "fr-FR,fr;q=0.8,en;q=0.6")
+                .addHeader("User-Agent", "Mozilla/5.0 (Windows NT 6.1; rv:27.0) Gecko/20100101 Firefox/27.0").build(),
+                backend.createDriver(new Properties()), false);
+    }
+
+    @Benchmark
+    public String url() {
+        return VariablesResolver.replaceAllVariables(URL, request);
+    }
+
+    @Benchmark
+    public String page() {
+        return VariablesResolver.replaceAllVariables(corpus.getPage(), request);
+    }
+
+}
@@ -0,0 +1,34 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.esigate;
+
+/**
+ * Renderer which only modifies the pages containing some markers, for instance "&lt;esi:".
+ * <p>
+ * When none of the renderers to apply to a page can modify it, the page is sent as it was received, without being
+ * decoded to a String and encoded again.
+ */
+public interface ConditionalRenderer extends Renderer {
+
+    /**
+     * The page is left unchanged by this renderer if it contains none of the markers, ignoring case.
+     * <p>
+     * Markers must only contain US-ASCII characters as they are searched in the bytes of the page.
+     *
+     * @return the markers or null if this renderer may modify any page
+     */
+    String[] getMarkers();
+}
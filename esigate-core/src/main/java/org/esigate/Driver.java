@@ -15,22 +15,37 @@
 
 package org.esigate;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.UnsupportedCharsetException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Callable;
 
 import org.apache.commons.io.output.StringBuilderWriter;
-import org.apache.commons.lang3.tuple.ImmutablePair;
-import org.apache.commons.lang3.tuple.Pair;
 import org.apache.http.HttpEntity;
 import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.util.EntityUtils;
 import org.esigate.RequestExecutor.RequestExecutorBuilder;
+import org.esigate.esi.InlineCache;
+import org.esigate.esi.TemplateCache;
 import org.esigate.events.EventManager;
+import org.esigate.events.impl.CloseEvent;
 import org.esigate.events.impl.ProxyEvent;
 import org.esigate.events.impl.RenderEvent;
 import org.esigate.extension.ExtensionFactory;
@@ -42,8 +57,10 @@ import org.esigate.http.IncomingRequest;
 import org.esigate.http.ResourceUtils;
 import org.esigate.impl.DriverRequest;
 import org.esigate.impl.UrlRewriter;
+import org.esigate.util.MarkerScanner;
 import org.esigate.util.UriUtils;
 import org.esigate.vars.VariablesResolver;
+import org.esigate.xml.XmlCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -57,13 +74,15 @@ import org.slf4j.LoggerFactory;
  * @author Sylvain Sicard
  */
 public final class Driver {
-    private static final String CACHE_RESPONSE_PREFIX = "response_";
     private static final Logger LOG = LoggerFactory.getLogger(Driver.class);
     private DriverConfiguration config;
     private EventManager eventManager;
     private RequestExecutor requestExecutor;
     private ContentTypeHelper contentTypeHelper;
     private UrlRewriter urlRewriter;
+    private InlineCache inlineCache;
+    private TemplateCache templateCache;
+    private XmlCache xmlCache;
 
     public static class DriverBuilder {
         private Driver driver = new Driver();
@@ -84,6 +103,9 @@ public final class Driver {
             driver.eventManager = new EventManager(name);
             driver.config = new DriverConfiguration(name, properties);
             driver.contentTypeHelper = new ContentTypeHelper(properties);
+            driver.inlineCache = new InlineCache(properties);
+            driver.templateCache = new TemplateCache(properties);
+            driver.xmlCache = new XmlCache(properties);
             // Load extensions.
             ExtensionFactory.getExtensions(properties, Parameters.EXTENSIONS, driver);
             driver.requestExecutor = requestExecutorBuilder.setDriver(driver).setEventManager(driver.eventManager)
@@ -142,44 +164,65 @@ public final class Driver {
      */
     public CloseableHttpResponse render(String pageUrl, IncomingRequest incomingRequest, Renderer... renderers)
             throws IOException, HttpErrorPage {
-        boolean external = UriUtils.isAbsolute(pageUrl);
-        DriverRequest driverRequest = new DriverRequest(incomingRequest, this, external);
+        DriverRequest driverRequest = new DriverRequest(incomingRequest, this, UriUtils.isAbsolute(pageUrl));
+        PageMemo.Page page = fetch(pageUrl, driverRequest);
 
+        logAction("render", pageUrl, renderers);
+
+        // Apply renderers
+        String currentValue = performRendering(pageUrl, driverRequest, page.getResponse(), page.getBody(), renderers);
+
+        // The page may be rendered by other threads at the same time, its response is left untouched
+        CloseableHttpResponse response = BasicCloseableHttpResponse.adapt(new BasicHttpResponse(page.getResponse()
+                .getStatusLine()));
+        response.setHeaders(page.getResponse().getAllHeaders());
+        response.setEntity(new StringEntity(currentValue, HttpResponseUtils.getContentType(page.getResponse())));
+        return response;
+    }
+
+    /**
+     * Retrieves a page so that a later call to {@link #render(String, IncomingRequest, Renderer...)} for the same page
+     * and the same request does not send the request again.
+     * <p>
+     * This method can be called from another thread than the one processing the request, in order to retrieve several
+     * pages in parallel.
+     *
+     * @param pageUrl
+     *            Address of the page
+     * @param incomingRequest
+     *            originating request object
+     * @throws IOException
+     *             If an IOException occurs while retrieving the page
+     * @throws HttpErrorPage
+     *             If the page cannot be retrieved
+     */
+    public void prefetch(String pageUrl, IncomingRequest incomingRequest) throws IOException, HttpErrorPage {
+        fetch(pageUrl, new DriverRequest(incomingRequest, this, UriUtils.isAbsolute(pageUrl)));
+    }
+
+    /**
+     * Retrieves a page and its content, or gets them from the request if the page was already retrieved or is being
+     * retrieved for this request.
+     */
+    private PageMemo.Page fetch(String pageUrl, final DriverRequest driverRequest) throws IOException, HttpErrorPage {
         // Replace ESI variables in URL
         // TODO: should be performed in the ESI extension
         String resultingPageUrl = VariablesResolver.replaceAllVariables(pageUrl, driverRequest);
 
-        String targetUrl = ResourceUtils.getHttpUrlWithQueryString(resultingPageUrl, driverRequest, false);
-
-        String currentValue;
-        CloseableHttpResponse response;
+        final String targetUrl = ResourceUtils.getHttpUrlWithQueryString(resultingPageUrl, driverRequest, false);
 
         // Retrieve URL
-        // Get from cache to prevent multiple request to the same url if
+        // Get from the request to prevent multiple request to the same url if
         // multiple fragments are used.
-
-        String cacheKey = CACHE_RESPONSE_PREFIX + targetUrl;
-        Pair<String, CloseableHttpResponse> cachedValue = incomingRequest.getAttribute(cacheKey);
-        // content and response were not in cache
-        if (cachedValue == null) {
-            response = requestExecutor.createAndExecuteRequest(driverRequest, targetUrl, false);
-            currentValue = HttpResponseUtils.toString(response, this.eventManager);
-            // Cache
-            cachedValue = new ImmutablePair<String, CloseableHttpResponse>(currentValue,
-                    response);
-            incomingRequest.setAttribute(cacheKey, cachedValue);
-        }
-        currentValue = cachedValue.getKey();
-        response = cachedValue.getValue();
-
-        logAction("render", pageUrl, renderers);
-
-        // Apply renderers
-        currentValue = performRendering(pageUrl, driverRequest, response, currentValue, renderers);
-
-        response.setEntity(new StringEntity(currentValue, HttpResponseUtils.getContentType(response)));
-
-        return response;
+        return PageMemo.getInstance(driverRequest.getOriginalRequest()).getPage(targetUrl,
+                new Callable<PageMemo.Page>() {
+                    @Override
+                    public PageMemo.Page call() throws IOException, HttpErrorPage {
+                        CloseableHttpResponse response = requestExecutor.createAndExecuteRequest(driverRequest,
+                                targetUrl, false);
+                        return new PageMemo.Page(response, HttpResponseUtils.toString(response, eventManager));
+                    }
+                });
     }
 
     /**
@@ -259,7 +302,11 @@ public final class Driver {
             e.setResponse(requestExecutor.createAndExecuteRequest(driverRequest, url, true));
 
             // Perform rendering
-            e.setResponse(performRendering(relUrl, driverRequest, e.getResponse(), renderers));
+            if (config.isStreaming()) {
+                e.setResponse(performStreamingRendering(relUrl, driverRequest, e.getResponse(), renderers));
+            } else {
+                e.setResponse(performRendering(relUrl, driverRequest, e.getResponse(), renderers));
+            }
 
             // Event post-proxy
             // This must be done before calling sendResponse to ensure response
@@ -319,11 +366,26 @@ public final class Driver {
 
         LOG.debug("'{}' is text : will apply renderers.", pageUrl);
 
+        RenderEvent renderEvent = startRendering(pageUrl, originalRequest, response, renderers);
+
+        try {
+            if (canSkipRendering(response, renderEvent.getRenderers())) {
+                LOG.debug("'{}' contains nothing to render: was forwarded without decoding.", pageUrl);
+                this.eventManager.fire(EventManager.EVENT_RENDER_POST, renderEvent);
+                return response;
+            }
+        } catch (IOException e) {
+            throw new HttpErrorPage(HttpErrorPage.generateHttpResponse(e));
+        }
+
         // Get response body
         String currentValue = HttpResponseUtils.toString(response, this.eventManager);
 
         // Perform rendering
-        currentValue = performRendering(pageUrl, originalRequest, response, currentValue, renderers);
+        StringBuilderWriter stringWriter = new StringBuilderWriter(Parameters.DEFAULT_BUFFER_SIZE);
+        applyRenderers(renderEvent, currentValue, stringWriter);
+        stringWriter.close();
+        currentValue = stringWriter.toString();
 
         // Generate the new response.
         HttpEntity transformedHttpEntity = new StringEntity(currentValue, ContentType.get(response.getEntity()));
@@ -335,6 +397,92 @@ public final class Driver {
 
     }
 
+    /**
+     * Checks whether the body of a response can be sent as it is, because none of the renderers can modify it.
+     * <p>
+     * This is the case when all the renderers are {@link ConditionalRenderer}s and none of their markers is found in
+     * the raw bytes of the body, and when no extension listens to {@link EventManager#EVENT_READ_ENTITY}, as such
+     * extensions may decode the body with another charset than the one declared in the headers and the response is
+     * then transcoded. When the body is read, the entity of the response is replaced by an in-memory copy so
+     * that it can still be rendered or sent.
+     * 
+     * @param response
+     *            The response which would be rendered.
+     * @param renderers
+     *            The renderers to apply.
+     * @return true if the body of the response does not need to be rendered
+     * @throws IOException
+     *             If the body cannot be read
+     */
+    private boolean canSkipRendering(CloseableHttpResponse response, List<Renderer> renderers) throws IOException {
+        List<String> markers = new ArrayList<String>();
+        for (Renderer renderer : renderers) {
+            if (!(renderer instanceof ConditionalRenderer)) {
+                return false;
+            }
+            String[] rendererMarkers = ((ConditionalRenderer) renderer).getMarkers();
+            if (rendererMarkers == null) {
+                return false;
+            }
+            markers.addAll(Arrays.asList(rendererMarkers));
+        }
+        if (this.eventManager.hasListeners(EventManager.EVENT_READ_ENTITY)) {
+            return false;
+        }
+        HttpEntity entity = response.getEntity();
+        // Compressed bodies and unknown charsets are handled when reading the body as a String
+        if (entity == null || entity.getContentEncoding() != null) {
+            return false;
+        }
+        Charset charset;
+        try {
+            charset = ContentType.getOrDefault(entity).getCharset();
+        } catch (UnsupportedCharsetException e) {
+            return false;
+        }
+        if (charset != null && !MarkerScanner.isAsciiCompatible(charset)) {
+            return false;
+        }
+        byte[] body = EntityUtils.toByteArray(entity);
+        ByteArrayEntity bufferedEntity = new ByteArrayEntity(body);
+        bufferedEntity.setContentType(entity.getContentType());
+        response.setEntity(bufferedEntity);
+        return !new MarkerScanner(markers).isFoundIn(body);
+    }
+
+    /**
+     * Prepares rendering on an HttpResponse without performing it yet.
+     * <p>
+     * The renderers are applied only when the entity of the returned response is written to the client, so that the
+     * last renderer can write its output directly to the client as soon as it is available.
+     * 
+     * @param pageUrl
+     *            The remove url from which the body was retrieved.
+     * @param originalRequest
+     *            The request received by esigate.
+     * @param response
+     *            The response which will be rendered.
+     * @param renderers
+     *            list of renderers to apply.
+     * @return The response with a streaming entity, or the original response if it cannot be parsed.
+     */
+    private CloseableHttpResponse performStreamingRendering(String pageUrl, DriverRequest originalRequest,
+            CloseableHttpResponse response, Renderer[] renderers) {
+
+        if (!contentTypeHelper.isTextContentType(response)) {
+            LOG.debug("'{}' is binary on no transformation to apply: was forwarded without modification.", pageUrl);
+            return response;
+        }
+
+        LOG.debug("'{}' is text : will apply renderers while streaming.", pageUrl);
+
+        CloseableHttpResponse transformedResponse = BasicCloseableHttpResponse.adapt(new BasicHttpResponse(response
+                .getStatusLine()));
+        transformedResponse.setHeaders(response.getAllHeaders());
+        transformedResponse.setEntity(new StreamingRenderingEntity(pageUrl, originalRequest, response, renderers));
+        return transformedResponse;
+    }
+
     /**
      * Performs rendering (apply a render list) on an http response body (as a String).
      *
@@ -354,23 +502,126 @@ public final class Driver {
      */
     private String performRendering(String pageUrl, DriverRequest originalRequest, CloseableHttpResponse response,
             String body, Renderer[] renderers) throws IOException, HttpErrorPage {
-        // Start rendering
+        StringBuilderWriter stringWriter = new StringBuilderWriter(Parameters.DEFAULT_BUFFER_SIZE);
+        applyRenderers(startRendering(pageUrl, originalRequest, response, renderers), body, stringWriter);
+        stringWriter.close();
+        return stringWriter.toString();
+    }
+
+    /**
+     * Builds the complete list of renderers to apply to a response, including the renderers added by the extensions.
+     *
+     * @param pageUrl
+     *            The remove url from which the body was retrieved.
+     * @param originalRequest
+     *            The request received by esigate.
+     * @param response
+     *            The Http Reponse.
+     * @param renderers
+     *            list of renderers to apply.
+     * @return the render event holding the renderers
+     */
+    private RenderEvent startRendering(String pageUrl, DriverRequest originalRequest, CloseableHttpResponse response,
+            Renderer[] renderers) {
         RenderEvent renderEvent = new RenderEvent(pageUrl, originalRequest, response);
         // Create renderer list from parameters.
         renderEvent.getRenderers().addAll(Arrays.asList(renderers));
+        this.eventManager.fire(EventManager.EVENT_RENDER_PRE, renderEvent);
+        return renderEvent;
+    }
 
-        String currentBody = body;
+    /**
+     * Applies the renderers of a render event on an http response body and writes the result to a Writer.
+     * <p>
+     * The renderers are chained by {@link RendererChain}: the output of each renderer goes directly to the next one
+     * and the last renderer writes directly to "out", which allows it to flush its output progressively.
+     * 
+     * @param renderEvent
+     *            The render event returned by {@link #startRendering(String, DriverRequest, CloseableHttpResponse,
+     *            Renderer[])}
+     * @param body
+     *            The body of the Http Response which will be rendered.
+     * @param out
+     *            destination of the rendered body.
+     * @throws HttpErrorPage
+     * @throws IOException
+     */
+    private void applyRenderers(RenderEvent renderEvent, String body, Writer out) throws IOException, HttpErrorPage {
+        RendererChain.render(renderEvent.getOriginalRequest(), renderEvent.getRenderers(), body, out);
+        this.eventManager.fire(EventManager.EVENT_RENDER_POST, renderEvent);
+    }
 
-        this.eventManager.fire(EventManager.EVENT_RENDER_PRE, renderEvent);
-        for (Renderer renderer : renderEvent.getRenderers()) {
-            StringBuilderWriter stringWriter = new StringBuilderWriter(Parameters.DEFAULT_BUFFER_SIZE);
-            renderer.render(originalRequest, currentBody, stringWriter);
-            stringWriter.close();
-            currentBody = stringWriter.toString();
+    /**
+     * Entity which applies the renderers while it is written to the client.
+     * <p>
+     * Rendering errors cannot be turned into an error page anymore once the response has been committed, so they are
+     * reported as IOExceptions.
+     */
+    private final class StreamingRenderingEntity extends AbstractHttpEntity {
+        private final String pageUrl;
+        private final DriverRequest originalRequest;
+        private final CloseableHttpResponse response;
+        private final Renderer[] renderers;
+        private final Charset charset;
+
+        private StreamingRenderingEntity(String pageUrl, DriverRequest originalRequest,
+                CloseableHttpResponse response, Renderer[] renderers) {
+            this.pageUrl = pageUrl;
+            this.originalRequest = originalRequest;
+            this.response = response;
+            this.renderers = renderers;
+            HttpEntity entity = response.getEntity();
+            setContentType(entity.getContentType());
+            ContentType contentType = ContentType.get(entity);
+            if (contentType != null && contentType.getCharset() != null) {
+                this.charset = contentType.getCharset();
+            } else {
+                this.charset = HTTP.DEF_CONTENT_CHARSET;
+            }
+            setChunked(true);
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return false;
+        }
+
+        @Override
+        public long getContentLength() {
+            return -1;
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(Parameters.DEFAULT_BUFFER_SIZE);
+            writeTo(buffer);
+            return new ByteArrayInputStream(buffer.toByteArray());
+        }
+
+        @Override
+        public void writeTo(OutputStream outstream) throws IOException {
+            RenderEvent renderEvent = startRendering(pageUrl, originalRequest, response, renderers);
+            if (canSkipRendering(response, renderEvent.getRenderers())) {
+                LOG.debug("'{}' contains nothing to render: was forwarded without decoding.", pageUrl);
+                response.getEntity().writeTo(outstream);
+                eventManager.fire(EventManager.EVENT_RENDER_POST, renderEvent);
+                return;
+            }
+            Writer writer = new OutputStreamWriter(outstream, charset);
+            try {
+                String body = HttpResponseUtils.toString(response, eventManager);
+                applyRenderers(renderEvent, body, writer);
+            } catch (HttpErrorPage e) {
+                throw new IOException("Error while rendering " + pageUrl, e);
+            }
+            writer.flush();
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return true;
         }
-        this.eventManager.fire(EventManager.EVENT_RENDER_POST, renderEvent);
 
-        return currentBody;
     }
 
     /**
@@ -404,4 +655,40 @@ public final class Driver {
         return urlRewriter;
     }
 
+    /**
+     * @return the storage for the fragments declared using &lt;esi:inline&gt; for this driver.
+     */
+    public InlineCache getInlineCache() {
+        return inlineCache;
+    }
+
+    /**
+     * @return the storage for the compiled ESI templates for this driver.
+     */
+    public TemplateCache getTemplateCache() {
+        return templateCache;
+    }
+
+    /**
+     * @return the storage for the compiled XSLT stylesheets and XPath expressions for this driver.
+     */
+    public XmlCache getXmlCache() {
+        return xmlCache;
+    }
+
+    /**
+     * Releases the resources held by this driver, such as an off-heap cache storage, when it is replaced by another
+     * one. The requests still running may go on using it.
+     */
+    public void close() {
+        eventManager.fire(EventManager.EVENT_CLOSE, new CloseEvent(this));
+        if (requestExecutor instanceof Closeable) {
+            try {
+                ((Closeable) requestExecutor).close();
+            } catch (IOException e) {
+                LOG.warn("Error while closing " + this, e);
+            }
+        }
+    }
+
 }
@@ -45,6 +45,7 @@ public class DriverConfiguration {
     private final boolean isVisibleBaseURLEmpty;
     private final List<UriMapping> uriMappings;
     private boolean stripMappingPath;
+    private final boolean streaming;
 
     public DriverConfiguration(String instanceName, Properties props) {
         this.instanceName = instanceName;
@@ -55,6 +56,7 @@ public class DriverConfiguration {
         this.isVisibleBaseURLEmpty = StringUtils.isEmpty(visibleBaseURL);
         this.stripMappingPath = Parameters.STRIP_MAPPING_PATH.getValue(props);
         this.uriMappings = parseMappings(props);
+        this.streaming = Parameters.STREAMING.getValue(props);
         properties = props;
     }
 
@@ -138,4 +140,12 @@ public class DriverConfiguration {
     public boolean isStripMappingPath() {
         return stripMappingPath;
     }
+
+    /**
+     * 
+     * @return true if proxied pages should be rendered while they are sent to the client.
+     */
+    public boolean isStreaming() {
+        return streaming;
+    }
 }
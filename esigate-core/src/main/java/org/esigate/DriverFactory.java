@@ -141,7 +141,7 @@ public final class DriverFactory {
     }
 
     /**
-     * Loads all instances according to the properties parameter.
+     * Loads all instances according to the properties parameter. The previous instances are closed.
      * 
      * @param props
      *            properties to use for configuration
@@ -183,7 +183,11 @@ public final class DriverFactory {
             newInstances.put(DEFAULT_INSTANCE_NAME, createDriver(DEFAULT_INSTANCE_NAME, defaultProperties));
         }
 
+        IndexedInstances previousInstances = instances;
         instances = new IndexedInstances(newInstances);
+        for (Driver previous : previousInstances.getInstances().values()) {
+            previous.close();
+        }
     }
 
     private static Driver createDriver(String name, Properties properties) {
@@ -260,7 +264,8 @@ public final class DriverFactory {
     }
 
     /**
-     * Add/replace instance in current instance map. Work on a copy of the current map and replace it atomically.
+     * Add/replace instance in current instance map. Work on a copy of the current map and replace it atomically. The
+     * replaced instance, if any, is closed.
      * 
      * @param instanceName
      *            The name of the provider
@@ -279,9 +284,12 @@ public final class DriverFactory {
         }
 
         // Add new instance
-        newInstances.put(instanceName, instance);
+        Driver previous = newInstances.put(instanceName, instance);
 
         instances = new IndexedInstances(newInstances);
+        if (previous != null && previous != instance) {
+            previous.close();
+        }
     }
 
     /**
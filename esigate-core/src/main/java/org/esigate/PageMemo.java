@@ -0,0 +1,122 @@
+/* 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.esigate;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.esigate.http.IncomingRequest;
+
+/**
+ * The pages retrieved while processing a request, so that a page included several times is only retrieved once.
+ * <p>
+ * The memo is stored as an attribute of the {@link IncomingRequest} and can be used by several threads (parallel ESI
+ * includes, prefetched aggregator pages): each page is stored as a Future as soon as it is requested, so the threads
+ * which need a page already being retrieved wait for it instead of sending the same request again. A page which could
+ * not be retrieved is not kept, it is retrieved again the next time it is needed.
+ */
+final class PageMemo {
+    private static final String ATTRIBUTE = PageMemo.class.getName();
+
+    private final ConcurrentMap<String, Future<Page>> pages = new ConcurrentHashMap<String, Future<Page>>();
+
+    /**
+     * A page retrieved for the request, with its body decoded once.
+     */
+    static final class Page {
+        private final CloseableHttpResponse response;
+        private final String body;
+
+        Page(CloseableHttpResponse response, String body) {
+            this.response = response;
+            this.body = body;
+        }
+
+        CloseableHttpResponse getResponse() {
+            return response;
+        }
+
+        String getBody() {
+            return body;
+        }
+    }
+
+    private PageMemo() {
+    }
+
+    /**
+     * @param request
+     *            the request received by esigate
+     * @return the memo of the request, created on first use
+     */
+    static PageMemo getInstance(IncomingRequest request) {
+        // The attributes of the request are not thread-safe
+        synchronized (request) {
+            PageMemo memo = request.getAttribute(ATTRIBUTE);
+            if (memo == null) {
+                memo = new PageMemo();
+                request.setAttribute(ATTRIBUTE, memo);
+            }
+            return memo;
+        }
+    }
+
+    /**
+     * Gets a page from the memo, retrieving it in the current thread if no other thread did or is doing it.
+     * 
+     * @param url
+     *            the url of the page
+     * @param fetcher
+     *            retrieves the page, throwing IOException or HttpErrorPage if it cannot be retrieved
+     * @return the page
+     * @throws IOException
+     * @throws HttpErrorPage
+     */
+    Page getPage(String url, Callable<Page> fetcher) throws IOException, HttpErrorPage {
+        FutureTask<Page> task = new FutureTask<Page>(fetcher);
+        Future<Page> future = pages.putIfAbsent(url, task);
+        if (future == null) {
+            future = task;
+            task.run();
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + url);
+        } catch (ExecutionException e) {
+            pages.remove(url, future);
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof HttpErrorPage) {
+                throw (HttpErrorPage) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+}
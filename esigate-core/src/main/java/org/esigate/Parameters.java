@@ -17,6 +17,7 @@ package org.esigate;
 
 import org.esigate.authentication.RemoteUserAuthenticationHandler;
 import org.esigate.cache.BasicCacheStorage;
+import org.esigate.cache.MemcachedCacheStorage;
 import org.esigate.cookie.DefaultCookieManager;
 import org.esigate.extension.ConfigReloadOnChange;
 import org.esigate.extension.Esi;
@@ -31,6 +32,7 @@ import org.esigate.util.ParameterBoolean;
 import org.esigate.util.ParameterCollection;
 import org.esigate.util.ParameterFloat;
 import org.esigate.util.ParameterInteger;
+import org.esigate.util.ParameterLong;
 import org.esigate.util.ParameterString;
 
 import java.util.Collection;
@@ -50,6 +52,8 @@ public final class Parameters {
     public static final Parameter<String> URI_ENCODING = new ParameterString("uriEncoding", "ISO-8859-1");
     public static final Parameter<Collection<String>> PARSABLE_CONTENT_TYPES =
             new ParameterCollection("parsableContentTypes", "text/html", "application/xhtml+xml");
+    // Rendering
+    public static final Parameter<Boolean> STREAMING = new ParameterBoolean("streaming", false);
     // Network settings
     public static final Parameter<Integer> MAX_CONNECTIONS_PER_HOST = new ParameterInteger("maxConnectionsPerHost", 20);
     public static final Parameter<Integer> CONNECT_TIMEOUT = new ParameterInteger("connectTimeout", 1000);
@@ -89,6 +93,7 @@ public final class Parameters {
             = new ParameterString("cacheStorage", BasicCacheStorage.class.getName());
     public static final Parameter<Boolean> X_CACHE_HEADER = new ParameterBoolean("xCacheHeader", false);
     public static final Parameter<Boolean> VIA_HEADER = new ParameterBoolean("viaHeader", true);
+    public static final Parameter<Boolean> REQUEST_COALESCING = new ParameterBoolean("requestCoalescing", true);
     // Forced caching
     public static final Parameter<Integer> TTL = new ParameterInteger("ttl", 0);
     // Heuristic caching
@@ -109,6 +114,28 @@ public final class Parameters {
             = new ParameterInteger("asynchronousWorkerIdleLifetimeSecs", 60);
     public static final Parameter<Integer> MAX_UPDATE_RETRIES = new ParameterInteger("maxUpdateRetries", 1);
     public static final Parameter<Integer> REVALIDATION_QUEUE_SIZE = new ParameterInteger("revalidationQueueSize", 100);
+    // Inline cache (fragments declared using <esi:inline>)
+    public static final Parameter<Integer> INLINE_CACHE_MAX_ENTRIES = new ParameterInteger("inlineCacheMaxEntries",
+            1000);
+    public static final Parameter<Long> INLINE_CACHE_MAX_SIZE = new ParameterLong("inlineCacheMaxSize", 10000000L);
+    // Compiled ESI templates
+    public static final Parameter<Integer> TEMPLATE_CACHE_MAX_ENTRIES = new ParameterInteger(
+            "templateCacheMaxEntries", 1000);
+    public static final Parameter<Long> TEMPLATE_CACHE_MAX_SIZE = new ParameterLong("templateCacheMaxSize",
+            20000000L);
+    // Compiled XSLT stylesheets and XPath expressions
+    public static final Parameter<Integer> XML_CACHE_MAX_ENTRIES = new ParameterInteger("xmlCacheMaxEntries", 100);
+    // Tiered cache
+    public static final Parameter<String> TIERED_CACHE_L2_STORAGE = new ParameterString("tieredCacheL2Storage",
+            MemcachedCacheStorage.class.getName());
+    public static final Parameter<Integer> TIERED_CACHE_L1_MAX_ENTRIES = new ParameterInteger(
+            "tieredCacheL1MaxEntries", 100);
+    public static final Parameter<Integer> TIERED_CACHE_L1_TTL = new ParameterInteger("tieredCacheL1Ttl", 5);
+    // Off-heap cache
+    public static final Parameter<Long> OFF_HEAP_CACHE_SIZE = new ParameterLong("offHeapCacheSize", 268435456L);
+    public static final Parameter<Integer> OFF_HEAP_CACHE_BLOCK_SIZE = new ParameterInteger("offHeapCacheBlockSize",
+            1024);
+    public static final Parameter<String> OFF_HEAP_CACHE_FILE = new ParameterString("offHeapCacheFile");
     // EhCache
     public static final Parameter<String> EHCACHE_CACHE_NAME_PROPERTY
             = new ParameterString("ehcache.cacheName", "esigate");
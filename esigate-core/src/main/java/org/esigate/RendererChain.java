@@ -0,0 +1,159 @@
+/* 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.esigate;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+import org.esigate.impl.DriverRequest;
+
+/**
+ * Applies a list of renderers to a page in a single pass.
+ * <p>
+ * Each renderer is turned into a Writer which renders what is written to it and writes the result to the next one,
+ * the last one writing to the output. {@link StreamingRenderer}s provide their own filter, the other renderers are
+ * adapted by a filter which collects the page into a String and renders it when the filter is closed.
+ */
+final class RendererChain {
+
+    private RendererChain() {
+    }
+
+    /**
+     * Renders a page and writes the result to out, which is not closed.
+     * 
+     * @param originalRequest
+     *            request received by esigate.
+     * @param renderers
+     *            the renderers to apply, in order
+     * @param body
+     *            the page to render
+     * @param out
+     *            output destination
+     * @throws IOException
+     * @throws HttpErrorPage
+     */
+    static void render(DriverRequest originalRequest, List<Renderer> renderers, String body, Writer out)
+            throws IOException, HttpErrorPage {
+        Writer next = new UnclosableWriter(out);
+        for (int i = renderers.size() - 1; i > 0; i--) {
+            next = createFilter(originalRequest, renderers.get(i), next);
+        }
+        try {
+            if (renderers.isEmpty()) {
+                next.write(body);
+            } else if (renderers.get(0) instanceof StreamingRenderer) {
+                next = createFilter(originalRequest, renderers.get(0), next);
+                next.write(body);
+            } else {
+                // The page is already a String, no need to collect it again
+                renderers.get(0).render(originalRequest, body, next);
+            }
+            next.close();
+        } catch (RenderingException e) {
+            throw e.getErrorPage();
+        }
+    }
+
+    private static Writer createFilter(DriverRequest originalRequest, Renderer renderer, Writer out) {
+        if (renderer instanceof StreamingRenderer) {
+            return ((StreamingRenderer) renderer).createFilter(originalRequest, out);
+        }
+        return new RendererAdapter(originalRequest, renderer, out);
+    }
+
+    /**
+     * Filter for a renderer which needs the whole page.
+     */
+    private static final class RendererAdapter extends Writer {
+        private final DriverRequest originalRequest;
+        private final Renderer renderer;
+        private final Writer out;
+        private final StringBuilder page = new StringBuilder(Parameters.DEFAULT_BUFFER_SIZE);
+        private boolean closed = false;
+
+        private RendererAdapter(DriverRequest originalRequest, Renderer renderer, Writer out) {
+            this.originalRequest = originalRequest;
+            this.renderer = renderer;
+            this.out = out;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            page.append(cbuf, off, len);
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            page.append(str, off, off + len);
+        }
+
+        /**
+         * Nothing can be rendered before the whole page is known.
+         */
+        @Override
+        public void flush() {
+        }
+
+        /**
+         * Renders the page. Some renderers close their output, so closing the filter again has no effect.
+         */
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                renderer.render(originalRequest, page.toString(), out);
+            } catch (HttpErrorPage e) {
+                throw new RenderingException(e);
+            }
+            out.close();
+        }
+    }
+
+    /**
+     * Carries an error page through the filters, which can only throw IOExceptions.
+     */
+    private static final class RenderingException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private RenderingException(HttpErrorPage errorPage) {
+            super(errorPage);
+        }
+
+        private HttpErrorPage getErrorPage() {
+            return (HttpErrorPage) getCause();
+        }
+    }
+
+    /**
+     * The end of the chain: the output is not closed, it still belongs to the caller.
+     */
+    private static final class UnclosableWriter extends FilterWriter {
+
+        private UnclosableWriter(Writer out) {
+            super(out);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+}
@@ -0,0 +1,43 @@
+/* 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.esigate;
+
+import java.io.Writer;
+
+import org.esigate.impl.DriverRequest;
+
+/**
+ * Renderer which can transform a page while it is written, without the whole page in memory.
+ * <p>
+ * When several streaming renderers follow each other in the list of renderers to apply, their filters are chained so
+ * that the page goes through all of them in a single pass. The other renderers still receive the page as a String.
+ */
+public interface StreamingRenderer extends Renderer {
+
+    /**
+     * Creates a filter which renders the page written to it and writes the result to out, as
+     * {@link #render(DriverRequest, String, Writer)} would do with the whole page.
+     * <p>
+     * The filter may keep some text in memory until it knows how to render it. Closing the filter writes what remains
+     * and closes out.
+     * 
+     * @param originalRequest
+     *            request received by esigate.
+     * @param out
+     *            output destination.
+     * @return the filter to write the page to
+     */
+    Writer createFilter(DriverRequest originalRequest, Writer out);
+}
@@ -17,12 +17,30 @@ package org.esigate.aggregator;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.esigate.ConfigurationException;
+import org.esigate.Driver;
 import org.esigate.HttpErrorPage;
-import org.esigate.Renderer;
+import org.esigate.ConditionalRenderer;
+import org.esigate.http.IncomingRequest;
+import org.esigate.http.RequestDeadline;
 import org.esigate.impl.DriverRequest;
 import org.esigate.parser.Parser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Parses a page to find tags to be replaced by contents from other providers.
@@ -42,17 +60,51 @@ import org.esigate.parser.Parser;
  * <li>&lt;!--$beginparam$name$--&gt;</li>
  * </ul>
  * 
+ * When an executor is provided, all the pages included by a page are retrieved in parallel before the page is
+ * rendered, so that the page only waits for the slowest of them.
+ * 
  * @author Stanislav Bernatskyi
  * @author Francois-Xavier Bonnet
  */
-public class AggregateRenderer implements Renderer, Appendable {
+public class AggregateRenderer implements ConditionalRenderer, Appendable {
+    private static final Logger LOG = LoggerFactory.getLogger(AggregateRenderer.class);
     /** Generic pattern for all the tags we want to look for. */
     private static final Pattern PATTERN = Pattern.compile("<!--\\$[^>]*\\$-->");
 
     private final Parser parser = new Parser(PATTERN, IncludeBlockElement.TYPE, IncludeTemplateElement.TYPE,
             PutElement.TYPE);
+    private final Executor executor;
+    private final int pageTimeout;
     private Writer out;
 
+    /**
+     * Creates a renderer which retrieves the included pages one at a time, while the page is parsed.
+     */
+    public AggregateRenderer() {
+        this(null, 0);
+    }
+
+    /**
+     * @param executor
+     *            the executor used to retrieve the included pages in parallel, or null to retrieve them one at a
+     *            time
+     * @param pageTimeout
+     *            the maximum time to wait for the included pages in milliseconds, or 0 to wait until they are all
+     *            retrieved
+     */
+    public AggregateRenderer(Executor executor, int pageTimeout) {
+        this.executor = executor;
+        this.pageTimeout = pageTimeout;
+    }
+
+    /**
+     * @return a renderer for the pages included by the current page, using the same executor
+     */
+    AggregateRenderer newIncludeRenderer() {
+        // The deadline of the page is already set on the request
+        return new AggregateRenderer(executor, 0);
+    }
+
     /** {@inheritDoc} */
     @Override
     public void render(DriverRequest httpRequest, String content, Writer out) throws IOException, HttpErrorPage {
@@ -60,10 +112,78 @@ public class AggregateRenderer implements Renderer, Appendable {
         if (content == null) {
             return;
         }
+        if (pageTimeout > 0) {
+            RequestDeadline.setDeadline(httpRequest.getOriginalRequest(), System.currentTimeMillis() + pageTimeout);
+        }
+        if (executor != null) {
+            prefetch(httpRequest.getOriginalRequest(), content);
+        }
         parser.setHttpRequest(httpRequest);
         parser.parse(content, this);
     }
 
+    /**
+     * Retrieves in parallel all the pages included by a page, and waits for them until the deadline of the request.
+     * <p>
+     * Errors are ignored here: a page which could not be retrieved is retrieved again when its directive is rendered,
+     * and the error is reported then.
+     */
+    private void prefetch(final IncomingRequest incomingRequest, String content) throws IOException {
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        Set<String> pages = new HashSet<String>();
+        Matcher matcher = PATTERN.matcher(content);
+        while (matcher.find()) {
+            String tag = matcher.group();
+            if (!IncludeBlockElement.TYPE.isStartTag(tag) && !IncludeTemplateElement.TYPE.isStartTag(tag)) {
+                continue;
+            }
+            ElementAttributes attributes;
+            try {
+                attributes = ElementAttributesFactory.createElementAttributes(tag);
+            } catch (ConfigurationException e) {
+                // Reported when the directive is rendered
+                continue;
+            }
+            final Driver driver = attributes.getDriver();
+            final String page = attributes.getPage();
+            if (pages.add(driver.getConfiguration().getInstanceName() + ' ' + page)) {
+                FutureTask<Void> task = new FutureTask<Void>(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException, HttpErrorPage {
+                        driver.prefetch(page, incomingRequest);
+                        return null;
+                    }
+                });
+                executor.execute(task);
+                futures.add(task);
+            }
+        }
+        long deadline = RequestDeadline.getDeadline(incomingRequest);
+        for (Future<Void> future : futures) {
+            try {
+                if (deadline == 0) {
+                    future.get();
+                } else {
+                    future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                }
+            } catch (TimeoutException e) {
+                LOG.debug("Page timeout reached while retrieving the included pages");
+                future.cancel(true);
+            } catch (ExecutionException e) {
+                LOG.debug("Error while retrieving an included page: {}", e.getCause().getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while retrieving the included pages", e);
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String[] getMarkers() {
+        return new String[] {"<!--$"};
+    }
+
     @Override
     public Appendable append(CharSequence csq) throws IOException {
         out.append(csq);
@@ -65,7 +65,7 @@ class IncludeBlockElement implements Element {
         String name = tagAttributes.getName();
 
         CloseableHttpResponse response = driver.render(page, ctx.getHttpRequest().getOriginalRequest(),
-                new BlockRenderer(name, page), new AggregateRenderer());
+                new BlockRenderer(name, page), ctx.findAncestor(AggregateRenderer.class).newIncludeRenderer());
         new Adapter(ctx.getCurrent()).append(HttpResponseUtils.toString(response));
     }
 
@@ -53,6 +53,7 @@ class IncludeTemplateElement implements Element {
     private String name;
     private final Map<String, String> params = new HashMap<String, String>();
     private Appendable out;
+    private AggregateRenderer aggregateRenderer;
 
     @Override
     public boolean onError(Exception e, ParserContext ctx) {
@@ -62,6 +63,7 @@ class IncludeTemplateElement implements Element {
     @Override
     public void onTagStart(String tag, ParserContext ctx) {
         this.out = new Adapter(ctx.getCurrent());
+        this.aggregateRenderer = ctx.findAncestor(AggregateRenderer.class);
 
         ElementAttributes tagAttributes = ElementAttributesFactory.createElementAttributes(tag);
         this.driver = tagAttributes.getDriver();
@@ -73,7 +75,7 @@ class IncludeTemplateElement implements Element {
     @Override
     public void onTagEnd(String tag, ParserContext ctx) throws IOException, HttpErrorPage {
         CloseableHttpResponse response = driver.render(page, ctx.getHttpRequest().getOriginalRequest(),
-                new TemplateRenderer(name, params, page), new AggregateRenderer());
+                new TemplateRenderer(name, params, page), aggregateRenderer.newIncludeRenderer());
         out.append(HttpResponseUtils.toString(response));
     }
 
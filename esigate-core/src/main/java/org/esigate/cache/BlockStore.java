@@ -0,0 +1,262 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.esigate.cache;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Fixed size blocks of memory outside of the Java heap, either direct buffers or a memory-mapped file.
+ * <p>
+ * A record is written in a chain of blocks: the last 4 bytes of each block contain the index of the next block of the
+ * chain, or -1 for the last block. The first bytes of a record are always in its first block as long as they are
+ * shorter than {@link #getDataSize()}.
+ * <p>
+ * This class is not thread-safe.
+ */
+final class BlockStore implements Closeable {
+    private static final int NONE = -1;
+    private static final int NEXT_SIZE = 4;
+    // Regions are smaller than 2 GB so that they can be addressed by a ByteBuffer
+    private static final long MAX_REGION_SIZE = 1L << 30;
+
+    private final int blockSize;
+    private final int blockCount;
+    private final int blocksPerRegion;
+    private final ByteBuffer[] regions;
+    private final RandomAccessFile file;
+    private final FileLock lock;
+    private final int[] freeBlocks;
+    private int freeCount;
+
+    private BlockStore(long size, int blockSize, RandomAccessFile file) throws IOException {
+        if (blockSize <= NEXT_SIZE) {
+            throw new IllegalArgumentException("Block size is too small: " + blockSize);
+        }
+        if (size / blockSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many blocks, increase the block size");
+        }
+        this.blockSize = blockSize;
+        this.blockCount = (int) (size / blockSize);
+        this.blocksPerRegion = (int) Math.min(blockCount, MAX_REGION_SIZE / blockSize);
+        this.file = file;
+        int regionCount = blocksPerRegion == 0 ? 0 : (blockCount + blocksPerRegion - 1) / blocksPerRegion;
+        this.regions = new ByteBuffer[regionCount];
+        if (file == null) {
+            lock = null;
+            for (int i = 0; i < regionCount; i++) {
+                regions[i] = ByteBuffer.allocateDirect(getRegionBlockCount(i) * blockSize);
+            }
+        } else {
+            FileChannel channel = file.getChannel();
+            try {
+                lock = channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                throw new IOException("Cache file is already in use", e);
+            }
+            if (lock == null) {
+                throw new IOException("Cache file is already in use");
+            }
+            file.setLength((long) blockCount * blockSize);
+            for (int i = 0; i < regionCount; i++) {
+                regions[i] = channel.map(FileChannel.MapMode.READ_WRITE, (long) i * blocksPerRegion * blockSize,
+                        (long) getRegionBlockCount(i) * blockSize);
+            }
+        }
+        this.freeBlocks = new int[blockCount];
+        setUsedBlocks(new BitSet());
+    }
+
+    /**
+     * Allocates the blocks in direct buffers: their content is lost when the store is closed.
+     */
+    static BlockStore allocateDirect(long size, int blockSize) throws IOException {
+        return new BlockStore(size, blockSize, null);
+    }
+
+    /**
+     * Maps the blocks to a file: their content is kept when the store is closed, and can be read again by mapping the
+     * same file.
+     */
+    static BlockStore map(File file, long size, int blockSize) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            return new BlockStore(size, blockSize, randomAccessFile);
+        } catch (IOException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+    }
+
+    private int getRegionBlockCount(int region) {
+        return Math.min(blocksPerRegion, blockCount - region * blocksPerRegion);
+    }
+
+    private ByteBuffer getRegion(int block) {
+        return regions[block / blocksPerRegion];
+    }
+
+    private int getOffset(int block) {
+        return (block % blocksPerRegion) * blockSize;
+    }
+
+    int getBlockSize() {
+        return blockSize;
+    }
+
+    int getBlockCount() {
+        return blockCount;
+    }
+
+    int getFreeBlockCount() {
+        return freeCount;
+    }
+
+    /**
+     * @return the number of bytes of a record which fit in a block
+     */
+    int getDataSize() {
+        return blockSize - NEXT_SIZE;
+    }
+
+    int getBlocksNeeded(int length) {
+        return Math.max(1, (length + getDataSize() - 1) / getDataSize());
+    }
+
+    /**
+     * Rebuilds the list of free blocks, all the other blocks being used by the records found in the store.
+     */
+    void setUsedBlocks(BitSet usedBlocks) {
+        freeCount = 0;
+        // Reverse order so that the first blocks are allocated first
+        for (int i = blockCount - 1; i >= 0; i--) {
+            if (!usedBlocks.get(i)) {
+                freeBlocks[freeCount++] = i;
+            }
+        }
+    }
+
+    /**
+     * Writes a record to free blocks, there must be enough of them.
+     *
+     * @return the first block of the record
+     */
+    int write(byte[] record) {
+        int blocksNeeded = getBlocksNeeded(record.length);
+        if (blocksNeeded > freeCount) {
+            throw new IllegalStateException("Not enough free blocks");
+        }
+        int first = freeBlocks[freeCount - 1];
+        int offset = 0;
+        for (int i = 0; i < blocksNeeded; i++) {
+            int block = freeBlocks[--freeCount];
+            int next = (i == blocksNeeded - 1) ? NONE : freeBlocks[freeCount - 1];
+            ByteBuffer region = getRegion(block);
+            int position = getOffset(block);
+            int length = Math.min(getDataSize(), record.length - offset);
+            region.position(position);
+            region.put(record, offset, length);
+            region.putInt(position + getDataSize(), next);
+            offset += length;
+        }
+        return first;
+    }
+
+    /**
+     * Reads the beginning of a record, following the chain of blocks.
+     *
+     * @return the bytes read or null if the chain is broken
+     */
+    byte[] read(int first, int length) {
+        byte[] result = new byte[length];
+        int block = first;
+        int offset = 0;
+        while (offset < length) {
+            if (block < 0 || block >= blockCount) {
+                return null;
+            }
+            ByteBuffer region = getRegion(block);
+            int position = getOffset(block);
+            int count = Math.min(getDataSize(), length - offset);
+            region.position(position);
+            region.get(result, offset, count);
+            offset += count;
+            block = region.getInt(position + getDataSize());
+        }
+        return result;
+    }
+
+    int readInt(int block, int offset) {
+        return getRegion(block).getInt(getOffset(block) + offset);
+    }
+
+    void writeInt(int block, int offset, int value) {
+        getRegion(block).putInt(getOffset(block) + offset, value);
+    }
+
+    /**
+     * Marks the blocks of a record in a BitSet.
+     *
+     * @return false if the chain is broken or if one of the blocks is already marked
+     */
+    boolean markBlocks(int first, int length, BitSet usedBlocks) {
+        int block = first;
+        for (int i = getBlocksNeeded(length); i > 0; i--) {
+            if (block < 0 || block >= blockCount || usedBlocks.get(block)) {
+                return false;
+            }
+            usedBlocks.set(block);
+            block = readInt(block, getDataSize());
+        }
+        return true;
+    }
+
+    /**
+     * Releases the blocks of a record.
+     */
+    void free(int first, int length) {
+        int block = first;
+        for (int i = getBlocksNeeded(length); i > 0; i--) {
+            freeBlocks[freeCount++] = block;
+            block = readInt(block, getDataSize());
+        }
+    }
+
+    /**
+     * Writes the blocks to the file if any and releases the lock. The buffers are dropped so that their memory can be
+     * reclaimed: the store must not be used any more.
+     */
+    @Override
+    public void close() throws IOException {
+        if (file != null) {
+            for (ByteBuffer region : regions) {
+                ((MappedByteBuffer) region).force();
+            }
+            lock.release();
+            file.close();
+        }
+        Arrays.fill(regions, null);
+    }
+
+}
@@ -58,7 +58,10 @@ public final class CacheConfigHelper {
     }
 
     public static CacheStorage createCacheStorage(Properties properties) {
-        String cacheStorageClass = Parameters.CACHE_STORAGE.getValue(properties);
+        return createCacheStorage(Parameters.CACHE_STORAGE.getValue(properties), properties);
+    }
+
+    static CacheStorage createCacheStorage(String cacheStorageClass, Properties properties) {
         Object cacheStorageObject;
         try {
             cacheStorageObject = Class.forName(cacheStorageClass).newInstance();
@@ -14,6 +14,7 @@
 
 package org.esigate.cache;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.util.Properties;
 
@@ -24,7 +25,7 @@ import org.apache.http.client.cache.HttpCacheUpdateException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public abstract class CacheStorage implements HttpCacheStorage {
+public abstract class CacheStorage implements HttpCacheStorage, Closeable {
     private static final Logger LOG = LoggerFactory.getLogger(CacheStorage.class);
 
     public abstract void init(Properties properties);
@@ -60,4 +61,13 @@ public abstract class CacheStorage implements HttpCacheStorage {
         this.impl = impl;
     }
 
+    /**
+     * Releases the resources held by the storage when the driver using it is replaced, for instance when the
+     * configuration is reloaded. Requests still running may use the storage after it is closed. The default
+     * implementation does nothing.
+     */
+    @Override
+    public void close() throws IOException {
+    }
+
 }
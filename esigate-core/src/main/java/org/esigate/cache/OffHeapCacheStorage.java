@@ -0,0 +1,110 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.esigate.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.esigate.ConfigurationException;
+import org.esigate.Parameters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache storage outside of the Java heap, see {@link OffHeapHttpCacheStorage}.
+ * <p>
+ * The entries are kept in direct buffers, or in a memory-mapped file if property offHeapCacheFile is defined. In this
+ * case the entries survive restarts. Each driver must use its own file.
+ * <p>
+ * As a file can only be mapped once, the storages configured with the same file, typically the ones of a driver and of
+ * the driver replacing it when the configuration is reloaded, share the same {@link OffHeapHttpCacheStorage}. The file
+ * is released when all of them are closed, so a new size or block size only applies once the previous driver has been
+ * closed.
+ */
+public class OffHeapCacheStorage extends CacheStorage {
+    private static final Logger LOG = LoggerFactory.getLogger(OffHeapCacheStorage.class);
+    private static final Map<File, SharedStorage> SHARED_STORAGES = new HashMap<File, SharedStorage>();
+
+    private static final class SharedStorage {
+        private final OffHeapHttpCacheStorage storage;
+        private int users = 0;
+
+        private SharedStorage(OffHeapHttpCacheStorage storage) {
+            this.storage = storage;
+        }
+    }
+
+    private OffHeapHttpCacheStorage storage;
+    private File file;
+
+    @Override
+    public void init(Properties properties) {
+        int maxEntries = Parameters.MAX_CACHE_ENTRIES.getValue(properties);
+        long size = Parameters.OFF_HEAP_CACHE_SIZE.getValue(properties);
+        int blockSize = Parameters.OFF_HEAP_CACHE_BLOCK_SIZE.getValue(properties);
+        String fileName = Parameters.OFF_HEAP_CACHE_FILE.getValue(properties);
+        try {
+            if (fileName == null) {
+                storage = new OffHeapHttpCacheStorage(maxEntries, size, blockSize);
+            } else {
+                file = new File(fileName).getCanonicalFile();
+                storage = acquire(file, maxEntries, size, blockSize);
+            }
+        } catch (IOException e) {
+            throw new ConfigurationException("Could not create off-heap cache storage", e);
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationException("Invalid off-heap cache storage configuration", e);
+        }
+        setImpl(storage);
+    }
+
+    private static OffHeapHttpCacheStorage acquire(File file, int maxEntries, long size, int blockSize)
+            throws IOException {
+        synchronized (SHARED_STORAGES) {
+            SharedStorage shared = SHARED_STORAGES.get(file);
+            if (shared == null) {
+                shared = new SharedStorage(new OffHeapHttpCacheStorage(maxEntries, file, size, blockSize));
+                SHARED_STORAGES.put(file, shared);
+            } else {
+                LOG.info("Cache file {} is already in use, sharing its storage", file);
+            }
+            shared.users++;
+            return shared.storage;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (storage == null) {
+            return;
+        }
+        if (file == null) {
+            storage.close();
+        } else {
+            synchronized (SHARED_STORAGES) {
+                SharedStorage shared = SHARED_STORAGES.get(file);
+                if (shared != null && shared.storage == storage && --shared.users == 0) {
+                    SHARED_STORAGES.remove(file);
+                    storage.close();
+                }
+            }
+        }
+        storage = null;
+    }
+
+}
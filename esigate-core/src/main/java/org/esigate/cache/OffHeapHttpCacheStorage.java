@@ -0,0 +1,406 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.esigate.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.Header;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.client.cache.HttpCacheEntry;
+import org.apache.http.client.cache.HttpCacheStorage;
+import org.apache.http.client.cache.HttpCacheUpdateCallback;
+import org.apache.http.client.cache.Resource;
+import org.apache.http.impl.client.cache.HeapResource;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicStatusLine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link HttpCacheStorage} keeping the entries outside of the Java heap so that big caches do not put pressure on the
+ * garbage collector.
+ * <p>
+ * Entries, including their body, are serialized to a {@link BlockStore}: either direct buffers or a memory-mapped file.
+ * Only a compact index (the key, the first block and the length of each entry) is kept on the heap. When there is not
+ * enough free blocks for a new entry, the least recently used entries are evicted.
+ * <p>
+ * With a memory-mapped file, the entries are found again when the file is reopened, for instance after a restart: each
+ * record starts with a header containing a checksum, so that the records which were not completely written are
+ * ignored.
+ * <p>
+ * The entries are deserialized to the heap when they are read, so that they can still be used after being evicted.
+ * <p>
+ * Once closed, the storage behaves as an empty cache which does not store anything, so that the requests still running
+ * when a driver is replaced do not fail.
+ */
+public class OffHeapHttpCacheStorage implements HttpCacheStorage, Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(OffHeapHttpCacheStorage.class);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int MAGIC = 0xE51CAC4E;
+    // magic, sequence, payload length and checksum
+    private static final int HEADER_SIZE = 4 + 8 + 4 + 4;
+
+    private final BlockStore store;
+    private final int maxEntries;
+    private final LinkedHashMap<String, Slot> index = new LinkedHashMap<String, Slot>(16, 0.75f, true);
+    private long sequence = 0;
+    private boolean closed = false;
+
+    /**
+     * The position of an entry in the store.
+     */
+    private static final class Slot {
+        private final int firstBlock;
+        private final int length;
+        private final long sequence;
+
+        private Slot(int firstBlock, int length, long sequence) {
+            this.firstBlock = firstBlock;
+            this.length = length;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * Creates a storage in direct buffers.
+     *
+     * @param maxEntries
+     *            the maximum number of entries
+     * @param size
+     *            the maximum memory used by the entries, in bytes
+     * @param blockSize
+     *            the size of the blocks the memory is divided into
+     * @throws IOException
+     */
+    public OffHeapHttpCacheStorage(int maxEntries, long size, int blockSize) throws IOException {
+        this(maxEntries, BlockStore.allocateDirect(size, blockSize));
+    }
+
+    /**
+     * Creates a storage in a memory-mapped file, reading the entries already in the file.
+     *
+     * @param maxEntries
+     *            the maximum number of entries
+     * @param file
+     *            the file, which must not be used by any other storage
+     * @param size
+     *            the size of the file, in bytes
+     * @param blockSize
+     *            the size of the blocks the file is divided into, which must not change between restarts
+     * @throws IOException
+     */
+    public OffHeapHttpCacheStorage(int maxEntries, File file, long size, int blockSize) throws IOException {
+        this(maxEntries, BlockStore.map(file, size, blockSize));
+        recover();
+    }
+
+    private OffHeapHttpCacheStorage(int maxEntries, BlockStore store) {
+        if (store.getDataSize() < HEADER_SIZE) {
+            throw new IllegalArgumentException("Block size is too small");
+        }
+        this.maxEntries = maxEntries;
+        this.store = store;
+    }
+
+    @Override
+    public void putEntry(String key, HttpCacheEntry entry) throws IOException {
+        byte[] record = serialize(key, entry);
+        synchronized (this) {
+            if (!closed) {
+                put(key, record);
+            }
+        }
+    }
+
+    @Override
+    public HttpCacheEntry getEntry(String key) throws IOException {
+        byte[] record;
+        synchronized (this) {
+            Slot slot = index.get(key);
+            if (slot == null || closed) {
+                return null;
+            }
+            record = store.read(slot.firstBlock, slot.length);
+        }
+        return deserialize(key, record);
+    }
+
+    @Override
+    public synchronized void removeEntry(String key) {
+        Slot slot = index.remove(key);
+        if (slot != null && !closed) {
+            free(slot);
+        }
+    }
+
+    @Override
+    public synchronized void updateEntry(String key, HttpCacheUpdateCallback callback) throws IOException {
+        if (closed) {
+            return;
+        }
+        Slot slot = index.get(key);
+        HttpCacheEntry existing = null;
+        if (slot != null) {
+            existing = deserialize(key, store.read(slot.firstBlock, slot.length));
+        }
+        HttpCacheEntry updated = callback.update(existing);
+        put(key, serialize(key, updated));
+    }
+
+    private void put(String key, byte[] record) {
+        Slot previous = index.remove(key);
+        if (previous != null) {
+            free(previous);
+        }
+        int blocksNeeded = store.getBlocksNeeded(record.length);
+        if (blocksNeeded > store.getBlockCount()) {
+            LOG.debug("Entry {} is bigger than the cache, not stored", key);
+            return;
+        }
+        // Evict the least recently used entries
+        Iterator<Slot> iterator = index.values().iterator();
+        while ((store.getFreeBlockCount() < blocksNeeded || index.size() >= maxEntries) && iterator.hasNext()) {
+            Slot eldest = iterator.next();
+            iterator.remove();
+            free(eldest);
+        }
+        long recordSequence = ++sequence;
+        ByteBuffer.wrap(record).putLong(4, recordSequence);
+        int firstBlock = store.write(record);
+        index.put(key, new Slot(firstBlock, record.length, recordSequence));
+    }
+
+    private void free(Slot slot) {
+        // So that the record is not found again when the file is reopened
+        store.writeInt(slot.firstBlock, 0, 0);
+        store.free(slot.firstBlock, slot.length);
+    }
+
+    /**
+     * Rebuilds the index from the records found in the store.
+     */
+    private synchronized void recover() throws IOException {
+        BitSet usedBlocks = new BitSet(store.getBlockCount());
+        Map<String, Slot> recovered = new HashMap<String, Slot>();
+        long maxLength = (long) store.getBlockCount() * store.getDataSize();
+        for (int block = 0; block < store.getBlockCount(); block++) {
+            if (usedBlocks.get(block) || store.readInt(block, 0) != MAGIC) {
+                continue;
+            }
+            ByteBuffer header = ByteBuffer.wrap(store.read(block, HEADER_SIZE));
+            long recordSequence = header.getLong(4);
+            int payloadLength = header.getInt(12);
+            if (payloadLength < 0 || HEADER_SIZE + (long) payloadLength > maxLength) {
+                continue;
+            }
+            int length = HEADER_SIZE + payloadLength;
+            BitSet chain = new BitSet();
+            if (!store.markBlocks(block, length, chain) || chain.intersects(usedBlocks)) {
+                continue;
+            }
+            byte[] record = store.read(block, length);
+            if (record == null || checksum(record) != header.getInt(16)) {
+                continue;
+            }
+            String key = readKey(record);
+            Slot slot = new Slot(block, length, recordSequence);
+            Slot other = recovered.get(key);
+            if (other != null && other.sequence > recordSequence) {
+                // The previous version of an entry which was being replaced
+                continue;
+            }
+            if (other != null) {
+                clearMarks(other, usedBlocks);
+            }
+            usedBlocks.or(chain);
+            recovered.put(key, slot);
+            sequence = Math.max(sequence, recordSequence);
+        }
+        store.setUsedBlocks(usedBlocks);
+        index.putAll(recovered);
+        // Remove the headers of the records which were not recovered
+        for (int block = 0; block < store.getBlockCount(); block++) {
+            if (!usedBlocks.get(block) && store.readInt(block, 0) == MAGIC) {
+                store.writeInt(block, 0, 0);
+            }
+        }
+        // Too many entries if maxEntries was decreased
+        Iterator<Slot> iterator = index.values().iterator();
+        while (index.size() > maxEntries && iterator.hasNext()) {
+            Slot eldest = iterator.next();
+            iterator.remove();
+            free(eldest);
+        }
+        LOG.info("Recovered {} cache entries", index.size());
+    }
+
+    private void clearMarks(Slot slot, BitSet usedBlocks) {
+        BitSet chain = new BitSet();
+        store.markBlocks(slot.firstBlock, slot.length, chain);
+        usedBlocks.andNot(chain);
+    }
+
+    public synchronized int getEntryCount() {
+        return index.size();
+    }
+
+    /**
+     * @return the memory used by the entries, in bytes, including the unused part of their last block.
+     */
+    public synchronized long getSize() {
+        return (long) (store.getBlockCount() - store.getFreeBlockCount()) * store.getBlockSize();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            index.clear();
+            store.close();
+        }
+    }
+
+    private static byte[] serialize(String key, HttpCacheEntry entry) throws IOException {
+        Resource resource = entry.getResource();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_SIZE + 512
+                + (resource == null ? 0 : (int) resource.length()));
+        DataOutputStream out = new DataOutputStream(bytes);
+        // Header, the sequence and the checksum are set later
+        out.writeInt(MAGIC);
+        out.writeLong(0);
+        out.writeInt(0);
+        out.writeInt(0);
+        writeString(out, key);
+        out.writeLong(entry.getRequestDate().getTime());
+        out.writeLong(entry.getResponseDate().getTime());
+        ProtocolVersion protocolVersion = entry.getProtocolVersion();
+        writeString(out, protocolVersion.getProtocol());
+        out.writeInt(protocolVersion.getMajor());
+        out.writeInt(protocolVersion.getMinor());
+        out.writeInt(entry.getStatusCode());
+        writeString(out, entry.getReasonPhrase());
+        Header[] headers = entry.getAllHeaders();
+        out.writeInt(headers.length);
+        for (Header header : headers) {
+            writeString(out, header.getName());
+            writeString(out, header.getValue());
+        }
+        Map<String, String> variantMap = entry.getVariantMap();
+        out.writeInt(variantMap.size());
+        for (Map.Entry<String, String> variant : variantMap.entrySet()) {
+            writeString(out, variant.getKey());
+            writeString(out, variant.getValue());
+        }
+        if (resource == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt((int) resource.length());
+            InputStream body = resource.getInputStream();
+            try {
+                IOUtils.copy(body, out);
+            } finally {
+                body.close();
+            }
+        }
+        out.flush();
+        byte[] record = bytes.toByteArray();
+        ByteBuffer header = ByteBuffer.wrap(record);
+        header.putInt(12, record.length - HEADER_SIZE);
+        header.putInt(16, checksum(record));
+        return record;
+    }
+
+    private static HttpCacheEntry deserialize(String key, byte[] record) throws IOException {
+        if (record == null) {
+            throw new IOException("Corrupted cache entry: " + key);
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record, HEADER_SIZE, record.length
+                - HEADER_SIZE));
+        readString(in);
+        Date requestDate = new Date(in.readLong());
+        Date responseDate = new Date(in.readLong());
+        ProtocolVersion protocolVersion = new ProtocolVersion(readString(in), in.readInt(), in.readInt());
+        BasicStatusLine statusLine = new BasicStatusLine(protocolVersion, in.readInt(), readString(in));
+        Header[] headers = new Header[in.readInt()];
+        for (int i = 0; i < headers.length; i++) {
+            headers[i] = new BasicHeader(readString(in), readString(in));
+        }
+        int variantCount = in.readInt();
+        Map<String, String> variantMap = new HashMap<String, String>(variantCount * 2);
+        for (int i = 0; i < variantCount; i++) {
+            variantMap.put(readString(in), readString(in));
+        }
+        int bodyLength = in.readInt();
+        Resource resource = null;
+        if (bodyLength >= 0) {
+            byte[] body = new byte[bodyLength];
+            in.readFully(body);
+            resource = new HeapResource(body);
+        }
+        return new HttpCacheEntry(requestDate, responseDate, statusLine, headers, resource, variantMap);
+    }
+
+    private static String readKey(byte[] record) throws IOException {
+        return readString(new DataInputStream(new ByteArrayInputStream(record, HEADER_SIZE, record.length
+                - HEADER_SIZE)));
+    }
+
+    private static int checksum(byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(record, HEADER_SIZE, record.length - HEADER_SIZE);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Unlike {@link DataOutputStream#writeUTF(String)}, supports strings longer than 65535 bytes and null.
+     */
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = s.getBytes(UTF8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+
+}
@@ -0,0 +1,344 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.esigate.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
+import java.net.SocketTimeoutException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.Configurable;
+import org.apache.http.client.methods.HttpExecutionAware;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.impl.execchain.ClientExecChain;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.esigate.Parameters;
+import org.esigate.http.BasicCloseableHttpResponse;
+
+/**
+ * Folds concurrent identical GET requests to the backend into a single request.
+ * <p>
+ * When a request is sent to the backend while an identical one (same target, same uri, same validators) is already in
+ * progress, it waits for the first one to complete and gets a copy of its response. This avoids sending hundreds of
+ * identical requests to the backend when a popular resource is missing from the cache.
+ * <p>
+ * Only responses that could be stored in a shared cache are shared: the response must have an explicit freshness
+ * lifetime, must not be private, must not set cookies and must be small enough to be cached. If the response cannot be
+ * shared, the waiting requests are sent to the backend as usual.
+ * <p>
+ * Each waiting request keeps its own time budget: it does not wait for the first request longer than its own socket
+ * timeout (which is reduced to the time left before the deadline of the incoming request, if any). If the first request
+ * times out, possibly because its own budget was shorter, the waiting requests are sent to the backend. Other errors
+ * are reported to the waiting requests, so that a failing backend does not receive all of them at once.
+ */
+public class RequestCoalescer {
+    private final Map<String, InFlightRequest> inFlightRequests = new HashMap<String, InFlightRequest>();
+    private int maxObjectSize;
+    private final AtomicLong coalescedRequests = new AtomicLong();
+    private final AtomicLong notSharedRequests = new AtomicLong();
+
+    private static final class InFlightRequest {
+        private final HttpRequest request;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private int waiting;
+        // Copy of the response, the original one may be modified by the caller
+        private HttpResponse response;
+        private Exception exception;
+
+        private InFlightRequest(HttpRequest request) {
+            this.request = request;
+        }
+    }
+
+    /**
+     * Inititalize the instance
+     *
+     * @param properties
+     *            properties
+     */
+    public void init(Properties properties) {
+        maxObjectSize = Parameters.MAX_OBJECT_SIZE.getValue(properties);
+        if (maxObjectSize <= 0) {
+            maxObjectSize = Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * @return the number of requests that were not sent to the backend because an identical request was already in
+     *         progress
+     */
+    public long getCoalescedRequestCount() {
+        return coalescedRequests.get();
+    }
+
+    /**
+     * @return the number of requests that waited for an identical request but had to be sent to the backend anyway
+     *         because the response could not be shared or because the identical request timed out
+     */
+    public long getNotSharedRequestCount() {
+        return notSharedRequests.get();
+    }
+
+    public ClientExecChain wrapBackendHttpClient(final ClientExecChain wrapped) {
+        return new ClientExecChain() {
+
+            @Override
+            public CloseableHttpResponse execute(HttpRoute route, HttpRequestWrapper request,
+                    HttpClientContext httpClientContext, HttpExecutionAware execAware) throws IOException,
+                    HttpException {
+                if (!isCoalescable(request)) {
+                    return wrapped.execute(route, request, httpClientContext, execAware);
+                }
+                String key = getKey(route, request);
+                InFlightRequest inFlightRequest;
+                boolean leader;
+                synchronized (inFlightRequests) {
+                    inFlightRequest = inFlightRequests.get(key);
+                    leader = inFlightRequest == null;
+                    if (leader) {
+                        inFlightRequest = new InFlightRequest(request);
+                        inFlightRequests.put(key, inFlightRequest);
+                    } else {
+                        inFlightRequest.waiting++;
+                    }
+                }
+                if (leader) {
+                    return executeAndShare(key, inFlightRequest, wrapped, route, request, httpClientContext,
+                            execAware);
+                }
+                CloseableHttpResponse response = waitFor(inFlightRequest, request,
+                        getSocketTimeout(request, httpClientContext));
+                if (response == null) {
+                    notSharedRequests.incrementAndGet();
+                    return wrapped.execute(route, request, httpClientContext, execAware);
+                }
+                coalescedRequests.incrementAndGet();
+                return response;
+            }
+        };
+    }
+
+    private CloseableHttpResponse executeAndShare(String key, InFlightRequest inFlightRequest,
+            ClientExecChain wrapped, HttpRoute route, HttpRequestWrapper request, HttpClientContext httpClientContext,
+            HttpExecutionAware execAware) throws IOException, HttpException {
+        try {
+            CloseableHttpResponse response = wrapped.execute(route, request, httpClientContext, execAware);
+            int waiting;
+            synchronized (inFlightRequests) {
+                inFlightRequests.remove(key);
+                waiting = inFlightRequest.waiting;
+            }
+            if (waiting > 0 && isShareable(response)) {
+                share(inFlightRequest, response);
+            }
+            return response;
+        } catch (IOException e) {
+            inFlightRequest.exception = e;
+            throw e;
+        } catch (HttpException e) {
+            inFlightRequest.exception = e;
+            throw e;
+        } finally {
+            synchronized (inFlightRequests) {
+                if (inFlightRequests.get(key) == inFlightRequest) {
+                    inFlightRequests.remove(key);
+                }
+            }
+            inFlightRequest.done.countDown();
+        }
+    }
+
+    /**
+     * Reads the response entity, if it is not too big, in order to be able to send copies to the waiting requests.
+     */
+    private void share(InFlightRequest inFlightRequest, CloseableHttpResponse response) throws IOException {
+        BasicHttpResponse copy = new BasicHttpResponse(response.getStatusLine());
+        copy.setHeaders(response.getAllHeaders());
+        HttpEntity entity = response.getEntity();
+        if (entity != null) {
+            if (entity.getContentLength() > maxObjectSize) {
+                return;
+            }
+            InputStream inputStream = entity.getContent();
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(
+                    entity.getContentLength() < 0 ? Parameters.DEFAULT_BUFFER_SIZE : (int) entity.getContentLength());
+            byte[] chunk = new byte[Parameters.DEFAULT_BUFFER_SIZE];
+            int n;
+            while (buffer.size() <= maxObjectSize && (n = inputStream.read(chunk)) != -1) {
+                buffer.write(chunk, 0, n);
+            }
+            if (buffer.size() > maxObjectSize) {
+                // Too big to be shared, give back the content to the leader
+                InputStream replay = new SequenceInputStream(new ByteArrayInputStream(buffer.toByteArray()),
+                        inputStream);
+                response.setEntity(copyEntityProperties(entity, new InputStreamEntity(replay, -1)));
+                return;
+            }
+            inputStream.close();
+            byte[] content = buffer.toByteArray();
+            response.setEntity(copyEntityProperties(entity, new ByteArrayEntity(content)));
+            copy.setEntity(copyEntityProperties(entity, new ByteArrayEntity(content)));
+        }
+        inFlightRequest.response = copy;
+    }
+
+    /**
+     * @return the response of the identical request, or null if the request must be sent to the backend
+     */
+    private CloseableHttpResponse waitFor(InFlightRequest inFlightRequest, HttpRequest request, int timeout)
+            throws IOException, HttpException {
+        try {
+            if (timeout > 0) {
+                if (!inFlightRequest.done.await(timeout, TimeUnit.MILLISECONDS)) {
+                    throw new SocketTimeoutException("Timed out waiting for an identical request to "
+                            + request.getRequestLine());
+                }
+            } else {
+                inFlightRequest.done.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + request.getRequestLine());
+        }
+        Exception exception = inFlightRequest.exception;
+        if (exception instanceof InterruptedIOException) {
+            // Socket or connect timeout: the time budget of this request may be longer
+            return null;
+        } else if (exception instanceof IOException) {
+            throw new IOException(exception.getMessage(), exception);
+        } else if (exception instanceof HttpException) {
+            throw new HttpException(exception.getMessage(), exception);
+        }
+        HttpResponse sharedResponse = inFlightRequest.response;
+        if (sharedResponse == null || !sameVariant(sharedResponse, inFlightRequest.request, request)) {
+            return null;
+        }
+        BasicHttpResponse response = new BasicHttpResponse(sharedResponse.getStatusLine());
+        response.setHeaders(sharedResponse.getAllHeaders());
+        HttpEntity entity = sharedResponse.getEntity();
+        if (entity != null) {
+            // ByteArrayEntity is repeatable, its content can be read by several threads
+            response.setEntity(copyEntityProperties(entity, new ByteArrayEntity(EntityUtils.toByteArray(entity))));
+        }
+        return BasicCloseableHttpResponse.adapt(response);
+    }
+
+    private static int getSocketTimeout(HttpRequestWrapper request, HttpClientContext httpClientContext) {
+        RequestConfig config = null;
+        if (request.getOriginal() instanceof Configurable) {
+            config = ((Configurable) request.getOriginal()).getConfig();
+        }
+        if (config == null) {
+            config = httpClientContext.getRequestConfig();
+        }
+        return config == null ? 0 : config.getSocketTimeout();
+    }
+
+    private static AbstractHttpEntity copyEntityProperties(HttpEntity source, AbstractHttpEntity target) {
+        target.setContentType(source.getContentType());
+        target.setContentEncoding(source.getContentEncoding());
+        return target;
+    }
+
+    private static boolean isCoalescable(HttpRequest request) {
+        return "GET".equalsIgnoreCase(request.getRequestLine().getMethod())
+                && !request.containsHeader(HttpHeaders.AUTHORIZATION);
+    }
+
+    private static String getKey(HttpRoute route, HttpRequestWrapper request) {
+        StringBuilder key = new StringBuilder(Parameters.SMALL_BUFFER_SIZE);
+        key.append(route.getTargetHost().toURI()).append(' ').append(request.getRequestLine().getUri());
+        appendHeaders(key, request, HttpHeaders.IF_NONE_MATCH);
+        appendHeaders(key, request, HttpHeaders.IF_MODIFIED_SINCE);
+        return key.toString();
+    }
+
+    private static void appendHeaders(StringBuilder key, HttpRequest request, String name) {
+        for (Header header : request.getHeaders(name)) {
+            key.append('\n').append(name).append(": ").append(header.getValue());
+        }
+    }
+
+    /**
+     * A response can be shared if a shared cache would be allowed to store it.
+     */
+    private static boolean isShareable(HttpResponse response) {
+        if (response.containsHeader("Set-Cookie")) {
+            return false;
+        }
+        boolean fresh = response.containsHeader(HttpHeaders.EXPIRES);
+        for (Header header : response.getHeaders(HttpHeaders.CACHE_CONTROL)) {
+            for (HeaderElement element : header.getElements()) {
+                String name = element.getName();
+                if ("private".equalsIgnoreCase(name) || "no-store".equalsIgnoreCase(name)
+                        || "no-cache".equalsIgnoreCase(name)) {
+                    return false;
+                }
+                if ("max-age".equalsIgnoreCase(name) || "s-maxage".equalsIgnoreCase(name)) {
+                    fresh = fresh || !"0".equals(element.getValue());
+                }
+            }
+        }
+        return fresh;
+    }
+
+    /**
+     * Checks that the response would have been the same for both requests according to the Vary header.
+     */
+    private static boolean sameVariant(HttpResponse response, HttpRequest request1, HttpRequest request2) {
+        for (Header header : response.getHeaders(HttpHeaders.VARY)) {
+            for (HeaderElement element : header.getElements()) {
+                String name = element.getName();
+                if ("*".equals(name) || !headerValues(request1, name).equals(headerValues(request2, name))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static String headerValues(HttpRequest request, String name) {
+        StringBuilder result = new StringBuilder();
+        for (Header header : request.getHeaders(name)) {
+            result.append(header.getValue()).append(',');
+        }
+        return result.toString();
+    }
+
+}
@@ -0,0 +1,64 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.esigate.cache;
+
+import java.io.IOException;
+import java.util.Properties;
+
+import org.esigate.ConfigurationException;
+import org.esigate.Parameters;
+
+/**
+ * Cache storage with a small in-memory first level in front of another storage, see {@link TieredHttpCacheStorage}.
+ * <p>
+ * The second level storage is configured with property tieredCacheL2Storage, its own properties are read as usual.
+ * It is closed with this storage.
+ */
+public class TieredCacheStorage extends CacheStorage {
+    private CacheStorage l2;
+    private TieredHttpCacheStorage tieredStorage;
+
+    @Override
+    public void init(Properties properties) {
+        String l2Class = Parameters.TIERED_CACHE_L2_STORAGE.getValue(properties);
+        if (TieredCacheStorage.class.getName().equals(l2Class)) {
+            throw new ConfigurationException("The second level of the tiered cache storage cannot be tiered");
+        }
+        l2 = CacheConfigHelper.createCacheStorage(l2Class, properties);
+        tieredStorage = new TieredHttpCacheStorage(l2, Parameters.TIERED_CACHE_L1_MAX_ENTRIES.getValue(properties),
+                Parameters.TIERED_CACHE_L1_TTL.getValue(properties) * 1000L);
+        setImpl(tieredStorage);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (l2 != null) {
+            l2.close();
+        }
+    }
+
+    public long getL1HitCount() {
+        return tieredStorage.getL1HitCount();
+    }
+
+    public long getL2HitCount() {
+        return tieredStorage.getL2HitCount();
+    }
+
+    public long getMissCount() {
+        return tieredStorage.getMissCount();
+    }
+
+}
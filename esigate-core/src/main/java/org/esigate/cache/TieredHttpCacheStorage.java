@@ -0,0 +1,186 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.esigate.cache;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.client.cache.HttpCacheEntry;
+import org.apache.http.client.cache.HttpCacheStorage;
+import org.apache.http.client.cache.HttpCacheUpdateCallback;
+import org.apache.http.client.cache.HttpCacheUpdateException;
+
+/**
+ * {@link HttpCacheStorage} keeping the most recently used entries of another storage in memory.
+ * <p>
+ * The entries read from or written to the second level storage (for instance memcached) are kept in a small first
+ * level cache, so that the most used entries are not read from the network and deserialized on each request. Writes,
+ * updates and removals go to both levels.
+ * <p>
+ * The first level is not notified of the changes made to the second level by other servers sharing it: entries are
+ * kept in the first level only for a short time, after which they are read again from the second level.
+ * <p>
+ * An entry read from the second level is only copied to the first level if the entry was not written, updated or
+ * removed while it was being read, otherwise a stale value could hide the new one until it expires.
+ */
+public class TieredHttpCacheStorage implements HttpCacheStorage {
+    private static final int VERSION_STRIPES = 64;
+    private final HttpCacheStorage l2;
+    private final int l1MaxEntries;
+    private final long l1Ttl;
+    private final LinkedHashMap<String, L1Entry> l1 = new LinkedHashMap<String, L1Entry>(16, 0.75f, true);
+    // Incremented, under the lock of l1, each time a key is changed. Keys with the same stripe share a counter.
+    private final long[] versions = new long[VERSION_STRIPES];
+
+    private final AtomicLong l1Hits = new AtomicLong();
+    private final AtomicLong l2Hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private static final class L1Entry {
+        private final HttpCacheEntry entry;
+        private final long expiration;
+
+        private L1Entry(HttpCacheEntry entry, long expiration) {
+            this.entry = entry;
+            this.expiration = expiration;
+        }
+    }
+
+    /**
+     * @param l2
+     *            the second level storage
+     * @param l1MaxEntries
+     *            the maximum number of entries in the first level
+     * @param l1Ttl
+     *            how long an entry is kept in the first level, in milliseconds
+     */
+    public TieredHttpCacheStorage(HttpCacheStorage l2, int l1MaxEntries, long l1Ttl) {
+        this.l2 = l2;
+        this.l1MaxEntries = l1MaxEntries;
+        this.l1Ttl = l1Ttl;
+    }
+
+    @Override
+    public HttpCacheEntry getEntry(String key) throws IOException {
+        long version;
+        synchronized (l1) {
+            L1Entry l1Entry = l1.get(key);
+            if (l1Entry != null) {
+                if (l1Entry.expiration > System.currentTimeMillis()) {
+                    l1Hits.incrementAndGet();
+                    return l1Entry.entry;
+                }
+                l1.remove(key);
+            }
+            version = versions[stripe(key)];
+        }
+        HttpCacheEntry entry = l2.getEntry(key);
+        if (entry == null) {
+            misses.incrementAndGet();
+        } else {
+            l2Hits.incrementAndGet();
+            promote(key, entry, version);
+        }
+        return entry;
+    }
+
+    private void promote(String key, HttpCacheEntry entry, long version) {
+        synchronized (l1) {
+            if (versions[stripe(key)] == version && !l1.containsKey(key)) {
+                addL1(key, entry);
+            }
+        }
+    }
+
+    @Override
+    public void putEntry(String key, HttpCacheEntry entry) throws IOException {
+        removeL1(key);
+        l2.putEntry(key, entry);
+        putL1(key, entry);
+    }
+
+    @Override
+    public void removeEntry(String key) throws IOException {
+        removeL1(key);
+        l2.removeEntry(key);
+        // A value read before the removal must not be promoted
+        removeL1(key);
+    }
+
+    @Override
+    public void updateEntry(String key, final HttpCacheUpdateCallback callback) throws IOException,
+            HttpCacheUpdateException {
+        removeL1(key);
+        // The second level may call the callback several times if there are concurrent updates
+        final HttpCacheEntry[] updated = new HttpCacheEntry[1];
+        l2.updateEntry(key, new HttpCacheUpdateCallback() {
+            @Override
+            public HttpCacheEntry update(HttpCacheEntry existing) throws IOException {
+                updated[0] = callback.update(existing);
+                return updated[0];
+            }
+        });
+        if (updated[0] != null) {
+            putL1(key, updated[0]);
+        } else {
+            removeL1(key);
+        }
+    }
+
+    private int stripe(String key) {
+        return (key.hashCode() & Integer.MAX_VALUE) % VERSION_STRIPES;
+    }
+
+    private void putL1(String key, HttpCacheEntry entry) {
+        synchronized (l1) {
+            versions[stripe(key)]++;
+            addL1(key, entry);
+        }
+    }
+
+    private void addL1(String key, HttpCacheEntry entry) {
+        if (l1MaxEntries <= 0) {
+            return;
+        }
+        l1.put(key, new L1Entry(entry, System.currentTimeMillis() + l1Ttl));
+        Iterator<L1Entry> iterator = l1.values().iterator();
+        while (l1.size() > l1MaxEntries && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    private void removeL1(String key) {
+        synchronized (l1) {
+            versions[stripe(key)]++;
+            l1.remove(key);
+        }
+    }
+
+    public long getL1HitCount() {
+        return l1Hits.get();
+    }
+
+    public long getL2HitCount() {
+        return l2Hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+}
@@ -16,9 +16,9 @@ package org.esigate.esi;
 
 import java.io.IOException;
 
-import org.esigate.Parameters;
-import org.esigate.parser.ElementType;
 import org.esigate.parser.ParserContext;
+import org.esigate.parser.Rope;
+import org.esigate.parser.TagElementType;
 
 /**
  * Implementation of the <esi:attempt/> tag. This tag must be enclosed by a <esi:try/>
@@ -26,14 +26,14 @@ import org.esigate.parser.ParserContext;
  */
 class AttemptElement extends BaseElement {
 
-    public static final ElementType TYPE = new BaseElementType("<esi:attempt", "</esi:attempt") {
+    public static final TagElementType TYPE = new BaseElementType("<esi:attempt", "</esi:attempt") {
         @Override
         public AttemptElement newInstance() {
             return new AttemptElement();
         }
     };
 
-    private StringBuilder buf = new StringBuilder(Parameters.DEFAULT_BUFFER_SIZE);
+    private final Rope buf = new Rope();
 
     @Override
     public void characters(CharSequence csq, int start, int end) {
@@ -14,9 +14,9 @@
  */
 package org.esigate.esi;
 
-import org.esigate.parser.ElementType;
+import org.esigate.parser.TagElementType;
 
-abstract class BaseElementType implements ElementType {
+abstract class BaseElementType implements TagElementType {
     private final String startTag;
     private final String endTag;
 
@@ -35,4 +35,14 @@ abstract class BaseElementType implements ElementType {
         return tag.startsWith(endTag);
     }
 
+    @Override
+    public final String getStartTag() {
+        return startTag;
+    }
+
+    @Override
+    public final String getEndTag() {
+        return endTag;
+    }
+
 }
@@ -14,12 +14,12 @@
  */
 package org.esigate.esi;
 
-import org.esigate.parser.ElementType;
 import org.esigate.parser.ParserContext;
+import org.esigate.parser.TagElementType;
 
 class ChooseElement extends BaseElement {
 
-    public static final ElementType TYPE = new BaseElementType("<esi:choose", "</esi:choose") {
+    public static final TagElementType TYPE = new BaseElementType("<esi:choose", "</esi:choose") {
         @Override
         public ChooseElement newInstance() {
             return new ChooseElement();
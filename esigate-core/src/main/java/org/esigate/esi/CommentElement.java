@@ -14,8 +14,8 @@
  */
 package org.esigate.esi;
 
-import org.esigate.parser.ElementType;
 import org.esigate.parser.ParserContext;
+import org.esigate.parser.TagElementType;
 
 /**
  * The comment element allows developers to comment their ESI instructions, without making the comments available in the
@@ -26,7 +26,7 @@ import org.esigate.parser.ParserContext;
  * 
  */
 class CommentElement extends BaseElement {
-    public static final ElementType TYPE = new BaseElementType("<esi:comment", "</esi:comment") {
+    public static final TagElementType TYPE = new BaseElementType("<esi:comment", "</esi:comment") {
         @Override
         public CommentElement newInstance() {
             return new CommentElement();
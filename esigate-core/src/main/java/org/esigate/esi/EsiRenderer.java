@@ -17,14 +17,17 @@ package org.esigate.esi;
 import java.io.IOException;
 import java.io.Writer;
 import java.util.Map;
-import java.util.regex.Pattern;
 
 import org.apache.http.HttpStatus;
 import org.esigate.HttpErrorPage;
-import org.esigate.Parameters;
-import org.esigate.Renderer;
+import org.esigate.ConditionalRenderer;
+import org.esigate.http.IncomingRequest;
 import org.esigate.impl.DriverRequest;
-import org.esigate.parser.Parser;
+import org.esigate.parser.CompiledDocument;
+import org.esigate.parser.ContentFilter;
+import org.esigate.parser.EsiParser;
+import org.esigate.parser.FragmentIndex;
+import org.esigate.parser.Rope;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -37,20 +40,17 @@ import org.slf4j.LoggerFactory;
  * 
  * @author Francois-Xavier Bonnet
  */
-public class EsiRenderer implements Renderer, Appendable {
+public class EsiRenderer implements ConditionalRenderer, ContentFilter, Appendable {
 
     private static final Logger LOG = LoggerFactory.getLogger(EsiRenderer.class);
 
-    private static final Pattern PATTERN = Pattern
-            .compile("(<esi:\\w+((\\s+\\w+(\\s*=\\s*(?:\".*?\"|'.*?'|[^'\">\\s]+))?)+\\s*|\\s*)/?>)|(</esi:[^>]*>)");
-    private static final Pattern PATTERN_COMMENTS = Pattern.compile("(<!--esi)|(-->)");
+    // Blocks and ESI fragments of the same page are indexed separately
+    private static final String INDEX_PREFIX = "fragment:";
 
-    private final Parser parser = new Parser(PATTERN, IncludeElement.TYPE, CommentElement.TYPE, RemoveElement.TYPE,
+    private final EsiParser parser = new EsiParser(IncludeElement.TYPE, CommentElement.TYPE, RemoveElement.TYPE,
             VarsElement.TYPE, ChooseElement.TYPE, WhenElement.TYPE, OtherwiseElement.TYPE, TryElement.TYPE,
             AttemptElement.TYPE, ExceptElement.TYPE, InlineElement.TYPE, ReplaceElement.TYPE, FragmentElement.TYPE);
 
-    private final Parser parserComments = new Parser(PATTERN_COMMENTS, Comment.TYPE);
-
     private Writer out;
 
     private Map<String, CharSequence> fragmentsToReplace;
@@ -63,6 +63,12 @@ public class EsiRenderer implements Renderer, Appendable {
 
     private boolean found = false;
 
+    private TemplateCache templateCache;
+
+    private String templateKey;
+
+    private FragmentIndex index;
+
     public String getName() {
         return name;
     }
@@ -93,6 +99,32 @@ public class EsiRenderer implements Renderer, Appendable {
         write = false;
     }
 
+    /**
+     * Pages without ESI tags nor ESI comments are left unchanged, unless a fragment is extracted.
+     */
+    @Override
+    public String[] getMarkers() {
+        if (name != null || !write) {
+            return null;
+        }
+        return new String[] {"<esi:", "<!--esi"};
+    }
+
+    /**
+     * Stores the compiled page in a {@link TemplateCache} or renders the template found in the cache instead of
+     * parsing the page again.
+     * 
+     * @param templateCache
+     *            the cache
+     * @param templateKey
+     *            the key of the page in the cache, see
+     *            {@link TemplateCache#getKey(String, org.apache.http.HttpResponse)}
+     */
+    public void setTemplateCache(TemplateCache templateCache, String templateKey) {
+        this.templateCache = templateCache;
+        this.templateKey = templateKey;
+    }
+
     public Map<String, CharSequence> getFragmentsToReplace() {
         return fragmentsToReplace;
     }
@@ -111,14 +143,20 @@ public class EsiRenderer implements Renderer, Appendable {
             return;
         }
 
-        // Pass 1. Remove esi comments
-        StringBuilder contentWithoutComments = new StringBuilder(Parameters.DEFAULT_BUFFER_SIZE);
-        parserComments.setHttpRequest(originalRequest);
-        parserComments.parse(content, contentWithoutComments);
-
-        // Pass 2. Process ESI
+        // Process ESI tags and comments in a single pass
         parser.setHttpRequest(originalRequest);
-        parser.parse(contentWithoutComments, this);
+        if (page != null && name != null && (fragmentsToReplace == null || fragmentsToReplace.isEmpty())) {
+            renderFragment(originalRequest, content);
+        } else if (templateCache != null && templateKey != null && templateCache.isEnabled()) {
+            CompiledDocument template = templateCache.get(templateKey, content);
+            if (template != null) {
+                parser.parse(template, content, this);
+            } else {
+                templateCache.put(templateKey, parser.compile(content, this));
+            }
+        } else {
+            parser.parse(content, this);
+        }
 
         if (name != null && !this.found) {
             throw new HttpErrorPage(HttpStatus.SC_BAD_GATEWAY, "Fragment " + name + " not found", "Fragment " + name
@@ -126,9 +164,53 @@ public class EsiRenderer implements Renderer, Appendable {
         }
     }
 
+    /**
+     * The page is parsed once, when its first fragment is requested, and all its fragments are recorded in a
+     * {@link FragmentIndex} for the next ones. Only the fragment requested is rendered in full: the includes of the
+     * others are deferred until they are requested. An include which cannot be deferred, for instance because it is in
+     * an esi:try, is skipped and the fragments containing it are rendered alone if they are requested later.
+     */
+    private void renderFragment(DriverRequest originalRequest, String content) throws IOException, HttpErrorPage {
+        IncomingRequest request = originalRequest.getOriginalRequest();
+        FragmentIndex fragmentIndex = FragmentIndex.get(request, INDEX_PREFIX + page, content);
+        if (fragmentIndex == null) {
+            LOG.debug("Indexing fragments of page {}", page);
+            fragmentIndex = FragmentIndex.create(request, INDEX_PREFIX + page, content);
+            fragmentIndex.addWanted(name);
+            index = fragmentIndex;
+            try {
+                parser.parse(content, this);
+                fragmentIndex.setComplete();
+            } finally {
+                index = null;
+                if (!fragmentIndex.isComplete()) {
+                    // Only the fragment requested is rendered, the error is its own
+                    fragmentIndex.setFailed();
+                }
+            }
+        }
+        if (fragmentIndex.isComplete() && fragmentIndex.isRecorded(name)) {
+            found = fragmentIndex.writeFragment(name, out);
+        } else {
+            // The index failed or some includes of this fragment were skipped
+            parser.parse(content, this);
+        }
+    }
+
+    /**
+     * @return the index being built or null if a single fragment or the whole page is rendered
+     */
+    FragmentIndex getIndex() {
+        return index;
+    }
+
     @Override
     public Appendable append(CharSequence csq) throws IOException {
-        if (write) {
+        if (index != null) {
+            index.append(csq, 0, csq.length());
+        } else if (write && csq instanceof Rope) {
+            ((Rope) csq).appendTo(out);
+        } else if (write) {
             out.append(csq);
         }
         return this;
@@ -136,7 +218,9 @@ public class EsiRenderer implements Renderer, Appendable {
 
     @Override
     public Appendable append(char c) throws IOException {
-        if (write) {
+        if (index != null) {
+            index.append(String.valueOf(c), 0, 1);
+        } else if (write) {
             out.append(c);
         }
         return this;
@@ -144,16 +228,45 @@ public class EsiRenderer implements Renderer, Appendable {
 
     @Override
     public Appendable append(CharSequence csq, int start, int end) throws IOException {
-        if (write) {
+        if (index != null) {
+            index.append(csq, start, end);
+        } else if (write && csq instanceof Rope) {
+            // Written from the original sequences, without building a String first
+            ((Rope) csq).appendTo(out, start, end);
+        } else if (write) {
             out.append(csq, start, end);
         }
         return this;
     }
 
+    /**
+     * Sends the content rendered so far to the output. This is called before blocking operations like fetching an
+     * include so that, when streaming, the client receives the beginning of the page without waiting for the include.
+     * 
+     * @throws IOException
+     */
+    void flush() throws IOException {
+        if (out != null) {
+            out.flush();
+        }
+    }
+
     public boolean isWrite() {
         return this.write;
     }
 
+    /**
+     * Outside of the fragment to extract, or inside a fragment to be replaced, nothing is written. When indexing, the
+     * content outside of the requested fragments is discarded.
+     */
+    @Override
+    public boolean isDiscardingContent() {
+        if (index != null) {
+            return !index.isRecording();
+        }
+        return !write;
+    }
+
     public void setFound(boolean found) {
         this.found = found;
 
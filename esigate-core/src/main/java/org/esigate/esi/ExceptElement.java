@@ -17,12 +17,13 @@ package org.esigate.esi;
 import java.io.IOException;
 
 import org.esigate.HttpErrorPage;
-import org.esigate.parser.ElementType;
+import org.esigate.parser.ContentFilter;
 import org.esigate.parser.ParserContext;
+import org.esigate.parser.TagElementType;
 
-class ExceptElement extends BaseElement {
+class ExceptElement extends BaseElement implements ContentFilter {
 
-    public static final ElementType TYPE = new BaseElementType("<esi:except", "</esi:except") {
+    public static final TagElementType TYPE = new BaseElementType("<esi:except", "</esi:except") {
         @Override
         public ExceptElement newInstance() {
             return new ExceptElement();
@@ -59,6 +60,11 @@ class ExceptElement extends BaseElement {
         parent.setWrite(false);
     }
 
+    @Override
+    public boolean isDiscardingContent() {
+        return !processContent;
+    }
+
     @Override
     public void characters(CharSequence csq, int start, int end) throws IOException {
         if (this.processContent) {
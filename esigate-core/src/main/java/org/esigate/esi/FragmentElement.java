@@ -16,12 +16,14 @@ package org.esigate.esi;
 
 import java.io.IOException;
 
-import org.esigate.parser.ElementType;
+import org.esigate.parser.Element;
+import org.esigate.parser.FragmentIndex;
 import org.esigate.parser.ParserContext;
+import org.esigate.parser.TagElementType;
 
 class FragmentElement extends BaseElement {
 
-    public static final ElementType TYPE = new BaseElementType("<esi:fragment", "</esi:fragment") {
+    public static final TagElementType TYPE = new BaseElementType("<esi:fragment", "</esi:fragment") {
 
         @Override
         public FragmentElement newInstance() {
@@ -41,8 +43,21 @@ class FragmentElement extends BaseElement {
     FragmentElement() {
     }
 
+    private FragmentIndex index;
+
+    private String name;
+
+    /**
+     * When indexing, true if the content of this fragment goes straight to the renderer, through other fragments only.
+     */
+    private boolean direct;
+
     @Override
     public void onTagEnd(String tag, ParserContext ctx) throws IOException {
+        if (index != null) {
+            index.endFragment(name);
+            return;
+        }
         if (replacement != null) {
             esiRenderer.setWrite(true);
             characters(replacement, 0, replacement.length());
@@ -50,10 +65,30 @@ class FragmentElement extends BaseElement {
         esiRenderer.setWrite(initialStateWrite);
     }
 
+    /**
+     * @return true if the content written in this fragment ends up as is in the index, so that an include it contains
+     *         can be rendered later, only if the fragment is written
+     */
+    boolean isDirect() {
+        return direct;
+    }
+
     @Override
     protected void parseTag(Tag tag, ParserContext ctx) {
-        String name = tag.getAttribute("name");
+        name = tag.getAttribute("name");
         esiRenderer = ctx.findAncestor(EsiRenderer.class);
+        index = esiRenderer.getIndex();
+        if (index != null) {
+            Element parent = ctx.getCurrent();
+            if (parent instanceof FragmentElement) {
+                direct = ((FragmentElement) parent).direct;
+            } else {
+                // The root of the document
+                direct = !(parent instanceof BaseElement);
+            }
+            index.startFragment(name);
+            return;
+        }
         initialStateWrite = esiRenderer.isWrite();
         // If name matches, start writing
         if (esiRenderer != null) {
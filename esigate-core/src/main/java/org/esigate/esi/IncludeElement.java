@@ -27,24 +27,28 @@ import org.apache.http.client.methods.CloseableHttpResponse;
 import org.esigate.Driver;
 import org.esigate.DriverFactory;
 import org.esigate.HttpErrorPage;
-import org.esigate.Parameters;
 import org.esigate.Renderer;
+import org.esigate.events.EventManager;
+import org.esigate.events.impl.IncludeSkippedEvent;
 import org.esigate.http.HttpResponseUtils;
 import org.esigate.impl.DriverRequest;
+import org.esigate.parser.ContentFilter;
 import org.esigate.parser.Adapter;
-import org.esigate.parser.ElementType;
+import org.esigate.parser.FragmentIndex;
 import org.esigate.parser.ParserContext;
+import org.esigate.parser.Rope;
+import org.esigate.parser.TagElementType;
 import org.esigate.regexp.ReplaceRenderer;
 import org.esigate.util.UriUtils;
 import org.esigate.vars.VariablesResolver;
 import org.esigate.xml.XpathRenderer;
 import org.esigate.xml.XsltRenderer;
 
-class IncludeElement extends BaseElement {
+class IncludeElement extends BaseElement implements ContentFilter, FragmentIndex.Deferred {
     private static final String PROVIDER_PATTERN = "$(PROVIDER{";
     private static final String LEGACY_PROVIDER_PATTERN = "$PROVIDER({";
 
-    public static final ElementType TYPE = new BaseElementType("<esi:include", "</esi:include") {
+    public static final TagElementType TYPE = new BaseElementType("<esi:include", "</esi:include") {
         @Override
         public IncludeElement newInstance() {
             return new IncludeElement();
@@ -53,11 +57,14 @@ class IncludeElement extends BaseElement {
     };
 
     private final Appendable outAdapter = new Adapter(IncludeElement.this);
-    private StringBuilder buf;
+    private Rope buf;
     private Map<String, CharSequence> fragmentReplacements;
     private Map<String, CharSequence> regexpReplacements;
     private Tag includeTag;
     private boolean write = false;
+    private int openReplacements = 0;
+    private ParserContext deferredContext;
+    private boolean rendered = false;
 
     IncludeElement() {
     }
@@ -72,6 +79,48 @@ class IncludeElement extends BaseElement {
     @Override
     public void onTagEnd(String tag, ParserContext ctx) throws IOException, HttpErrorPage {
         write = true;
+        String src = includeTag.getAttribute("src");
+        EsiRenderer esiRenderer = ctx.findAncestor(EsiRenderer.class);
+        if (ctx.isContentDiscarded()) {
+            FragmentIndex index = esiRenderer != null ? esiRenderer.getIndex() : null;
+            if (index != null && ctx.getCurrent() instanceof FragmentElement
+                    && ((FragmentElement) ctx.getCurrent()).isDirect()) {
+                // In a fragment which is not requested yet, only fetched if the fragment is requested later
+                deferredContext = ctx;
+                index.defer(this);
+                return;
+            }
+            // Nobody will see the result, do not even fetch it
+            if (index != null) {
+                index.skipContent();
+            }
+            fireIncludeSkipped(src, ctx.getHttpRequest());
+            return;
+        }
+
+        // Send what is already rendered before waiting for the provider
+        if (esiRenderer != null) {
+            esiRenderer.flush();
+        }
+        include(ctx);
+
+        // write accumulated data into parent
+        ctx.getCurrent().characters(buf, 0, buf.length());
+    }
+
+    /**
+     * Renders an include which was deferred while the page was indexed, once the fragment containing it is requested.
+     */
+    @Override
+    public CharSequence getContent() throws IOException, HttpErrorPage {
+        if (!rendered) {
+            include(deferredContext);
+            rendered = true;
+        }
+        return buf;
+    }
+
+    private void include(ParserContext ctx) throws IOException, HttpErrorPage {
         String src = includeTag.getAttribute("src");
         String alt = includeTag.getAttribute("alt");
         boolean ignoreError = "continue".equals(includeTag.getAttribute("onerror"));
@@ -115,23 +164,28 @@ class IncludeElement extends BaseElement {
         // apply regexp replacements
         if (!regexpReplacements.isEmpty()) {
             for (Entry<String, CharSequence> entry : regexpReplacements.entrySet()) {
-                buf = new StringBuilder(Pattern.compile(entry.getKey()).matcher(buf)
-                        .replaceAll(entry.getValue().toString()));
+                String replaced = Pattern.compile(entry.getKey()).matcher(buf).replaceAll(entry.getValue().toString());
+                buf = Rope.of(replaced, 0, replaced.length());
             }
         }
-
-        // write accumulated data into parent
-        ctx.getCurrent().characters(buf, 0, buf.length());
     }
 
     @Override
     protected void parseTag(Tag tag, ParserContext ctx) {
-        buf = new StringBuilder(Parameters.DEFAULT_BUFFER_SIZE);
+        buf = new Rope();
         fragmentReplacements = new HashMap<String, CharSequence>();
         regexpReplacements = new HashMap<String, CharSequence>();
         includeTag = tag;
     }
 
+    private static void fireIncludeSkipped(String src, DriverRequest httpRequest) {
+        EventManager eventManager = httpRequest.getDriver().getEventManager();
+        if (eventManager.hasListeners(EventManager.EVENT_INCLUDE_SKIPPED)) {
+            eventManager.fire(EventManager.EVENT_INCLUDE_SKIPPED,
+                    new IncludeSkippedEvent(src, httpRequest.getOriginalRequest()));
+        }
+    }
+
     private void processPage(String src, Tag tag, ParserContext ctx) throws IOException, HttpErrorPage {
         String fragment = tag.getAttribute("fragment");
         String xpath = tag.getAttribute("xpath");
@@ -188,7 +242,7 @@ class IncludeElement extends BaseElement {
         }
 
         page = VariablesResolver.replaceAllVariables(page, httpRequest);
-        InlineCache ic = InlineCache.getFragment(src);
+        InlineCache.Entry ic = httpRequest.getDriver().getInlineCache().getFragment(src);
         if (ic != null && !ic.isExpired()) {
             String cache = ic.getFragment();
             characters(cache, 0, cache.length());
@@ -204,7 +258,7 @@ class IncludeElement extends BaseElement {
             }
             rendererList.add(esiRenderer);
             if (xpath != null) {
-                rendererList.add(new XpathRenderer(xpath));
+                rendererList.add(new XpathRenderer(xpath, driver.getXmlCache()));
             } else if (xslt != null) {
                 rendererList.add(new XsltRenderer(xslt, driver, httpRequest));
             }
@@ -214,6 +268,22 @@ class IncludeElement extends BaseElement {
         }
     }
 
+    /**
+     * The body of the tag is only used to define replacements, the content of an open &lt;esi:replace&gt; is kept.
+     */
+    @Override
+    public boolean isDiscardingContent() {
+        return !write && openReplacements == 0;
+    }
+
+    void startReplacement() {
+        openReplacements++;
+    }
+
+    void endReplacement() {
+        openReplacements--;
+    }
+
     void addFragmentReplacement(String fragment, CharSequence replacement) {
         fragmentReplacements.put(fragment, replacement);
     }
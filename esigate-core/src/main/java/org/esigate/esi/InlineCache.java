@@ -1,4 +1,4 @@
-/* 
+/*
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
  * You may obtain a copy of the License at
@@ -15,51 +15,189 @@
 package org.esigate.esi;
 
 import java.util.Date;
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
 
-final class InlineCache {
-    private static final Map<String, InlineCache> CACHE = new HashMap<String, InlineCache>();
+import org.esigate.Parameters;
 
-    private final Date outdate;
-    private final boolean fetchable;
-    private final String originalUrl;
-    private final String fragment;
+/**
+ * Storage for the fragments declared using &lt;esi:inline&gt;.
+ * <p>
+ * There is one instance per Driver. This class is thread-safe: fragments can be stored and retrieved concurrently by
+ * parallel ESI threads.
+ * <p>
+ * The cache is bounded both in number of entries and in size (an approximation of the memory used by the fragments).
+ * When one of the limits is reached, the least recently used fragments are evicted. Expired fragments are removed when
+ * they are read and by a cleanup pass which runs when the earliest known expiration date is reached.
+ */
+public final class InlineCache {
+    // Approximate memory used by an entry, in addition to the characters it contains
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private final int maxEntries;
+    private final long maxSize;
+    private long size = 0;
+    private long nextExpiration = Long.MAX_VALUE;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * A fragment stored in the cache.
+     */
+    public static final class Entry {
+        private final Date outdate;
+        private final boolean fetchable;
+        private final String originalUrl;
+        private final String fragment;
+        private final long weight;
+
+        private Entry(String uri, Date outdate, boolean fetchable, String originalUrl, String fragment) {
+            this.outdate = outdate;
+            this.fetchable = fetchable;
+            this.originalUrl = originalUrl;
+            this.fragment = fragment;
+            this.weight = ENTRY_OVERHEAD + 2L * (uri.length() + fragment.length()
+                    + (originalUrl == null ? 0 : originalUrl.length()));
+        }
+
+        public boolean isExpired() {
+            return isExpired(System.currentTimeMillis());
+        }
+
+        private boolean isExpired(long now) {
+            return (outdate != null) && (outdate.getTime() < now);
+        }
+
+        public Date getOutdate() {
+            return outdate;
+        }
+
+        public boolean isFetchable() {
+            return fetchable;
+        }
+
+        public String getOriginalUrl() {
+            return originalUrl;
+        }
+
+        public String getFragment() {
+            return fragment;
+        }
+
+    }
+
+    public InlineCache(Properties properties) {
+        this(Parameters.INLINE_CACHE_MAX_ENTRIES.getValue(properties), Parameters.INLINE_CACHE_MAX_SIZE
+                .getValue(properties));
+    }
+
+    public InlineCache(int maxEntries, long maxSize) {
+        this.maxEntries = maxEntries;
+        this.maxSize = maxSize;
+    }
+
+    public synchronized void storeFragment(String uri, Date outdate, boolean fetchable, String originalUrl,
+            String fragment) {
+        Entry entry = new Entry(uri, outdate, fetchable, originalUrl, fragment);
+        if (entry.weight > maxSize) {
+            // Would evict everything else and be evicted itself right away. Not counted as an eviction: only the
+            // previous version of the fragment, if any, is removed.
+            remove(uri);
+            return;
+        }
+        Entry previous = entries.put(uri, entry);
+        if (previous != null) {
+            size -= previous.weight;
+        }
+        size += entry.weight;
+        if (outdate != null && outdate.getTime() < nextExpiration) {
+            nextExpiration = outdate.getTime();
+        }
+        long now = System.currentTimeMillis();
+        if (now > nextExpiration) {
+            removeExpired(now);
+        }
+        evict();
+    }
+
+    /**
+     * Get a fragment from the cache.
+     *
+     * @param uri
+     *            the name of the fragment
+     * @return the fragment or null if it is not in the cache or if it is expired
+     */
+    public synchronized Entry getFragment(String uri) {
+        Entry entry = entries.get(uri);
+        if (entry != null && entry.isExpired()) {
+            remove(uri);
+            entry = null;
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return entry;
+    }
 
-    public static void storeFragment(String uri, Date outdate, boolean fetchable, String originalUrl, String fragment) {
-        InlineCache ic = new InlineCache(outdate, fetchable, originalUrl, fragment);
-        CACHE.put(uri, ic);
+    private void remove(String uri) {
+        Entry removed = entries.remove(uri);
+        if (removed != null) {
+            size -= removed.weight;
+        }
     }
 
-    public static InlineCache getFragment(String uri) {
-        return CACHE.get(uri);
+    private void removeExpired(long now) {
+        nextExpiration = Long.MAX_VALUE;
+        for (Iterator<Entry> iterator = entries.values().iterator(); iterator.hasNext();) {
+            Entry entry = iterator.next();
+            if (entry.isExpired(now)) {
+                iterator.remove();
+                size -= entry.weight;
+            } else if (entry.outdate != null && entry.outdate.getTime() < nextExpiration) {
+                nextExpiration = entry.outdate.getTime();
+            }
+        }
     }
 
-    private InlineCache(Date outdate, boolean fetchable, String originalUrl, String fragment) {
-        this.outdate = outdate;
-        this.fetchable = fetchable;
-        this.originalUrl = originalUrl;
-        this.fragment = fragment;
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || size > maxSize) && iterator.hasNext()) {
+            Entry eldest = iterator.next().getValue();
+            iterator.remove();
+            size -= eldest.weight;
+            evictions.incrementAndGet();
+        }
     }
 
-    public boolean isExpired() {
-        return (outdate != null) && (outdate.getTime() < System.currentTimeMillis());
+    public synchronized int getEntryCount() {
+        return entries.size();
     }
 
-    public Date getOutdate() {
-        return outdate;
+    /**
+     * @return the approximate memory used by the fragments in the cache, in bytes.
+     */
+    public synchronized long getSize() {
+        return size;
     }
 
-    public boolean isFetchable() {
-        return fetchable;
+    public long getHitCount() {
+        return hits.get();
     }
 
-    public String getOriginalUrl() {
-        return originalUrl;
+    public long getMissCount() {
+        return misses.get();
     }
 
-    public String getFragment() {
-        return fragment;
+    public long getEvictionCount() {
+        return evictions.get();
     }
 
 }
@@ -15,14 +15,14 @@
 
 package org.esigate.esi;
 
-import org.esigate.Parameters;
-import org.esigate.parser.ElementType;
 import org.esigate.parser.ParserContext;
+import org.esigate.parser.Rope;
+import org.esigate.parser.TagElementType;
 import org.esigate.util.UriUtils;
 
 class InlineElement extends BaseElement {
 
-    public static final ElementType TYPE = new BaseElementType("<esi:inline", "</esi:inline") {
+    public static final TagElementType TYPE = new BaseElementType("<esi:inline", "</esi:inline") {
         @Override
         public InlineElement newInstance() {
             return new InlineElement();
@@ -32,7 +32,7 @@ class InlineElement extends BaseElement {
 
     private String uri;
     private boolean fetchable;
-    private StringBuilder buf = new StringBuilder(Parameters.DEFAULT_BUFFER_SIZE);
+    private final Rope buf = new Rope();
 
     InlineElement() {
     }
@@ -51,6 +51,7 @@ class InlineElement extends BaseElement {
     @Override
     public void onTagEnd(String tag, ParserContext ctx) {
         String originalUrl = UriUtils.getPath(ctx.getHttpRequest().getRequestLine().getUri());
-        InlineCache.storeFragment(uri, null, fetchable, originalUrl, buf.toString());
+        ctx.getHttpRequest().getDriver().getInlineCache()
+                .storeFragment(uri, null, fetchable, originalUrl, buf.toString());
     }
 }
@@ -17,14 +17,15 @@ package org.esigate.esi;
 
 import java.io.IOException;
 
-import org.esigate.Parameters;
-import org.esigate.parser.ElementType;
+import org.esigate.parser.ContentFilter;
 import org.esigate.parser.ParserContext;
+import org.esigate.parser.Rope;
+import org.esigate.parser.TagElementType;
 import org.esigate.vars.VariablesResolver;
 
-class OtherwiseElement extends BaseElement {
+class OtherwiseElement extends BaseElement implements ContentFilter {
 
-    public static final ElementType TYPE = new BaseElementType("<esi:otherwise", "</esi:otherwise") {
+    public static final TagElementType TYPE = new BaseElementType("<esi:otherwise", "</esi:otherwise") {
         @Override
         public OtherwiseElement newInstance() {
             return new OtherwiseElement();
@@ -33,7 +34,7 @@ class OtherwiseElement extends BaseElement {
     };
 
     private boolean active;
-    private StringBuilder buf = new StringBuilder(Parameters.DEFAULT_BUFFER_SIZE);
+    private final Rope buf = new Rope();
 
     OtherwiseElement() {
     }
@@ -47,7 +48,7 @@ class OtherwiseElement extends BaseElement {
     @Override
     public void onTagEnd(String tag, ParserContext ctx) throws IOException {
         if (active) {
-            String result = VariablesResolver.replaceAllVariables(buf.toString(), ctx.getHttpRequest());
+            CharSequence result = VariablesResolver.replaceAllVariables(buf, ctx.getHttpRequest());
             super.characters(result, 0, result.length());
         }
     }
@@ -58,4 +59,9 @@ class OtherwiseElement extends BaseElement {
             buf.append(csq, start, end);
         }
     }
+
+    @Override
+    public boolean isDiscardingContent() {
+        return !active;
+    }
 }
@@ -14,8 +14,9 @@
  */
 package org.esigate.esi;
 
-import org.esigate.parser.ElementType;
+import org.esigate.parser.ContentFilter;
 import org.esigate.parser.ParserContext;
+import org.esigate.parser.TagElementType;
 
 /**
  * <p>
@@ -53,8 +54,8 @@ import org.esigate.parser.ParserContext;
  * @see <a href="http://www.w3.org/TR/esi-lang">ESI Language Specification 1.0</a>
  * 
  */
-class RemoveElement extends BaseElement {
-    public static final ElementType TYPE = new BaseElementType("<esi:remove", "</esi:remove") {
+class RemoveElement extends BaseElement implements ContentFilter {
+    public static final TagElementType TYPE = new BaseElementType("<esi:remove", "</esi:remove") {
         @Override
         public RemoveElement newInstance() {
             return new RemoveElement();
@@ -75,4 +76,8 @@ class RemoveElement extends BaseElement {
         // Nothing to do
     }
 
+    @Override
+    public boolean isDiscardingContent() {
+        return true;
+    }
 }
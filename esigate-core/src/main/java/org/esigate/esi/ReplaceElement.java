@@ -16,9 +16,9 @@
 package org.esigate.esi;
 
 import org.esigate.HttpErrorPage;
-import org.esigate.Parameters;
-import org.esigate.parser.ElementType;
 import org.esigate.parser.ParserContext;
+import org.esigate.parser.Rope;
+import org.esigate.parser.TagElementType;
 import org.esigate.vars.VariablesResolver;
 
 /**
@@ -28,7 +28,7 @@ import org.esigate.vars.VariablesResolver;
  */
 class ReplaceElement extends BaseElement {
 
-    public static final ElementType TYPE = new BaseElementType("<esi:replace", "</esi:replace") {
+    public static final TagElementType TYPE = new BaseElementType("<esi:replace", "</esi:replace") {
         @Override
         public ReplaceElement newInstance() {
             return new ReplaceElement();
@@ -36,9 +36,10 @@ class ReplaceElement extends BaseElement {
 
     };
 
-    private StringBuilder buf = null;
+    private Rope buf = null;
     private String fragment;
     private String regexp;
+    private IncludeElement parent;
 
     @Override
     public void characters(CharSequence csq, int start, int end) {
@@ -47,11 +48,11 @@ class ReplaceElement extends BaseElement {
 
     @Override
     public void onTagEnd(String tag, ParserContext ctx) throws HttpErrorPage {
-        IncludeElement parent = ctx.findAncestor(IncludeElement.class);
         if (parent == null) {
             throw new EsiSyntaxError("<esi:replace> tag can only be used inside an <esi:include> tag");
         }
-        String result = VariablesResolver.replaceAllVariables(buf.toString(), ctx.getHttpRequest());
+        parent.endReplacement();
+        CharSequence result = VariablesResolver.replaceAllVariables(buf, ctx.getHttpRequest());
         if (fragment != null) {
             parent.addFragmentReplacement(fragment, result);
         } else if (regexp != null) {
@@ -63,7 +64,12 @@ class ReplaceElement extends BaseElement {
 
     @Override
     protected void parseTag(Tag tag, ParserContext ctx) throws HttpErrorPage {
-        buf = new StringBuilder(Parameters.DEFAULT_BUFFER_SIZE);
+        parent = ctx.findAncestor(IncludeElement.class);
+        if (parent != null) {
+            // Includes in the replacement are rendered even though the rest of the body of the include is not
+            parent.startReplacement();
+        }
+        buf = new Rope();
         fragment = tag.getAttribute("fragment");
         regexp = tag.getAttribute("regexp");
         if (regexp == null) {
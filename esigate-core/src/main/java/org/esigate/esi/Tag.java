@@ -17,14 +17,11 @@ package org.esigate.esi;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
+/**
+ * A tag parsed character by character: this is called for every ESI tag so it does not use regular expressions.
+ */
 final class Tag {
-    private static final Pattern TAG_CLOSE_PATTERN = Pattern.compile("\\A</([\\S]*)[\\s]*>\\z");
-    private static final Pattern TAG_START_PATTERN = Pattern.compile("\\A<([\\S]*)[\\s|>]");
-    private static final Pattern ATTRIBUTE_PATTERN = Pattern.compile("([^\\s=]+)\\s*=\\s*('[^']*'|\"[^\"]*\")");
-    private static final Pattern AUTO_CLOSE_TAG = Pattern.compile("/[\\s]*>\\z");
 
     private final String name;
     private final Map<String, String> attributes;
@@ -32,33 +29,94 @@ final class Tag {
     private final boolean openClosed;
 
     public static Tag create(String tag) {
-        // check for close tag pattern firs as '/' is included into '\S' regexp in TAG_START_PATTERN
-        Matcher closeMatcher = TAG_CLOSE_PATTERN.matcher(tag);
-        if (closeMatcher.find()) {
-            String name = closeMatcher.group(1);
-            Map<String, String> attributes = Collections.emptyMap();
+        int length = tag.length();
+        if (length < 2 || tag.charAt(0) != '<') {
+            throw new IllegalArgumentException("invalid tag string: '" + tag + "'");
+        }
 
-            return new Tag(name, true, false, attributes);
+        // Closing tag: "</name>" with optional whitespaces before ">"
+        if (tag.charAt(1) == '/' && tag.charAt(length - 1) == '>') {
+            int nameEnd = length - 1;
+            while (nameEnd > 2 && isWhitespace(tag.charAt(nameEnd - 1))) {
+                nameEnd--;
+            }
+            if (indexOfWhitespace(tag, 2, nameEnd) < 0) {
+                Map<String, String> attributes = Collections.emptyMap();
+                return new Tag(tag.substring(2, nameEnd), true, false, attributes);
+            }
         }
 
-        Matcher startMatcher = TAG_START_PATTERN.matcher(tag);
-        if (startMatcher.find()) {
-            String name = startMatcher.group(1);
+        // Start tag: the name ends with a whitespace, "/" or ">"
+        int nameEnd = 1;
+        while (nameEnd < length && !isWhitespace(tag.charAt(nameEnd))
+                && !(tag.charAt(nameEnd) == '/' && nameEnd > 1) && tag.charAt(nameEnd) != '>') {
+            nameEnd++;
+        }
+        if (nameEnd == length) {
+            throw new IllegalArgumentException("invalid tag string: '" + tag + "'");
+        }
+        String name = tag.substring(1, nameEnd);
 
-            Map<String, String> attributes = new HashMap<String, String>();
-            Matcher attributesMatcher = ATTRIBUTE_PATTERN.matcher(tag);
-            while (attributesMatcher.find()) {
-                // attributesMatcher.group(2) matches to the attribute value including surrounded quotes
-                attributes.put(attributesMatcher.group(1),
-                        tag.substring(attributesMatcher.start(2) + 1, attributesMatcher.end(2) - 1));
+        Map<String, String> attributes = new HashMap<String, String>();
+        int i = nameEnd;
+        while (i < length) {
+            char c = tag.charAt(i);
+            if (isWhitespace(c) || c == '=') {
+                i++;
+                continue;
+            }
+            // Attribute name, followed by "=" and a quoted value
+            int attributeStart = i;
+            while (i < length && !isWhitespace(tag.charAt(i)) && tag.charAt(i) != '=') {
+                i++;
+            }
+            int attributeEnd = i;
+            int valueStart = skipWhitespaces(tag, i);
+            if (valueStart < length && tag.charAt(valueStart) == '=') {
+                valueStart = skipWhitespaces(tag, valueStart + 1);
+                if (valueStart < length && (tag.charAt(valueStart) == '\'' || tag.charAt(valueStart) == '"')) {
+                    int valueEnd = tag.indexOf(tag.charAt(valueStart), valueStart + 1);
+                    if (valueEnd > 0) {
+                        attributes.put(tag.substring(attributeStart, attributeEnd),
+                                tag.substring(valueStart + 1, valueEnd));
+                        i = valueEnd + 1;
+                    }
+                }
             }
-            boolean openClosed = AUTO_CLOSE_TAG.matcher(tag).find();
+        }
 
-            return new Tag(name, false, openClosed, attributes);
+        // Auto-closed tag: ends with "/>" with optional whitespaces before ">"
+        boolean openClosed = false;
+        if (tag.charAt(length - 1) == '>') {
+            int slash = length - 1;
+            while (slash > 0 && isWhitespace(tag.charAt(slash - 1))) {
+                slash--;
+            }
+            openClosed = slash > 0 && tag.charAt(slash - 1) == '/';
         }
 
-        throw new IllegalArgumentException("invalid tag string: '" + tag + "'");
-        // return null;
+        return new Tag(name, false, openClosed, attributes);
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == '\u000B';
+    }
+
+    private static int indexOfWhitespace(String s, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (isWhitespace(s.charAt(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int skipWhitespaces(String s, int start) {
+        int i = start;
+        while (i < s.length() && isWhitespace(s.charAt(i))) {
+            i++;
+        }
+        return i;
     }
 
     private Tag(String name, boolean closing, boolean openClosed, Map<String, String> attributes) {
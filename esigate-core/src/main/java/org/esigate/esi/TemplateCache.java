@@ -0,0 +1,158 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.esigate.esi;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.esigate.Parameters;
+import org.esigate.parser.CompiledDocument;
+
+/**
+ * Storage for the compiled ESI templates, so that the pages served from the http cache are not parsed again on each
+ * request.
+ * <p>
+ * There is one instance per Driver. Templates are stored by url and validator (the ETag or, when there is none, the
+ * Last-Modified header of the response): a page without validator is never stored. As a validator does not guarantee
+ * that the content is the same (weak ETags, pages varying on request headers...), a template is only used if the page
+ * has the same length and hash code as the one that was compiled.
+ * <p>
+ * The cache is bounded both in number of entries and in size (an approximation of the memory used by the templates).
+ * When one of the limits is reached, the least recently used templates are evicted. Setting the maximum number of
+ * entries to 0 disables the cache.
+ */
+public final class TemplateCache {
+    private final LinkedHashMap<String, CompiledDocument> entries = new LinkedHashMap<String, CompiledDocument>(16,
+            0.75f, true);
+    private final int maxEntries;
+    private final long maxSize;
+    private long size = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong compilations = new AtomicLong();
+
+    public TemplateCache(Properties properties) {
+        this(Parameters.TEMPLATE_CACHE_MAX_ENTRIES.getValue(properties), Parameters.TEMPLATE_CACHE_MAX_SIZE
+                .getValue(properties));
+    }
+
+    public TemplateCache(int maxEntries, long maxSize) {
+        this.maxEntries = maxEntries;
+        this.maxSize = maxSize;
+    }
+
+    public boolean isEnabled() {
+        return maxEntries > 0;
+    }
+
+    /**
+     * @param url
+     *            the url of the page
+     * @param response
+     *            the response containing the page
+     * @return the key to store the template of the page or null if the response has no validator
+     */
+    public static String getKey(String url, HttpResponse response) {
+        if (url == null || response == null) {
+            return null;
+        }
+        Header validator = response.getFirstHeader(HttpHeaders.ETAG);
+        if (validator == null) {
+            validator = response.getFirstHeader(HttpHeaders.LAST_MODIFIED);
+        }
+        if (validator == null) {
+            return null;
+        }
+        return url + ' ' + validator.getValue();
+    }
+
+    /**
+     * Get a template from the cache.
+     *
+     * @param key
+     *            the key returned by {@link #getKey(String, HttpResponse)}
+     * @param content
+     *            the page to render
+     * @return the template or null if there is no template for this key or if it was compiled from another page
+     */
+    public CompiledDocument get(String key, String content) {
+        CompiledDocument document;
+        synchronized (this) {
+            document = entries.get(key);
+        }
+        // Digest outside of the lock, pages may be big
+        if (document != null && document.matches(content)) {
+            hits.incrementAndGet();
+            return document;
+        }
+        return null;
+    }
+
+    public synchronized void put(String key, CompiledDocument document) {
+        compilations.incrementAndGet();
+        long weight = document.getWeight();
+        if (weight > maxSize || !isEnabled()) {
+            // Would evict everything else and be evicted itself right away
+            remove(key);
+            return;
+        }
+        CompiledDocument previous = entries.put(key, document);
+        if (previous != null) {
+            size -= previous.getWeight();
+        }
+        size += weight;
+        Iterator<CompiledDocument> iterator = entries.values().iterator();
+        while ((entries.size() > maxEntries || size > maxSize) && iterator.hasNext()) {
+            CompiledDocument eldest = iterator.next();
+            iterator.remove();
+            size -= eldest.getWeight();
+        }
+    }
+
+    private void remove(String key) {
+        CompiledDocument removed = entries.remove(key);
+        if (removed != null) {
+            size -= removed.getWeight();
+        }
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * @return the approximate memory used by the templates in the cache, in bytes.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of pages which were parsed and compiled because there was no template for them.
+     */
+    public long getCompilationCount() {
+        return compilations.get();
+    }
+
+}
@@ -18,12 +18,12 @@ package org.esigate.esi;
 import java.io.IOException;
 
 import org.esigate.HttpErrorPage;
-import org.esigate.parser.ElementType;
 import org.esigate.parser.ParserContext;
+import org.esigate.parser.TagElementType;
 
 class TryElement extends BaseElement {
 
-    public static final ElementType TYPE = new BaseElementType("<esi:try", "</esi:try") {
+    public static final TagElementType TYPE = new BaseElementType("<esi:try", "</esi:try") {
         @Override
         public TryElement newInstance() {
             return new TryElement();
@@ -17,13 +17,13 @@ package org.esigate.esi;
 
 import java.io.IOException;
 
-import org.esigate.Parameters;
-import org.esigate.parser.ElementType;
 import org.esigate.parser.ParserContext;
+import org.esigate.parser.Rope;
+import org.esigate.parser.TagElementType;
 import org.esigate.vars.VariablesResolver;
 
 class VarsElement extends BaseElement {
-    public static final ElementType TYPE = new BaseElementType("<esi:vars", "</esi:vars") {
+    public static final TagElementType TYPE = new BaseElementType("<esi:vars", "</esi:vars") {
         @Override
         public VarsElement newInstance() {
             return new VarsElement();
@@ -31,7 +31,7 @@ class VarsElement extends BaseElement {
 
     };
 
-    private StringBuilder buf = new StringBuilder(Parameters.DEFAULT_BUFFER_SIZE);
+    private final Rope buf = new Rope();
 
     VarsElement() {
     }
@@ -43,7 +43,7 @@ class VarsElement extends BaseElement {
 
     @Override
     public void onTagEnd(String tag, ParserContext ctx) throws IOException {
-        String result = VariablesResolver.replaceAllVariables(buf.toString(), ctx.getHttpRequest());
+        CharSequence result = VariablesResolver.replaceAllVariables(buf, ctx.getHttpRequest());
         ctx.getCurrent().characters(result, 0, result.length());
     }
 
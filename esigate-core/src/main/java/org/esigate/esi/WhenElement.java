@@ -17,15 +17,16 @@ package org.esigate.esi;
 
 import java.io.IOException;
 
-import org.esigate.Parameters;
-import org.esigate.parser.ElementType;
+import org.esigate.parser.ContentFilter;
 import org.esigate.parser.ParserContext;
+import org.esigate.parser.Rope;
+import org.esigate.parser.TagElementType;
 import org.esigate.vars.Operations;
 import org.esigate.vars.VariablesResolver;
 
-class WhenElement extends BaseElement {
+class WhenElement extends BaseElement implements ContentFilter {
 
-    public static final ElementType TYPE = new BaseElementType("<esi:when", "</esi:when") {
+    public static final TagElementType TYPE = new BaseElementType("<esi:when", "</esi:when") {
         @Override
         public WhenElement newInstance() {
             return new WhenElement();
@@ -33,7 +34,7 @@ class WhenElement extends BaseElement {
 
     };
 
-    private StringBuilder buf = new StringBuilder(Parameters.DEFAULT_BUFFER_SIZE);
+    private final Rope buf = new Rope();
     private boolean active = false;
 
     WhenElement() {
@@ -46,8 +47,7 @@ class WhenElement extends BaseElement {
         if (test != null && parent != null) {
             // no other 'when' were active before
             active = !parent.hadConditionSet();
-            parent.setCondition(Operations.processOperators(VariablesResolver.replaceAllVariables(test,
-                    ctx.getHttpRequest())));
+            parent.setCondition(Operations.evaluate(test, ctx.getHttpRequest()));
             active &= parent.isCondition();
         }
     }
@@ -55,7 +55,7 @@ class WhenElement extends BaseElement {
     @Override
     public void onTagEnd(String tag, ParserContext ctx) throws IOException {
         if (active) {
-            String result = VariablesResolver.replaceAllVariables(buf.toString(), ctx.getHttpRequest());
+            CharSequence result = VariablesResolver.replaceAllVariables(buf, ctx.getHttpRequest());
             super.characters(result, 0, result.length());
         }
     }
@@ -66,4 +66,9 @@ class WhenElement extends BaseElement {
             buf.append(csq, start, end);
         }
     }
+
+    @Override
+    public boolean isDiscardingContent() {
+        return !active;
+    }
 }
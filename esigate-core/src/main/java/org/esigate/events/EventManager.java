@@ -29,6 +29,8 @@ import org.slf4j.LoggerFactory;
  * <ul>
  * <li>{@link EventManager#EVENT_FRAGMENT_PRE} : before retrieving a fragment.</li>
  * <li>{@link EventManager#EVENT_FRAGMENT_POST} : after retrieving a fragment.</li>
+ * <li>{@link EventManager#EVENT_INCLUDE_SKIPPED} : instead of retrieving a fragment whose content would not be used.
+ * </li>
  * </ul>
  * <p>
  * Fetch events : An HTTP call is made to a remote backend.
@@ -47,6 +49,11 @@ import org.slf4j.LoggerFactory;
  * <ul>
  * <li>{@link EventManager#EVENT_READ_ENTITY} : after reading response using the default encoding</li>
  * </ul>
+ * <p>
+ * Close event : the driver is replaced by another one.
+ * <ul>
+ * <li>{@link EventManager#EVENT_CLOSE} : when the driver is closed, to release the resources of the extensions</li>
+ * </ul>
  * 
  * @author Nicolas Richeton
  */
@@ -56,6 +63,8 @@ public class EventManager {
             EventDefinition.TYPE_DEFAULT);
     public static final EventDefinition EVENT_FRAGMENT_POST = new EventDefinition("org.esigate.fragment-post",
             EventDefinition.TYPE_POST);
+    public static final EventDefinition EVENT_INCLUDE_SKIPPED = new EventDefinition("org.esigate.include-skipped",
+            EventDefinition.TYPE_DEFAULT);
 
     public static final EventDefinition EVENT_FETCH_PRE = new EventDefinition("org.esigate.fetch-pre",
             EventDefinition.TYPE_DEFAULT);
@@ -75,6 +84,9 @@ public class EventManager {
     public static final EventDefinition EVENT_READ_ENTITY = new EventDefinition("org.esigate.readEntity.",
             EventDefinition.TYPE_DEFAULT);
 
+    public static final EventDefinition EVENT_CLOSE = new EventDefinition("org.esigate.close",
+            EventDefinition.TYPE_DEFAULT);
+
     private static final Logger LOG = LoggerFactory.getLogger(EventManager.class);
 
     private String driverId = null;
@@ -166,6 +178,21 @@ public class EventManager {
 
     }
 
+    /**
+     * @param eventDefinition
+     * @return true if at least one listener is registered for this event
+     */
+    public boolean hasListeners(EventDefinition eventDefinition) {
+        Map<EventDefinition, List<IEventListener>> listenerMappings;
+        if (eventDefinition.getType() == EventDefinition.TYPE_POST) {
+            listenerMappings = listenersPost;
+        } else {
+            listenerMappings = listeners;
+        }
+        List<IEventListener> eventListeners = listenerMappings.get(eventDefinition);
+        return eventListeners != null && !eventListeners.isEmpty();
+    }
+
     /**
      * Stop listening to an event.
      * 
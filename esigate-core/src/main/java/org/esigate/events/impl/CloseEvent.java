@@ -0,0 +1,37 @@
+/* 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.esigate.events.impl;
+
+import org.esigate.Driver;
+import org.esigate.events.Event;
+
+/**
+ * Close event : a driver is closed because it is replaced, for instance when the configuration is reloaded. The
+ * extensions release the resources they hold for this driver, like thread pools.
+ * <p>
+ * Requests still running may go on using the driver after this event.
+ */
+public class CloseEvent extends Event {
+    private final Driver driver;
+
+    public CloseEvent(Driver driver) {
+        this.driver = driver;
+    }
+
+    public Driver getDriver() {
+        return driver;
+    }
+
+}
@@ -0,0 +1,51 @@
+/* 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.esigate.events.impl;
+
+import org.esigate.events.Event;
+import org.esigate.http.IncomingRequest;
+
+/**
+ * Include skipped event : an esi:include was not processed because its result would have been thrown away, for
+ * instance inside an esi:when whose condition is false or an esi:remove.
+ * <p>
+ * No request is sent to the provider, so this event is not followed by any fragment or fetch event.
+ */
+public class IncludeSkippedEvent extends Event {
+    /**
+     * The src attribute of the include, as written in the page.
+     */
+    private final String src;
+
+    /**
+     * The request which was received by ESIgate.
+     * <p>
+     * It is read only and not intended to be altered.
+     */
+    private final IncomingRequest originalRequest;
+
+    public IncludeSkippedEvent(String src, IncomingRequest originalRequest) {
+        this.src = src;
+        this.originalRequest = originalRequest;
+    }
+
+    public String getSrc() {
+        return src;
+    }
+
+    public IncomingRequest getOriginalRequest() {
+        return originalRequest;
+    }
+}
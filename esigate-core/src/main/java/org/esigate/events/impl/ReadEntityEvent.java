@@ -31,7 +31,8 @@ public class ReadEntityEvent extends Event {
      */
     private final byte[] rawEntityContent;
     /**
-     * The current, decoded entity content.
+     * The current, decoded entity content. It is only decoded with the declared charset when it is read, so that an
+     * extension which detects another charset before reading it does not decode the entity twice.
      * <p>
      * An extension can update this content if is incorrect.
      * <p>
@@ -46,6 +47,9 @@ public class ReadEntityEvent extends Event {
     }
 
     public String getEntityContent() {
+        if (entityContent == null) {
+            entityContent = new String(rawEntityContent, charset);
+        }
         return entityContent;
     }
 
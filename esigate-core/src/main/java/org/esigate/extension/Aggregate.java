@@ -12,7 +12,11 @@ import org.esigate.events.EventManager;
 import org.esigate.events.IEventListener;
 import org.esigate.events.impl.RenderEvent;
 import org.esigate.extension.surrogate.CapabilitiesEvent;
+import org.esigate.extension.parallelesi.Esi;
+import org.esigate.extension.parallelesi.IncludeExecutor;
 import org.esigate.extension.surrogate.Surrogate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * This extension processes the old esigate directives based on html comments, like :
@@ -20,11 +24,17 @@ import org.esigate.extension.surrogate.Surrogate;
  * &lt;!--$includeblock$aggregated2$block.html$myblock$-->
  * </p>
  * see : http://www.esigate.org/html-comments.html for complete syntax.
+ * <p>
+ * Like the parallel ESI extension, this extension retrieves the included pages in parallel when esi_max_threads is
+ * greater than 0, and does not wait for them after esi_page_timeout. Both extensions share the same threads.
  * 
  * @author Nicolas Richeton
  * @deprecated These directives are replaced by the ESI syntax and extension.
  */
 public class Aggregate implements Extension, IEventListener {
+    private static final Logger LOG = LoggerFactory.getLogger(Aggregate.class);
+    private IncludeExecutor executor;
+    private int pageTimeout;
 
     @Override
     public boolean event(EventDefinition id, Event event) {
@@ -44,7 +54,7 @@ public class Aggregate implements Extension, IEventListener {
         }
 
         if (doAggregate) {
-            renderEvent.getRenderers().add(new AggregateRenderer());
+            renderEvent.getRenderers().add(new AggregateRenderer(this.executor, this.pageTimeout));
         }
         // Continue processing
         return true;
@@ -62,6 +72,16 @@ public class Aggregate implements Extension, IEventListener {
                 return true;
             }
         });
+
+        // Same configuration and threads as the parallel ESI extension
+        this.pageTimeout = Esi.PAGE_TIMEOUT.getValue(properties);
+        this.executor = IncludeExecutor.getInstance(driver, properties);
+        if (this.executor == null) {
+            LOG.info("Linear aggregation enabled.");
+        } else {
+            LOG.info("Multi-threaded aggregation enabled. Thread limit: {}.",
+                    String.valueOf(Esi.THREADS.getValue(properties)));
+        }
     }
 
 }
@@ -6,6 +6,7 @@ import java.util.Properties;
 
 import org.esigate.Driver;
 import org.esigate.esi.EsiRenderer;
+import org.esigate.esi.TemplateCache;
 import org.esigate.events.Event;
 import org.esigate.events.EventDefinition;
 import org.esigate.events.EventManager;
@@ -26,6 +27,8 @@ public class Esi implements Extension, IEventListener {
     private static final String[] CAPABILITIES = new String[] {"ESI/1.0", "ESI-Inline/1.0", "X-ESI-Fragment/1.0",
             "X-ESI-Replace/1.0", "X-ESI-XSLT/1.0", "ESIGATE/4.0"};
 
+    private Driver driver;
+
     @Override
     public boolean event(EventDefinition id, Event event) {
         RenderEvent renderEvent = (RenderEvent) event;
@@ -47,7 +50,10 @@ public class Esi implements Extension, IEventListener {
         }
 
         if (doEsi) {
-            renderEvent.getRenderers().add(new EsiRenderer());
+            EsiRenderer esiRenderer = new EsiRenderer();
+            esiRenderer.setTemplateCache(driver.getTemplateCache(),
+                    TemplateCache.getKey(renderEvent.getRemoteUrl(), renderEvent.getHttpResponse()));
+            renderEvent.getRenderers().add(esiRenderer);
         }
 
         // Continue processing
@@ -55,7 +61,8 @@ public class Esi implements Extension, IEventListener {
     }
 
     @Override
-    public void init(Driver driver, Properties properties) {
+    public void init(Driver d, Properties properties) {
+        this.driver = d;
         driver.getEventManager().register(EventManager.EVENT_RENDER_PRE, this);
 
         driver.getEventManager().register(Surrogate.EVENT_SURROGATE_CAPABILITIES, new IEventListener() {
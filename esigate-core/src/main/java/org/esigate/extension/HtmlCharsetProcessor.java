@@ -2,9 +2,8 @@ package org.esigate.extension;
 
 import java.nio.charset.Charset;
 import java.util.Properties;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
+import org.apache.http.Consts;
 import org.esigate.Driver;
 import org.esigate.events.Event;
 import org.esigate.events.EventDefinition;
@@ -35,10 +34,10 @@ import org.slf4j.LoggerFactory;
 public class HtmlCharsetProcessor implements Extension, IEventListener {
     private static final Logger LOG = LoggerFactory.getLogger(DefaultCharset.class);
 
-    private static final Pattern PATTERN_META_HTML5 = Pattern.compile(
-            ".*<head>.*<meta[^>]+charset=\"([^>^\"]+)\"[^>]*/?>.*</head>.*", Pattern.CASE_INSENSITIVE);
-    private static final Pattern PATTERN_META_HTML4_XHTML = Pattern.compile(
-            ".*<head>.*<meta[^>]+charset=([^>^\"]+)\"[^>]*/?>.*</head>.*", Pattern.CASE_INSENSITIVE);
+    /**
+     * The charset must be declared at the beginning of the document, only this number of bytes is scanned.
+     */
+    private static final int SCAN_LIMIT = 4096;
 
     @Override
     public boolean event(EventDefinition id, Event event) {
@@ -53,16 +52,14 @@ public class HtmlCharsetProcessor implements Extension, IEventListener {
                 || "application/xhtml+xml".equals(readEntityEvent.getMimeType())) {
             LOG.debug("Supported MIME type, parsing content");
 
-            Matcher m = PATTERN_META_HTML5.matcher(readEntityEvent.getEntityContent());
-            if (m.matches()) {
-                LOG.debug("Found HTML5 charset");
-                charset = Charset.forName(m.group(1));
-            }
-
-            m = PATTERN_META_HTML4_XHTML.matcher(readEntityEvent.getEntityContent());
-            if (m.matches()) {
-                LOG.debug("Found HTML/XHTML charset");
-                charset = Charset.forName(m.group(1));
+            String charsetName = findCharset(readEntityEvent.getRawEntityContent());
+            if (charsetName != null) {
+                LOG.debug("Found charset {}", charsetName);
+                try {
+                    charset = Charset.forName(charsetName);
+                } catch (IllegalArgumentException e) {
+                    LOG.warn("Unsupported charset declared in document: {}", charsetName);
+                }
             }
         }
 
@@ -75,6 +72,114 @@ public class HtmlCharsetProcessor implements Extension, IEventListener {
         return true;
     }
 
+    /**
+     * Finds the charset declared in a &lt;meta&gt; tag, either as <code>&lt;meta charset="..."&gt;</code> or as
+     * <code>&lt;meta http-equiv="Content-Type" content="text/html; charset=..."&gt;</code>, in the raw bytes of the
+     * beginning of a document, before the end of the head.
+     * <p>
+     * Bytes are compared to US-ASCII characters, which works for all the charsets that can be declared this way.
+     * 
+     * @param content
+     *            the raw bytes of the document
+     * @return the name of the charset or null if none is declared
+     */
+    static String findCharset(byte[] content) {
+        int limit = Math.min(content.length, SCAN_LIMIT);
+        for (int i = 0; i < limit; i++) {
+            if (content[i] != '<') {
+                continue;
+            }
+            if (startsWith(content, i + 1, "!--")) {
+                i = indexOf(content, i + 4, "-->");
+                if (i < 0) {
+                    return null;
+                }
+            } else if (startsWith(content, i + 1, "meta") && isTagNameEnd(content, i + 5)) {
+                int end = indexOf(content, i + 5, ">");
+                if (end < 0) {
+                    end = content.length;
+                }
+                String charset = findCharsetAttribute(content, i + 5, end);
+                if (charset != null) {
+                    return charset;
+                }
+                i = end;
+            } else if (startsWith(content, i + 1, "/head") || startsWith(content, i + 1, "body")) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static String findCharsetAttribute(byte[] content, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (!startsWith(content, i, "charset")) {
+                continue;
+            }
+            int position = skipSpaces(content, i + 7, end);
+            if (position >= end || content[position] != '=') {
+                continue;
+            }
+            position = skipSpaces(content, position + 1, end);
+            if (position < end && (content[position] == '"' || content[position] == '\'')) {
+                position++;
+            }
+            int valueStart = position;
+            while (position < end && !isValueEnd(content[position])) {
+                position++;
+            }
+            if (position > valueStart) {
+                return new String(content, valueStart, position - valueStart, Consts.ASCII);
+            }
+        }
+        return null;
+    }
+
+    private static boolean isValueEnd(byte b) {
+        return b == '"' || b == '\'' || b == ';' || b == '/' || b == '>' || isSpace(b);
+    }
+
+    private static boolean isTagNameEnd(byte[] content, int position) {
+        return position < content.length && (isSpace(content[position]) || content[position] == '/');
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f';
+    }
+
+    private static int skipSpaces(byte[] content, int position, int end) {
+        int result = position;
+        while (result < end && isSpace(content[result])) {
+            result++;
+        }
+        return result;
+    }
+
+    /**
+     * @return true if the bytes at position are the US-ASCII string, ignoring case
+     */
+    private static boolean startsWith(byte[] content, int position, String string) {
+        if (position + string.length() > content.length) {
+            return false;
+        }
+        for (int i = 0; i < string.length(); i++) {
+            byte b = content[position + i];
+            if (b != string.charAt(i) && (b < 'A' || b > 'Z' || b + ('a' - 'A') != string.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] content, int position, String string) {
+        for (int i = position; i + string.length() <= content.length; i++) {
+            if (startsWith(content, i, string)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     @Override
     public void init(Driver driver, Properties properties) {
         driver.getEventManager().register(EventManager.EVENT_READ_ENTITY, this);
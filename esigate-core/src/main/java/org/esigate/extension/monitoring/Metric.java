@@ -15,13 +15,19 @@
 
 package org.esigate.extension.monitoring;
 
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
 import com.codahale.metrics.ScheduledReporter;
 import com.codahale.metrics.Slf4jReporter;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.cache.CacheResponseStatus;
 import org.apache.http.client.cache.HttpCacheContext;
 import org.esigate.Driver;
+import org.esigate.cache.CacheStorage;
+import org.esigate.cache.RequestCoalescer;
+import org.esigate.cache.TieredCacheStorage;
+import org.esigate.esi.TemplateCache;
 import org.esigate.events.Event;
 import org.esigate.events.EventDefinition;
 import org.esigate.events.EventManager;
@@ -29,8 +35,10 @@ import org.esigate.events.IEventListener;
 import org.esigate.events.impl.FetchEvent;
 import org.esigate.events.impl.ProxyEvent;
 import org.esigate.extension.Extension;
+import org.esigate.http.HttpClientRequestExecutor;
 import org.esigate.util.Parameter;
 import org.esigate.util.ParameterInteger;
+import org.esigate.xml.XmlCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -61,6 +69,11 @@ public class Metric implements Extension, IEventListener {
         LOG.debug("Initialize Metric");
         driver.getEventManager().register(EventManager.EVENT_PROXY_POST, this);
         driver.getEventManager().register(EventManager.EVENT_FETCH_POST, this);
+        driver.getEventManager().register(EventManager.EVENT_INCLUDE_SKIPPED, this);
+        registerCoalescingGauges();
+        registerTemplateCacheGauges();
+        registerXmlCacheGauges();
+        registerTieredCacheGauges();
 
         reporter = Slf4jReporter
                 .forRegistry(this.metric)
@@ -73,6 +86,175 @@ public class Metric implements Extension, IEventListener {
     }
 
 
+    /**
+     * Coalesced requests are not sent to the backend so they do not fire any fetch event: they are counted by the
+     * {@link RequestCoalescer} itself. The request executor is not created yet when extensions are initialized, so it
+     * is looked up each time the gauges are read.
+     */
+    private void registerCoalescingGauges() {
+        String prefix = MetricRegistry.name(this.getClass().getSimpleName(), driver.getConfiguration()
+                .getInstanceName(), "coalescing");
+        metric.register(MetricRegistry.name(prefix, "coalesced"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                RequestCoalescer requestCoalescer = getRequestCoalescer();
+                return requestCoalescer == null ? 0L : requestCoalescer.getCoalescedRequestCount();
+            }
+        });
+        metric.register(MetricRegistry.name(prefix, "notShared"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                RequestCoalescer requestCoalescer = getRequestCoalescer();
+                return requestCoalescer == null ? 0L : requestCoalescer.getNotSharedRequestCount();
+            }
+        });
+    }
+
+    /**
+     * The compiled ESI templates are reused without firing any event: the {@link TemplateCache} counts the hits and
+     * compilations itself.
+     */
+    private void registerTemplateCacheGauges() {
+        final TemplateCache templateCache = driver.getTemplateCache();
+        if (templateCache == null) {
+            return;
+        }
+        String prefix = MetricRegistry.name(this.getClass().getSimpleName(), driver.getConfiguration()
+                .getInstanceName(), "templateCache");
+        metric.register(MetricRegistry.name(prefix, "entries"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return templateCache.getEntryCount();
+            }
+        });
+        metric.register(MetricRegistry.name(prefix, "size"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return templateCache.getSize();
+            }
+        });
+        metric.register(MetricRegistry.name(prefix, "compilations"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return templateCache.getCompilationCount();
+            }
+        });
+        metric.register(MetricRegistry.name(prefix, "hits"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return templateCache.getHitCount();
+            }
+        });
+    }
+
+    /**
+     * Usage of the compiled XSLT stylesheets and XPath expressions. Compilation times are in milliseconds.
+     */
+    private void registerXmlCacheGauges() {
+        final XmlCache xmlCache = driver.getXmlCache();
+        if (xmlCache == null) {
+            return;
+        }
+        String prefix = MetricRegistry.name(this.getClass().getSimpleName(), driver.getConfiguration()
+                .getInstanceName(), "xmlCache");
+        metric.register(MetricRegistry.name(prefix, "stylesheets"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return xmlCache.getStylesheetCount();
+            }
+        });
+        metric.register(MetricRegistry.name(prefix, "stylesheetHits"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return xmlCache.getStylesheetHitCount();
+            }
+        });
+        metric.register(MetricRegistry.name(prefix, "stylesheetCompilations"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return xmlCache.getStylesheetCompilationCount();
+            }
+        });
+        metric.register(MetricRegistry.name(prefix, "stylesheetCompilationTime"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return TimeUnit.NANOSECONDS.toMillis(xmlCache.getStylesheetCompilationTime());
+            }
+        });
+        metric.register(MetricRegistry.name(prefix, "expressions"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return xmlCache.getExpressionCount();
+            }
+        });
+        metric.register(MetricRegistry.name(prefix, "expressionHits"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return xmlCache.getExpressionHitCount();
+            }
+        });
+        metric.register(MetricRegistry.name(prefix, "expressionCompilations"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return xmlCache.getExpressionCompilationCount();
+            }
+        });
+        metric.register(MetricRegistry.name(prefix, "expressionCompilationTime"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return TimeUnit.NANOSECONDS.toMillis(xmlCache.getExpressionCompilationTime());
+            }
+        });
+    }
+
+    /**
+     * The hit ratio of each level of the {@link TieredCacheStorage}, if it is used. Like the coalescing gauges, the
+     * storage is looked up each time the gauges are read.
+     */
+    private void registerTieredCacheGauges() {
+        String prefix = MetricRegistry.name(this.getClass().getSimpleName(), driver.getConfiguration()
+                .getInstanceName(), "tieredCache");
+        metric.register(MetricRegistry.name(prefix, "l1HitRatio"), new RatioGauge() {
+            @Override
+            protected Ratio getRatio() {
+                TieredCacheStorage storage = getTieredCacheStorage();
+                if (storage == null) {
+                    return Ratio.of(0, 0);
+                }
+                return Ratio.of(storage.getL1HitCount(),
+                        storage.getL1HitCount() + storage.getL2HitCount() + storage.getMissCount());
+            }
+        });
+        metric.register(MetricRegistry.name(prefix, "l2HitRatio"), new RatioGauge() {
+            @Override
+            protected Ratio getRatio() {
+                TieredCacheStorage storage = getTieredCacheStorage();
+                if (storage == null) {
+                    return Ratio.of(0, 0);
+                }
+                // Among the requests which were not served by the first level
+                return Ratio.of(storage.getL2HitCount(), storage.getL2HitCount() + storage.getMissCount());
+            }
+        });
+    }
+
+    private TieredCacheStorage getTieredCacheStorage() {
+        if (driver.getRequestExecutor() instanceof HttpClientRequestExecutor) {
+            CacheStorage cacheStorage = ((HttpClientRequestExecutor) driver.getRequestExecutor()).getCacheStorage();
+            if (cacheStorage instanceof TieredCacheStorage) {
+                return (TieredCacheStorage) cacheStorage;
+            }
+        }
+        return null;
+    }
+
+    private RequestCoalescer getRequestCoalescer() {
+        if (driver.getRequestExecutor() instanceof HttpClientRequestExecutor) {
+            return ((HttpClientRequestExecutor) driver.getRequestExecutor()).getRequestCoalescer();
+        }
+        return null;
+    }
+
     @Override
     public boolean event(EventDefinition id, Event event) {
 
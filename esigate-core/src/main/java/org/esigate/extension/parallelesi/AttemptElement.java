@@ -61,7 +61,7 @@ class AttemptElement extends BaseElement {
 
         @Override
         public boolean isDone() {
-            return true;
+            return this.buffer.isDone();
         }
 
         @Override
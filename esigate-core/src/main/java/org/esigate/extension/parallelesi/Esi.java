@@ -29,10 +29,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Properties;
-import java.util.concurrent.Executor;
-import java.util.concurrent.SynchronousQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 
 import static org.apache.commons.lang3.StringUtils.containsIgnoreCase;
 
@@ -47,12 +43,14 @@ import static org.apache.commons.lang3.StringUtils.containsIgnoreCase;
  */
 public class Esi implements Extension, IEventListener {
     private static final Logger LOG = LoggerFactory.getLogger(Esi.class);
+    // These parameters also apply to the Aggregate extension
     // esi_max_threads = 0 -> linear execution
-    private static final Parameter<Integer> THREADS = new ParameterInteger("esi_max_threads", 0);
-    private static final Parameter<Integer> IDLE = new ParameterInteger("esi_max_idle", 60);
-    private int maxThreads;
-    private int idle;
-    private Executor executor;
+    public static final Parameter<Integer> THREADS = new ParameterInteger("esi_max_threads", 0);
+    public static final Parameter<Integer> IDLE = new ParameterInteger("esi_max_idle", 60);
+    // esi_page_timeout = 0 -> wait for all the includes
+    public static final Parameter<Integer> PAGE_TIMEOUT = new ParameterInteger("esi_page_timeout", 0);
+    private int pageTimeout;
+    private IncludeExecutor executor;
     static final String[] CAPABILITIES = new String[] {"ESI/1.0", "ESI-Inline/1.0", "X-ESI-Fragment/1.0",
             "X-ESI-Replace/1.0", "X-ESI-XSLT/1.0", "ESIGATE/4.0"};
 
@@ -80,7 +78,9 @@ public class Esi implements Extension, IEventListener {
         }
 
         if (doEsi) {
-            renderEvent.getRenderers().add(new EsiRenderer(this.executor));
+            EsiRenderer esiRenderer = new EsiRenderer(this.executor);
+            esiRenderer.setPageTimeout(this.pageTimeout);
+            renderEvent.getRenderers().add(esiRenderer);
         }
 
         // Continue processing
@@ -103,20 +103,24 @@ public class Esi implements Extension, IEventListener {
         });
 
         // Load configuration
-        this.maxThreads = THREADS.getValue(properties);
-        this.idle = IDLE.getValue(properties);
+        this.pageTimeout = PAGE_TIMEOUT.getValue(properties);
+        this.executor = IncludeExecutor.getInstance(driver, properties);
 
-        if (this.maxThreads == 0) {
-            this.executor = null;
+        if (this.executor == null) {
             LOG.info("Linear ESI processing enabled.");
         } else {
-            this.executor = new ThreadPoolExecutor(0, this.maxThreads, this.idle, TimeUnit.SECONDS,
-                    new SynchronousQueue<Runnable>());
-
             LOG.info("Multi-threaded ESI processing enabled. Thread limit: {}, max idle {}.",
-                    String.valueOf(this.maxThreads), String.valueOf(this.idle));
+                    String.valueOf(THREADS.getValue(properties)), String.valueOf(IDLE.getValue(properties)));
         }
 
     }
 
+    /**
+     * @return the executor used to process includes, which gives access to the number of includes in progress, or
+     *         null if linear ESI processing is enabled
+     */
+    public IncludeExecutor getExecutor() {
+        return executor;
+    }
+
 }
@@ -26,8 +26,10 @@ import java.util.regex.Pattern;
 
 import org.apache.http.HttpStatus;
 import org.esigate.HttpErrorPage;
-import org.esigate.Renderer;
+import org.esigate.ConditionalRenderer;
+import org.esigate.http.RequestDeadline;
 import org.esigate.impl.DriverRequest;
+import org.esigate.parser.ContentFilter;
 import org.esigate.parser.future.FutureAppendable;
 import org.esigate.parser.future.FutureAppendableAdapter;
 import org.esigate.parser.future.FutureParser;
@@ -49,7 +51,7 @@ import org.slf4j.LoggerFactory;
  * 
  * @author Nicolas Richeton
  */
-public class EsiRenderer implements Renderer, FutureAppendable {
+public class EsiRenderer implements ConditionalRenderer, ContentFilter, FutureAppendable {
 
     private static final Logger LOG = LoggerFactory.getLogger(EsiRenderer.class);
     /**
@@ -82,6 +84,8 @@ public class EsiRenderer implements Renderer, FutureAppendable {
 
     private Executor executor;
 
+    private int pageTimeout = 0;
+
     public String getName() {
         return name;
     }
@@ -119,6 +123,29 @@ public class EsiRenderer implements Renderer, FutureAppendable {
         this.executor = executor;
     }
 
+    /**
+     * Pages without ESI tags nor ESI comments are left unchanged, unless a fragment is extracted.
+     */
+    @Override
+    public String[] getMarkers() {
+        if (name != null || !write) {
+            return null;
+        }
+        return new String[] {"<esi:", "<!--esi"};
+    }
+
+    /**
+     * Limits the time spent waiting for the includes of the page. Once it is elapsed, the includes which are not
+     * complete are replaced by their alt, by nothing if onerror="continue" is set, or handled as errors. The limit
+     * applies to the whole request: nested includes and the requests to the providers share the same deadline.
+     * 
+     * @param pageTimeout
+     *            the time limit in milliseconds, 0 for no limit
+     */
+    public void setPageTimeout(int pageTimeout) {
+        this.pageTimeout = pageTimeout;
+    }
+
     public Map<String, CharSequence> getFragmentsToReplace() {
         return fragmentsToReplace;
     }
@@ -136,6 +163,10 @@ public class EsiRenderer implements Renderer, FutureAppendable {
         if (content == null) {
             return;
         }
+        if (pageTimeout > 0) {
+            RequestDeadline.setDeadline(originalRequest.getOriginalRequest(),
+                    System.currentTimeMillis() + pageTimeout);
+        }
 
         try {
             // Pass 1. Remove esi comments
@@ -145,7 +176,8 @@ public class EsiRenderer implements Renderer, FutureAppendable {
             parserComments.parse(content, contentWithoutComments);
             CharSequence contentWithoutCommentsResult;
 
-            contentWithoutCommentsResult = contentWithoutComments.get();
+            // The parser reads every character, which is faster on a String than on the segments of a rope
+            contentWithoutCommentsResult = contentWithoutComments.get().toString();
 
             // Pass 2. Process ESI
             parser.setHttpRequest(originalRequest);
@@ -164,10 +196,15 @@ public class EsiRenderer implements Renderer, FutureAppendable {
         }
     }
 
+    /**
+     * The content which is ready is written right away, while the page is still being parsed, as long as there are no
+     * includes pending before it.
+     */
     @Override
-    public FutureAppendable enqueueAppend(Future<CharSequence> csq) {
+    public FutureAppendable enqueueAppend(Future<CharSequence> csq) throws IOException {
         if (this.write) {
             this.futureOut.enqueueAppend(csq);
+            this.futureOut.performCompletedAppends();
         }
         return this;
     }
@@ -176,6 +213,14 @@ public class EsiRenderer implements Renderer, FutureAppendable {
         return this.write;
     }
 
+    /**
+     * Outside of the fragment to extract, or inside a fragment to be replaced, nothing is written.
+     */
+    @Override
+    public boolean isDiscardingContent() {
+        return !write;
+    }
+
     public void setFound(boolean found) {
         this.found = found;
 
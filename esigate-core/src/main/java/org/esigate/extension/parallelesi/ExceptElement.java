@@ -54,7 +54,8 @@ class ExceptElement extends BaseElement {
 
         @Override
         public boolean isDone() {
-            return true;
+            // The task is queued as soon as the tag starts, before its content is parsed
+            return complete && buf.isDone();
         }
 
         @Override
@@ -81,6 +82,7 @@ class ExceptElement extends BaseElement {
     }
 
     private StringBuilderFutureAppendable buf = new StringBuilderFutureAppendable();
+    private boolean complete = false;
 
     @Override
     protected void parseTag(Tag tag, FutureParserContext ctx) throws IOException {
@@ -100,7 +102,7 @@ class ExceptElement extends BaseElement {
 
     @Override
     public void onTagEnd(String tag, FutureParserContext ctx) {
-        // Nothing to do
+        complete = true;
     }
 
 }
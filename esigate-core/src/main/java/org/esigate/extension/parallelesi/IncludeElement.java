@@ -22,21 +22,29 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
 import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.regex.Pattern;
 
-import org.apache.commons.io.output.StringBuilderWriter;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.esigate.Driver;
 import org.esigate.DriverFactory;
 import org.esigate.HttpErrorPage;
-import org.esigate.Parameters;
 import org.esigate.Renderer;
+import org.esigate.esi.InlineCache;
+import org.esigate.events.EventManager;
+import org.esigate.events.impl.IncludeSkippedEvent;
 import org.esigate.http.HttpResponseUtils;
+import org.esigate.http.RequestDeadline;
 import org.esigate.impl.DriverRequest;
+import org.esigate.parser.ContentFilter;
+import org.esigate.parser.Rope;
 import org.esigate.parser.future.CharSequenceFuture;
 import org.esigate.parser.future.FutureElement;
 import org.esigate.parser.future.FutureElementType;
@@ -50,12 +58,15 @@ import org.esigate.xml.XsltRenderer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-class IncludeElement extends BaseElement {
+class IncludeElement extends BaseElement implements ContentFilter {
     private static final String PROVIDER_PATTERN = "$(PROVIDER{";
     private static final String LEGACY_PROVIDER_PATTERN = "$PROVIDER({";
 
     private static final Logger LOG = LoggerFactory.getLogger(IncludeElement.class);
 
+    /** Time given to fetch alt when the deadline of the include is already passed, in milliseconds. */
+    private static final long ALT_GRACE_PERIOD = 1000;
+
     private static final class IncludeTask implements Callable<CharSequence> {
         private String src;
         private String alt;
@@ -66,10 +77,12 @@ class IncludeElement extends BaseElement {
         private Map<String, CharSequence> fragmentReplacements;
         private Map<String, CharSequence> regexpReplacements;
         private Executor executor;
+        private long deadline;
+        private volatile boolean abandoned = false;
 
         private IncludeTask(Tag includeTag, String src, String alt, FutureParserContext ctx, FutureElement current,
                 boolean ignoreError, Map<String, CharSequence> fragmentReplacements,
-                Map<String, CharSequence> regexpReplacements, Executor executor) {
+                Map<String, CharSequence> regexpReplacements, Executor executor, long deadline) {
             this.src = src;
             this.alt = alt;
             this.ctx = ctx;
@@ -79,33 +92,71 @@ class IncludeElement extends BaseElement {
             this.fragmentReplacements = fragmentReplacements;
             this.regexpReplacements = regexpReplacements;
             this.executor = executor;
+            this.deadline = deadline;
         }
 
         @Override
         public CharSequence call() throws IOException, HttpErrorPage {
             LOG.debug("Starting include task {}", this.src);
-            StringBuilderWriter sw = new StringBuilderWriter(Parameters.DEFAULT_BUFFER_SIZE);
+            Rope sw = new Rope();
 
-            Exception currentException = null;
-            // Handle src
+            // The requests sent for this include, and its nested includes, do not wait longer than the include
+            long previousDeadline = RequestDeadline.setThreadDeadline(deadline);
             try {
-                processPage(this.src, includeTag, this.ctx, sw);
-            } catch (IOException e) {
-                currentException = e;
-            } catch (HttpErrorPage e) {
-                currentException = e;
+                Exception currentException = null;
+                // Handle src
+                try {
+                    processPage(this.src, includeTag, this.ctx, sw);
+                } catch (IOException e) {
+                    currentException = e;
+                } catch (HttpErrorPage e) {
+                    currentException = e;
+                }
+
+                if (abandoned) {
+                    // The page went on without this include, do not report errors anymore
+                    return "";
+                }
+                return complete(sw, currentException);
+            } finally {
+                RequestDeadline.restoreThreadDeadline(previousDeadline);
             }
+        }
+
+        private boolean isLate() {
+            return deadline != 0 && deadline <= System.currentTimeMillis();
+        }
+
+        /**
+         * Called instead of waiting for {@link #call()} when the include did not complete in time: the timeout is
+         * handled like an error of the src.
+         */
+        private CharSequence timeout() throws IOException, HttpErrorPage {
+            LOG.debug("Include {} timed out", this.src);
+            abandoned = true;
+            return complete(new Rope(), new HttpErrorPage(HttpStatus.SC_GATEWAY_TIMEOUT, "Gateway Timeout",
+                    "Include " + src + " timed out"));
+        }
+
+        private CharSequence complete(Rope sw, Exception srcException) throws IOException,
+                HttpErrorPage {
+            Exception currentException = srcException;
 
             // Handle Alt
             if (currentException != null && alt != null) {
                 // Reset exception
                 currentException = null;
+                // After the deadline, alt still gets a short time instead of a request which would time out at once
+                long altDeadline = isLate() ? System.currentTimeMillis() + ALT_GRACE_PERIOD : deadline;
+                long previousDeadline = RequestDeadline.setThreadDeadline(altDeadline);
                 try {
                     processPage(alt, includeTag, ctx, sw);
                 } catch (IOException e) {
                     currentException = e;
                 } catch (HttpErrorPage e) {
                     currentException = e;
+                } finally {
+                    RequestDeadline.restoreThreadDeadline(previousDeadline);
                 }
             }
 
@@ -123,13 +174,13 @@ class IncludeElement extends BaseElement {
             }
 
             // apply regexp replacements
+            if (regexpReplacements.isEmpty()) {
+                return sw;
+            }
             String result = sw.toString();
+            for (Entry<String, CharSequence> entry : regexpReplacements.entrySet()) {
 
-            if (!regexpReplacements.isEmpty()) {
-                for (Entry<String, CharSequence> entry : regexpReplacements.entrySet()) {
-
-                    result = Pattern.compile(entry.getKey()).matcher(result).replaceAll(entry.getValue().toString());
-                }
+                result = Pattern.compile(entry.getKey()).matcher(result).replaceAll(entry.getValue().toString());
             }
 
             return result;
@@ -192,7 +243,7 @@ class IncludeElement extends BaseElement {
             }
 
             page = VariablesResolver.replaceAllVariables(page, httpRequest);
-            InlineCache ic = InlineCache.getFragment(src);
+            InlineCache.Entry ic = httpRequest.getDriver().getInlineCache().getFragment(src);
             if (ic != null && !ic.isExpired()) {
                 String cache = ic.getFragment();
                 out.append(cache);
@@ -208,7 +259,7 @@ class IncludeElement extends BaseElement {
                 }
                 rendererList.add(esiRenderer);
                 if (xpath != null) {
-                    rendererList.add(new XpathRenderer(xpath));
+                    rendererList.add(new XpathRenderer(xpath, driver.getXmlCache()));
                 } else if (xslt != null) {
                     rendererList.add(new XsltRenderer(xslt, driver, httpRequest));
                 }
@@ -220,6 +271,117 @@ class IncludeElement extends BaseElement {
 
     }
 
+    /**
+     * An include which is only processed when its result is needed: the content of an esi:except is only used if the
+     * attempt failed, which is not known yet when the include is parsed.
+     */
+    private static final class DeferredInclude implements Future<CharSequence> {
+        private final IncludeTask task;
+        private CharSequence result;
+
+        private DeferredInclude(IncludeTask task) {
+            this.task = task;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public synchronized boolean isDone() {
+            // Not started before get() is called
+            return result != null;
+        }
+
+        @Override
+        public synchronized CharSequence get() throws ExecutionException {
+            if (result == null) {
+                try {
+                    // Do not send requests after the deadline
+                    result = task.isLate() ? task.timeout() : task.call();
+                } catch (IOException e) {
+                    throw new ExecutionException(e);
+                } catch (HttpErrorPage e) {
+                    throw new ExecutionException(e);
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public CharSequence get(long timeout, TimeUnit unit) throws ExecutionException {
+            return get();
+        }
+    }
+
+    /**
+     * An include which is processed in another thread but is only waited for until a deadline: the deadline of the
+     * page or the maxwait attribute of the include.
+     */
+    private static final class TimedInclude implements Future<CharSequence> {
+        private final IncludeTask task;
+        private final Future<CharSequence> future;
+        private final long deadline;
+        private CharSequence result;
+
+        private TimedInclude(IncludeTask task, Future<CharSequence> future, long deadline) {
+            this.task = task;
+            this.future = future;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return future.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return future.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            return future.isDone();
+        }
+
+        @Override
+        public synchronized CharSequence get() throws InterruptedException, ExecutionException {
+            if (result == null) {
+                try {
+                    result = future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    future.cancel(true);
+                    try {
+                        result = task.timeout();
+                    } catch (IOException e1) {
+                        throw new ExecutionException(e1);
+                    } catch (HttpErrorPage e1) {
+                        throw new ExecutionException(e1);
+                    }
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public synchronized CharSequence get(long timeout, TimeUnit unit) throws InterruptedException,
+                ExecutionException, TimeoutException {
+            if (result == null && System.currentTimeMillis() + unit.toMillis(timeout) < deadline) {
+                // The caller gives up first, the include goes on
+                result = future.get(timeout, unit);
+                return result;
+            }
+            return get();
+        }
+    }
+
     public static final FutureElementType TYPE = new BaseElementType("<esi:include", "</esi:include") {
         @Override
         public IncludeElement newInstance() {
@@ -233,6 +395,7 @@ class IncludeElement extends BaseElement {
     private Map<String, CharSequence> regexpReplacements;
     private Tag includeTag;
     private boolean write = false;
+    private int openReplacements = 0;
 
     IncludeElement() {
     }
@@ -248,27 +411,73 @@ class IncludeElement extends BaseElement {
     public void onTagEnd(String tag, FutureParserContext ctx) throws IOException, HttpErrorPage {
         write = true;
         String src = includeTag.getAttribute("src");
+        if (ctx.isContentDiscarded()) {
+            // Nobody will see the result, do not even fetch it
+            fireIncludeSkipped(src, ctx.getHttpRequest());
+            return;
+        }
         String alt = includeTag.getAttribute("alt");
         boolean ignoreError = "continue".equals(includeTag.getAttribute("onerror"));
         FutureElement current = ctx.getCurrent();
         // write accumulated data into parent
         Executor executor = (Executor) ctx.getData(EsiRenderer.DATA_EXECUTOR);
         Future<CharSequence> result = null;
+        long deadline = getDeadline(ctx);
         IncludeTask task = new IncludeTask(includeTag, src, alt, ctx, current, ignoreError, fragmentReplacements,
-                regexpReplacements, executor);
-        if (executor == null) {
-            // No threads.
+                regexpReplacements, executor, deadline);
+        if (current instanceof ExceptElement) {
+            // Only fetched if the attempt fails
+            result = new DeferredInclude(task);
+        } else if (task.isLate()) {
+            result = new CharSequenceFuture(task.timeout());
+        } else if (executor == null) {
+            // No threads. The page deadline still applies to the requests through their socket timeout.
             CharSequence content = task.call();
             result = new CharSequenceFuture(content);
         } else {
             // Start processing in a new thread.
             RunnableFuture<CharSequence> r = new FutureTask<CharSequence>(task);
             executor.execute(r);
-            result = r;
+            if (deadline != 0) {
+                result = new TimedInclude(task, r, deadline);
+            } else {
+                result = r;
+            }
         }
         ctx.getCurrent().characters(result);
     }
 
+    /**
+     * @return the time after which the page does not wait for this include anymore, in milliseconds since the epoch,
+     *         or 0 if it waits until the include completes
+     */
+    private long getDeadline(FutureParserContext ctx) {
+        long deadline = RequestDeadline.getDeadline(ctx.getHttpRequest().getOriginalRequest());
+        String maxWait = includeTag.getAttribute("maxwait");
+        if (maxWait != null) {
+            long includeDeadline;
+            try {
+                includeDeadline = System.currentTimeMillis() + Long.parseLong(maxWait.trim());
+            } catch (NumberFormatException e) {
+                LOG.warn("Invalid maxwait attribute \"{}\" for include {}, ignored", maxWait,
+                        includeTag.getAttribute("src"));
+                return deadline;
+            }
+            if (deadline == 0 || includeDeadline < deadline) {
+                deadline = includeDeadline;
+            }
+        }
+        return deadline;
+    }
+
+    private static void fireIncludeSkipped(String src, DriverRequest httpRequest) {
+        EventManager eventManager = httpRequest.getDriver().getEventManager();
+        if (eventManager.hasListeners(EventManager.EVENT_INCLUDE_SKIPPED)) {
+            eventManager.fire(EventManager.EVENT_INCLUDE_SKIPPED,
+                    new IncludeSkippedEvent(src, httpRequest.getOriginalRequest()));
+        }
+    }
+
     @Override
     protected void parseTag(Tag tag, FutureParserContext ctx) {
         buf = new StringBuilderFutureAppendable();
@@ -277,6 +486,22 @@ class IncludeElement extends BaseElement {
         includeTag = tag;
     }
 
+    /**
+     * The body of the tag is only used to define replacements, the content of an open &lt;esi:replace&gt; is kept.
+     */
+    @Override
+    public boolean isDiscardingContent() {
+        return !write && openReplacements == 0;
+    }
+
+    void startReplacement() {
+        openReplacements++;
+    }
+
+    void endReplacement() {
+        openReplacements--;
+    }
+
     void addFragmentReplacement(String fragment, CharSequence replacement) {
         fragmentReplacements.put(fragment, replacement);
     }
@@ -0,0 +1,157 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.esigate.extension.parallelesi;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.esigate.Driver;
+import org.esigate.events.Event;
+import org.esigate.events.EventDefinition;
+import org.esigate.events.EventManager;
+import org.esigate.events.IEventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executor used to process includes in parallel.
+ * <p>
+ * When all the threads are busy, the include is processed by the thread that submitted it instead of being rejected.
+ * This slows down the parsing of the current page (back-pressure) and cannot dead-lock: nested includes never wait for
+ * a thread to become available.
+ * <p>
+ * This class also keeps track of the number of includes in progress.
+ * <p>
+ * The parallel ESI and Aggregate extensions of a driver share the same executor, see
+ * {@link #getInstance(Driver, Properties)}, so that esi_max_threads limits the number of threads of the driver.
+ */
+public class IncludeExecutor implements Executor {
+    private static final Logger LOG = LoggerFactory.getLogger(IncludeExecutor.class);
+    private static final Map<Driver, IncludeExecutor> INSTANCES = new WeakHashMap<Driver, IncludeExecutor>();
+    private final ThreadPoolExecutor threadPool;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final AtomicLong callerRuns = new AtomicLong();
+
+    public IncludeExecutor(int maxThreads, int idle) {
+        this.threadPool = new ThreadPoolExecutor(0, maxThreads, idle, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>());
+    }
+
+    /**
+     * Gets the executor of a driver, configured by esi_max_threads and esi_max_idle. It is created on the first call
+     * and shut down when the driver is closed.
+     * 
+     * @param driver
+     *            the driver
+     * @param properties
+     *            the configuration of the driver
+     * @return the executor or null if esi_max_threads is 0 (linear processing)
+     */
+    public static IncludeExecutor getInstance(Driver driver, Properties properties) {
+        int maxThreads = Esi.THREADS.getValue(properties);
+        if (maxThreads == 0) {
+            return null;
+        }
+        synchronized (INSTANCES) {
+            IncludeExecutor executor = INSTANCES.get(driver);
+            if (executor == null) {
+                final IncludeExecutor created = new IncludeExecutor(maxThreads, Esi.IDLE.getValue(properties));
+                driver.getEventManager().register(EventManager.EVENT_CLOSE, new IEventListener() {
+                    @Override
+                    public boolean event(EventDefinition id, Event event) {
+                        created.shutdown();
+                        return true;
+                    }
+                });
+                INSTANCES.put(driver, created);
+                executor = created;
+            }
+            return executor;
+        }
+    }
+
+    /**
+     * Stops the threads once the includes in progress are processed. The includes submitted afterwards, by the pages
+     * still being rendered, are processed by the caller thread.
+     */
+    public void shutdown() {
+        threadPool.shutdown();
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        int current = inFlight.incrementAndGet();
+        int max = maxInFlight.get();
+        while (current > max && !maxInFlight.compareAndSet(max, current)) {
+            max = maxInFlight.get();
+        }
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    command.run();
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            }
+        };
+        try {
+            threadPool.execute(task);
+        } catch (RejectedExecutionException e) {
+            callerRuns.incrementAndGet();
+            LOG.debug("All ESI threads are busy, processing include in current thread");
+            task.run();
+        }
+    }
+
+    /**
+     * @return the number of includes currently processed, including the ones processed by the caller thread
+     */
+    public int getInFlightCount() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return the highest number of includes processed at the same time
+     */
+    public int getMaxInFlightCount() {
+        return maxInFlight.get();
+    }
+
+    /**
+     * @return the number of includes that were processed by the caller thread because all the threads were busy
+     */
+    public long getCallerRunsCount() {
+        return callerRuns.get();
+    }
+
+    /**
+     * @return the number of threads currently busy processing includes
+     */
+    public int getActiveThreadCount() {
+        return threadPool.getActiveCount();
+    }
+
+}
@@ -56,7 +56,8 @@ class InlineElement extends BaseElement {
     public void onTagEnd(String tag, FutureParserContext ctx) throws IOException {
         String originalUrl = UriUtils.getPath(ctx.getHttpRequest().getRequestLine().getUri());
         try {
-            InlineCache.storeFragment(uri, null, fetchable, originalUrl, buf.get().toString());
+            ctx.getHttpRequest().getDriver().getInlineCache()
+                    .storeFragment(uri, null, fetchable, originalUrl, buf.get().toString());
         } catch (ExecutionException e) {
             throw new IOException(e);
         }
@@ -20,13 +20,14 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 
 import org.esigate.HttpErrorPage;
+import org.esigate.parser.ContentFilter;
 import org.esigate.parser.future.CharSequenceFuture;
 import org.esigate.parser.future.FutureElementType;
 import org.esigate.parser.future.FutureParserContext;
 import org.esigate.parser.future.StringBuilderFutureAppendable;
 import org.esigate.vars.VariablesResolver;
 
-class OtherwiseElement extends BaseElement {
+class OtherwiseElement extends BaseElement implements ContentFilter {
 
     public static final FutureElementType TYPE = new BaseElementType("<esi:otherwise", "</esi:otherwise") {
         @Override
@@ -51,9 +52,9 @@ class OtherwiseElement extends BaseElement {
     @Override
     public void onTagEnd(String tag, FutureParserContext ctx) throws IOException, HttpErrorPage {
         if (active) {
-            String result;
+            CharSequence result;
             try {
-                result = VariablesResolver.replaceAllVariables(buf.get().toString(), ctx.getHttpRequest());
+                result = VariablesResolver.replaceAllVariables(buf.get(), ctx.getHttpRequest());
             } catch (ExecutionException e) {
                 if (e.getCause() instanceof HttpErrorPage) {
                     throw (HttpErrorPage) e.getCause();
@@ -70,4 +71,9 @@ class OtherwiseElement extends BaseElement {
             buf.enqueueAppend(csq);
         }
     }
+
+    @Override
+    public boolean isDiscardingContent() {
+        return !active;
+    }
 }
@@ -16,6 +16,7 @@ package org.esigate.extension.parallelesi;
 
 import java.util.concurrent.Future;
 
+import org.esigate.parser.ContentFilter;
 import org.esigate.parser.future.FutureElementType;
 import org.esigate.parser.future.FutureParserContext;
 
@@ -55,7 +56,7 @@ import org.esigate.parser.future.FutureParserContext;
  * @see <a href="http://www.w3.org/TR/esi-lang">ESI Language Specification 1.0</a>
  * 
  */
-class RemoveElement extends BaseElement {
+class RemoveElement extends BaseElement implements ContentFilter {
     public static final FutureElementType TYPE = new BaseElementType("<esi:remove", "</esi:remove") {
         @Override
         public RemoveElement newInstance() {
@@ -77,4 +78,8 @@ class RemoveElement extends BaseElement {
         // Nothing to do
     }
 
+    @Override
+    public boolean isDiscardingContent() {
+        return true;
+    }
 }
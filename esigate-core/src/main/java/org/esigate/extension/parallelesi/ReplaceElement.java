@@ -45,6 +45,7 @@ class ReplaceElement extends BaseElement {
     private StringBuilderFutureAppendable buf = null;
     private String fragment;
     private String regexp;
+    private IncludeElement parent;
 
     @Override
     public void characters(Future<CharSequence> csq) {
@@ -53,13 +54,13 @@ class ReplaceElement extends BaseElement {
 
     @Override
     public void onTagEnd(String tag, FutureParserContext ctx) throws IOException, HttpErrorPage {
-        IncludeElement parent = ctx.findAncestor(IncludeElement.class);
         if (parent == null) {
             throw new EsiSyntaxError("<esi:replace> tag can only be used inside an <esi:include> tag");
         }
-        String result;
+        parent.endReplacement();
+        CharSequence result;
         try {
-            result = VariablesResolver.replaceAllVariables(buf.get().toString(), ctx.getHttpRequest());
+            result = VariablesResolver.replaceAllVariables(buf.get(), ctx.getHttpRequest());
         } catch (ExecutionException e) {
             if (e.getCause() instanceof HttpErrorPage) {
                 throw (HttpErrorPage) e.getCause();
@@ -77,6 +78,11 @@ class ReplaceElement extends BaseElement {
 
     @Override
     protected void parseTag(Tag tag, FutureParserContext ctx) throws HttpErrorPage {
+        parent = ctx.findAncestor(IncludeElement.class);
+        if (parent != null) {
+            // Includes in the replacement are rendered even though the rest of the body of the include is not
+            parent.startReplacement();
+        }
         buf = new StringBuilderFutureAppendable();
         fragment = tag.getAttribute("fragment");
         regexp = tag.getAttribute("regexp");
@@ -48,9 +48,9 @@ class VarsElement extends BaseElement {
     @Override
     public void onTagEnd(String tag, FutureParserContext ctx) throws IOException, HttpErrorPage {
         buf.performAppends();
-        String result;
+        CharSequence result;
         try {
-            result = VariablesResolver.replaceAllVariables(buf.get().toString(), ctx.getHttpRequest());
+            result = VariablesResolver.replaceAllVariables(buf.get(), ctx.getHttpRequest());
         } catch (ExecutionException e) {
             if (e.getCause() instanceof HttpErrorPage) {
                 throw (HttpErrorPage) e.getCause();
@@ -20,6 +20,7 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 
 import org.esigate.HttpErrorPage;
+import org.esigate.parser.ContentFilter;
 import org.esigate.parser.future.CharSequenceFuture;
 import org.esigate.parser.future.FutureElementType;
 import org.esigate.parser.future.FutureParserContext;
@@ -27,7 +28,7 @@ import org.esigate.parser.future.StringBuilderFutureAppendable;
 import org.esigate.vars.Operations;
 import org.esigate.vars.VariablesResolver;
 
-class WhenElement extends BaseElement {
+class WhenElement extends BaseElement implements ContentFilter {
 
     public static final FutureElementType TYPE = new BaseElementType("<esi:when", "</esi:when") {
         @Override
@@ -50,8 +51,7 @@ class WhenElement extends BaseElement {
         if (test != null && parent != null) {
             // no other 'when' were active before
             active = !parent.hadConditionSet();
-            parent.setCondition(Operations.processOperators(VariablesResolver.replaceAllVariables(test,
-                    ctx.getHttpRequest())));
+            parent.setCondition(Operations.evaluate(test, ctx.getHttpRequest()));
             active &= parent.isCondition();
         }
     }
@@ -59,9 +59,9 @@ class WhenElement extends BaseElement {
     @Override
     public void onTagEnd(String tag, FutureParserContext ctx) throws IOException, HttpErrorPage {
         if (active) {
-            String result;
+            CharSequence result;
             try {
-                result = VariablesResolver.replaceAllVariables(buf.get().toString(), ctx.getHttpRequest());
+                result = VariablesResolver.replaceAllVariables(buf.get(), ctx.getHttpRequest());
             } catch (ExecutionException e) {
                 if (e.getCause() instanceof HttpErrorPage) {
                     throw (HttpErrorPage) e.getCause();
@@ -78,4 +78,9 @@ class WhenElement extends BaseElement {
             buf.enqueueAppend(csq);
         }
     }
+
+    @Override
+    public boolean isDiscardingContent() {
+        return !active;
+    }
 }
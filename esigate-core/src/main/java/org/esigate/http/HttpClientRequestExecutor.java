@@ -15,6 +15,7 @@
 
 package org.esigate.http;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collections;
@@ -44,6 +45,8 @@ import org.esigate.HttpErrorPage;
 import org.esigate.Parameters;
 import org.esigate.RequestExecutor;
 import org.esigate.cache.CacheConfigHelper;
+import org.esigate.cache.CacheStorage;
+import org.esigate.cache.RequestCoalescer;
 import org.esigate.cookie.CookieManager;
 import org.esigate.events.EventManager;
 import org.esigate.events.impl.FragmentEvent;
@@ -62,7 +65,7 @@ import org.slf4j.LoggerFactory;
  * @author Francois-Xavier Bonnet
  * 
  */
-public final class HttpClientRequestExecutor implements RequestExecutor {
+public final class HttpClientRequestExecutor implements RequestExecutor, Closeable {
     private static final Logger LOG = LoggerFactory.getLogger(HttpClientRequestExecutor.class);
     private static final Set<String> SIMPLE_METHODS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
             "GET", "HEAD", "OPTIONS", "TRACE", "DELETE")));
@@ -76,6 +79,8 @@ public final class HttpClientRequestExecutor implements RequestExecutor {
     private int connectTimeout;
     private int socketTimeout;
     private HttpHost firstBaseUrlHost;
+    private RequestCoalescer requestCoalescer;
+    private CacheStorage cacheStorage;
 
     public static final class HttpClientHelperBuilder implements RequestExecutorBuilder {
         private EventManager eventManager;
@@ -117,7 +122,15 @@ public final class HttpClientRequestExecutor implements RequestExecutor {
             httpClientHelper.cookieManager = cookieManager;
             httpClientHelper.connectTimeout = Parameters.CONNECT_TIMEOUT.getValue(properties);
             httpClientHelper.socketTimeout = Parameters.SOCKET_TIMEOUT.getValue(properties);
-            httpClientHelper.httpClient = buildHttpClient(properties, eventManager, connectionManager);
+            if (Parameters.USE_CACHE.getValue(properties)) {
+                httpClientHelper.cacheStorage = CacheConfigHelper.createCacheStorage(properties);
+                if (Parameters.REQUEST_COALESCING.getValue(properties)) {
+                    httpClientHelper.requestCoalescer = new RequestCoalescer();
+                    httpClientHelper.requestCoalescer.init(properties);
+                }
+            }
+            httpClientHelper.httpClient = buildHttpClient(properties, eventManager, connectionManager,
+                    httpClientHelper.cacheStorage, httpClientHelper.requestCoalescer);
             String firstBaseURL = Parameters.REMOTE_URL_BASE.getValue(properties)[0];
             httpClientHelper.firstBaseUrlHost = UriUtils.extractHost(firstBaseURL);
             return httpClientHelper;
@@ -146,7 +159,8 @@ public final class HttpClientRequestExecutor implements RequestExecutor {
     }
 
     private static HttpClient buildHttpClient(Properties properties, EventManager eventManager,
-            HttpClientConnectionManager connectionManager) {
+            HttpClientConnectionManager connectionManager, CacheStorage cacheStorage,
+            RequestCoalescer requestCoalescer) {
         HttpHost proxyHost = null;
         Credentials proxyCredentials = null;
         // Proxy settings
@@ -182,8 +196,9 @@ public final class HttpClientRequestExecutor implements RequestExecutor {
         boolean useCache = Parameters.USE_CACHE.getValue(properties);
         httpClientBuilder.setUseCache(Parameters.USE_CACHE.getValue(properties));
         if (useCache) {
-            httpClientBuilder.setHttpCacheStorage(CacheConfigHelper.createCacheStorage(properties));
+            httpClientBuilder.setHttpCacheStorage(cacheStorage);
             httpClientBuilder.setCacheConfig(CacheConfigHelper.createCacheConfig(properties));
+            httpClientBuilder.setRequestCoalescer(requestCoalescer);
         }
 
         // Event manager
@@ -221,9 +236,17 @@ public final class HttpClientRequestExecutor implements RequestExecutor {
             }
         }
 
+        // Do not wait for the provider after the deadline of the request, if any
+        long remainingTime = RequestDeadline.getRemainingTime(originalRequest.getOriginalRequest());
+        int requestSocketTimeout = socketTimeout;
+        if (remainingTime >= 0 && (socketTimeout <= 0 || remainingTime < socketTimeout)) {
+            // 0 would mean no timeout at all
+            requestSocketTimeout = (int) Math.max(1, remainingTime);
+        }
+
         RequestConfig.Builder builder = RequestConfig.custom();
         builder.setConnectTimeout(connectTimeout);
-        builder.setSocketTimeout(socketTimeout);
+        builder.setSocketTimeout(requestSocketTimeout);
         builder.setCircularRedirectsAllowed(true);
 
         // Use browser compatibility cookie policy. This policy is the closest
@@ -248,6 +271,9 @@ public final class HttpClientRequestExecutor implements RequestExecutor {
         // the browser as some web sites generate different pages and scripts
         // depending on the browser
         headerManager.copyHeaders(originalRequest, httpRequest);
+        if (remainingTime >= 0) {
+            httpRequest.setHeader(RequestDeadline.HEADER, Long.toString(remainingTime));
+        }
 
         context.setPhysicalHost(physicalHost);
         context.setOutgoingRequest(httpRequest);
@@ -330,4 +356,28 @@ public final class HttpClientRequestExecutor implements RequestExecutor {
         return httpResponse;
     }
 
+    /**
+     * @return the {@link RequestCoalescer} used by this instance or null if request coalescing is disabled.
+     */
+    public RequestCoalescer getRequestCoalescer() {
+        return requestCoalescer;
+    }
+
+    /**
+     * @return the {@link CacheStorage} used by this instance or null if the cache is disabled.
+     */
+    public CacheStorage getCacheStorage() {
+        return cacheStorage;
+    }
+
+    /**
+     * Closes the cache storage, see {@link CacheStorage#close()}.
+     */
+    @Override
+    public void close() throws IOException {
+        if (cacheStorage != null) {
+            cacheStorage.close();
+        }
+    }
+
 }
@@ -187,11 +187,9 @@ public final class HttpResponseUtils {
                     charset = HTTP.DEF_CONTENT_CHARSET;
                 }
 
+                // Read using charset based on HTTP headers, unless an extension decodes it first
                 ReadEntityEvent event = new ReadEntityEvent(mimeType, charset, rawEntityContent);
 
-                // Read using charset based on HTTP headers
-                event.setEntityContent(new String(rawEntityContent, charset));
-
                 // Allow extensions to detect document encoding
                 if (eventManager != null) {
                     eventManager.fire(EventManager.EVENT_READ_ENTITY, event);
@@ -29,6 +29,7 @@ import org.apache.http.impl.client.cache.CachingHttpClientBuilder;
 import org.apache.http.impl.execchain.ClientExecChain;
 import org.esigate.HttpErrorPage;
 import org.esigate.cache.CacheAdapter;
+import org.esigate.cache.RequestCoalescer;
 import org.esigate.events.EventManager;
 import org.esigate.events.impl.FetchEvent;
 
@@ -36,6 +37,7 @@ public class ProxyingHttpClientBuilder extends CachingHttpClientBuilder {
     private Properties properties;
     private EventManager eventManager;
     private boolean useCache = true;
+    private RequestCoalescer requestCoalescer;
 
     @Override
     protected ClientExecChain decorateMainExec(ClientExecChain mainExec) {
@@ -45,6 +47,9 @@ public class ProxyingHttpClientBuilder extends CachingHttpClientBuilder {
             CacheAdapter cacheAdapter = new CacheAdapter();
             cacheAdapter.init(properties);
             result = cacheAdapter.wrapBackendHttpClient(result);
+            if (requestCoalescer != null) {
+                result = requestCoalescer.wrapBackendHttpClient(result);
+            }
             result = super.decorateMainExec(result);
             result = cacheAdapter.wrapCachingHttpClient(result);
         }
@@ -55,6 +60,19 @@ public class ProxyingHttpClientBuilder extends CachingHttpClientBuilder {
         this.useCache = useCache;
     }
 
+    /**
+     * @param requestCoalescer
+     *            the {@link RequestCoalescer} used to fold identical concurrent requests on cache misses or null to
+     *            disable coalescing. Only used if the cache is enabled.
+     */
+    public void setRequestCoalescer(RequestCoalescer requestCoalescer) {
+        this.requestCoalescer = requestCoalescer;
+    }
+
+    public RequestCoalescer getRequestCoalescer() {
+        return requestCoalescer;
+    }
+
     public void setEventManager(EventManager eventManager) {
         this.eventManager = eventManager;
     }
@@ -0,0 +1,114 @@
+/* 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.esigate.http;
+
+/**
+ * The time limit to process an incoming request, shared by all the requests sent to the providers on its behalf.
+ * <p>
+ * The deadline is stored as an attribute of the {@link IncomingRequest}. When there is one, the socket timeout of the
+ * requests sent to the providers is reduced to the time left, which is also sent in the {@link #HEADER} header (in
+ * milliseconds) so that the provider can give up as well instead of producing a response nobody will wait for.
+ * <p>
+ * The deadline is read and set by the threads processing the includes of a page in parallel, so the attribute is only
+ * accessed while holding the lock of the request.
+ * <p>
+ * A thread can also work with its own deadline instead of the one of the request, typically while processing an include
+ * with a maxwait attribute, see {@link #setThreadDeadline(long)}. It applies to the requests sent by this thread,
+ * including the ones of the includes nested in the included page.
+ */
+public final class RequestDeadline {
+    public static final String HEADER = "X-Esigate-Timeout";
+
+    private static final String ATTRIBUTE = RequestDeadline.class.getName();
+
+    private static final ThreadLocal<Long> THREAD_DEADLINE = new ThreadLocal<Long>();
+
+    private RequestDeadline() {
+    }
+
+    /**
+     * Sets the deadline of a request, unless an earlier deadline is already set.
+     * 
+     * @param request
+     *            the incoming request
+     * @param deadline
+     *            the deadline in milliseconds since the epoch, like {@link System#currentTimeMillis()}
+     */
+    public static void setDeadline(IncomingRequest request, long deadline) {
+        synchronized (request) {
+            Long current = request.getAttribute(ATTRIBUTE);
+            if (current == null || deadline < current) {
+                request.setAttribute(ATTRIBUTE, deadline);
+            }
+        }
+    }
+
+    /**
+     * Sets the deadline of the requests sent by the current thread, which replaces the deadline of the incoming
+     * request until it is restored.
+     * 
+     * @param deadline
+     *            the deadline in milliseconds since the epoch, or 0 to use the deadline of the request
+     * @return the previous deadline of the thread, to restore with {@link #restoreThreadDeadline(long)}
+     */
+    public static long setThreadDeadline(long deadline) {
+        Long previous = THREAD_DEADLINE.get();
+        restoreThreadDeadline(deadline);
+        return previous == null ? 0 : previous;
+    }
+
+    /**
+     * @param previous
+     *            the value returned by {@link #setThreadDeadline(long)}
+     */
+    public static void restoreThreadDeadline(long previous) {
+        if (previous == 0) {
+            THREAD_DEADLINE.remove();
+        } else {
+            THREAD_DEADLINE.set(previous);
+        }
+    }
+
+    /**
+     * @param request
+     *            the incoming request
+     * @return the deadline in milliseconds since the epoch, the one of the current thread if it has one, or 0 if there
+     *         is none
+     */
+    public static long getDeadline(IncomingRequest request) {
+        Long deadline = THREAD_DEADLINE.get();
+        if (deadline == null) {
+            synchronized (request) {
+                deadline = request.getAttribute(ATTRIBUTE);
+            }
+        }
+        return deadline == null ? 0 : deadline;
+    }
+
+    /**
+     * @param request
+     *            the incoming request
+     * @return the number of milliseconds left before the deadline, 0 if it is already passed, or -1 if there is no
+     *         deadline
+     */
+    public static long getRemainingTime(IncomingRequest request) {
+        long deadline = getDeadline(request);
+        if (deadline == 0) {
+            return -1;
+        }
+        return Math.max(0, deadline - System.currentTimeMillis());
+    }
+
+}
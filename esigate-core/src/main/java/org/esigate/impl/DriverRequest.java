@@ -2,6 +2,8 @@ package org.esigate.impl;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.http.Header;
 import org.apache.http.HeaderIterator;
@@ -23,6 +25,7 @@ public class DriverRequest implements HttpEntityEnclosingRequest {
     private final URL baseUrl;
     private final boolean external;
     private String characterEncoding;
+    private volatile ConcurrentMap<String, String> variables;
 
     public DriverRequest(IncomingRequest request, Driver driver, boolean external) throws HttpErrorPage {
         this.wrappedRequest = request;
@@ -176,4 +179,25 @@ public class DriverRequest implements HttpEntityEnclosingRequest {
         return external;
     }
 
+    /**
+     * The values of the ESI variables already resolved for this request, so that each variable is resolved only once
+     * even if it is used in several places of the page. The map is created the first time it is needed and can be used
+     * by several threads.
+     * 
+     * @return the values of the variables by name
+     */
+    public ConcurrentMap<String, String> getVariables() {
+        ConcurrentMap<String, String> result = variables;
+        if (result == null) {
+            synchronized (this) {
+                result = variables;
+                if (result == null) {
+                    result = new ConcurrentHashMap<String, String>();
+                    variables = result;
+                }
+            }
+        }
+        return result;
+    }
+
 }
@@ -18,10 +18,14 @@ package org.esigate.impl;
 import static org.apache.commons.lang3.StringUtils.stripEnd;
 import static org.apache.commons.lang3.StringUtils.stripStart;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Properties;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.apache.commons.io.output.StringBuilderWriter;
 import org.apache.http.HttpHost;
 import org.esigate.Parameters;
 import org.esigate.util.UriUtils;
@@ -49,9 +53,13 @@ public final class UrlRewriter {
     public static final int ABSOLUTE = 0;
     public static final int RELATIVE = 1;
 
-    private static final Pattern URL_PATTERN = Pattern.compile(
-            "<([^\\!][^>]+)(src|href|action|background)\\s*=\\s*('[^<']*'|\"[^<\"]*\")([^>]*)>",
-            Pattern.CASE_INSENSITIVE);
+    private static final String[] URL_ATTRIBUTES = {"src", "href", "action", "background"};
+    private static final int MAX_CONTEXTS = 100;
+    private static final int MAX_URLS_PER_CONTEXT = 1000;
+
+    /** The context of the pages rewritten recently, with the urls already rewritten in these pages. */
+    private final LinkedHashMap<String, RewriteContext> contexts = new LinkedHashMap<String, RewriteContext>(16,
+            0.75f, true);
 
     private String visibleBaseUrlParameter;
     private int mode;
@@ -88,6 +96,23 @@ public final class UrlRewriter {
         return stripEnd(begin, "/") + "/" + stripStart(end, "/");
     }
 
+    private RewriteContext getContext(String requestUrl, String baseUrl) {
+        String key = baseUrl + ' ' + requestUrl;
+        synchronized (contexts) {
+            RewriteContext context = contexts.get(key);
+            if (context == null) {
+                context = new RewriteContext(requestUrl, baseUrl);
+                contexts.put(key, context);
+                Iterator<RewriteContext> iterator = contexts.values().iterator();
+                while (contexts.size() > MAX_CONTEXTS && iterator.hasNext()) {
+                    iterator.next();
+                    iterator.remove();
+                }
+            }
+            return context;
+        }
+    }
+
     /**
      * Fix an url according to the chosen mode.
      * 
@@ -101,114 +126,406 @@ public final class UrlRewriter {
      * @return the fixed url.
      */
     public String rewriteUrl(String url, String requestUrl, String baseUrl) {
-        if (url.isEmpty()) {
-            LOG.debug("skip empty url");
-            return url;
-        }
+        return getContext(requestUrl, baseUrl).rewrite(url);
+    }
 
-        // Store the filename, if specified
-        String fileName = null;
-        if (!requestUrl.isEmpty() && !requestUrl.endsWith("/")) {
-            fileName = requestUrl.substring(requestUrl.lastIndexOf('/') + 1);
+    /**
+     * Fix all resources urls and return the result.
+     * 
+     * @param input
+     *            The original charSequence to be processed.
+     * @param requestUrl
+     *            The request URL.
+     * @param baseUrlParam
+     *            The base URL selected for this request.
+     * 
+     * @return the result of this renderer.
+     */
+    public CharSequence rewriteHtml(CharSequence input, String requestUrl, String baseUrlParam) {
+        StringBuilderWriter result = new StringBuilderWriter(input.length());
+        try {
+            rewriteHtml(input, requestUrl, baseUrlParam, result);
+        } catch (IOException e) {
+            // Cannot happen with a StringBuilderWriter
+            throw new IllegalStateException(e);
         }
+        return result.getBuilder();
+    }
 
-        // Build clean URI for further processing
-        String cleanBaseUrl = stripEnd(baseUrl, "/");
-        String visibleBaseUrl = visibleBaseUrlParameter;
-        if (visibleBaseUrl == null) {
-            visibleBaseUrl = cleanBaseUrl;
-        }
-        String visibleBaseUrlPath = UriUtils.getPath(visibleBaseUrl);
-        String pagePath = concatUrl(visibleBaseUrlPath, requestUrl);
-        if (pagePath != null) {
-            int indexSlash = pagePath.lastIndexOf('/');
-            if (indexSlash >= 0) {
-                pagePath = pagePath.substring(0, indexSlash);
+    /**
+     * Fix all resources urls and write the result.
+     * <p>
+     * Each tag is scanned once: as with the regular expression
+     * <code>&lt;([^!][^&gt;]+)(src|href|action|background)\s*=\s*('[^&lt;']*'|"[^&lt;"]*")([^&gt;]*)&gt;</code>
+     * ignoring case, the last of these attributes with a quoted value is rewritten in each tag and its value is
+     * written between double quotes. Only the rewritten urls are copied, the rest of the page is written as it is.
+     * 
+     * @param input
+     *            The original charSequence to be processed.
+     * @param requestUrl
+     *            The request URL.
+     * @param baseUrlParam
+     *            The base URL selected for this request.
+     * @param out
+     *            The writer to write the result to.
+     * @throws IOException
+     *             If an error occurs while writing to the output
+     */
+    public void rewriteHtml(CharSequence input, String requestUrl, String baseUrlParam, Writer out)
+            throws IOException {
+        rewriteHtml(input, requestUrl, baseUrlParam, out, true);
+    }
+
+    /**
+     * Creates a Writer which fixes the urls of the html written to it, as
+     * {@link #rewriteHtml(CharSequence, String, String, Writer)} would do on the whole page, and writes the result to
+     * out.
+     * <p>
+     * The text is written to out as soon as no tag can change it anymore, only the end of a tag which is not complete
+     * yet is kept in memory. Closing the Writer writes the end of the page and closes out.
+     * 
+     * @param requestUrl
+     *            The request URL.
+     * @param baseUrlParam
+     *            The base URL selected for this request.
+     * @param out
+     *            The writer to write the result to.
+     * @return the Writer to write the page to
+     */
+    public Writer createHtmlFilter(String requestUrl, String baseUrlParam, Writer out) {
+        return new HtmlFilter(requestUrl, baseUrlParam, out);
+    }
+
+    /**
+     * @param complete
+     *            false if more text may follow the input: in this case the rewriting stops at the first tag which
+     *            cannot be rewritten without the rest of the page
+     * @return the number of characters of the input which were rewritten
+     */
+    private int rewriteHtml(CharSequence input, String requestUrl, String baseUrlParam, Writer out,
+            boolean complete) throws IOException {
+        RewriteContext context = null;
+        int length = input.length();
+        // Where the output stops: the end of the input unless a tag needs the rest of the page
+        int end = length;
+        // The position of the next '>', which ends a tag unless it is inside the value of the attribute
+        int tagEnd = -1;
+        int written = 0;
+        int position = 0;
+        while (position < length) {
+            if (input.charAt(position) != '<') {
+                position++;
+                continue;
             }
+            if (position + 1 >= length && !complete) {
+                end = position;
+                break;
+            }
+            if (position + 1 >= length || input.charAt(position + 1) == '!') {
+                position++;
+                continue;
+            }
+            if (tagEnd < position + 2) {
+                tagEnd = indexOf(input, '>', position + 2);
+                if (tagEnd < 0) {
+                    if (!complete) {
+                        end = position;
+                    }
+                    break;
+                }
+            }
+            int matchEnd = -1;
+            int attribute = tagEnd - 1;
+            int valueStart = 0;
+            int valueEnd = 0;
+            boolean truncated = false;
+            // The last attribute of the tag, the name must be after at least 2 characters
+            for (; attribute >= position + 3; attribute--) {
+                int nameEnd = matchAttributeName(input, attribute);
+                if (nameEnd < 0) {
+                    continue;
+                }
+                int equals = skipSpaces(input, nameEnd, length);
+                if (equals >= length || input.charAt(equals) != '=') {
+                    continue;
+                }
+                int quote = skipSpaces(input, equals + 1, length);
+                if (quote >= length || (input.charAt(quote) != '"' && input.charAt(quote) != '\'')) {
+                    continue;
+                }
+                valueStart = quote + 1;
+                valueEnd = valueStart;
+                while (valueEnd < length && input.charAt(valueEnd) != input.charAt(quote)
+                        && input.charAt(valueEnd) != '<') {
+                    valueEnd++;
+                }
+                if (valueEnd >= length && !complete) {
+                    truncated = true;
+                    break;
+                }
+                if (valueEnd >= length || input.charAt(valueEnd) == '<') {
+                    continue;
+                }
+                matchEnd = indexOf(input, '>', valueEnd + 1);
+                if (matchEnd >= 0) {
+                    break;
+                }
+                if (!complete) {
+                    truncated = true;
+                    break;
+                }
+            }
+            if (truncated) {
+                end = position;
+                break;
+            }
+            if (matchEnd < 0) {
+                position++;
+                continue;
+            }
+            if (context == null) {
+                context = getContext(requestUrl, baseUrlParam);
+            }
+            String url = context.rewrite(input.subSequence(valueStart, valueEnd).toString());
+            LOG.trace("replacement: {}", url);
+            // "<", the beginning of the tag and the name of the attribute
+            write(input, written, matchAttributeName(input, attribute), out);
+            out.write("=\"");
+            out.write(url);
+            out.write('"');
+            // The end of the tag, with the closing '>'
+            written = valueEnd + 1;
+            position = matchEnd + 1;
         }
+        write(input, written, end, out);
+        return end;
+    }
 
-        String result = url;
-        if (visibleBaseUrl != null && result.startsWith(cleanBaseUrl)) {
-            result = visibleBaseUrl + result.substring(cleanBaseUrl.length());
-            LOG.debug("fix absolute url: {} -> {} ", url, result);
-            return result;
+    private static void write(CharSequence input, int start, int end, Writer out) throws IOException {
+        if (input instanceof String) {
+            out.write((String) input, start, end - start);
+        } else {
+            out.append(input, start, end);
         }
+    }
 
-        // Keep absolute, protocol-absolute and javascript urls untouched.
-        if (result.startsWith("http://") || result.startsWith("https://") || result.startsWith("//")
-                || result.startsWith("#") || result.startsWith("javascript:")) {
-            LOG.debug("keeping absolute url: {}", result);
-            return result;
+    private static int indexOf(CharSequence input, char c, int from) {
+        for (int i = from; i < input.length(); i++) {
+            if (input.charAt(i) == c) {
+                return i;
+            }
         }
+        return -1;
+    }
 
-        HttpHost httpHost = UriUtils.extractHost(visibleBaseUrl);
-        String server = httpHost.toURI();
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
 
-        // Add domain to context absolute urls
-        if (result.startsWith("/")) {
+    private static int skipSpaces(CharSequence input, int from, int end) {
+        int i = from;
+        while (i < end && isSpace(input.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
 
-            // Check if we are going to replace context
-            if (cleanBaseUrl != null && !cleanBaseUrl.equals(visibleBaseUrl)) {
-                String baseUrlPath = UriUtils.getPath(cleanBaseUrl);
-                if (result.startsWith(baseUrlPath)) {
-                    result = result.substring(baseUrlPath.length());
-                    result = concatUrl(visibleBaseUrlPath, result);
+    /**
+     * @return the end of the name of the url attribute at position, ignoring case, or -1 if there is none
+     */
+    private static int matchAttributeName(CharSequence input, int position) {
+        for (String name : URL_ATTRIBUTES) {
+            if (position + name.length() <= input.length()) {
+                int i = 0;
+                while (i < name.length() && Character.toLowerCase(input.charAt(position + i)) == name.charAt(i)) {
+                    i++;
+                }
+                if (i == name.length()) {
+                    return position + i;
                 }
             }
+        }
+        return -1;
+    }
 
-            if (mode == ABSOLUTE) {
-                result = server + result;
-            }
-        } else {
+    /**
+     * Writer which rewrites the page by chunks, keeping only the beginning of the last tag between two chunks.
+     */
+    private final class HtmlFilter extends Writer {
+        private static final int CHUNK_SIZE = 4096;
+        private final String requestUrl;
+        private final String baseUrlParam;
+        private final Writer out;
+        private final StringBuilder pending = new StringBuilder(CHUNK_SIZE);
+        private int threshold = CHUNK_SIZE;
+        private boolean closed = false;
 
-            if (result.charAt(0) == '?' && fileName != null) {
-                result = fileName + result;
+        private HtmlFilter(String requestUrl, String baseUrlParam, Writer out) {
+            this.requestUrl = requestUrl;
+            this.baseUrlParam = baseUrlParam;
+            this.out = out;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            pending.append(cbuf, off, len);
+            if (pending.length() >= threshold) {
+                rewritePending(false);
             }
+        }
 
-            // Process relative urls
-            if (mode == ABSOLUTE) {
-                result = server + pagePath + "/" + result;
-            } else {
-                result = pagePath + "/" + result;
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            pending.append(str, off, off + len);
+            if (pending.length() >= threshold) {
+                rewritePending(false);
             }
         }
 
-        LOG.debug("url fixed: {} -> {}", url, result);
-        return result;
+        private void rewritePending(boolean complete) throws IOException {
+            int rewritten = rewriteHtml(pending, requestUrl, baseUrlParam, out, complete);
+            pending.delete(0, rewritten);
+            // A tag which never ends would otherwise be scanned again for each chunk
+            threshold = Math.max(CHUNK_SIZE, pending.length() * 2);
+        }
+
+        /**
+         * Writes all the text which can already be rewritten and flushes out.
+         */
+        @Override
+        public void flush() throws IOException {
+            rewritePending(false);
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            rewritePending(true);
+            out.close();
+        }
     }
 
     /**
-     * Fix all resources urls and return the result.
-     * 
-     * @param input
-     *            The original charSequence to be processed.
-     * @param requestUrl
-     *            The request URL.
-     * @param baseUrlParam
-     *            The base URL selected for this request.
-     * 
-     * @return the result of this renderer.
+     * The urls computed from the request url and the base url, which are the same for all the urls of a page, and
+     * the urls already rewritten for this page.
      */
-    public CharSequence rewriteHtml(CharSequence input, String requestUrl, String baseUrlParam) {
-        StringBuffer result = new StringBuffer(input.length());
-        Matcher m = URL_PATTERN.matcher(input);
-        while (m.find()) {
-            LOG.trace("found match: {}", m);
-            String url = input.subSequence(m.start(3) + 1, m.end(3) - 1).toString();
-            url = rewriteUrl(url, requestUrl, baseUrlParam);
-            url = url.replaceAll("\\$", "\\\\\\$"); // replace '$' -> '\$' as it
-                                                    // denotes group
-            StringBuffer tagReplacement = new StringBuffer("<$1$2=\"").append(url).append("\"");
-            if (m.groupCount() > 3) {
-                tagReplacement.append("$4");
-            }
-            tagReplacement.append('>');
-            LOG.trace("replacement: {}", tagReplacement);
-            m.appendReplacement(result, tagReplacement.toString());
-        }
-        m.appendTail(result);
-
-        return result;
+    private final class RewriteContext {
+        private final String fileName;
+        private final String cleanBaseUrl;
+        private final String visibleBaseUrl;
+        private final String visibleBaseUrlPath;
+        private final String pagePath;
+        private final ConcurrentHashMap<String, String> urls = new ConcurrentHashMap<String, String>();
+        private String server;
+        private String baseUrlPath;
+
+        private RewriteContext(String requestUrl, String baseUrl) {
+            // Store the filename, if specified
+            if (!requestUrl.isEmpty() && !requestUrl.endsWith("/")) {
+                fileName = requestUrl.substring(requestUrl.lastIndexOf('/') + 1);
+            } else {
+                fileName = null;
+            }
+
+            // Build clean URI for further processing
+            cleanBaseUrl = stripEnd(baseUrl, "/");
+            if (visibleBaseUrlParameter == null) {
+                visibleBaseUrl = cleanBaseUrl;
+            } else {
+                visibleBaseUrl = visibleBaseUrlParameter;
+            }
+            visibleBaseUrlPath = UriUtils.getPath(visibleBaseUrl);
+            String path = concatUrl(visibleBaseUrlPath, requestUrl);
+            if (path != null) {
+                int indexSlash = path.lastIndexOf('/');
+                if (indexSlash >= 0) {
+                    path = path.substring(0, indexSlash);
+                }
+            }
+            pagePath = path;
+        }
+
+        private String getServer() {
+            if (server == null) {
+                HttpHost httpHost = UriUtils.extractHost(visibleBaseUrl);
+                server = httpHost.toURI();
+            }
+            return server;
+        }
+
+        private String getBaseUrlPath() {
+            if (baseUrlPath == null) {
+                baseUrlPath = UriUtils.getPath(cleanBaseUrl);
+            }
+            return baseUrlPath;
+        }
+
+        String rewrite(String url) {
+            String result = urls.get(url);
+            if (result == null) {
+                result = rewriteUrl(url);
+                if (urls.size() < MAX_URLS_PER_CONTEXT) {
+                    urls.put(url, result);
+                }
+            }
+            return result;
+        }
+
+        private String rewriteUrl(String url) {
+            if (url.isEmpty()) {
+                LOG.debug("skip empty url");
+                return url;
+            }
+
+            String result = url;
+            if (visibleBaseUrl != null && result.startsWith(cleanBaseUrl)) {
+                result = visibleBaseUrl + result.substring(cleanBaseUrl.length());
+                LOG.debug("fix absolute url: {} -> {} ", url, result);
+                return result;
+            }
+
+            // Keep absolute, protocol-absolute and javascript urls untouched.
+            if (result.startsWith("http://") || result.startsWith("https://") || result.startsWith("//")
+                    || result.startsWith("#") || result.startsWith("javascript:")) {
+                LOG.debug("keeping absolute url: {}", result);
+                return result;
+            }
+
+            // Add domain to context absolute urls
+            if (result.startsWith("/")) {
+
+                // Check if we are going to replace context
+                if (cleanBaseUrl != null && !cleanBaseUrl.equals(visibleBaseUrl)) {
+                    if (result.startsWith(getBaseUrlPath())) {
+                        result = result.substring(getBaseUrlPath().length());
+                        result = concatUrl(visibleBaseUrlPath, result);
+                    }
+                }
+
+                if (mode == ABSOLUTE) {
+                    result = getServer() + result;
+                }
+            } else {
+
+                if (result.charAt(0) == '?' && fileName != null) {
+                    result = fileName + result;
+                }
+
+                // Process relative urls
+                if (mode == ABSOLUTE) {
+                    result = getServer() + pagePath + "/" + result;
+                } else {
+                    result = pagePath + "/" + result;
+                }
+            }
+
+            LOG.debug("url fixed: {} -> {}", url, result);
+            return result;
+        }
     }
 
 }
@@ -0,0 +1,180 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.esigate.parser;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.esigate.HttpErrorPage;
+
+/**
+ * The result of the scan of a document by {@link EsiParser}: the ranges of static text and the tags of the elements,
+ * in document order.
+ * <p>
+ * The scan only depends on the document, so a compiled document can be rendered again for any request with
+ * {@link EsiParser#parse(CompiledDocument, String, Appendable)}: the static text is written as is and only the
+ * elements are evaluated. A compiled document is immutable and can be shared between threads.
+ * <p>
+ * The document itself is not kept, only its length and its SHA-1 digest: the operations are replayed against the page
+ * received for the current request once {@link #matches(String)} has checked that it has the same length and digest as
+ * the page which was compiled.
+ */
+public final class CompiledDocument {
+    // Approximate memory used by a compiled document, in addition to the operations and the tags
+    private static final int OVERHEAD = 64;
+
+    private static final int TEXT = 0;
+    private static final int START = 1;
+    private static final int START_CLOSED = 2;
+    private static final int END = 3;
+
+    private static final int DIGEST_BUFFER_SIZE = 4096;
+
+    private final int length;
+    private final byte[] digest;
+    /** Triplets: operation, then start and end of the text or index of the tag. */
+    private final int[] operations;
+    private final ElementType[] types;
+    private final String[] tags;
+    private final long weight;
+
+    private CompiledDocument(String source, int[] operations, ElementType[] types, String[] tags) {
+        this.length = source.length();
+        this.digest = digest(source);
+        this.operations = operations;
+        this.types = types;
+        this.tags = tags;
+        long tagsWeight = 0;
+        for (String tag : tags) {
+            tagsWeight += 8L + 2L * tag.length();
+        }
+        this.weight = OVERHEAD + digest.length + 4L * operations.length + tagsWeight;
+    }
+
+    /**
+     * Checks that a page is the one which was compiled, comparing the length then the SHA-1 digest so that pages with
+     * a different length are rejected without reading them.
+     *
+     * @param page
+     *            the page
+     * @return true if the page has the same length and digest as the compiled document
+     */
+    public boolean matches(String page) {
+        return page.length() == length && MessageDigest.isEqual(digest(page), digest);
+    }
+
+    private static byte[] digest(String page) {
+        MessageDigest sha1;
+        try {
+            sha1 = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not supported by this JVM", e);
+        }
+        // Digest the UTF-16 code units by blocks, pages may be big
+        byte[] buffer = new byte[DIGEST_BUFFER_SIZE];
+        int size = 0;
+        for (int i = 0; i < page.length(); i++) {
+            char c = page.charAt(i);
+            buffer[size++] = (byte) (c >> 8);
+            buffer[size++] = (byte) c;
+            if (size == buffer.length) {
+                sha1.update(buffer, 0, size);
+                size = 0;
+            }
+        }
+        sha1.update(buffer, 0, size);
+        return sha1.digest();
+    }
+
+    /**
+     * @return the approximate memory used by this compiled document, in bytes
+     */
+    public long getWeight() {
+        return weight;
+    }
+
+    void render(String source, ParserContextImpl ctx) throws IOException, HttpErrorPage {
+        for (int i = 0; i < operations.length; i += 3) {
+            switch (operations[i]) {
+                case TEXT:
+                    ctx.characters(source, operations[i + 1], operations[i + 2]);
+                    break;
+                case END:
+                    ctx.endElement(tags[operations[i + 1]]);
+                    break;
+                default:
+                    ElementType type = types[operations[i + 1]];
+                    String tag = tags[operations[i + 1]];
+                    ctx.startElement(type, type.newInstance(), tag);
+                    if (operations[i] == START_CLOSED) {
+                        ctx.endElement(tag);
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Records the operations while the document is parsed.
+     */
+    static final class Builder {
+        private final String source;
+        private int[] operations = new int[48];
+        private int size = 0;
+        private final List<ElementType> types = new ArrayList<ElementType>();
+        private final List<String> tags = new ArrayList<String>();
+
+        Builder(String source) {
+            this.source = source;
+        }
+
+        void characters(int start, int end) {
+            if (start < end) {
+                add(TEXT, start, end);
+            }
+        }
+
+        void startElement(ElementType type, String tag, boolean closed) {
+            add(closed ? START_CLOSED : START, tags.size(), 0);
+            types.add(type);
+            tags.add(tag);
+        }
+
+        void endElement(String tag) {
+            add(END, tags.size(), 0);
+            types.add(null);
+            tags.add(tag);
+        }
+
+        private void add(int operation, int a, int b) {
+            if (size + 3 > operations.length) {
+                operations = Arrays.copyOf(operations, operations.length * 2);
+            }
+            operations[size++] = operation;
+            operations[size++] = a;
+            operations[size++] = b;
+        }
+
+        CompiledDocument build() {
+            return new CompiledDocument(source, Arrays.copyOf(operations, size),
+                    types.toArray(new ElementType[types.size()]), tags.toArray(new String[tags.size()]));
+        }
+    }
+
+}
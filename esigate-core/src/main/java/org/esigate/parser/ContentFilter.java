@@ -0,0 +1,30 @@
+/* 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.esigate.parser;
+
+/**
+ * Implemented by the elements, or by the object receiving the result of the parsing, which may throw away the content
+ * written to them. For instance the body of an &lt;esi:when&gt; whose condition is false.
+ * <p>
+ * Elements with side effects, like includes which fetch a page from the provider, can ask the context whether their
+ * result will be used with {@link ParserContext#isContentDiscarded()} before doing anything.
+ */
+public interface ContentFilter {
+
+    /**
+     * @return <code>true</code> if the content currently written is thrown away
+     */
+    boolean isDiscardingContent();
+}
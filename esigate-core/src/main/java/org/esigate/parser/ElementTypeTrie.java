@@ -0,0 +1,97 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.esigate.parser;
+
+/**
+ * Finds the element type of a tag according to the beginning of the tag, without creating any String.
+ * <p>
+ * Not thread-safe while adding element types, read-only afterwards.
+ */
+class ElementTypeTrie {
+    private final Node root = new Node();
+
+    private static final class Node {
+        private char[] keys = new char[0];
+        private Node[] children = new Node[0];
+        private ElementType type;
+
+        private Node child(char c) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == c) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        private Node addChild(char c) {
+            Node child = child(c);
+            if (child == null) {
+                child = new Node();
+                char[] newKeys = new char[keys.length + 1];
+                Node[] newChildren = new Node[keys.length + 1];
+                System.arraycopy(keys, 0, newKeys, 0, keys.length);
+                System.arraycopy(children, 0, newChildren, 0, keys.length);
+                newKeys[keys.length] = c;
+                newChildren[keys.length] = child;
+                keys = newKeys;
+                children = newChildren;
+            }
+            return child;
+        }
+    }
+
+    /**
+     * Registers an element type. If several element types have the same prefix, the first one wins.
+     *
+     * @param prefix
+     *            the beginning of the tags for this element type
+     * @param type
+     *            the element type
+     */
+    void add(String prefix, ElementType type) {
+        Node node = root;
+        for (int i = 0; i < prefix.length(); i++) {
+            node = node.addChild(prefix.charAt(i));
+        }
+        if (node.type == null) {
+            node.type = type;
+        }
+    }
+
+    /**
+     * Finds the element type with the longest prefix matching the tag.
+     *
+     * @param in
+     *            the document
+     * @param start
+     *            the beginning of the tag
+     * @param end
+     *            the end of the tag
+     * @return the element type or null if none matches
+     */
+    ElementType find(CharSequence in, int start, int end) {
+        ElementType result = null;
+        Node node = root;
+        for (int i = start; i < end && node != null; i++) {
+            node = node.child(in.charAt(i));
+            if (node != null && node.type != null) {
+                result = node.type;
+            }
+        }
+        return result;
+    }
+
+}
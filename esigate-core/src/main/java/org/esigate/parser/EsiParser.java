@@ -0,0 +1,320 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.esigate.parser;
+
+import java.io.IOException;
+
+import org.esigate.HttpErrorPage;
+import org.esigate.impl.DriverRequest;
+
+/**
+ * Single pass parser for ESI documents.
+ * <p>
+ * This parser recognizes the same tags as the regular expressions previously used with {@link Parser}:
+ * <ul>
+ * <li>"&lt;!--esi" and "--&gt;" comment delimiters, which are removed while the content of the comment is
+ * processed</li>
+ * <li>start tags like <code>&lt;esi:include src="..." /&gt;</code></li>
+ * <li>end tags like <code>&lt;/esi:include&gt;</code></li>
+ * </ul>
+ * The document is scanned only once, character by character, and the text between the tags is sent to the elements
+ * as ranges of the original CharSequence: only the tags of known elements are copied into Strings.
+ * <p>
+ * Unknown ESI tags and end tags not matching the current element are written as text.
+ */
+public class EsiParser {
+    private static final String COMMENT_START = "<!--esi";
+    private static final String COMMENT_END = "-->";
+    private static final String START_TAG = "<esi:";
+    private static final String END_TAG = "</esi:";
+
+    private final ElementTypeTrie elementTypes = new ElementTypeTrie();
+    private DriverRequest httpRequest;
+
+    /**
+     * Creates a parser for the given element types.
+     *
+     * @param types
+     *            The element types
+     */
+    public EsiParser(TagElementType... types) {
+        for (TagElementType type : types) {
+            elementTypes.add(type.getStartTag(), type);
+        }
+    }
+
+    /**
+     * Parses all the CharSequence.
+     *
+     * @param in
+     *            The CharSequence to parse
+     * @param out
+     *            The Writable to write the result to
+     * @throws IOException
+     * @throws HttpErrorPage
+     */
+    public void parse(CharSequence in, Appendable out) throws IOException, HttpErrorPage {
+        parse(in, new ParserContextImpl(out, httpRequest, null), null);
+    }
+
+    /**
+     * Parses all the String and records the result of the scan so that the same document can be rendered again
+     * without being parsed.
+     *
+     * @param in
+     *            The String to parse
+     * @param out
+     *            The Writable to write the result to
+     * @return the compiled document
+     * @throws IOException
+     * @throws HttpErrorPage
+     */
+    public CompiledDocument compile(String in, Appendable out) throws IOException, HttpErrorPage {
+        CompiledDocument.Builder builder = new CompiledDocument.Builder(in);
+        parse(in, new ParserContextImpl(out, httpRequest, null), builder);
+        return builder.build();
+    }
+
+    /**
+     * Renders a document compiled by {@link #compile(String, Appendable)}, possibly by another parser with the same
+     * element types.
+     *
+     * @param document
+     *            The compiled document
+     * @param in
+     *            The page which was compiled, see {@link CompiledDocument#matches(String)}
+     * @param out
+     *            The Writable to write the result to
+     * @throws IOException
+     * @throws HttpErrorPage
+     */
+    public void parse(CompiledDocument document, String in, Appendable out) throws IOException, HttpErrorPage {
+        document.render(in, new ParserContextImpl(out, httpRequest, null));
+    }
+
+    private void parse(CharSequence in, ParserContextImpl ctx, CompiledDocument.Builder builder) throws IOException,
+            HttpErrorPage {
+        int length = in.length();
+        int commentDepth = 0;
+        int textStart = 0;
+        int i = 0;
+        while (i < length) {
+            char c = in.charAt(i);
+            int tagEnd;
+            if (c == '<') {
+                if (regionMatches(in, i, COMMENT_START)) {
+                    characters(ctx, builder, in, textStart, i);
+                    commentDepth++;
+                    i += COMMENT_START.length();
+                    textStart = i;
+                } else if ((tagEnd = scanStartTag(in, i, length)) > 0) {
+                    ElementType type = elementTypes.find(in, i, tagEnd);
+                    if (type != null) {
+                        characters(ctx, builder, in, textStart, i);
+                        String tag = in.subSequence(i, tagEnd).toString();
+                        Element element = type.newInstance();
+                        ctx.startElement(type, element, tag);
+                        if (builder != null) {
+                            builder.startElement(type, tag, element.isClosed());
+                        }
+                        if (element.isClosed()) {
+                            ctx.endElement(tag);
+                        }
+                        textStart = tagEnd;
+                    }
+                    i = tagEnd;
+                } else if ((tagEnd = scanEndTag(in, i, length)) > 0) {
+                    String tag = in.subSequence(i, tagEnd).toString();
+                    if (ctx.isCurrentTagEnd(tag)) {
+                        characters(ctx, builder, in, textStart, i);
+                        if (builder != null) {
+                            builder.endElement(tag);
+                        }
+                        ctx.endElement(tag);
+                        textStart = tagEnd;
+                    }
+                    i = tagEnd;
+                } else {
+                    i++;
+                }
+            } else if (c == '-' && commentDepth > 0 && regionMatches(in, i, COMMENT_END)) {
+                characters(ctx, builder, in, textStart, i);
+                commentDepth--;
+                i += COMMENT_END.length();
+                textStart = i;
+            } else {
+                i++;
+            }
+        }
+        // we reached the end of input
+        characters(ctx, builder, in, textStart, length);
+    }
+
+    public void setHttpRequest(DriverRequest httpRequest) {
+        this.httpRequest = httpRequest;
+    }
+
+    private static void characters(ParserContextImpl ctx, CompiledDocument.Builder builder, CharSequence in,
+            int start, int end) throws IOException {
+        if (builder != null) {
+            builder.characters(start, end);
+        }
+        ctx.characters(in, start, end);
+    }
+
+    private static boolean regionMatches(CharSequence in, int start, String s) {
+        if (start + s.length() > in.length()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (in.charAt(start + i) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Recognizes an end tag: "&lt;/esi:" followed by anything up to the next "&gt;".
+     *
+     * @return the position after the tag or -1 if there is no end tag at this position
+     */
+    private static int scanEndTag(CharSequence in, int start, int length) {
+        if (!regionMatches(in, start, END_TAG)) {
+            return -1;
+        }
+        for (int i = start + END_TAG.length(); i < length; i++) {
+            if (in.charAt(i) == '>') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Recognizes a start tag: "&lt;esi:" followed by a name, attributes separated by whitespaces whose values may be
+     * quoted or not, and "&gt;" or "/&gt;".
+     *
+     * @return the position after the tag or -1 if there is no start tag at this position
+     */
+    private static int scanStartTag(CharSequence in, int start, int length) {
+        if (!regionMatches(in, start, START_TAG)) {
+            return -1;
+        }
+        int i = skipWordCharacters(in, start + START_TAG.length(), length);
+        if (i == start + START_TAG.length()) {
+            return -1;
+        }
+        return scanAttributes(in, i, length);
+    }
+
+    private static int scanAttributes(CharSequence in, int start, int length) {
+        int i = start;
+        while (true) {
+            int whitespaceStart = i;
+            i = skipWhitespaces(in, i, length);
+            if (i >= length) {
+                return -1;
+            }
+            char c = in.charAt(i);
+            if (c == '>') {
+                return i + 1;
+            } else if (c == '/') {
+                return (i + 1 < length && in.charAt(i + 1) == '>') ? i + 2 : -1;
+            } else if (i == whitespaceStart) {
+                // attributes must be separated by whitespaces
+                return -1;
+            }
+            // Attribute name
+            int nameStart = i;
+            i = skipWordCharacters(in, i, length);
+            if (i == nameStart) {
+                return -1;
+            }
+            // Optional value
+            int equals = skipWhitespaces(in, i, length);
+            if (equals < length && in.charAt(equals) == '=') {
+                int valueStart = skipWhitespaces(in, equals + 1, length);
+                if (valueStart >= length) {
+                    return -1;
+                }
+                char quote = in.charAt(valueStart);
+                if (quote == '"' || quote == '\'') {
+                    return scanQuotedValue(in, valueStart, length);
+                }
+                i = valueStart;
+                while (i < length && !isUnquotedValueEnd(in.charAt(i))) {
+                    i++;
+                }
+                if (i == valueStart) {
+                    return -1;
+                }
+            }
+        }
+    }
+
+    /**
+     * A quoted value ends with the first quote that allows to read the rest of the tag, like the reluctant quantifier
+     * in <code>".*?"</code>. Quoted values cannot contain line terminators.
+     */
+    private static int scanQuotedValue(CharSequence in, int start, int length) {
+        char quote = in.charAt(start);
+        for (int i = start + 1; i < length; i++) {
+            char c = in.charAt(i);
+            if (c == quote) {
+                int end = scanAttributes(in, i + 1, length);
+                if (end > 0) {
+                    return end;
+                }
+            } else if (isLineTerminator(c)) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isUnquotedValueEnd(char c) {
+        return c == '"' || c == '\'' || c == '>' || isWhitespace(c);
+    }
+
+    private static int skipWordCharacters(CharSequence in, int start, int length) {
+        int i = start;
+        while (i < length && isWordCharacter(in.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipWhitespaces(CharSequence in, int start, int length) {
+        int i = start;
+        while (i < length && isWhitespace(in.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isWordCharacter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == '\u000B';
+    }
+
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+}
@@ -0,0 +1,246 @@
+/* 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.esigate.parser;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.esigate.HttpErrorPage;
+import org.esigate.http.IncomingRequest;
+
+/**
+ * The content of all the named fragments of a page, recorded while the page is parsed once, so that including several
+ * fragments of the same page does not parse and render the whole page again for each of them.
+ * <p>
+ * As the rendered content may depend on the request, an index is kept for the duration of a request, in an attribute
+ * of the {@link IncomingRequest}, and it is only used for the very same page.
+ * <p>
+ * While the index is built, the renderer sends all the content of the page to {@link #append(CharSequence, int, int)}
+ * and the elements delimiting the fragments call {@link #startFragment(String)} and {@link #endFragment(String)}.
+ * The content is added to all the fragments which are open, so nested fragments are supported.
+ * <p>
+ * When some fragments are wanted, see {@link #addWanted(String)}, the renderer only does the work, such as fetching
+ * includes, for the content of these fragments. The work for the other fragments can be recorded with
+ * {@link #defer(Deferred)} and is only done if one of them is written. The fragments where some content was skipped
+ * instead, see {@link #skipContent()}, cannot be read from the index.
+ * <p>
+ * This class is not thread-safe.
+ */
+public final class FragmentIndex {
+    /**
+     * Content of a fragment which is only rendered if the fragment is written.
+     */
+    public interface Deferred {
+        /**
+         * @return the content, which is rendered only once even if it belongs to several fragments
+         * @throws IOException
+         *             If an I/O error occurs
+         * @throws HttpErrorPage
+         *             If the content cannot be rendered
+         */
+        CharSequence getContent() throws IOException, HttpErrorPage;
+    }
+
+    private static final String ATTRIBUTE_PREFIX = FragmentIndex.class.getName() + '.';
+
+    private final String content;
+    /** For each fragment, ropes of rendered content and deferred content. */
+    private final Map<String, List<Object>> fragments = new HashMap<String, List<Object>>();
+    /** How many times each fragment is currently open. */
+    private final Map<String, Integer> open = new HashMap<String, Integer>();
+    /** The fragments actually requested, or null if they all are. */
+    private Set<String> wanted;
+    /** The fragments where some content was skipped. */
+    private final Set<String> incomplete = new HashSet<String>();
+    private boolean complete = false;
+    private boolean failed = false;
+
+    private FragmentIndex(String content) {
+        this.content = content;
+    }
+
+    /**
+     * @param request
+     *            the request
+     * @param key
+     *            identifies the page and the kind of fragments
+     * @param content
+     *            the content of the page
+     * @return the index of the page for this request or null if the page was not indexed or if its content changed
+     */
+    public static FragmentIndex get(IncomingRequest request, String key, String content) {
+        FragmentIndex index = request.getAttribute(ATTRIBUTE_PREFIX + key);
+        if (index != null && (index.content == content || index.content.equals(content))) {
+            return index;
+        }
+        return null;
+    }
+
+    /**
+     * Creates an empty index for a page and stores it in the request.
+     * 
+     * @see #get(IncomingRequest, String, String)
+     */
+    public static FragmentIndex create(IncomingRequest request, String key, String content) {
+        FragmentIndex index = new FragmentIndex(content);
+        request.setAttribute(ATTRIBUTE_PREFIX + key, index);
+        return index;
+    }
+
+    public void startFragment(String name) {
+        Integer count = open.get(name);
+        open.put(name, count == null ? 1 : count + 1);
+        if (!fragments.containsKey(name)) {
+            fragments.put(name, new ArrayList<Object>());
+        }
+    }
+
+    public void endFragment(String name) {
+        Integer count = open.get(name);
+        if (count == null || count <= 1) {
+            open.remove(name);
+        } else {
+            open.put(name, count - 1);
+        }
+    }
+
+    /**
+     * Ends a fragment even if it was started several times.
+     */
+    public void endAllFragments(String name) {
+        open.remove(name);
+    }
+
+    /**
+     * Declares a fragment as requested. Once a fragment is wanted, only the content of the wanted fragments is
+     * rendered in full.
+     */
+    public void addWanted(String name) {
+        if (wanted == null) {
+            wanted = new HashSet<String>();
+        }
+        wanted.add(name);
+    }
+
+    /**
+     * @return true if the current content belongs to a wanted fragment
+     */
+    public boolean isRecording() {
+        if (wanted == null) {
+            return !open.isEmpty();
+        }
+        for (String name : open.keySet()) {
+            if (wanted.contains(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Marks the fragments which are open as incomplete, because some of their content was not rendered.
+     */
+    public void skipContent() {
+        incomplete.addAll(open.keySet());
+    }
+
+    /**
+     * Adds content to all the fragments which are open.
+     */
+    public void append(CharSequence csq, int start, int end) {
+        for (String name : open.keySet()) {
+            List<Object> parts = fragments.get(name);
+            Object last = parts.isEmpty() ? null : parts.get(parts.size() - 1);
+            if (last instanceof Rope) {
+                ((Rope) last).append(csq, start, end);
+            } else {
+                parts.add(Rope.of(csq, start, end));
+            }
+        }
+    }
+
+    /**
+     * Adds content which is only rendered when one of the fragments which are open is written.
+     */
+    public void defer(Deferred content) {
+        for (String name : open.keySet()) {
+            fragments.get(name).add(content);
+        }
+    }
+
+    /**
+     * Marks the index as built, after the whole page was parsed.
+     */
+    public void setComplete() {
+        complete = true;
+        open.clear();
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Marks the index as unusable, for instance because the page could not be rendered in full.
+     */
+    public void setFailed() {
+        failed = true;
+        open.clear();
+        fragments.clear();
+        incomplete.clear();
+    }
+
+    public boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * @return true if the fragment was found in the page and recorded in full
+     */
+    public boolean isRecorded(String name) {
+        return fragments.containsKey(name) && !incomplete.contains(name);
+    }
+
+    /**
+     * Writes the content of a fragment, rendering its deferred content.
+     * 
+     * @return false if there is no fragment with this name in the page
+     * @throws IOException
+     *             If an I/O error occurs
+     * @throws HttpErrorPage
+     *             If some deferred content cannot be rendered
+     */
+    public boolean writeFragment(String name, Appendable out) throws IOException, HttpErrorPage {
+        List<Object> parts = fragments.get(name);
+        if (parts == null) {
+            return false;
+        }
+        for (Object part : parts) {
+            CharSequence content = part instanceof Rope ? (Rope) part : ((Deferred) part).getContent();
+            if (content instanceof Rope) {
+                ((Rope) content).appendTo(out);
+            } else {
+                out.append(content);
+            }
+        }
+        return true;
+    }
+
+}
@@ -43,6 +43,12 @@ public interface ParserContext {
 
     <T> T findAncestor(Class<T> type);
 
+    /**
+     * @return <code>true</code> if what is written at the current position will be thrown away, for instance inside an
+     *         &lt;esi:remove&gt; element. See {@link ContentFilter}.
+     */
+    boolean isContentDiscarded();
+
     /**
      *  Writes characters into current writer.
      * @param cs sequence
@@ -60,6 +60,17 @@ class ParserContextImpl implements ParserContext {
         return result;
     }
 
+    @Override
+    public boolean isContentDiscarded() {
+        for (int i = stack.size() - 1; i > -1; i--) {
+            Element element = stack.elementAt(i).element;
+            if (element instanceof ContentFilter && ((ContentFilter) element).isDiscardingContent()) {
+                return true;
+            }
+        }
+        return root.root instanceof ContentFilter && ((ContentFilter) root.root).isDiscardingContent();
+    }
+
     /** {@inheritDoc} */
     @Override
     public boolean reportError(Exception e) {
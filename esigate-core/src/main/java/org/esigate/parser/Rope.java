@@ -0,0 +1,231 @@
+/* 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.esigate.parser;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * A sequence of characters made of references to other sequences, used as the buffer of the elements.
+ * <p>
+ * The text of the page and the content of the includes are Strings: appending them to a rope only keeps a reference to
+ * the range appended, and appending a rope to another one only copies the references. The characters are copied once,
+ * when the rope is written to its final destination with {@link #appendTo(Appendable)}. Other sequences, which may be
+ * modified after they are appended, and short ranges, which are cheaper to copy than to reference, are copied into a
+ * buffer owned by the rope.
+ * <p>
+ * A rope can only grow, so that the ranges it references never change, even when it is referenced by another rope.
+ * This class is not thread-safe.
+ */
+public final class Rope implements CharSequence, Appendable {
+    // Shorter ranges are copied
+    private static final int MIN_SHARED_LENGTH = 32;
+
+    private CharSequence[] sequences = new CharSequence[8];
+    private int[] starts = new int[8];
+    /** The position in the rope of the end of each segment. */
+    private int[] ends = new int[8];
+    private int count = 0;
+    private StringBuilder copied;
+    // Last segment found by charAt, characters are usually read in order
+    private int current = 0;
+
+    /**
+     * Create a rope referencing a range of a sequence.
+     * 
+     * @param csq
+     *            The sequence
+     * @param start
+     *            The index of the first character of the range
+     * @param end
+     *            The index of the character following the range
+     * @return the new rope
+     */
+    public static Rope of(CharSequence csq, int start, int end) {
+        Rope rope = new Rope();
+        rope.append(csq, start, end);
+        return rope;
+    }
+
+    @Override
+    public int length() {
+        return count == 0 ? 0 : ends[count - 1];
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length()) {
+            throw new IndexOutOfBoundsException("index: " + index + ", length: " + length());
+        }
+        int segment = current;
+        if (index >= ends[segment] || index < getStart(segment)) {
+            segment = findSegment(index);
+            current = segment;
+        }
+        return sequences[segment].charAt(starts[segment] + index - getStart(segment));
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        checkRange(start, end, length());
+        return of(this, start, end);
+    }
+
+    @Override
+    public Rope append(CharSequence csq) {
+        CharSequence s = (csq == null) ? "null" : csq;
+        return append(s, 0, s.length());
+    }
+
+    @Override
+    public Rope append(CharSequence csq, int start, int end) {
+        if (csq == null) {
+            return append("null", start, end);
+        }
+        checkRange(start, end, csq.length());
+        if (csq instanceof Rope) {
+            appendRope((Rope) csq, start, end);
+        } else if (csq instanceof String && end - start >= MIN_SHARED_LENGTH) {
+            addSegment(csq, start, end);
+        } else if (start < end) {
+            if (copied == null) {
+                copied = new StringBuilder(Math.max(MIN_SHARED_LENGTH, end - start));
+            }
+            int copyStart = copied.length();
+            copied.append(csq, start, end);
+            addSegment(copied, copyStart, copied.length());
+        }
+        return this;
+    }
+
+    @Override
+    public Rope append(char c) {
+        return append(String.valueOf(c), 0, 1);
+    }
+
+    /**
+     * Writes all the characters of the rope.
+     * 
+     * @param out
+     *            The destination
+     * @throws IOException
+     *             If an I/O error occurs
+     */
+    public void appendTo(Appendable out) throws IOException {
+        appendTo(out, 0, length());
+    }
+
+    /**
+     * Writes a range of the characters of the rope, without copying them to an intermediate buffer.
+     * 
+     * @param out
+     *            The destination
+     * @param start
+     *            The index of the first character to write
+     * @param end
+     *            The index of the character following the last character to write
+     * @throws IOException
+     *             If an I/O error occurs
+     */
+    public void appendTo(Appendable out, int start, int end) throws IOException {
+        checkRange(start, end, length());
+        if (start == end) {
+            return;
+        }
+        for (int i = findSegment(start); i < count && getStart(i) < end; i++) {
+            int offset = starts[i] - getStart(i);
+            int from = offset + Math.max(start, getStart(i));
+            int to = offset + Math.min(end, ends[i]);
+            if (out instanceof Writer && sequences[i] instanceof String) {
+                ((Writer) out).write((String) sequences[i], from, to - from);
+            } else {
+                out.append(sequences[i], from, to);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        char[] result = new char[length()];
+        for (int i = 0; i < count; i++) {
+            CharSequence csq = sequences[i];
+            int start = starts[i];
+            int end = start + ends[i] - getStart(i);
+            if (csq instanceof String) {
+                ((String) csq).getChars(start, end, result, getStart(i));
+            } else if (csq instanceof StringBuilder) {
+                ((StringBuilder) csq).getChars(start, end, result, getStart(i));
+            } else {
+                for (int j = start; j < end; j++) {
+                    result[getStart(i) + j - start] = csq.charAt(j);
+                }
+            }
+        }
+        return new String(result);
+    }
+
+    private void appendRope(Rope rope, int start, int end) {
+        if (start == end) {
+            return;
+        } else if (rope == this) {
+            // Do not read the segments while adding to them
+            appendRope(of(this, start, end), 0, end - start);
+            return;
+        }
+        int first = rope.findSegment(start);
+        int last = rope.findSegment(end - 1);
+        for (int i = first; i <= last; i++) {
+            int offset = rope.starts[i] - rope.getStart(i);
+            addSegment(rope.sequences[i], offset + Math.max(start, rope.getStart(i)),
+                    offset + Math.min(end, rope.ends[i]));
+        }
+    }
+
+    private void addSegment(CharSequence csq, int start, int end) {
+        int length = length();
+        if (count > 0 && sequences[count - 1] == csq && starts[count - 1] + length - getStart(count - 1) == start) {
+            // Contiguous with the last segment
+            ends[count - 1] = length + end - start;
+            return;
+        }
+        if (count == sequences.length) {
+            sequences = Arrays.copyOf(sequences, count * 2);
+            starts = Arrays.copyOf(starts, count * 2);
+            ends = Arrays.copyOf(ends, count * 2);
+        }
+        sequences[count] = csq;
+        starts[count] = start;
+        ends[count] = length + end - start;
+        count++;
+    }
+
+    private int getStart(int segment) {
+        return segment == 0 ? 0 : ends[segment - 1];
+    }
+
+    private int findSegment(int index) {
+        int segment = Arrays.binarySearch(ends, 0, count, index);
+        // Exact match is the end of a segment, so the index is in the next one
+        return segment >= 0 ? segment + 1 : -segment - 1;
+    }
+
+    private static void checkRange(int start, int end, int length) {
+        if (start < 0 || start > end || end > length) {
+            throw new IndexOutOfBoundsException("start: " + start + ", end: " + end + ", length: " + length);
+        }
+    }
+
+}
@@ -0,0 +1,33 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.esigate.parser;
+
+/**
+ * An element type recognized by the beginning of its tags, for instance "&lt;esi:include" and "&lt;/esi:include".
+ * <p>
+ * Knowing the prefixes allows the {@link EsiParser} to find the type of a tag in a single lookup instead of testing
+ * each element type in turn.
+ */
+public interface TagElementType extends ElementType {
+    /**
+     * @return The beginning of the opening tag, for instance "&lt;esi:include"
+     */
+    String getStartTag();
+
+    /**
+     * @return The beginning of the closing tag, for instance "&lt;/esi:include"
+     */
+    String getEndTag();
+}
@@ -14,9 +14,10 @@
  */
 package org.esigate.parser.future;
 
+import java.io.Flushable;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.ArrayDeque;
+import java.util.Queue;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
@@ -24,9 +25,15 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import org.esigate.HttpErrorPage;
+import org.esigate.parser.Rope;
 
 /**
  * This class is an Adapter for Appendable objects.
+ * <p>
+ * The futures are appended in order. The ones at the head of the queue which are already complete can be appended
+ * without waiting for the others, see {@link #performCompletedAppends()}. When the output is {@link Flushable}, what
+ * was appended is flushed before waiting for a future, so that the client receives the beginning of the page while the
+ * rest is still being computed.
  * 
  * @author Nicolas Richeton
  * 
@@ -34,11 +41,12 @@ import org.esigate.HttpErrorPage;
 public class FutureAppendableAdapter implements FutureAppendable {
 
     private Appendable out;
-    private List<Future<CharSequence>> futureList;
+    private Queue<Future<CharSequence>> futureList;
+    private boolean flushNeeded = false;
 
     public FutureAppendableAdapter(Appendable out) {
         this.out = out;
-        this.futureList = new ArrayList<Future<CharSequence>>();
+        this.futureList = new ArrayDeque<Future<CharSequence>>();
     }
 
     @Override
@@ -52,9 +60,12 @@ public class FutureAppendableAdapter implements FutureAppendable {
             TimeoutException {
 
         try {
-            for (Future<CharSequence> f : this.futureList) {
-                CharSequence csq = f.get(timeout, unit);
-                this.out.append(csq);
+            while (!this.futureList.isEmpty()) {
+                Future<CharSequence> f = this.futureList.peek();
+                if (!f.isDone()) {
+                    flush();
+                }
+                append(f.get(timeout, unit));
             }
         } catch (CancellationException e) {
             throw new IOException(e);
@@ -68,7 +79,6 @@ public class FutureAppendableAdapter implements FutureAppendable {
             throw new IOException(e);
         }
 
-        this.futureList.clear();
         return this;
     }
 
@@ -77,12 +87,28 @@ public class FutureAppendableAdapter implements FutureAppendable {
         return this.futureList.size() > 0;
     }
 
+    /**
+     * @return <code>true</code> if all the pending futures are complete, so that {@link #performAppends()} does not
+     *         have to wait
+     */
+    public boolean isDone() {
+        for (Future<CharSequence> f : this.futureList) {
+            if (!f.isDone()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     @Override
     public FutureAppendable performAppends() throws IOException, HttpErrorPage {
         try {
-            for (Future<CharSequence> f : this.futureList) {
-                CharSequence csq = f.get();
-                this.out.append(csq);
+            while (!this.futureList.isEmpty()) {
+                Future<CharSequence> f = this.futureList.peek();
+                if (!f.isDone()) {
+                    flush();
+                }
+                append(f.get());
             }
         } catch (CancellationException e) {
             throw new IOException(e);
@@ -96,7 +122,49 @@ public class FutureAppendableAdapter implements FutureAppendable {
             throw new IOException(e);
         }
 
-        this.futureList.clear();
         return this;
     }
+
+    /**
+     * Appends the futures at the head of the queue which are already complete, without waiting for the others.
+     * <p>
+     * A future which failed is left in the queue: the error is reported by {@link #performAppends()}.
+     * 
+     * @return A reference to this <tt>FutureAppendable</tt>
+     * @throws IOException
+     */
+    public FutureAppendable performCompletedAppends() throws IOException {
+        while (!this.futureList.isEmpty() && this.futureList.peek().isDone()) {
+            CharSequence csq;
+            try {
+                csq = this.futureList.peek().get();
+            } catch (ExecutionException e) {
+                break;
+            } catch (CancellationException e) {
+                break;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            append(csq);
+        }
+        return this;
+    }
+
+    private void append(CharSequence csq) throws IOException {
+        if (csq instanceof Rope) {
+            ((Rope) csq).appendTo(this.out);
+        } else {
+            this.out.append(csq);
+        }
+        this.futureList.remove();
+        flushNeeded = true;
+    }
+
+    private void flush() throws IOException {
+        if (flushNeeded && this.out instanceof Flushable) {
+            ((Flushable) this.out).flush();
+            flushNeeded = false;
+        }
+    }
 }
@@ -26,6 +26,7 @@ import java.util.regex.Pattern;
 import org.apache.http.HttpResponse;
 import org.esigate.HttpErrorPage;
 import org.esigate.impl.DriverRequest;
+import org.esigate.parser.Rope;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -77,7 +78,7 @@ public class FutureParser {
         int currentPosition = 0;
         while (matcher.find()) {
             String tag = matcher.group();
-            ctx.characters(new CharSequenceFuture(in.subSequence(currentPosition, matcher.start())));
+            ctx.characters(new CharSequenceFuture(Rope.of(in, currentPosition, matcher.start())));
             currentPosition = matcher.end();
             if (ctx.isCurrentTagEnd(tag)) {
                 // check if this is the end tag for current element
@@ -101,7 +102,7 @@ public class FutureParser {
             }
         }
         // we reached the end of input
-        ctx.characters(new CharSequenceFuture(in.subSequence(currentPosition, in.length())));
+        ctx.characters(new CharSequenceFuture(Rope.of(in, currentPosition, in.length())));
     }
 
     public void setHttpRequest(DriverRequest httpRequest) {
@@ -17,6 +17,7 @@ package org.esigate.parser.future;
 
 import org.apache.http.HttpResponse;
 import org.esigate.impl.DriverRequest;
+import org.esigate.parser.ContentFilter;
 
 import java.io.IOException;
 import java.util.concurrent.Future;
@@ -49,6 +50,12 @@ public interface FutureParserContext {
 
     <T> T findAncestor(Class<T> type);
 
+    /**
+     * @return <code>true</code> if what is written at the current position will be thrown away, for instance inside an
+     *         &lt;esi:remove&gt; element. See {@link ContentFilter}.
+     */
+    boolean isContentDiscarded();
+
     /**
      * Allow to get custom context data.
      * 
@@ -23,6 +23,7 @@ import java.util.concurrent.Future;
 import org.apache.http.HttpResponse;
 import org.esigate.HttpErrorPage;
 import org.esigate.impl.DriverRequest;
+import org.esigate.parser.ContentFilter;
 
 /**
  * 
@@ -70,6 +71,17 @@ class FutureParserContextImpl implements FutureParserContext {
         return result;
     }
 
+    @Override
+    public boolean isContentDiscarded() {
+        for (int i = stack.size() - 1; i > -1; i--) {
+            FutureElement element = stack.elementAt(i).element;
+            if (element instanceof ContentFilter && ((ContentFilter) element).isDiscardingContent()) {
+                return true;
+            }
+        }
+        return root.root instanceof ContentFilter && ((ContentFilter) root.root).isDiscardingContent();
+    }
+
     /** {@inheritDoc} */
     @Override
     public boolean reportError(FutureElement el, Exception e) {
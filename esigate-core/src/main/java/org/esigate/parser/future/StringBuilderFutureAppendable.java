@@ -22,37 +22,28 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import org.esigate.HttpErrorPage;
-import org.esigate.Parameters;
+import org.esigate.parser.Rope;
 
 /**
  * This is an implementation of StringBuilder which can append Future<CharSequence> and is a Future<CharSequence>
  * itself.
  * <p>
- * It is intended for temporary buffers when implementing nested tags.
+ * It is intended for temporary buffers when implementing nested tags: the content is kept in a {@link Rope}, so that
+ * it is not copied again into the buffer of each enclosing tag.
  * 
  * 
  * @author Nicolas Richeton
  * 
  */
 public class StringBuilderFutureAppendable implements FutureAppendable, Future<CharSequence> {
-    private final StringBuilder builder;
+    private final Rope builder;
     private final FutureAppendableAdapter futureBuilder;
 
     /**
-     * Create a new builder with a default capacity of 1024.
+     * Create a new builder.
      */
     public StringBuilderFutureAppendable() {
-        this(Parameters.DEFAULT_BUFFER_SIZE);
-    }
-
-    /**
-     * Create a new builder with a custom capacity.
-     * 
-     * @param capacity
-     *            Capacity of the builder.
-     */
-    private StringBuilderFutureAppendable(int capacity) {
-        this.builder = new StringBuilder(capacity);
+        this.builder = new Rope();
         this.futureBuilder = new FutureAppendableAdapter(this.builder);
     }
 
@@ -78,7 +69,7 @@ public class StringBuilderFutureAppendable implements FutureAppendable, Future<C
 
     @Override
     public boolean isDone() {
-        return this.futureBuilder.hasPending();
+        return this.futureBuilder.isDone();
     }
 
     /*
@@ -95,7 +86,7 @@ public class StringBuilderFutureAppendable implements FutureAppendable, Future<C
         } catch (HttpErrorPage e) {
             throw new ExecutionException(e);
         }
-        return this.builder.toString();
+        return this.builder.subSequence(0, this.builder.length());
     }
 
     /*
@@ -112,7 +103,7 @@ public class StringBuilderFutureAppendable implements FutureAppendable, Future<C
         } catch (HttpErrorPage e) {
             throw new ExecutionException(e);
         }
-        return this.builder.toString();
+        return this.builder.subSequence(0, this.builder.length());
     }
 
     /*
@@ -20,7 +20,8 @@ import static org.apache.commons.lang3.StringUtils.stripEnd;
 import java.io.IOException;
 import java.io.Writer;
 
-import org.esigate.Renderer;
+import org.esigate.ConditionalRenderer;
+import org.esigate.StreamingRenderer;
 import org.esigate.impl.DriverRequest;
 import org.esigate.impl.UrlRewriter;
 
@@ -39,7 +40,7 @@ import org.esigate.impl.UrlRewriter;
  * @author Nicolas Richeton
  * 
  */
-public class ResourceFixupRenderer implements Renderer {
+public class ResourceFixupRenderer implements ConditionalRenderer, StreamingRenderer {
     private final String baseUrl;
     private final String requestUrl;
     private final UrlRewriter urlRewriter;
@@ -74,7 +75,20 @@ public class ResourceFixupRenderer implements Renderer {
 
     @Override
     public void render(DriverRequest httpRequest, String src, Writer out) throws IOException {
-        out.write(urlRewriter.rewriteHtml(src, requestUrl, baseUrl).toString());
+        urlRewriter.rewriteHtml(src, requestUrl, baseUrl, out);
+    }
+
+    @Override
+    public Writer createFilter(DriverRequest originalRequest, Writer out) {
+        return urlRewriter.createHtmlFilter(requestUrl, baseUrl, out);
+    }
+
+    /**
+     * Only the urls in src, href, action and background attributes are rewritten.
+     */
+    @Override
+    public String[] getMarkers() {
+        return new String[] {"src", "href", "action", "background"};
     }
 
 }
@@ -5,6 +5,7 @@ import java.io.IOException;
 import org.esigate.aggregator.AggregationSyntaxException;
 import org.esigate.parser.Element;
 import org.esigate.parser.ElementType;
+import org.esigate.parser.FragmentIndex;
 import org.esigate.parser.ParserContext;
 
 class BlockElement implements Element {
@@ -29,6 +30,8 @@ class BlockElement implements Element {
 
     private BlockRenderer blockRenderer;
     private boolean nameMatches;
+    private FragmentIndex index;
+    private String name;
 
     @Override
     public boolean onError(Exception e, ParserContext ctx) {
@@ -37,6 +40,10 @@ class BlockElement implements Element {
 
     @Override
     public void onTagEnd(String tag, ParserContext ctx) {
+        if (index != null) {
+            index.endAllFragments(name);
+            return;
+        }
         // Stop writing
         if (nameMatches) {
             blockRenderer.setWrite(false);
@@ -49,8 +56,13 @@ class BlockElement implements Element {
         if (parameters.length != 4) {
             throw new AggregationSyntaxException("Invalid syntax: " + tag);
         }
-        String name = parameters[2];
+        name = parameters[2];
         this.blockRenderer = ctx.findAncestor(BlockRenderer.class);
+        index = blockRenderer.getIndex();
+        if (index != null) {
+            index.startFragment(name);
+            return;
+        }
         // If name matches, start writing
         nameMatches = name.equals(blockRenderer.getName());
         if (nameMatches) {
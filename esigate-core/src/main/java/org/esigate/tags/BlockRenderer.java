@@ -21,7 +21,9 @@ import java.util.regex.Pattern;
 
 import org.esigate.HttpErrorPage;
 import org.esigate.Renderer;
+import org.esigate.http.IncomingRequest;
 import org.esigate.impl.DriverRequest;
+import org.esigate.parser.FragmentIndex;
 import org.esigate.parser.Parser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,12 +40,15 @@ import org.slf4j.LoggerFactory;
 public class BlockRenderer implements Renderer, Appendable {
     private static final Logger LOG = LoggerFactory.getLogger(BlockRenderer.class);
     private static final Pattern PATTERN = Pattern.compile("<!--\\$[^>]*\\$-->");
+    // Blocks and ESI fragments of the same page are indexed separately
+    private static final String INDEX_PREFIX = "block:";
 
     private final Parser parser = new Parser(PATTERN, BlockElement.TYPE);
     private final String page;
     private final String name;
     private boolean write;
     private Writer out;
+    private FragmentIndex index;
 
     public void setWrite(boolean write) {
         this.write = write;
@@ -73,14 +78,52 @@ public class BlockRenderer implements Renderer, Appendable {
         }
         if (name == null) {
             out.write(content);
+        } else if (page == null) {
+            parser.parse(content, this);
+        } else {
+            renderIndexed(httpRequest, content);
+        }
+    }
+
+    /**
+     * Extracting a block is not more expensive than extracting all the blocks of the page, so they are all kept in a
+     * {@link FragmentIndex} for the next blocks of the same page.
+     */
+    private void renderIndexed(DriverRequest httpRequest, String content) throws IOException, HttpErrorPage {
+        IncomingRequest request = httpRequest.getOriginalRequest();
+        FragmentIndex fragmentIndex = FragmentIndex.get(request, INDEX_PREFIX + page, content);
+        if (fragmentIndex == null) {
+            fragmentIndex = FragmentIndex.create(request, INDEX_PREFIX + page, content);
+            index = fragmentIndex;
+            try {
+                parser.parse(content, this);
+                fragmentIndex.setComplete();
+            } finally {
+                index = null;
+                if (!fragmentIndex.isComplete()) {
+                    fragmentIndex.setFailed();
+                }
+            }
+        }
+        if (fragmentIndex.isComplete()) {
+            fragmentIndex.writeFragment(name, out);
         } else {
             parser.parse(content, this);
         }
     }
 
+    /**
+     * @return the index being built or null if a single block is extracted
+     */
+    FragmentIndex getIndex() {
+        return index;
+    }
+
     @Override
     public Appendable append(CharSequence csq) throws IOException {
-        if (write) {
+        if (index != null) {
+            index.append(csq, 0, csq.length());
+        } else if (write) {
             out.append(csq);
         }
         return this;
@@ -88,7 +131,9 @@ public class BlockRenderer implements Renderer, Appendable {
 
     @Override
     public Appendable append(char c) throws IOException {
-        if (write) {
+        if (index != null) {
+            index.append(String.valueOf(c), 0, 1);
+        } else if (write) {
             out.append(c);
         }
         return this;
@@ -96,7 +141,9 @@ public class BlockRenderer implements Renderer, Appendable {
 
     @Override
     public Appendable append(CharSequence csq, int start, int end) throws IOException {
-        if (write) {
+        if (index != null) {
+            index.append(csq, start, end);
+        } else if (write) {
             out.append(csq, start, end);
         }
         return this;
@@ -0,0 +1,124 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.esigate.util;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Searches US-ASCII markers, ignoring case, in the raw bytes of a document without decoding it.
+ * <p>
+ * This is only reliable for charsets which encode US-ASCII characters as single identical bytes, like UTF-8 or
+ * ISO-8859-1, see {@link #isAsciiCompatible(Charset)}. With multi-byte charsets like Shift_JIS, some bytes of a
+ * multi-byte character may look like a marker: the scanner may then find a marker which is not actually there, but it
+ * never misses one.
+ */
+public final class MarkerScanner {
+    private static final byte[] PROBE;
+    private static final Map<Charset, Boolean> ASCII_COMPATIBLE = new ConcurrentHashMap<Charset, Boolean>();
+
+    static {
+        PROBE = new byte[0x7F - 0x20];
+        for (int i = 0; i < PROBE.length; i++) {
+            PROBE[i] = (byte) (i + 0x20);
+        }
+    }
+
+    private final byte[][] markers;
+    private final boolean[] firstBytes = new boolean[256];
+
+    /**
+     * @param markers
+     *            the markers to search, only containing US-ASCII characters
+     */
+    public MarkerScanner(Collection<String> markers) {
+        this.markers = new byte[markers.size()][];
+        int i = 0;
+        for (String marker : markers) {
+            byte[] bytes = new byte[marker.length()];
+            for (int j = 0; j < bytes.length; j++) {
+                char c = Character.toLowerCase(marker.charAt(j));
+                if (c > 0x7F) {
+                    throw new IllegalArgumentException("Marker must only contain US-ASCII characters: " + marker);
+                }
+                bytes[j] = (byte) c;
+            }
+            if (bytes.length > 0) {
+                firstBytes[bytes[0]] = true;
+                firstBytes[Character.toUpperCase(bytes[0])] = true;
+            }
+            this.markers[i++] = bytes;
+        }
+    }
+
+    /**
+     * @param content
+     *            the raw bytes of the document
+     * @return true if one of the markers is found in the document
+     */
+    public boolean isFoundIn(byte[] content) {
+        for (byte[] marker : markers) {
+            if (marker.length == 0) {
+                return true;
+            }
+        }
+        for (int i = 0; i < content.length; i++) {
+            if (firstBytes[content[i] & 0xFF]) {
+                for (byte[] marker : markers) {
+                    if (regionMatchesIgnoreCase(content, i, marker)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean regionMatchesIgnoreCase(byte[] content, int start, byte[] marker) {
+        if (start + marker.length > content.length) {
+            return false;
+        }
+        for (int i = 0; i < marker.length; i++) {
+            byte b = content[start + i];
+            if (b >= 'A' && b <= 'Z') {
+                b = (byte) (b + ('a' - 'A'));
+            }
+            if (b != marker[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param charset
+     *            the charset of the document
+     * @return true if the printable US-ASCII characters are encoded as the same single bytes with this charset
+     */
+    public static boolean isAsciiCompatible(Charset charset) {
+        Boolean result = ASCII_COMPATIBLE.get(charset);
+        if (result == null) {
+            result = charset.canEncode()
+                    && Arrays.equals(PROBE, new String(PROBE, Charset.forName("US-ASCII")).getBytes(charset));
+            ASCII_COMPATIBLE.put(charset, result);
+        }
+        return result;
+    }
+
+}
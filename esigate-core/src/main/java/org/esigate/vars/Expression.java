@@ -0,0 +1,400 @@
+/* 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.esigate.vars;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+
+import org.esigate.impl.DriverRequest;
+
+/**
+ * An ESI expression parsed once, with slots for its variables, so that it can be evaluated for each request without
+ * replacing the variables in the text and parsing the result again.
+ * <p>
+ * The result is always the same as {@link Operations#processOperators(String)} applied to the expression once the
+ * variables are replaced. As variables are replaced in the text before it is parsed, their values could change the
+ * structure of the expression: expressions whose structure may depend on the values, and evaluations where a value
+ * contains a character which has a meaning in an expression, go through {@link Operations} instead.
+ * <p>
+ * Instances are immutable and can be shared between threads.
+ */
+final class Expression {
+    // Variables are replaced by characters of the Unicode private use area in the template of the expression
+    private static final char FIRST_SLOT = '\uE000';
+    private static final int MAX_SLOTS = 0x1000;
+    private static final String[] OPERATORS = new String[] {"==", "!=", ">=", "<=", ">", "<"};
+    private static final String SPECIAL_CHARACTERS = " '()!&|=<>$";
+    private static final String[] NO_VALUES = new String[0];
+
+    private static final int EQ = 0;
+    private static final int NE = 1;
+    private static final int GE = 2;
+    private static final int LE = 3;
+    private static final int GT = 4;
+    private static final int LT = 5;
+    private static final int FALSE = 6;
+
+    private static final int AND = 0;
+    private static final int OR = 1;
+    private static final int OTHER = 2;
+
+    private final String test;
+    /** The variables of the expression, null if the expression could not be compiled. */
+    private final Variable[] variables;
+    private final Comparison[] comparisons;
+    private final boolean not;
+    private final int[] operations;
+
+    private Expression(String test) {
+        this(test, null, null, false, null);
+    }
+
+    private Expression(String test, Variable[] variables, Comparison[] comparisons, boolean not, int[] operations) {
+        this.test = test;
+        this.variables = variables;
+        this.comparisons = comparisons;
+        this.not = not;
+        this.operations = operations;
+    }
+
+    boolean isCompiled() {
+        return variables != null;
+    }
+
+    static Expression compile(String test) {
+        try {
+            return doCompile(test);
+        } catch (RuntimeException e) {
+            // Malformed variable or expression, Operations will handle it
+            return new Expression(test);
+        }
+    }
+
+    private static Expression doCompile(String test) {
+        if (test.isEmpty()) {
+            return new Expression(test);
+        }
+        for (int i = 0; i < test.length(); i++) {
+            if (isSlot(test.charAt(i))) {
+                return new Expression(test);
+            }
+        }
+
+        // Replace the variables with slots
+        List<Variable> variables = new ArrayList<Variable>();
+        StringBuilder template = new StringBuilder(test.length());
+        int position = 0;
+        if (VariablesResolver.containsVariable(test)) {
+            Matcher matcher = VariablesResolver.VAR_PATTERN.matcher(test);
+            while (matcher.find()) {
+                String group = matcher.group();
+                if (variables.size() == MAX_SLOTS || group.indexOf("$(", 1) != -1) {
+                    return new Expression(test);
+                }
+                template.append(test, position, matcher.start());
+                template.append((char) (FIRST_SLOT + variables.size()));
+                variables.add(new Variable(group));
+                position = matcher.end();
+            }
+        }
+        template.append(test, position, test.length());
+
+        String s = template.toString().replace(" ", "");
+        if (!s.isEmpty() && isSlot(s.charAt(0))) {
+            // An empty value could reveal a "!"
+            return new Expression(test);
+        }
+        for (int i = 0; i < s.length(); i++) {
+            // An empty value could join 2 characters into an operator
+            if (isSlot(s.charAt(i)) && i > 0 && "=!<>".indexOf(s.charAt(i - 1)) != -1) {
+                int next = i;
+                while (next < s.length() && isSlot(s.charAt(next))) {
+                    next++;
+                }
+                if (next < s.length() && s.charAt(next) == '=') {
+                    return new Expression(test);
+                }
+            }
+        }
+
+        List<String> operands = new ArrayList<String>();
+        List<String> operationList = new ArrayList<String>();
+        Operations.split(template.toString(), operands, operationList);
+
+        // The variables must only appear in the comparisons, not in the characters skipped between them
+        int slotsInOperands = 0;
+        for (String operand : operands) {
+            slotsInOperands += countSlots(operand);
+        }
+        if (slotsInOperands != variables.size()) {
+            return new Expression(test);
+        }
+
+        Comparison[] comparisons = new Comparison[operands.size()];
+        for (int i = 0; i < comparisons.length; i++) {
+            comparisons[i] = Comparison.compile(operands.get(i));
+            if (comparisons[i] == null) {
+                return new Expression(test);
+            }
+        }
+        int[] operations = new int[operationList.size()];
+        for (int i = 0; i < operations.length; i++) {
+            String operation = operationList.get(i);
+            if (operation.equals("&")) {
+                operations[i] = AND;
+            } else if (operation.equals("|")) {
+                operations[i] = OR;
+            } else {
+                operations[i] = OTHER;
+            }
+        }
+        boolean not = operationList.size() == 1 && operationList.get(0).equals("!");
+        return new Expression(test, variables.toArray(new Variable[variables.size()]), comparisons, not, operations);
+    }
+
+    private static boolean isSlot(char c) {
+        return c >= FIRST_SLOT && c < FIRST_SLOT + MAX_SLOTS;
+    }
+
+    private static int countSlots(String s) {
+        int count = 0;
+        for (int i = 0; i < s.length(); i++) {
+            if (isSlot(s.charAt(i))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    boolean evaluate(DriverRequest request) {
+        if (variables == null) {
+            return Operations.processOperators(VariablesResolver.replaceAllVariables(test, request));
+        }
+        String[] values = NO_VALUES;
+        if (variables.length > 0) {
+            values = new String[variables.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = variables[i].getValue(request);
+                if (!isSafe(values[i])) {
+                    return Operations.processOperators(VariablesResolver.replaceAllVariables(test, request));
+                }
+            }
+        }
+
+        // Same logic as Operations.executeOperations, evaluating the comparisons only when needed
+        if (comparisons.length == 1) {
+            return not ^ comparisons[0].evaluate(values);
+        }
+        boolean res = comparisons[0].evaluate(values);
+        int i = 1;
+        for (int operation : operations) {
+            if (operation == AND) {
+                if (res) {
+                    if (i >= comparisons.length) {
+                        return false;
+                    }
+                    res = comparisons[i].evaluate(values);
+                }
+            } else if (operation == OR) {
+                if (!res) {
+                    if (i >= comparisons.length) {
+                        return false;
+                    }
+                    res = comparisons[i].evaluate(values);
+                }
+            } else {
+                res = false;
+            }
+            i++;
+        }
+        return res;
+    }
+
+    private static boolean isSafe(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (SPECIAL_CHARACTERS.indexOf(c) != -1 || isSlot(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A comparison between parenthesis, see Operations.executeOperation.
+     */
+    private static final class Comparison {
+        private final int operator;
+        private final Operand left;
+        private final Operand right;
+
+        private Comparison(int operator, Operand left, Operand right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        /**
+         * @return the comparison or null if its result may depend on the values of the variables
+         */
+        static Comparison compile(String operand) {
+            for (int operator = 0; operator < OPERATORS.length; operator++) {
+                int i = operand.indexOf(OPERATORS[operator]);
+                if (i != -1) {
+                    String left = operand.substring(0, i);
+                    String right = operand.substring(i + OPERATORS[operator].length());
+                    if (!hasStaticQuotes(left) || !hasStaticQuotes(right)) {
+                        return null;
+                    }
+                    try {
+                        return new Comparison(operator, new Operand(VarUtils.removeSimpleQuotes(left)), new Operand(
+                                VarUtils.removeSimpleQuotes(right)));
+                    } catch (RuntimeException e) {
+                        // A single quote
+                        return new Comparison(FALSE, null, null);
+                    }
+                }
+            }
+            return new Comparison(FALSE, null, null);
+        }
+
+        /**
+         * Quotes are removed if the operand starts and ends with a quote, an empty value at one end could change that.
+         */
+        private static boolean hasStaticQuotes(String side) {
+            return side.indexOf('\'') == -1
+                    || (!side.isEmpty() && !isSlot(side.charAt(0)) && !isSlot(side.charAt(side.length() - 1)));
+        }
+
+        boolean evaluate(String[] values) {
+            if (operator == FALSE) {
+                return false;
+            }
+            String op1 = left.getValue(values);
+            String op2 = right.getValue(values);
+            if (left.isNumber(op1) && right.isNumber(op2)) {
+                try {
+                    return compare(left.toNumber(op1), right.toNumber(op2));
+                } catch (NumberFormatException e) {
+                    // Compared as strings
+                }
+            }
+            switch (operator) {
+                case EQ:
+                    return op1.equals(op2);
+                case NE:
+                    return !op1.equals(op2);
+                case GE:
+                    return op1.compareTo(op2) >= 0;
+                case LE:
+                    return op1.compareTo(op2) <= 0;
+                case GT:
+                    return op1.compareTo(op2) > 0;
+                default:
+                    return op1.compareTo(op2) < 0;
+            }
+        }
+
+        private boolean compare(double d1, double d2) {
+            switch (operator) {
+                case EQ:
+                    // Same as Double.equals
+                    return Double.doubleToLongBits(d1) == Double.doubleToLongBits(d2);
+                case NE:
+                    return Double.doubleToLongBits(d1) != Double.doubleToLongBits(d2);
+                case GE:
+                    return d1 >= d2;
+                case LE:
+                    return d1 <= d2;
+                case GT:
+                    return d1 > d2;
+                default:
+                    return d1 < d2;
+            }
+        }
+    }
+
+    /**
+     * One side of a comparison, either a constant, a variable or a mix of both.
+     */
+    private static final class Operand {
+        private final String template;
+        private final int slot;
+        private final boolean constant;
+        private final boolean number;
+        private final double value;
+
+        Operand(String template) {
+            this.template = template;
+            int slots = countSlots(template);
+            this.slot = (slots == 1 && template.length() == 1) ? template.charAt(0) - FIRST_SLOT : -1;
+            this.constant = slots == 0;
+            double d = 0;
+            boolean isNumber = false;
+            if (constant && mayBeNumber(template)) {
+                try {
+                    d = Double.parseDouble(template);
+                    isNumber = true;
+                } catch (NumberFormatException e) {
+                    // Not a number
+                }
+            }
+            this.number = isNumber;
+            this.value = d;
+        }
+
+        String getValue(String[] values) {
+            if (constant) {
+                return template;
+            } else if (slot >= 0) {
+                return values[slot];
+            }
+            StringBuilder result = new StringBuilder();
+            for (int i = 0; i < template.length(); i++) {
+                char c = template.charAt(i);
+                if (isSlot(c)) {
+                    result.append(values[c - FIRST_SLOT]);
+                } else {
+                    result.append(c);
+                }
+            }
+            return result.toString();
+        }
+
+        boolean isNumber(String s) {
+            return constant ? number : mayBeNumber(s);
+        }
+
+        double toNumber(String s) {
+            return constant ? value : Double.parseDouble(s);
+        }
+
+        /**
+         * Avoids the cost of an exception for most of the strings which are not numbers: all numbers accepted by
+         * Double.valueOf start with one of these characters, once trimmed.
+         */
+        private static boolean mayBeNumber(String s) {
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c > ' ') {
+                    return "+-.0123456789NI".indexOf(c) != -1;
+                }
+            }
+            return false;
+        }
+    }
+
+}
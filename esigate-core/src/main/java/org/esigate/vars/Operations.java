@@ -15,6 +15,12 @@
 package org.esigate.vars;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.esigate.impl.DriverRequest;
 
 /**
  * Support for ESI expressions.
@@ -25,6 +31,18 @@ import java.util.ArrayList;
  */
 public final class Operations {
 
+    private static final int MAX_CACHED_EXPRESSIONS = 1000;
+
+    private static final Map<String, Expression> EXPRESSIONS = Collections
+            .synchronizedMap(new LinkedHashMap<String, Expression>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Expression> eldest) {
+                    return size() > MAX_CACHED_EXPRESSIONS;
+                }
+            });
+
     private Operations() {
 
     }
@@ -185,6 +203,22 @@ public final class Operations {
         ArrayList<String> operands = new ArrayList<String>();
         ArrayList<String> operations = new ArrayList<String>();
 
+        try {
+            split(test, operands, operations);
+        } catch (Exception e) {
+            return false;
+        }
+
+        return executeOperations(operands, operations);
+    }
+
+    /**
+     * Splits an expression into the comparisons between parenthesis and the logical operations between them.
+     * 
+     * @throws RuntimeException
+     *             if the expression is malformed
+     */
+    static void split(String test, List<String> operands, List<String> operations) {
         String s = test.replaceAll(" ", "");
         if (s.startsWith("!")) {
             operations.add("!");
@@ -194,24 +228,42 @@ public final class Operations {
         }
 
         // allocate (...)
-        try {
-            while (s.length() > 0) {
-                int sbIndex = s.indexOf(')');
-                operands.add(s.substring(s.indexOf('(') + 1, sbIndex));
-                if (s.length() > sbIndex + 1) {
-                    String oper = s.substring(sbIndex + 1, s.substring(sbIndex).indexOf('(') + sbIndex);
-                    operations.add(oper);
-                    s = s.substring(sbIndex + 2);
-                } else {
-                    s = "";
-                }
-
+        while (s.length() > 0) {
+            int sbIndex = s.indexOf(')');
+            operands.add(s.substring(s.indexOf('(') + 1, sbIndex));
+            if (s.length() > sbIndex + 1) {
+                String oper = s.substring(sbIndex + 1, s.substring(sbIndex).indexOf('(') + sbIndex);
+                operations.add(oper);
+                s = s.substring(sbIndex + 2);
+            } else {
+                s = "";
             }
-        } catch (Exception e) {
-            return false;
+
         }
+    }
 
-        return executeOperations(operands, operations);
+    /**
+     * Replaces the variables of an ESI expression and evaluates it, like
+     * <code>processOperators(VariablesResolver.replaceAllVariables(test, request))</code>.
+     * <p>
+     * Expressions are compiled the first time they are evaluated and the most recently used ones are kept in a cache.
+     * 
+     * @param test
+     *            the expression, for instance the test attribute of an esi:when tag
+     * @param request
+     *            the request the variables are resolved for
+     * @return the result of the expression, false if it is null or malformed
+     */
+    public static boolean evaluate(String test, DriverRequest request) {
+        if (test == null) {
+            return false;
+        }
+        Expression expression = EXPRESSIONS.get(test);
+        if (expression == null) {
+            expression = Expression.compile(test);
+            EXPRESSIONS.put(test, expression);
+        }
+        return expression.evaluate(request);
     }
 
 }
@@ -0,0 +1,75 @@
+/* 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.esigate.vars;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+
+import org.esigate.impl.DriverRequest;
+
+/**
+ * A String containing ESI variables, split once into the text between the variables and the variables themselves, so
+ * that the variables can be replaced in a single pass for each request.
+ * <p>
+ * Instances are immutable and can be shared between threads.
+ */
+final class Template {
+    private final String[] texts;
+    private final Variable[] variables;
+
+    private Template(String[] texts, Variable[] variables) {
+        this.texts = texts;
+        this.variables = variables;
+    }
+
+    static Template compile(String strVars) {
+        List<String> texts = new ArrayList<String>();
+        List<Variable> variables = new ArrayList<Variable>();
+        Matcher matcher = VariablesResolver.VAR_PATTERN.matcher(strVars);
+        int position = 0;
+        while (matcher.find()) {
+            texts.add(strVars.substring(position, matcher.start()));
+            variables.add(new Variable(matcher.group()));
+            position = matcher.end();
+        }
+        texts.add(strVars.substring(position));
+        return new Template(texts.toArray(new String[texts.size()]), variables.toArray(new Variable[variables
+                .size()]));
+    }
+
+    /**
+     * @return the approximate number of characters kept by this template
+     */
+    int getLength() {
+        int length = 0;
+        for (String text : texts) {
+            length += text.length();
+        }
+        return length;
+    }
+
+    String resolve(DriverRequest request) {
+        if (variables.length == 0) {
+            return texts[0];
+        }
+        StringBuilder result = new StringBuilder(getLength() + 16 * variables.length);
+        for (int i = 0; i < variables.length; i++) {
+            result.append(texts[i]).append(variables[i].getValue(request));
+        }
+        return result.append(texts[variables.length]).toString();
+    }
+
+}
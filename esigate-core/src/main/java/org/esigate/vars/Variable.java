@@ -0,0 +1,66 @@
+/* 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.esigate.vars;
+
+import org.apache.commons.lang3.StringUtils;
+import org.esigate.impl.DriverRequest;
+
+/**
+ * A reference to an ESI variable like <code>$(HTTP_COOKIE{name}|'default')</code>, parsed once so that it can be
+ * resolved for several requests.
+ */
+final class Variable {
+    private final String var;
+    private final String arg;
+    private final String defaultValue;
+
+    /**
+     * @param group
+     *            the reference, including <code>$(</code> and <code>)</code>
+     */
+    Variable(String group) {
+        var = group.substring(2, group.length() - 1);
+
+        // try to find argument
+        int argIndex = var.indexOf('{');
+        if (argIndex != -1) {
+            arg = var.substring(argIndex + 1, var.indexOf('}'));
+        } else {
+            arg = null;
+        }
+
+        // try to find default value
+        // ESI 1.0 spec :
+        // 4.2 Variable Default Values
+        // Variables whose values are empty, nonexistent variables and
+        // undefined substructures of variables will evaluate to an
+        // empty string when they are accessed.
+        int defaultValueIndex = var.indexOf('|');
+        if (defaultValueIndex != -1) {
+            defaultValue = VarUtils.removeSimpleQuotes(var.substring(defaultValueIndex + 1));
+        } else {
+            defaultValue = StringUtils.EMPTY;
+        }
+    }
+
+    String getValue(DriverRequest request) {
+        String value = VariablesResolver.getProperty(var, arg, request);
+        if (value == null) {
+            value = defaultValue;
+        }
+        return value;
+    }
+
+}
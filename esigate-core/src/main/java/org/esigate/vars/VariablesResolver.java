@@ -29,7 +29,11 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -105,7 +109,24 @@ public final class VariablesResolver {
     /**
      * Regexp to find variables
      */
-    private static final Pattern VAR_PATTERN = Pattern.compile("\\$\\((.*?)\\)");
+    static final Pattern VAR_PATTERN = Pattern.compile("\\$\\((.*?)\\)");
+
+    // Urls and expressions are cached, not whole pages
+    private static final int MAX_CACHED_TEMPLATE_LENGTH = 1024;
+    private static final int MAX_CACHED_TEMPLATES = 1000;
+
+    private static final Map<String, Template> TEMPLATES = Collections
+            .synchronizedMap(new LinkedHashMap<String, Template>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Template> eldest) {
+                    return size() > MAX_CACHED_TEMPLATES;
+                }
+            });
+
+    // Stands for null in the values of the variables of a request
+    private static final String NO_VALUE = new String();
 
     /**
      * 
@@ -117,6 +138,20 @@ public final class VariablesResolver {
         return strVars.contains("$(") && strVars.contains(")");
     }
 
+    private static boolean containsVariable(CharSequence strVars) {
+        boolean start = false;
+        boolean end = false;
+        for (int i = 0; i < strVars.length() && !(start && end); i++) {
+            char c = strVars.charAt(i);
+            if (c == ')') {
+                end = true;
+            } else if (c == '$' && i + 1 < strVars.length() && strVars.charAt(i + 1) == '(') {
+                start = true;
+            }
+        }
+        return start && end;
+    }
+
     /**
      * Replace all ESI variables found in strVars by their matching value in vars.properties.
      * 
@@ -137,48 +172,63 @@ public final class VariablesResolver {
      * @return The resulting String
      */
     public static String replaceAllVariables(String strVars, DriverRequest request) {
-        String result = strVars;
-        if (VariablesResolver.containsVariable(strVars)) {
-            Matcher matcher = VAR_PATTERN.matcher(strVars);
-
-            while (matcher.find()) {
-                String group = matcher.group();
-                String var = group.substring(2, group.length() - 1);
-                String arg = null;
-
-                // try to find argument
-                int argIndex = var.indexOf('{');
-                if (argIndex != -1) {
-                    arg = var.substring(argIndex + 1, var.indexOf('}'));
-                }
-
-                // try to find default value
-                // ESI 1.0 spec :
-                // 4.2 Variable Default Values
-                // Variables whose values are empty, nonexistent variables and
-                // undefined substructures of variables will evaluate to an
-                // empty string when they are accessed.
-                String defaultValue = StringUtils.EMPTY;
-                int defaultValueIndex = var.indexOf('|');
-                if (defaultValueIndex != -1) {
-                    defaultValue = VarUtils.removeSimpleQuotes(var.substring(defaultValueIndex + 1));
-                }
-
-                String value = getProperty(var, arg, request);
-
-                if (value == null) {
-                    value = defaultValue;
-                }
+        if (!VariablesResolver.containsVariable(strVars)) {
+            return strVars;
+        }
+        return getTemplate(strVars).resolve(request);
+    }
 
-                result = result.replace(group, value);
+    private static Template getTemplate(String strVars) {
+        if (strVars.length() > MAX_CACHED_TEMPLATE_LENGTH) {
+            return Template.compile(strVars);
+        }
+        Template template = TEMPLATES.get(strVars);
+        if (template == null) {
+            template = Template.compile(strVars);
+            TEMPLATES.put(strVars, template);
+        }
+        return template;
+    }
 
-            }
+    /**
+     * Replace all ESI variables found in strVars by their matching value in vars.properties.
+     * <p>
+     * strVars is only converted to a String if it contains variables, otherwise it is returned as is.
+     * 
+     * @param strVars
+     *            a CharSequence containing variables.
+     * @param request
+     * @return The resulting CharSequence
+     */
+    public static CharSequence replaceAllVariables(CharSequence strVars, DriverRequest request) {
+        if (strVars instanceof String) {
+            return replaceAllVariables((String) strVars, request);
+        }
+        if (!containsVariable(strVars)) {
+            return strVars;
+        }
+        return replaceAllVariables(strVars.toString(), request);
+    }
 
+    /**
+     * Resolves a variable, at most once per request: the values are kept in {@link DriverRequest#getVariables()}.
+     */
+    static String getProperty(String var, String arg, DriverRequest request) {
+        if (request == null) {
+            return resolveProperty(var, arg, request);
+        }
+        ConcurrentMap<String, String> values = request.getVariables();
+        String result = values.get(var);
+        if (result == null) {
+            result = resolveProperty(var, arg, request);
+            values.putIfAbsent(var, result == null ? NO_VALUE : result);
+        } else if (result == NO_VALUE) {
+            result = null;
         }
         return result;
     }
 
-    private static String getProperty(String var, String arg, DriverRequest request) {
+    private static String resolveProperty(String var, String arg, DriverRequest request) {
         String result = processVar(var, arg, request);
         if (properties != null) {
             result = properties.getProperty(var, result);
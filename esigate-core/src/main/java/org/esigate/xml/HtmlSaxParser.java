@@ -0,0 +1,83 @@
+/* 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.esigate.xml;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import nu.validator.htmlparser.common.DoctypeExpectation;
+import nu.validator.htmlparser.common.XmlViolationPolicy;
+import nu.validator.htmlparser.sax.HtmlParser;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ * Parses an html page to SAX events, without building a DOM.
+ * <p>
+ * In streaming mode, the events are sent while the page is parsed. This is not possible for some invalid pages (for
+ * instance misnested tags that the html5 algorithm moves around): parsing then fails with a {@link SAXParseException},
+ * without ending the document, and the page must be parsed again in tree mode, which builds the whole tree before
+ * sending the same events as {@link nu.validator.htmlparser.dom.HtmlDocumentBuilder} would.
+ */
+final class HtmlSaxParser {
+
+    private HtmlSaxParser() {
+
+    }
+
+    static void parse(String src, ContentHandler contentHandler, LexicalHandler lexicalHandler, boolean streaming)
+            throws IOException, SAXException {
+        HtmlParser htmlParser = new HtmlParser(XmlViolationPolicy.ALTER_INFOSET);
+        htmlParser.setDoctypeExpectation(DoctypeExpectation.NO_DOCTYPE_ERRORS);
+        htmlParser.setStreamabilityViolationPolicy(streaming ? XmlViolationPolicy.FATAL : XmlViolationPolicy.ALLOW);
+        StreamingFilter filter = new StreamingFilter();
+        filter.setContentHandler(contentHandler);
+        htmlParser.setContentHandler(filter);
+        htmlParser.setTreeBuilderErrorHandlerOverride(filter);
+        htmlParser.setLexicalHandler(lexicalHandler);
+        htmlParser.parse(new InputSource(new StringReader(src)));
+    }
+
+    /**
+     * The parser ends the document even when it fails: the end is not sent to the handler so that it does not produce
+     * any output.
+     */
+    private static final class StreamingFilter extends XMLFilterImpl {
+        private boolean failed = false;
+
+        @Override
+        public void fatalError(SAXParseException e) {
+            failed = true;
+        }
+
+        @Override
+        public void error(SAXParseException e) {
+            // Invalid pages are fixed by the parser
+        }
+
+        @Override
+        public void endDocument() throws SAXException {
+            if (!failed) {
+                super.endDocument();
+            }
+        }
+    }
+
+}
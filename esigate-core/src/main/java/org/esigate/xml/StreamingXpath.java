@@ -0,0 +1,279 @@
+/* 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.esigate.xml;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.output.StringBuilderWriter;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+
+/**
+ * Evaluates the simplest XPath location paths, like <code>/html:html/html:body</code> or <code>//html:div</code>,
+ * while the page is parsed instead of on a DOM.
+ * <p>
+ * Only absolute paths made of child (<code>/</code>) and descendant (<code>//</code>) steps selecting elements by
+ * name or with <code>*</code> are supported, without predicates. The matching elements are serialized in document
+ * order, nested matches included, as if the node set had been evaluated on the whole document.
+ * <p>
+ * This class is immutable and can be shared between threads.
+ */
+final class StreamingXpath {
+    private static final HtmlNamespaceContext HTML_NAMESPACE_CONTEXT = new HtmlNamespaceContext();
+    private static final Pattern STEP = Pattern.compile("(//?)(?:(\\*)|([a-zA-Z][\\w.-]*):(\\*|[a-zA-Z][\\w.-]*))");
+
+    private final boolean[] descendant;
+    /** The namespace of each step, null for any namespace. */
+    private final String[] namespaces;
+    /** The local name of each step, null for any element. */
+    private final String[] names;
+
+    private StreamingXpath(List<Boolean> descendant, List<String> namespaces, List<String> names) {
+        int length = names.size();
+        this.descendant = new boolean[length];
+        for (int i = 0; i < length; i++) {
+            this.descendant[i] = descendant.get(i);
+        }
+        this.namespaces = namespaces.toArray(new String[length]);
+        this.names = names.toArray(new String[length]);
+    }
+
+    /**
+     * @param xpath
+     *            the expression
+     * @return the compiled expression or null if it is not simple enough to be evaluated while parsing
+     */
+    static StreamingXpath compile(String xpath) {
+        String expression = xpath.trim();
+        Matcher matcher = STEP.matcher(expression);
+        List<Boolean> descendant = new ArrayList<Boolean>();
+        List<String> namespaces = new ArrayList<String>();
+        List<String> names = new ArrayList<String>();
+        int position = 0;
+        while (position < expression.length()) {
+            if (!matcher.find(position) || matcher.start() != position) {
+                return null;
+            }
+            descendant.add(matcher.group(1).length() == 2);
+            if (matcher.group(2) != null) {
+                namespaces.add(null);
+                names.add(null);
+            } else {
+                String namespace = HTML_NAMESPACE_CONTEXT.getNamespaceURI(matcher.group(3));
+                if (namespace == null) {
+                    return null;
+                }
+                namespaces.add(namespace);
+                names.add("*".equals(matcher.group(4)) ? null : matcher.group(4));
+            }
+            position = matcher.end();
+        }
+        if (names.isEmpty()) {
+            return null;
+        }
+        return new StreamingXpath(descendant, namespaces, names);
+    }
+
+    /**
+     * @return a SAX handler writing the matching elements to out when the document ends
+     */
+    Handler newHandler(Writer out) {
+        return new Handler(out);
+    }
+
+    private boolean matches(List<String> uris, List<String> localNames) {
+        return matches(uris, localNames, names.length - 1, uris.size() - 1);
+    }
+
+    /**
+     * Matches the steps up to step against the elements up to depth, from the end of the path.
+     */
+    private boolean matches(List<String> uris, List<String> localNames, int step, int depth) {
+        if (step < 0) {
+            return depth < 0;
+        }
+        if (depth < 0 || !matches(step, uris.get(depth), localNames.get(depth))) {
+            return false;
+        }
+        if (!descendant[step]) {
+            return matches(uris, localNames, step - 1, depth - 1);
+        }
+        for (int ancestor = depth - 1; ancestor >= (step == 0 ? -1 : 0); ancestor--) {
+            if (matches(uris, localNames, step - 1, ancestor)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean matches(int step, String uri, String localName) {
+        return (namespaces[step] == null || namespaces[step].equals(uri))
+                && (names[step] == null || names[step].equals(localName));
+    }
+
+    /**
+     * Serializes each matching element to a buffer, as long as it is open. The matching elements are usually a small
+     * part of the page.
+     */
+    final class Handler implements ContentHandler, LexicalHandler {
+        private final Writer out;
+        private final List<String> uris = new ArrayList<String>();
+        private final List<String> localNames = new ArrayList<String>();
+        private final List<StringBuilderWriter> results = new ArrayList<StringBuilderWriter>();
+        private final List<XhtmlSerializer> serializers = new ArrayList<XhtmlSerializer>();
+        private final List<Integer> depths = new ArrayList<Integer>();
+
+        private Handler(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+            uris.add(uri);
+            localNames.add(localName);
+            if (matches(uris, localNames)) {
+                StringBuilderWriter result = new StringBuilderWriter();
+                results.add(result);
+                serializers.add(new XhtmlSerializer(result));
+                depths.add(uris.size());
+            }
+            for (XhtmlSerializer serializer : serializers) {
+                serializer.startElement(uri, localName, qName, atts);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            for (XhtmlSerializer serializer : serializers) {
+                serializer.endElement(uri, localName, qName);
+            }
+            int last = depths.size() - 1;
+            if (last >= 0 && depths.get(last) == uris.size()) {
+                serializers.remove(last);
+                depths.remove(last);
+            }
+            uris.remove(uris.size() - 1);
+            localNames.remove(localNames.size() - 1);
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) throws SAXException {
+            for (XhtmlSerializer serializer : serializers) {
+                serializer.characters(ch, start, length);
+            }
+        }
+
+        @Override
+        public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+            for (XhtmlSerializer serializer : serializers) {
+                serializer.ignorableWhitespace(ch, start, length);
+            }
+        }
+
+        @Override
+        public void comment(char[] ch, int start, int length) throws SAXException {
+            for (XhtmlSerializer serializer : serializers) {
+                serializer.comment(ch, start, length);
+            }
+        }
+
+        @Override
+        public void processingInstruction(String target, String data) throws SAXException {
+            for (XhtmlSerializer serializer : serializers) {
+                serializer.processingInstruction(target, data);
+            }
+        }
+
+        @Override
+        public void startCDATA() throws SAXException {
+            for (XhtmlSerializer serializer : serializers) {
+                serializer.startCDATA();
+            }
+        }
+
+        @Override
+        public void endCDATA() throws SAXException {
+            for (XhtmlSerializer serializer : serializers) {
+                serializer.endCDATA();
+            }
+        }
+
+        @Override
+        public void endDocument() throws SAXException {
+            try {
+                for (StringBuilderWriter result : results) {
+                    out.append(result.getBuilder());
+                }
+            } catch (IOException e) {
+                throw new SAXException(e);
+            }
+        }
+
+        @Override
+        public void setDocumentLocator(Locator locator) {
+            // Not needed
+        }
+
+        @Override
+        public void startDocument() {
+            // Nothing to do
+        }
+
+        @Override
+        public void startPrefixMapping(String prefix, String uri) {
+            // Namespaces are not serialized
+        }
+
+        @Override
+        public void endPrefixMapping(String prefix) {
+            // Namespaces are not serialized
+        }
+
+        @Override
+        public void skippedEntity(String name) {
+            // Entities are resolved by the html parser
+        }
+
+        @Override
+        public void startDTD(String name, String publicId, String systemId) {
+            // The doctype is never part of an element
+        }
+
+        @Override
+        public void endDTD() {
+            // The doctype is never part of an element
+        }
+
+        @Override
+        public void startEntity(String name) {
+            // Entities are resolved by the html parser
+        }
+
+        @Override
+        public void endEntity(String name) {
+            // Entities are resolved by the html parser
+        }
+
+    }
+
+}
@@ -0,0 +1,210 @@
+/* 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.esigate.xml;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.transform.Templates;
+import javax.xml.xpath.XPathExpression;
+
+import org.esigate.Parameters;
+
+/**
+ * Storage for the compiled XSLT stylesheets and XPath expressions, so that they are not compiled again on each
+ * include.
+ * <p>
+ * There is one instance per Driver. Stylesheets are stored by url and validator, like the ESI templates in
+ * {@link org.esigate.esi.TemplateCache}, and are only used if the stylesheet is exactly the one that was compiled.
+ * XPath expressions are stored by expression. As an {@link XPathExpression} cannot be evaluated by several threads at
+ * the same time, the compiled expressions are borrowed by the renderers and given back once evaluated.
+ * <p>
+ * Both caches are bounded in number of entries, the least recently used entries being evicted. Setting the maximum
+ * number of entries to 0 disables the cache.
+ */
+public final class XmlCache {
+    private final LinkedHashMap<String, CompiledStylesheet> stylesheets
+            = new LinkedHashMap<String, CompiledStylesheet>(16, 0.75f, true);
+    private final LinkedHashMap<String, Queue<XPathExpression>> expressions
+            = new LinkedHashMap<String, Queue<XPathExpression>>(16, 0.75f, true);
+    private final int maxEntries;
+
+    private final AtomicLong stylesheetHits = new AtomicLong();
+    private final AtomicLong stylesheetCompilations = new AtomicLong();
+    private final AtomicLong stylesheetCompilationTime = new AtomicLong();
+    private final AtomicLong expressionHits = new AtomicLong();
+    private final AtomicLong expressionCompilations = new AtomicLong();
+    private final AtomicLong expressionCompilationTime = new AtomicLong();
+
+    public XmlCache(Properties properties) {
+        this(Parameters.XML_CACHE_MAX_ENTRIES.getValue(properties));
+    }
+
+    public XmlCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public boolean isEnabled() {
+        return maxEntries > 0;
+    }
+
+    /**
+     * Get a compiled stylesheet from the cache or compile it.
+     * 
+     * @param key
+     *            the key returned by
+     *            {@link org.esigate.esi.TemplateCache#getKey(String, org.apache.http.HttpResponse)} or null if the
+     *            stylesheet has no validator
+     * @param xsl
+     *            the stylesheet
+     * @return the compiled stylesheet
+     */
+    public Templates getTemplates(String key, String xsl) {
+        if (key != null && isEnabled()) {
+            CompiledStylesheet stylesheet;
+            synchronized (stylesheets) {
+                stylesheet = stylesheets.get(key);
+            }
+            // Compare outside of the lock, stylesheets may be big
+            if (stylesheet != null && stylesheet.source.equals(xsl)) {
+                stylesheetHits.incrementAndGet();
+                return stylesheet.templates;
+            }
+        }
+        long start = System.nanoTime();
+        Templates templates = XsltRenderer.createTemplates(xsl);
+        stylesheetCompilationTime.addAndGet(System.nanoTime() - start);
+        stylesheetCompilations.incrementAndGet();
+        if (key != null && isEnabled()) {
+            synchronized (stylesheets) {
+                stylesheets.put(key, new CompiledStylesheet(xsl, templates));
+                evict(stylesheets);
+            }
+        }
+        return templates;
+    }
+
+    /**
+     * Borrows a compiled XPath expression, compiling it if needed. The expression must be given back with
+     * {@link #release(String, XPathExpression)} once evaluated.
+     * 
+     * @param xpath
+     *            the expression
+     * @return the compiled expression
+     */
+    public XPathExpression borrowExpression(String xpath) {
+        if (isEnabled()) {
+            Queue<XPathExpression> pool;
+            synchronized (expressions) {
+                pool = expressions.get(xpath);
+            }
+            XPathExpression expression = pool == null ? null : pool.poll();
+            if (expression != null) {
+                expressionHits.incrementAndGet();
+                return expression;
+            }
+        }
+        long start = System.nanoTime();
+        XPathExpression expression = XpathRenderer.compile(xpath);
+        expressionCompilationTime.addAndGet(System.nanoTime() - start);
+        expressionCompilations.incrementAndGet();
+        return expression;
+    }
+
+    /**
+     * Gives back an expression returned by {@link #borrowExpression(String)} so that it can be used again.
+     */
+    public void release(String xpath, XPathExpression expression) {
+        if (!isEnabled()) {
+            return;
+        }
+        Queue<XPathExpression> pool;
+        synchronized (expressions) {
+            pool = expressions.get(xpath);
+            if (pool == null) {
+                pool = new ConcurrentLinkedQueue<XPathExpression>();
+                expressions.put(xpath, pool);
+                evict(expressions);
+            }
+        }
+        pool.offer(expression);
+    }
+
+    private void evict(Map<String, ?> entries) {
+        Iterator<?> iterator = entries.values().iterator();
+        while (entries.size() > maxEntries && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    public int getStylesheetCount() {
+        synchronized (stylesheets) {
+            return stylesheets.size();
+        }
+    }
+
+    public long getStylesheetHitCount() {
+        return stylesheetHits.get();
+    }
+
+    public long getStylesheetCompilationCount() {
+        return stylesheetCompilations.get();
+    }
+
+    /**
+     * @return the total time spent compiling stylesheets, in nanoseconds.
+     */
+    public long getStylesheetCompilationTime() {
+        return stylesheetCompilationTime.get();
+    }
+
+    public int getExpressionCount() {
+        synchronized (expressions) {
+            return expressions.size();
+        }
+    }
+
+    public long getExpressionHitCount() {
+        return expressionHits.get();
+    }
+
+    public long getExpressionCompilationCount() {
+        return expressionCompilations.get();
+    }
+
+    /**
+     * @return the total time spent compiling XPath expressions, in nanoseconds.
+     */
+    public long getExpressionCompilationTime() {
+        return expressionCompilationTime.get();
+    }
+
+    private static final class CompiledStylesheet {
+        private final String source;
+        private final Templates templates;
+
+        private CompiledStylesheet(String source, Templates templates) {
+            this.source = source;
+            this.templates = templates;
+        }
+    }
+
+}
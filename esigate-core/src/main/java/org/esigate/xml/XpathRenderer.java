@@ -31,28 +31,60 @@ import nu.validator.htmlparser.dom.HtmlDocumentBuilder;
 
 import org.esigate.Renderer;
 import org.esigate.impl.DriverRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
 import org.w3c.dom.NodeList;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
 
 /**
  * XML renderer.
  * <p>
  * Applies optional XPath evaluation and XSLT transformation to the retrieved data.
+ * <p>
+ * Simple location paths are evaluated while the page is parsed, see {@link StreamingXpath}, other expressions are
+ * evaluated on a DOM.
  * 
  * @author Stanislav Bernatskyi
  */
 public class XpathRenderer implements Renderer {
+    private static final Logger LOG = LoggerFactory.getLogger(XpathRenderer.class);
     private static final HtmlNamespaceContext HTML_NAMESPACE_CONTEXT = new HtmlNamespaceContext();
     private static final XPathFactory X_PATH_FACTORY = XPathFactory.newInstance();
+    private final String xpath;
     private final XPathExpression expr;
+    private final XmlCache xmlCache;
+    private final StreamingXpath streamingXpath;
 
     public XpathRenderer(String xpath) {
+        this.xpath = xpath;
+        this.expr = compile(xpath);
+        this.xmlCache = null;
+        this.streamingXpath = StreamingXpath.compile(xpath);
+    }
+
+    /**
+     * @param xpath
+     *            the expression to evaluate
+     * @param xmlCache
+     *            the cache where the compiled expression is borrowed from each time a page is rendered
+     */
+    public XpathRenderer(String xpath, XmlCache xmlCache) {
+        this.xpath = xpath;
+        this.expr = null;
+        this.xmlCache = xmlCache;
+        this.streamingXpath = StreamingXpath.compile(xpath);
+        // Fail now if the expression is invalid
+        xmlCache.release(xpath, xmlCache.borrowExpression(xpath));
+    }
+
+    static XPathExpression compile(String xpath) {
         try {
             XPath xpathObj = X_PATH_FACTORY.newXPath();
             xpathObj.setNamespaceContext(HTML_NAMESPACE_CONTEXT);
-            this.expr = xpathObj.compile(xpath);
+            return xpathObj.compile(xpath);
         } catch (XPathExpressionException e) {
             throw new ProcessingFailedException("failed to compile XPath expression", e);
         }
@@ -61,11 +93,33 @@ public class XpathRenderer implements Renderer {
     /** {@inheritDoc} */
     @Override
     public void render(DriverRequest httpRequest, String src, Writer out) throws IOException {
+        if (streamingXpath != null) {
+            StreamingXpath.Handler handler = streamingXpath.newHandler(out);
+            try {
+                // Nothing is written before the end of the page, so it can be parsed again if it cannot be streamed
+                HtmlSaxParser.parse(src, handler, handler, true);
+                return;
+            } catch (SAXParseException e) {
+                LOG.debug("Page cannot be streamed, evaluating {} on a DOM: {}", xpath, e.getMessage());
+            } catch (SAXException e) {
+                throw new ProcessingFailedException("Unable to parse source", e);
+            }
+        }
         try {
             HtmlDocumentBuilder htmlDocumentBuilder = new HtmlDocumentBuilder();
             htmlDocumentBuilder.setDoctypeExpectation(DoctypeExpectation.NO_DOCTYPE_ERRORS);
             Document document = htmlDocumentBuilder.parse(new InputSource(new StringReader(src)));
-            NodeList matchingNodes = (NodeList) expr.evaluate(document, XPathConstants.NODESET);
+            NodeList matchingNodes;
+            if (xmlCache == null) {
+                matchingNodes = (NodeList) expr.evaluate(document, XPathConstants.NODESET);
+            } else {
+                XPathExpression expression = xmlCache.borrowExpression(xpath);
+                try {
+                    matchingNodes = (NodeList) expression.evaluate(document, XPathConstants.NODESET);
+                } finally {
+                    xmlCache.release(xpath, expression);
+                }
+            }
             XhtmlSerializer serializer = new XhtmlSerializer(out);
             Dom2Sax dom2Sax = new Dom2Sax(serializer, serializer);
             for (int i = 0; i < matchingNodes.getLength(); i++) {
@@ -16,46 +16,47 @@
 package org.esigate.xml;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.StringReader;
 import java.io.Writer;
 
-import javax.xml.transform.Source;
-import javax.xml.transform.Transformer;
+import javax.xml.transform.Templates;
 import javax.xml.transform.TransformerConfigurationException;
-import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMResult;
-import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
 import javax.xml.transform.stream.StreamSource;
 
-import nu.validator.htmlparser.common.DoctypeExpectation;
-import nu.validator.htmlparser.dom.Dom2Sax;
-import nu.validator.htmlparser.dom.HtmlDocumentBuilder;
-
-import org.apache.commons.io.IOUtils;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.esigate.Driver;
 import org.esigate.HttpErrorPage;
 import org.esigate.Renderer;
+import org.esigate.esi.TemplateCache;
 import org.esigate.http.HttpResponseUtils;
 import org.esigate.impl.DriverRequest;
-import org.w3c.dom.Document;
-import org.xml.sax.InputSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
 
 /**
  * Applies an XSLT transformation to the retrieved data.
  * 
  * If no namespace is specified in the document to transform, it is asumed as:<br />
  * xmlns="http://www.w3.org/1999/xhtml"
+ * <p>
+ * The page is parsed straight to the transformation and the result is serialized as it is produced, without building
+ * any DOM. Only the pages that cannot be parsed in streaming mode are parsed to a tree first.
  * 
  * @author Stanislav Bernatskyi
  * @author Francois-Xavier Bonnet
  */
 public class XsltRenderer implements Renderer {
-    private static final TransformerFactory TRANSFORMER_FACTORY = TransformerFactory.newInstance();
-    private Transformer transformer;
+    private static final Logger LOG = LoggerFactory.getLogger(XsltRenderer.class);
+    private static final SAXTransformerFactory TRANSFORMER_FACTORY = (SAXTransformerFactory) TransformerFactory
+            .newInstance();
+    private final Templates templates;
 
     /**
      * @param template
@@ -69,10 +70,9 @@ public class XsltRenderer implements Renderer {
      */
     public XsltRenderer(String template, Driver driver, DriverRequest originalRequest) throws IOException,
             HttpErrorPage {
-        StringBuilder templateStringBuilder = new StringBuilder();
         CloseableHttpResponse response = driver.render(template, originalRequest.getOriginalRequest());
-        templateStringBuilder.append(HttpResponseUtils.toString(response));
-        transformer = createTransformer(IOUtils.toInputStream(templateStringBuilder));
+        String xsl = HttpResponseUtils.toString(response);
+        templates = driver.getXmlCache().getTemplates(TemplateCache.getKey(template, response), xsl);
     }
 
     /**
@@ -82,17 +82,27 @@ public class XsltRenderer implements Renderer {
      *             If an error occurs while writing to the output
      */
     public XsltRenderer(String xsl) throws IOException {
-        InputStream templateStream = IOUtils.toInputStream(xsl);
-        transformer = createTransformer(templateStream);
+        templates = createTemplates(xsl);
     }
 
-    private static Transformer createTransformer(InputStream templateStream) throws IOException {
+    static Templates createTemplates(String xsl) {
         try {
-            return TRANSFORMER_FACTORY.newTransformer(new StreamSource(templateStream));
+            return TRANSFORMER_FACTORY.newTemplates(new StreamSource(new StringReader(xsl)));
+        } catch (TransformerConfigurationException e) {
+            throw new ProcessingFailedException("Failed to create XSLT template", e);
+        }
+    }
+
+    private TransformerHandler newTransformerHandler(Writer out) {
+        try {
+            TransformerHandler transformerHandler = TRANSFORMER_FACTORY.newTransformerHandler(templates);
+            XhtmlSerializer serializer = new ResultSerializer(out);
+            SAXResult result = new SAXResult(serializer);
+            result.setLexicalHandler(serializer);
+            transformerHandler.setResult(result);
+            return transformerHandler;
         } catch (TransformerConfigurationException e) {
             throw new ProcessingFailedException("Failed to create XSLT template", e);
-        } finally {
-            templateStream.close();
         }
     }
 
@@ -100,19 +110,49 @@ public class XsltRenderer implements Renderer {
     @Override
     public void render(DriverRequest httpRequest, String src, Writer out) throws IOException {
         try {
-            HtmlDocumentBuilder htmlDocumentBuilder = new HtmlDocumentBuilder();
-            htmlDocumentBuilder.setDoctypeExpectation(DoctypeExpectation.NO_DOCTYPE_ERRORS);
-            Document document = htmlDocumentBuilder.parse(new InputSource(new StringReader(src)));
-            Source source = new DOMSource(document);
-            DOMResult result = new DOMResult();
-            transformer.transform(source, result);
-            XhtmlSerializer serializer = new XhtmlSerializer(out);
-            Dom2Sax dom2Sax = new Dom2Sax(serializer, serializer);
-            dom2Sax.parse(result.getNode());
-        } catch (TransformerException e) {
-            throw new ProcessingFailedException("Failed to transform source", e);
+            TransformerHandler transformerHandler = newTransformerHandler(out);
+            try {
+                // The transformation only starts at the end of the page, so the page can be parsed again
+                HtmlSaxParser.parse(src, transformerHandler, transformerHandler, true);
+                return;
+            } catch (SAXParseException e) {
+                LOG.debug("Page cannot be streamed, parsing it to a tree: {}", e.getMessage());
+            }
+            transformerHandler = newTransformerHandler(out);
+            HtmlSaxParser.parse(src, transformerHandler, transformerHandler, false);
         } catch (SAXException e) {
-            throw new ProcessingFailedException("Failed serialize transformation result", e);
+            throw new ProcessingFailedException("Failed to transform source", e);
+        }
+    }
+
+    /**
+     * Text outside of the elements of the result is not written, as when the result was built as a DOM document.
+     */
+    private static final class ResultSerializer extends XhtmlSerializer {
+        private int depth = 0;
+
+        private ResultSerializer(Writer out) {
+            super(out);
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+            depth++;
+            super.startElement(uri, localName, qName, atts);
         }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            depth--;
+            super.endElement(uri, localName, qName);
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) throws SAXException {
+            if (depth > 0) {
+                super.characters(ch, start, length);
+            }
+        }
+
     }
 }
@@ -23,6 +23,8 @@ import java.util.Properties;
 
 import junit.framework.TestCase;
 
+import org.esigate.cache.OffHeapCacheStorage;
+import org.esigate.cache.OffHeapHttpCacheStorage;
 import org.esigate.impl.DriverRequest;
 import org.esigate.test.TestUtils;
 
@@ -52,6 +54,25 @@ public class DriverFactoryTest extends TestCase {
         assertEquals("http://base.url", request.getBaseUrl().toString());
     }
 
+    public void testReconfigureWithOffHeapCacheFile() throws Exception {
+        File file = File.createTempFile("esigate", ".cache");
+        file.deleteOnExit();
+        Properties props = new Properties();
+        props.setProperty(Parameters.REMOTE_URL_BASE.getName(), "http://base.url");
+        props.setProperty(Parameters.CACHE_STORAGE.getName(), OffHeapCacheStorage.class.getName());
+        props.setProperty(Parameters.OFF_HEAP_CACHE_SIZE.getName(), "100000");
+        props.setProperty(Parameters.OFF_HEAP_CACHE_FILE.getName(), file.getPath());
+        DriverFactory.configure(props);
+        // As when the configuration is reloaded
+        DriverFactory.configure(props);
+        assertNotNull(DriverFactory.getInstance());
+
+        // The file is released once the drivers using it are closed
+        DriverFactory.configure(new Properties());
+        new OffHeapHttpCacheStorage(1000, file, 100000, 1024).close();
+        assertTrue(file.delete());
+    }
+
     public void testMergeProperties() {
         String defaultBaseUrl = "http://basedefault.url";
         String extendedBaseUrl = "http://baseextended.url";
@@ -19,6 +19,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.SocketTimeoutException;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Properties;
@@ -855,4 +856,77 @@ public class DriverTest extends TestCase {
 
     }
 
+    /**
+     * With streaming enabled, the beginning of the page must be sent to the client before the include is fetched.
+     * 
+     * @throws Exception
+     */
+    public void testStreamingFlushesBeforeInclude() throws Exception {
+        Properties properties = new Properties();
+        properties.put(Parameters.REMOTE_URL_BASE.getName(), "http://localhost");
+        properties.put(Parameters.STREAMING.getName(), "true");
+
+        final ByteArrayOutputStream clientOutput = new ByteArrayOutputStream();
+        final StringBuilder sentBeforeInclude = new StringBuilder();
+        mockConnectionManager.setResponseHandler(new IResponseHandler() {
+            @Override
+            public HttpResponse execute(HttpRequest httpRequest) throws IOException {
+                if (httpRequest.getRequestLine().getUri().endsWith("/include")) {
+                    sentBeforeInclude.append(clientOutput.toString("UTF-8"));
+                    return new HttpResponseBuilder().status(HttpStatus.SC_OK).header("Content-Type", "text/html")
+                            .entity("included").build();
+                }
+                return new HttpResponseBuilder().status(HttpStatus.SC_OK)
+                        .header("Content-Type", "text/html; charset=UTF-8")
+                        .entity(new StringEntity("before<esi:include src=\"/include\"/>after",
+                                ContentType.create("text/html", "UTF-8"))).build();
+            }
+        });
+        Driver driver = createMockDriver(properties, mockConnectionManager);
+
+        CloseableHttpResponse driverResponse = driver.proxy("/", request.build());
+        assertEquals(-1, driverResponse.getEntity().getContentLength());
+        driverResponse.getEntity().writeTo(clientOutput);
+
+        assertEquals("before", sentBeforeInclude.toString());
+        assertEquals("beforeincludedafter", clientOutput.toString("UTF-8"));
+    }
+
+    /**
+     * Pages that no renderer would modify must be sent as they were received, without being decoded.
+     * 
+     * @throws Exception
+     */
+    public void testProxyPageWithoutMarkersIsNotDecoded() throws Exception {
+        Properties properties = new Properties();
+        properties.put(Parameters.REMOTE_URL_BASE.getName(), "http://localhost");
+        // Not valid UTF-8 : decoding and encoding again would replace it
+        final byte[] content = new byte[] {'<', 'p', '>', (byte) 0xFF, '<', '/', 'p', '>'};
+        mockConnectionManager.setResponseHandler(new IResponseHandler() {
+            @Override
+            public HttpResponse execute(HttpRequest httpRequest) {
+                return new HttpResponseBuilder().status(HttpStatus.SC_OK)
+                        .entity(new ByteArrayEntity(content, ContentType.create("text/html", "UTF-8"))).build();
+            }
+        });
+        Driver driver = createMockDriver(properties, mockConnectionManager);
+
+        CloseableHttpResponse driverResponse = driver.proxy("/", request.build());
+        assertTrue(Arrays.equals(content, EntityUtils.toByteArray(driverResponse.getEntity())));
+        assertEquals("text/html; charset=UTF-8", driverResponse.getEntity().getContentType().getValue());
+
+        // With a marker, the page is rendered
+        final byte[] contentWithMarker = "<p>\u00e9<esi:remove>removed</esi:remove></p>".getBytes("UTF-8");
+        mockConnectionManager.setResponseHandler(new IResponseHandler() {
+            @Override
+            public HttpResponse execute(HttpRequest httpRequest) {
+                return new HttpResponseBuilder().status(HttpStatus.SC_OK)
+                        .entity(new ByteArrayEntity(contentWithMarker, ContentType.create("text/html", "UTF-8")))
+                        .build();
+            }
+        });
+        driverResponse = driver.proxy("/", request.build());
+        assertEquals("<p>\u00e9</p>", EntityUtils.toString(driverResponse.getEntity(), "UTF-8"));
+    }
+
 }
@@ -0,0 +1,101 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.esigate;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.esigate.http.IncomingRequest;
+import org.esigate.test.TestUtils;
+import org.esigate.test.http.HttpResponseBuilder;
+
+public class PageMemoTest extends TestCase {
+
+    private static PageMemo.Page createPage(String body) {
+        return new PageMemo.Page(new HttpResponseBuilder().build(), body);
+    }
+
+    public void testSameMemoForTheRequest() {
+        IncomingRequest request = TestUtils.createIncomingRequest().build();
+        assertSame(PageMemo.getInstance(request), PageMemo.getInstance(request));
+        assertNotSame(PageMemo.getInstance(request), PageMemo.getInstance(TestUtils.createIncomingRequest().build()));
+    }
+
+    public void testConcurrentRequestsJoinTheFetchInProgress() throws Exception {
+        final PageMemo memo = PageMemo.getInstance(TestUtils.createIncomingRequest().build());
+        final AtomicInteger fetches = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<PageMemo.Page> fetcher = new Callable<PageMemo.Page>() {
+            @Override
+            public PageMemo.Page call() throws InterruptedException {
+                fetches.incrementAndGet();
+                started.countDown();
+                release.await();
+                return createPage("page");
+            }
+        };
+        Callable<PageMemo.Page> include = new Callable<PageMemo.Page>() {
+            @Override
+            public PageMemo.Page call() throws IOException, HttpErrorPage {
+                return memo.getPage("http://localhost/page", fetcher);
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<PageMemo.Page> first = executor.submit(include);
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            Future<PageMemo.Page> second = executor.submit(include);
+            release.countDown();
+            assertSame(first.get(10, TimeUnit.SECONDS), second.get(10, TimeUnit.SECONDS));
+            assertEquals("page", first.get().getBody());
+            assertEquals(1, fetches.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testFailedPageIsRetrievedAgain() throws IOException, HttpErrorPage {
+        PageMemo memo = PageMemo.getInstance(TestUtils.createIncomingRequest().build());
+        final HttpErrorPage errorPage = new HttpErrorPage(404, "Not found", "Not found");
+        try {
+            memo.getPage("http://localhost/page", new Callable<PageMemo.Page>() {
+                @Override
+                public PageMemo.Page call() throws HttpErrorPage {
+                    throw errorPage;
+                }
+            });
+            fail("should throw HttpErrorPage");
+        } catch (HttpErrorPage e) {
+            assertSame(errorPage, e);
+        }
+        PageMemo.Page page = memo.getPage("http://localhost/page", new Callable<PageMemo.Page>() {
+            @Override
+            public PageMemo.Page call() {
+                return createPage("page");
+            }
+        });
+        assertEquals("page", page.getBody());
+    }
+
+}
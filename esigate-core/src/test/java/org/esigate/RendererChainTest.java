@@ -0,0 +1,146 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.esigate;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.output.StringBuilderWriter;
+import org.esigate.impl.DriverRequest;
+
+public class RendererChainTest extends TestCase {
+
+    /**
+     * Appends a suffix to the page.
+     */
+    private static class SuffixRenderer implements Renderer {
+        private final String suffix;
+
+        SuffixRenderer(String suffix) {
+            this.suffix = suffix;
+        }
+
+        @Override
+        public void render(DriverRequest originalRequest, String src, Writer out) throws IOException {
+            out.write(src);
+            out.write(suffix);
+        }
+    }
+
+    /**
+     * Converts the page to upper case while it is written and counts the filters created.
+     */
+    private static class UpperCaseRenderer implements StreamingRenderer {
+        private int filters = 0;
+
+        @Override
+        public void render(DriverRequest originalRequest, String src, Writer out) throws IOException {
+            out.write(src.toUpperCase());
+        }
+
+        @Override
+        public Writer createFilter(DriverRequest originalRequest, final Writer out) {
+            filters++;
+            return new Writer() {
+                @Override
+                public void write(char[] cbuf, int off, int len) throws IOException {
+                    out.write(new String(cbuf, off, len).toUpperCase());
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    out.flush();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    out.close();
+                }
+            };
+        }
+    }
+
+    private static String render(List<Renderer> renderers, String body) throws IOException, HttpErrorPage {
+        StringBuilderWriter out = new StringBuilderWriter();
+        RendererChain.render(null, renderers, body, out);
+        return out.toString();
+    }
+
+    public void testNoRenderer() throws Exception {
+        assertEquals("page", render(new ArrayList<Renderer>(), "page"));
+    }
+
+    public void testRenderersAreAppliedInOrder() throws Exception {
+        UpperCaseRenderer upperCase = new UpperCaseRenderer();
+        List<Renderer> renderers = new ArrayList<Renderer>();
+        renderers.add(new SuffixRenderer(" a"));
+        renderers.add(upperCase);
+        renderers.add(new SuffixRenderer(" b"));
+        renderers.add(upperCase);
+        renderers.add(new SuffixRenderer(" c"));
+        assertEquals("PAGE A B c", render(renderers, "page"));
+        assertEquals(2, upperCase.filters);
+    }
+
+    public void testStreamingRendererFirst() throws Exception {
+        UpperCaseRenderer upperCase = new UpperCaseRenderer();
+        List<Renderer> renderers = new ArrayList<Renderer>();
+        renderers.add(upperCase);
+        renderers.add(new SuffixRenderer(" a"));
+        assertEquals("PAGE a", render(renderers, "page"));
+        assertEquals(1, upperCase.filters);
+    }
+
+    public void testOutputIsNotClosed() throws Exception {
+        final boolean[] closed = new boolean[1];
+        StringBuilderWriter out = new StringBuilderWriter() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+        List<Renderer> renderers = new ArrayList<Renderer>();
+        renderers.add(new UpperCaseRenderer());
+        RendererChain.render(null, renderers, "page", out);
+        assertEquals("PAGE", out.toString());
+        assertFalse(closed[0]);
+    }
+
+    public void testErrorPageInTheMiddleOfTheChain() throws Exception {
+        final HttpErrorPage errorPage = new HttpErrorPage(500, "Internal server error", "error");
+        List<Renderer> renderers = new ArrayList<Renderer>();
+        renderers.add(new UpperCaseRenderer());
+        renderers.add(new Renderer() {
+            @Override
+            public void render(DriverRequest originalRequest, String src, Writer out) throws HttpErrorPage {
+                throw errorPage;
+            }
+        });
+        renderers.add(new SuffixRenderer(" a"));
+        try {
+            render(renderers, "page");
+            fail("should throw HttpErrorPage");
+        } catch (HttpErrorPage e) {
+            assertSame(errorPage, e);
+        }
+    }
+
+}
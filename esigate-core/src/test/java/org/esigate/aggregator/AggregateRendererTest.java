@@ -16,6 +16,9 @@
 package org.esigate.aggregator;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
 
 import junit.framework.TestCase;
 
@@ -24,6 +27,8 @@ import org.esigate.Driver;
 import org.esigate.DriverFactory;
 import org.esigate.HttpErrorPage;
 import org.esigate.MockRequestExecutor;
+import org.esigate.extension.parallelesi.IncludeExecutor;
+import org.esigate.http.RequestDeadline;
 import org.esigate.impl.DriverRequest;
 import org.esigate.test.TestUtils;
 
@@ -149,4 +154,51 @@ public class AggregateRendererTest extends TestCase {
 
     }
 
+    public void testIncludedPagesArePrefetched() throws IOException, HttpErrorPage {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+                command.run();
+            }
+        };
+        tested = new AggregateRenderer(executor, 0);
+        String page = "content <!--$includetemplate$mock$/testTemplateParams$mytemplate$--> some text "
+                + "<!--$beginput$param1$-->aaa "
+                + "<!--$includeblock$mock$/testInclude$--> some text <!--$endincludeblock$-->" + " bbb<!--$endput$-->"
+                + "some other text<!--$endincludetemplate$-->"
+                + "<!--$includeblock$mock$/testInclude$--> some text <!--$endincludeblock$--> end";
+        StringBuilderWriter out = new StringBuilderWriter();
+        tested.render(request, page, out);
+        assertEquals("content some text aaa Test include bbb goes hereTest include end", out.toString());
+        // Each page is retrieved once, before the page is parsed
+        assertEquals(2, tasks.size());
+    }
+
+    public void testIncludedPagesAreRetrievedInParallel() throws IOException, HttpErrorPage {
+        tested = new AggregateRenderer(new IncludeExecutor(4, 60), 0);
+        String page = "content <!--$includeblock$mock$/testNested$myblock$--> some text <!--$endincludeblock$-->"
+                + "<!--$includetemplate$mock$/testNestedTemplate$myblock$--> some text <!--$endincludetemplate$-->"
+                + "<!--$includeblock$mock$/missing$--> some text <!--$endincludeblock$--> end";
+        StringBuilderWriter out = new StringBuilderWriter();
+        try {
+            tested.render(request, page, out);
+            fail("should throw HttpErrorPage");
+        } catch (HttpErrorPage e) {
+            // The error of the missing page is reported when it is rendered
+            assertEquals(" nested Test include /nested  nested Test include /nested ", out.toString()
+                    .substring("content ".length()));
+        }
+    }
+
+    public void testPageTimeout() throws IOException, HttpErrorPage {
+        tested = new AggregateRenderer(new IncludeExecutor(4, 60), 1);
+        String page = "content <!--$includeblock$mock$/testInclude$--> some text <!--$endincludeblock$--> end";
+        StringBuilderWriter out = new StringBuilderWriter();
+        tested.render(request, page, out);
+        assertEquals("content Test include end", out.toString());
+        assertTrue(RequestDeadline.getDeadline(request.getOriginalRequest()) > 0);
+    }
+
 }
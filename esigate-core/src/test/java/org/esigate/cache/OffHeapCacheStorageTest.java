@@ -0,0 +1,156 @@
+package org.esigate.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.apache.http.Header;
+import org.apache.http.HttpStatus;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.client.cache.HttpCacheEntry;
+import org.apache.http.impl.client.cache.HeapResource;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicStatusLine;
+import org.esigate.Parameters;
+
+public class OffHeapCacheStorageTest extends TestCase {
+
+    public void testBasicOperations() throws Exception {
+        CacheStorage cacheStorage = new OffHeapCacheStorage();
+        Properties properties = new Properties();
+        properties.setProperty(Parameters.OFF_HEAP_CACHE_SIZE.getName(), "100000");
+        cacheStorage.init(properties);
+        CacheStorageTestUtils.testBasicOperations(cacheStorage);
+    }
+
+    public void testEntryIsRestoredWithHeadersAndVariants() throws Exception {
+        OffHeapHttpCacheStorage storage = new OffHeapHttpCacheStorage(1000, 100000, 64);
+        Date requestDate = new Date(1000000L);
+        Date responseDate = new Date(2000000L);
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            content.append("content ").append(i).append(' ');
+        }
+        HttpCacheEntry entry = new HttpCacheEntry(requestDate, responseDate, new BasicStatusLine(new ProtocolVersion(
+                "HTTP", 1, 0), HttpStatus.SC_NOT_FOUND, "Not Found"), new Header[] {
+                new BasicHeader("Content-Type", "text/html; charset=utf-8"), new BasicHeader("X-Test", "été")},
+                new HeapResource(content.toString().getBytes("UTF-8")), Collections.singletonMap("{a}", "variant"));
+        storage.putEntry("key", entry);
+        HttpCacheEntry result = storage.getEntry("key");
+        assertEquals(requestDate, result.getRequestDate());
+        assertEquals(responseDate, result.getResponseDate());
+        assertEquals(entry.getStatusLine().toString(), result.getStatusLine().toString());
+        assertEquals(2, result.getAllHeaders().length);
+        assertEquals("été", result.getFirstHeader("X-Test").getValue());
+        assertEquals("variant", result.getVariantMap().get("{a}"));
+        assertEquals(content.toString(), CacheStorageTestUtils.getContent(result));
+
+        HttpCacheEntry withoutBody = new HttpCacheEntry(requestDate, responseDate, entry.getStatusLine(),
+                new Header[0], null);
+        storage.putEntry("key", withoutBody);
+        assertNull(storage.getEntry("key").getResource());
+        storage.close();
+    }
+
+    public void testLeastRecentlyUsedEntriesAreEvicted() throws Exception {
+        // 10 blocks of 124 bytes of data
+        OffHeapHttpCacheStorage storage = new OffHeapHttpCacheStorage(1000, 1280, 128);
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            content.append('x');
+        }
+        // 3 blocks each
+        storage.putEntry("a", CacheStorageTestUtils.makeCacheEntry(content.toString()));
+        storage.putEntry("b", CacheStorageTestUtils.makeCacheEntry(content.toString()));
+        storage.putEntry("c", CacheStorageTestUtils.makeCacheEntry(content.toString()));
+        assertNotNull(storage.getEntry("a"));
+        storage.putEntry("d", CacheStorageTestUtils.makeCacheEntry(content.toString()));
+        assertNotNull(storage.getEntry("a"));
+        assertNull(storage.getEntry("b"));
+        assertNotNull(storage.getEntry("c"));
+        assertNotNull(storage.getEntry("d"));
+        assertEquals(3, storage.getEntryCount());
+        assertTrue(storage.getSize() <= 1280);
+
+        // Too big to be stored at all
+        content.append(content).append(content).append(content);
+        storage.putEntry("e", CacheStorageTestUtils.makeCacheEntry(content.toString()));
+        assertNull(storage.getEntry("e"));
+        assertEquals(3, storage.getEntryCount());
+    }
+
+    public void testMaxEntries() throws Exception {
+        OffHeapHttpCacheStorage storage = new OffHeapHttpCacheStorage(2, 100000, 128);
+        storage.putEntry("a", CacheStorageTestUtils.makeCacheEntry("a"));
+        storage.putEntry("b", CacheStorageTestUtils.makeCacheEntry("b"));
+        storage.putEntry("c", CacheStorageTestUtils.makeCacheEntry("c"));
+        assertEquals(2, storage.getEntryCount());
+        assertNull(storage.getEntry("a"));
+    }
+
+    public void testEntriesSurviveRestart() throws Exception {
+        File file = File.createTempFile("esigate", ".cache");
+        file.deleteOnExit();
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            content.append("content ").append(i).append(' ');
+        }
+        OffHeapHttpCacheStorage storage = new OffHeapHttpCacheStorage(1000, file, 100000, 128);
+        storage.putEntry("a", CacheStorageTestUtils.makeCacheEntry(content.toString()));
+        storage.putEntry("b", CacheStorageTestUtils.makeCacheEntry("b"));
+        storage.putEntry("b", CacheStorageTestUtils.makeCacheEntry("b updated"));
+        storage.putEntry("c", CacheStorageTestUtils.makeCacheEntry("c"));
+        storage.removeEntry("c");
+        try {
+            new OffHeapHttpCacheStorage(1000, file, 100000, 128);
+            fail("The file should be locked");
+        } catch (IOException e) {
+            // expected
+        }
+        storage.close();
+
+        storage = new OffHeapHttpCacheStorage(1000, file, 100000, 128);
+        assertEquals(2, storage.getEntryCount());
+        assertEquals(content.toString(), CacheStorageTestUtils.getContent(storage.getEntry("a")));
+        assertEquals("b updated", CacheStorageTestUtils.getContent(storage.getEntry("b")));
+        assertNull(storage.getEntry("c"));
+        // The blocks of the recovered entries are not reused
+        storage.putEntry("d", CacheStorageTestUtils.makeCacheEntry("d"));
+        assertEquals(content.toString(), CacheStorageTestUtils.getContent(storage.getEntry("a")));
+        storage.close();
+        assertTrue(file.delete());
+    }
+
+    public void testSameFileConfiguredTwice() throws Exception {
+        File file = File.createTempFile("esigate", ".cache");
+        file.deleteOnExit();
+        Properties properties = new Properties();
+        properties.setProperty(Parameters.OFF_HEAP_CACHE_SIZE.getName(), "100000");
+        properties.setProperty(Parameters.OFF_HEAP_CACHE_BLOCK_SIZE.getName(), "128");
+        properties.setProperty(Parameters.OFF_HEAP_CACHE_FILE.getName(), file.getPath());
+        CacheStorage first = new OffHeapCacheStorage();
+        first.init(properties);
+        first.putEntry("a", CacheStorageTestUtils.makeCacheEntry("a"));
+        // Typically the storage of the driver created when the configuration is reloaded
+        CacheStorage second = new OffHeapCacheStorage();
+        second.init(properties);
+        assertEquals("a", CacheStorageTestUtils.getContent(second.getEntry("a")));
+
+        first.close();
+        second.putEntry("b", CacheStorageTestUtils.makeCacheEntry("b"));
+        assertEquals("b", CacheStorageTestUtils.getContent(second.getEntry("b")));
+        second.close();
+        assertNull(second.getEntry("b"));
+
+        // The file is released once both are closed
+        OffHeapHttpCacheStorage storage = new OffHeapHttpCacheStorage(1000, file, 100000, 128);
+        assertEquals(2, storage.getEntryCount());
+        storage.close();
+        assertTrue(file.delete());
+    }
+
+}
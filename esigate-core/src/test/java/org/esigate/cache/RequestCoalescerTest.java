@@ -0,0 +1,176 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.esigate.cache;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpExecutionAware;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.execchain.ClientExecChain;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.esigate.http.BasicCloseableHttpResponse;
+
+public class RequestCoalescerTest extends TestCase {
+    private final HttpRoute route = new HttpRoute(new HttpHost("localhost", 8080));
+    private final AtomicInteger backendRequests = new AtomicInteger();
+    private final CountDownLatch backendEntered = new CountDownLatch(1);
+    private final CountDownLatch backendRelease = new CountDownLatch(1);
+    private RequestCoalescer requestCoalescer;
+
+    private final class Backend implements ClientExecChain {
+        private final String cacheControl;
+        private final boolean firstTimesOut;
+
+        private Backend(String cacheControl) {
+            this(cacheControl, false);
+        }
+
+        private Backend(String cacheControl, boolean firstTimesOut) {
+            this.cacheControl = cacheControl;
+            this.firstTimesOut = firstTimesOut;
+        }
+
+        @Override
+        public CloseableHttpResponse execute(HttpRoute r, HttpRequestWrapper request, HttpClientContext context,
+                HttpExecutionAware execAware) throws IOException {
+            int count = backendRequests.incrementAndGet();
+            backendEntered.countDown();
+            try {
+                backendRelease.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (count == 1 && firstTimesOut) {
+                throw new SocketTimeoutException("Read timed out");
+            }
+            BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+            response.setHeader("Cache-control", cacheControl);
+            response.setEntity(new StringEntity("response " + count, "UTF-8"));
+            return BasicCloseableHttpResponse.adapt(response);
+        }
+    }
+
+    private final class Request extends Thread {
+        private final ClientExecChain chain;
+        private final int socketTimeout;
+        private String result;
+
+        private Request(ClientExecChain chain) {
+            this(chain, 0);
+        }
+
+        private Request(ClientExecChain chain, int socketTimeout) {
+            this.chain = chain;
+            this.socketTimeout = socketTimeout;
+        }
+
+        @Override
+        public void run() {
+            try {
+                HttpGet httpGet = new HttpGet("/test");
+                httpGet.setConfig(RequestConfig.custom().setSocketTimeout(socketTimeout).build());
+                CloseableHttpResponse response = chain.execute(route, HttpRequestWrapper.wrap(httpGet),
+                        HttpClientContext.create(), null);
+                result = EntityUtils.toString(response.getEntity());
+            } catch (Exception e) {
+                result = e.toString();
+            }
+        }
+    }
+
+    @Override
+    protected void setUp() {
+        requestCoalescer = new RequestCoalescer();
+        requestCoalescer.init(new Properties());
+    }
+
+    private String[] executeConcurrently(ClientExecChain chain) throws InterruptedException {
+        Request leader = new Request(chain);
+        leader.start();
+        backendEntered.await();
+        Request follower = new Request(chain);
+        follower.start();
+        // Wait for the second request to be waiting for the first one
+        while (follower.getState() != Thread.State.WAITING && follower.isAlive()) {
+            Thread.sleep(1);
+        }
+        backendRelease.countDown();
+        leader.join();
+        follower.join();
+        return new String[] {leader.result, follower.result};
+    }
+
+    public void testConcurrentRequestsAreCoalesced() throws Exception {
+        ClientExecChain chain = requestCoalescer.wrapBackendHttpClient(new Backend("public, max-age=60"));
+        String[] results = executeConcurrently(chain);
+        assertEquals("response 1", results[0]);
+        assertEquals("response 1", results[1]);
+        assertEquals(1, backendRequests.get());
+        assertEquals(1, requestCoalescer.getCoalescedRequestCount());
+        assertEquals(0, requestCoalescer.getNotSharedRequestCount());
+    }
+
+    public void testPrivateResponsesAreNotShared() throws Exception {
+        ClientExecChain chain = requestCoalescer.wrapBackendHttpClient(new Backend("private, max-age=60"));
+        String[] results = executeConcurrently(chain);
+        assertEquals("response 1", results[0]);
+        assertEquals("response 2", results[1]);
+        assertEquals(2, backendRequests.get());
+        assertEquals(0, requestCoalescer.getCoalescedRequestCount());
+        assertEquals(1, requestCoalescer.getNotSharedRequestCount());
+    }
+
+    public void testWaitingRequestsAreSentWhenTheFirstOneTimesOut() throws Exception {
+        ClientExecChain chain = requestCoalescer.wrapBackendHttpClient(new Backend("public, max-age=60", true));
+        String[] results = executeConcurrently(chain);
+        assertEquals("java.net.SocketTimeoutException: Read timed out", results[0]);
+        assertEquals("response 2", results[1]);
+        assertEquals(2, backendRequests.get());
+        assertEquals(1, requestCoalescer.getNotSharedRequestCount());
+    }
+
+    public void testWaitingRequestsDoNotWaitLongerThanTheirSocketTimeout() throws Exception {
+        ClientExecChain chain = requestCoalescer.wrapBackendHttpClient(new Backend("public, max-age=60"));
+        Request leader = new Request(chain);
+        leader.start();
+        backendEntered.await();
+        Request follower = new Request(chain, 50);
+        follower.start();
+        follower.join(10000);
+        assertFalse(follower.isAlive());
+        assertTrue(follower.result, follower.result.startsWith(SocketTimeoutException.class.getName()));
+        backendRelease.countDown();
+        leader.join();
+        assertEquals("response 1", leader.result);
+        assertEquals(1, backendRequests.get());
+    }
+
+}
@@ -0,0 +1,140 @@
+package org.esigate.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.apache.http.client.cache.HttpCacheEntry;
+import org.apache.http.client.cache.HttpCacheUpdateCallback;
+import org.apache.http.impl.client.cache.BasicHttpCacheStorage;
+import org.apache.http.impl.client.cache.CacheConfig;
+import org.esigate.ConfigurationException;
+import org.esigate.Parameters;
+
+public class TieredCacheStorageTest extends TestCase {
+
+    public void testBasicOperations() throws Exception {
+        CacheStorage cacheStorage = new TieredCacheStorage();
+        Properties properties = new Properties();
+        properties.setProperty(Parameters.TIERED_CACHE_L2_STORAGE.getName(), BasicCacheStorage.class.getName());
+        cacheStorage.init(properties);
+        CacheStorageTestUtils.testBasicOperations(cacheStorage);
+    }
+
+    public void testL2CannotBeTiered() {
+        Properties properties = new Properties();
+        properties.setProperty(Parameters.TIERED_CACHE_L2_STORAGE.getName(), TieredCacheStorage.class.getName());
+        try {
+            new TieredCacheStorage().init(properties);
+            fail("Should throw a ConfigurationException");
+        } catch (ConfigurationException e) {
+            // expected
+        }
+    }
+
+    public void testL2IsClosed() throws Exception {
+        File file = File.createTempFile("esigate", ".cache");
+        file.deleteOnExit();
+        Properties properties = new Properties();
+        properties.setProperty(Parameters.TIERED_CACHE_L2_STORAGE.getName(), OffHeapCacheStorage.class.getName());
+        properties.setProperty(Parameters.OFF_HEAP_CACHE_SIZE.getName(), "100000");
+        properties.setProperty(Parameters.OFF_HEAP_CACHE_BLOCK_SIZE.getName(), "128");
+        properties.setProperty(Parameters.OFF_HEAP_CACHE_FILE.getName(), file.getPath());
+        CacheStorage first = new TieredCacheStorage();
+        first.init(properties);
+        first.putEntry("a", CacheStorageTestUtils.makeCacheEntry("a"));
+        // Typically the storage of the driver created when the configuration is reloaded
+        CacheStorage second = new TieredCacheStorage();
+        second.init(properties);
+        first.close();
+        second.close();
+
+        // The file is released once both are closed
+        OffHeapHttpCacheStorage storage = new OffHeapHttpCacheStorage(1000, file, 100000, 128);
+        assertEquals(1, storage.getEntryCount());
+        storage.close();
+        assertTrue(file.delete());
+    }
+
+    public void testEntriesAreReadFromL1() throws Exception {
+        BasicHttpCacheStorage l2 = new BasicHttpCacheStorage(CacheConfig.DEFAULT);
+        TieredHttpCacheStorage storage = new TieredHttpCacheStorage(l2, 100, 60000);
+        storage.putEntry("a", CacheStorageTestUtils.makeCacheEntry("a"));
+        l2.putEntry("b", CacheStorageTestUtils.makeCacheEntry("b"));
+
+        assertEquals("a", CacheStorageTestUtils.getContent(storage.getEntry("a")));
+        assertEquals("b", CacheStorageTestUtils.getContent(storage.getEntry("b")));
+        assertEquals("b", CacheStorageTestUtils.getContent(storage.getEntry("b")));
+        assertNull(storage.getEntry("c"));
+        assertEquals(2, storage.getL1HitCount());
+        assertEquals(1, storage.getL2HitCount());
+        assertEquals(1, storage.getMissCount());
+
+        // Changes made directly to the second level are not seen before the entry expires from the first level
+        l2.putEntry("a", CacheStorageTestUtils.makeCacheEntry("a modified"));
+        assertEquals("a", CacheStorageTestUtils.getContent(storage.getEntry("a")));
+        // But the changes made through the tiered storage are
+        storage.updateEntry("a", new HttpCacheUpdateCallback() {
+            @Override
+            public HttpCacheEntry update(HttpCacheEntry existing) throws IOException {
+                assertNotNull(existing);
+                return CacheStorageTestUtils.makeCacheEntry("a updated");
+            }
+        });
+        assertEquals("a updated", CacheStorageTestUtils.getContent(storage.getEntry("a")));
+        assertEquals("a updated", CacheStorageTestUtils.getContent(l2.getEntry("a")));
+        storage.removeEntry("a");
+        assertNull(storage.getEntry("a"));
+        assertNull(l2.getEntry("a"));
+    }
+
+    public void testL1Expiration() throws Exception {
+        BasicHttpCacheStorage l2 = new BasicHttpCacheStorage(CacheConfig.DEFAULT);
+        TieredHttpCacheStorage storage = new TieredHttpCacheStorage(l2, 100, 0);
+        storage.putEntry("a", CacheStorageTestUtils.makeCacheEntry("a"));
+        l2.putEntry("a", CacheStorageTestUtils.makeCacheEntry("a modified"));
+        Thread.sleep(5);
+        assertEquals("a modified", CacheStorageTestUtils.getContent(storage.getEntry("a")));
+        assertEquals(0, storage.getL1HitCount());
+    }
+
+    public void testL1MaxEntries() throws Exception {
+        BasicHttpCacheStorage l2 = new BasicHttpCacheStorage(CacheConfig.DEFAULT);
+        TieredHttpCacheStorage storage = new TieredHttpCacheStorage(l2, 2, 60000);
+        storage.putEntry("a", CacheStorageTestUtils.makeCacheEntry("a"));
+        storage.putEntry("b", CacheStorageTestUtils.makeCacheEntry("b"));
+        storage.putEntry("c", CacheStorageTestUtils.makeCacheEntry("c"));
+        // "a" was evicted from the first level
+        storage.getEntry("c");
+        storage.getEntry("b");
+        storage.getEntry("a");
+        assertEquals(2, storage.getL1HitCount());
+        assertEquals(1, storage.getL2HitCount());
+    }
+
+    public void testValueChangedWhileReadFromL2IsNotPromoted() throws Exception {
+        final TieredHttpCacheStorage[] storage = new TieredHttpCacheStorage[1];
+        BasicHttpCacheStorage l2 = new BasicHttpCacheStorage(CacheConfig.DEFAULT) {
+            private boolean first = true;
+
+            @Override
+            public HttpCacheEntry getEntry(String key) throws IOException {
+                HttpCacheEntry entry = super.getEntry(key);
+                if (first) {
+                    first = false;
+                    // Another request writes a new value once the old one has been read
+                    storage[0].putEntry(key, CacheStorageTestUtils.makeCacheEntry("a modified"));
+                }
+                return entry;
+            }
+        };
+        storage[0] = new TieredHttpCacheStorage(l2, 100, 60000);
+        l2.putEntry("a", CacheStorageTestUtils.makeCacheEntry("a"));
+        assertEquals("a", CacheStorageTestUtils.getContent(storage[0].getEntry("a")));
+        assertEquals("a modified", CacheStorageTestUtils.getContent(storage[0].getEntry("a")));
+        assertEquals(1, storage[0].getL1HitCount());
+    }
+
+}
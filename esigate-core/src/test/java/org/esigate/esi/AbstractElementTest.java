@@ -16,6 +16,8 @@
 package org.esigate.esi;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import junit.framework.TestCase;
 
@@ -23,6 +25,11 @@ import org.apache.commons.io.output.StringBuilderWriter;
 import org.esigate.Driver;
 import org.esigate.HttpErrorPage;
 import org.esigate.MockRequestExecutor;
+import org.esigate.events.Event;
+import org.esigate.events.EventDefinition;
+import org.esigate.events.EventManager;
+import org.esigate.events.IEventListener;
+import org.esigate.events.impl.IncludeSkippedEvent;
 import org.esigate.http.IncomingRequest;
 import org.esigate.impl.DriverRequest;
 import org.esigate.test.TestUtils;
@@ -60,8 +67,27 @@ public abstract class AbstractElementTest extends TestCase {
         this.provider = provider;
     }
 
+    protected InlineCache getInlineCache() {
+        return provider.getInlineCache();
+    }
+
     protected IncomingRequest.Builder getRequestBuilder() {
         return requestBuilder;
     }
 
+    /**
+     * @return the src of the includes skipped from now on because their content was not used
+     */
+    protected List<String> recordSkippedIncludes() {
+        final List<String> skipped = new CopyOnWriteArrayList<String>();
+        provider.getEventManager().register(EventManager.EVENT_INCLUDE_SKIPPED, new IEventListener() {
+            @Override
+            public boolean event(EventDefinition id, Event event) {
+                skipped.add(((IncludeSkippedEvent) event).getSrc());
+                return true;
+            }
+        });
+        return skipped;
+    }
+
 }
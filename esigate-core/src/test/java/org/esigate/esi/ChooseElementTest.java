@@ -16,6 +16,8 @@
 package org.esigate.esi;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 
 import org.apache.http.impl.cookie.BasicClientCookie;
 import org.esigate.HttpErrorPage;
@@ -87,4 +89,14 @@ public class ChooseElementTest extends AbstractElementTest {
         assertEquals("begin inside otherwise with 'Advanced' cookie end", result);
     }
 
+    public void testIncludeInInactiveBranchIsSkipped() throws IOException, HttpErrorPage {
+        List<String> skipped = recordSkippedIncludes();
+        String page = "begin <esi:choose>" + "<esi:when test=\"'$(HTTP_COOKIE{group})'=='Advanced'\">"
+                + "<esi:include src=\"$(PROVIDER{mock})/missing\" /></esi:when>"
+                + "<esi:otherwise>inside otherwise</esi:otherwise>" + "</esi:choose> end";
+        String result = render(page);
+        assertEquals("begin inside otherwise end", result);
+        assertEquals(Collections.singletonList("$(PROVIDER{mock})/missing"), skipped);
+    }
+
 }
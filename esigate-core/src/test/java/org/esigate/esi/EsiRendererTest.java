@@ -15,6 +15,12 @@
 
 package org.esigate.esi;
 
+import org.apache.commons.io.output.StringBuilderWriter;
+import org.esigate.Driver;
+import org.esigate.MockRequestExecutor;
+import org.esigate.impl.DriverRequest;
+import org.esigate.test.TestUtils;
+
 public class EsiRendererTest extends AbstractElementTest {
 
     public void testFragmentTagsShouldBeRemoved() throws Exception {
@@ -22,4 +28,22 @@ public class EsiRendererTest extends AbstractElementTest {
         String result = render(page);
         assertEquals("begin content end", result);
     }
+
+    public void testTemplateIsCompiledOnceAndRenderedForEachRequest() throws Exception {
+        Driver driver = MockRequestExecutor.createDriver();
+        TemplateCache templateCache = new TemplateCache(1000, Long.MAX_VALUE);
+        String page = "<esi:vars>$(QUERY_STRING{a})</esi:vars><!--esi<esi:vars>-$(QUERY_STRING{b})-</esi:vars>--> end";
+        String[] queries = new String[] {"a=1&b=2", "a=3&b=4", "a=5"};
+        String[] results = new String[] {"1-2- end", "3-4- end", "5-- end"};
+        for (int i = 0; i < queries.length; i++) {
+            EsiRenderer renderer = new EsiRenderer();
+            renderer.setTemplateCache(templateCache, "/page \"1\"");
+            DriverRequest request = TestUtils.createDriverRequest("http://localhost/page?" + queries[i], driver);
+            StringBuilderWriter out = new StringBuilderWriter();
+            renderer.render(request, page, out);
+            assertEquals(results[i], out.toString());
+        }
+        assertEquals(1, templateCache.getCompilationCount());
+        assertEquals(2, templateCache.getHitCount());
+    }
 }
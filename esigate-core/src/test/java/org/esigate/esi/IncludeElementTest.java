@@ -15,14 +15,22 @@
 package org.esigate.esi;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Properties;
 
 import org.apache.http.HttpStatus;
 import org.apache.http.impl.cookie.BasicClientCookie;
+import org.esigate.Driver;
 import org.esigate.HttpErrorPage;
 import org.esigate.MockRequestExecutor;
 import org.esigate.Parameters;
+import org.esigate.events.Event;
+import org.esigate.events.EventDefinition;
+import org.esigate.events.EventManager;
+import org.esigate.events.IEventListener;
+import org.esigate.events.impl.RenderEvent;
 
 public class IncludeElementTest extends AbstractElementTest {
     @Override
@@ -95,17 +103,17 @@ public class IncludeElementTest extends AbstractElementTest {
 
     public void testIncludeInlineCache() throws IOException, HttpErrorPage {
         String page = "before <esi:include src='$(PROVIDER{mock})/inline-cache' /> after";
-        InlineCache.storeFragment("$(PROVIDER{mock})/inline-cache", null, false, null, "---inline cache item---");
+        getInlineCache().storeFragment("$(PROVIDER{mock})/inline-cache", null, false, null, "---inline cache item---");
         String result = render(page);
         assertEquals("before ---inline cache item--- after", result);
 
-        InlineCache.storeFragment("$(PROVIDER{mock})/inline-cache", new Date(System.currentTimeMillis() + 10L * 1000L),
-                false, null, "---updated inline cache item---");
+        getInlineCache().storeFragment("$(PROVIDER{mock})/inline-cache",
+                new Date(System.currentTimeMillis() + 10L * 1000L), false, null, "---updated inline cache item---");
         result = render(page);
         assertEquals("before ---updated inline cache item--- after", result);
 
-        InlineCache.storeFragment("$(PROVIDER{mock})/inline-cache", new Date(System.currentTimeMillis() - 10L * 1000L),
-                false, null, "---expired inline cache item---");
+        getInlineCache().storeFragment("$(PROVIDER{mock})/inline-cache",
+                new Date(System.currentTimeMillis() - 10L * 1000L), false, null, "---expired inline cache item---");
         addResource("/inline-cache", "---fetched inline cache item---");
         result = render(page);
         assertEquals("before ---fetched inline cache item--- after", result);
@@ -332,4 +340,92 @@ public class IncludeElementTest extends AbstractElementTest {
         assertEquals("before begin include replacement end include after", result);
     }
 
+    public void testIncludeOutsideOfFragmentIsSkipped() throws IOException, HttpErrorPage {
+        List<String> skipped = recordSkippedIncludes();
+        String page = "before <esi:include src=\"$(PROVIDER{mock})/testFragment\" fragment =\"myFragment\" /> after";
+        addResource("/testFragment", "<esi:include src=\"$(PROVIDER{mock})/missing\" />"
+                + "<esi:fragment name=\"myFragment\">---fragment content---</esi:fragment>");
+        String result = render(page);
+        assertEquals("before ---fragment content--- after", result);
+        assertEquals(1, skipped.size());
+    }
+
+    public void testIncludeSeveralFragmentsOfTheSamePage() throws IOException, HttpErrorPage {
+        List<String> skipped = recordSkippedIncludes();
+        String page = "<esi:include src='$(PROVIDER{mock})/fragments' fragment='a' />,"
+                + "<esi:include src='$(PROVIDER{mock})/fragments' fragment='b' />,"
+                + "<esi:include src='$(PROVIDER{mock})/fragments' fragment='c' />,"
+                + "<esi:include src='$(PROVIDER{mock})/fragments' fragment='a' />";
+        addResource("/fragments", "<esi:include src='$(PROVIDER{mock})/missing' />"
+                + "<esi:fragment name='a'>A</esi:fragment> <esi:fragment name='b'>B1"
+                + "<esi:fragment name='c'>C<esi:include src='$(PROVIDER{mock})/test' /></esi:fragment>B2"
+                + "</esi:fragment>");
+        String result = render(page);
+        assertEquals("A,B1CtestB2,Ctest,A", result);
+        // The page is parsed once, only the include outside of the fragments is skipped
+        assertEquals(1, skipped.size());
+    }
+
+    public void testIncludesOfFragmentsNotRequestedAreNotFetched() throws IOException, HttpErrorPage {
+        Driver provider = MockRequestExecutor.createDriver();
+        setProvider(provider);
+        final List<String> rendered = new ArrayList<String>();
+        provider.getEventManager().register(EventManager.EVENT_RENDER_PRE, new IEventListener() {
+            @Override
+            public boolean event(EventDefinition id, Event event) {
+                rendered.add(((RenderEvent) event).getRemoteUrl());
+                return true;
+            }
+        });
+        String page = "<esi:include src='$(PROVIDER{mock})/fragments' fragment='a' />,"
+                + "<esi:include src='$(PROVIDER{mock})/fragments' fragment='b' />";
+        addResource("/fragments", "<esi:fragment name='a'>A<esi:include src='$(PROVIDER{mock})/a' /></esi:fragment>"
+                + "<esi:fragment name='b'>B<esi:include src='$(PROVIDER{mock})/b' /></esi:fragment>"
+                + "<esi:fragment name='c'>C<esi:include src='$(PROVIDER{mock})/c' /></esi:fragment>");
+        addResource("/a", "a");
+        addResource("/b", "b");
+        addResource("/c", "c");
+        assertEquals("Aa,Bb", render(page));
+        // Indexing the page for "b" does not fetch the include of "c"
+        assertEquals(0, count(rendered, "/c"));
+        assertEquals(1, count(rendered, "/b"));
+
+        // The include of "c" is fetched when "c" is requested, without parsing the page again
+        rendered.clear();
+        List<String> skipped = recordSkippedIncludes();
+        assertEquals("Aa,Bb,Cc", render(page + ",<esi:include src='$(PROVIDER{mock})/fragments' fragment='c' />"));
+        assertEquals(1, count(rendered, "/c"));
+        assertTrue(skipped.isEmpty());
+    }
+
+    public void testIncludeInTryOfFragmentNotRequested() throws IOException, HttpErrorPage {
+        String page = "<esi:include src='$(PROVIDER{mock})/fragments' fragment='a' />,"
+                + "<esi:include src='$(PROVIDER{mock})/fragments' fragment='b' />";
+        addResource("/fragments", "<esi:fragment name='a'>A</esi:fragment><esi:fragment name='b'>B<esi:try>"
+                + "<esi:attempt><esi:include src='$(PROVIDER{mock})/missing' /></esi:attempt>"
+                + "<esi:except>except</esi:except></esi:try></esi:fragment>");
+        // The include cannot be deferred, "b" is rendered alone
+        assertEquals("A,Bexcept", render(page));
+    }
+
+    private static int count(List<String> urls, String path) {
+        int count = 0;
+        for (String url : urls) {
+            if (url.endsWith(path)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public void testIncludeMissingFragmentOfIndexedPage() throws IOException, HttpErrorPage {
+        String page = "<esi:include src='$(PROVIDER{mock})/fragments' fragment='a' />,"
+                + "<esi:include src='$(PROVIDER{mock})/fragments' fragment='b' />,"
+                + "<esi:try><esi:attempt><esi:include src='$(PROVIDER{mock})/fragments' fragment='none' />"
+                + "</esi:attempt><esi:except>missing</esi:except></esi:try>";
+        addResource("/fragments", "<esi:fragment name='a'>A</esi:fragment><esi:fragment name='b'>B</esi:fragment>");
+        String result = render(page);
+        assertEquals("A,B,missing", result);
+    }
+
 }
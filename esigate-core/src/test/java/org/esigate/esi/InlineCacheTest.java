@@ -0,0 +1,70 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.esigate.esi;
+
+import java.util.Date;
+
+import junit.framework.TestCase;
+
+public class InlineCacheTest extends TestCase {
+
+    public void testMaxEntries() {
+        InlineCache cache = new InlineCache(2, Long.MAX_VALUE);
+        cache.storeFragment("a", null, false, null, "fragment a");
+        cache.storeFragment("b", null, false, null, "fragment b");
+        // Access "a" so that "b" becomes the least recently used entry
+        assertNotNull(cache.getFragment("a"));
+        cache.storeFragment("c", null, false, null, "fragment c");
+        assertEquals(2, cache.getEntryCount());
+        assertNotNull(cache.getFragment("a"));
+        assertNull(cache.getFragment("b"));
+        assertNotNull(cache.getFragment("c"));
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(3, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    public void testMaxSize() {
+        InlineCache cache = new InlineCache(1000, 1000);
+        StringBuilder big = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            big.append('x');
+        }
+        cache.storeFragment("a", null, false, null, big.toString());
+        cache.storeFragment("b", null, false, null, big.toString());
+        assertNull(cache.getFragment("a"));
+        assertNotNull(cache.getFragment("b"));
+        assertTrue(cache.getSize() <= 1000);
+
+        // A fragment bigger than the cache is not stored at all
+        big.append(big).append(big);
+        cache.storeFragment("c", null, false, null, big.toString());
+        assertNull(cache.getFragment("c"));
+        assertNotNull(cache.getFragment("b"));
+        // Only "a" was evicted
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    public void testExpiredEntriesAreRemoved() {
+        InlineCache cache = new InlineCache(1000, Long.MAX_VALUE);
+        cache.storeFragment("expired", new Date(System.currentTimeMillis() - 1000L), false, null, "expired");
+        cache.storeFragment("valid", new Date(System.currentTimeMillis() + 10000L), false, null, "valid");
+        assertEquals(1, cache.getEntryCount());
+        assertNull(cache.getFragment("expired"));
+        assertEquals("valid", cache.getFragment("valid").getFragment());
+    }
+
+}
@@ -16,6 +16,7 @@
 package org.esigate.esi;
 
 import java.io.IOException;
+import java.util.List;
 
 import org.esigate.HttpErrorPage;
 
@@ -27,4 +28,12 @@ public class RemoveElementTest extends AbstractElementTest {
         assertEquals("begin  end", result);
     }
 
+    public void testIncludeInRemoveIsSkipped() throws IOException, HttpErrorPage {
+        List<String> skipped = recordSkippedIncludes();
+        String page = "begin <esi:remove><esi:include src=\"$(PROVIDER{mock})/missing\" /></esi:remove> end";
+        String result = render(page);
+        assertEquals("begin  end", result);
+        assertEquals(1, skipped.size());
+    }
+
 }
@@ -16,6 +16,7 @@
 package org.esigate.esi;
 
 import java.io.IOException;
+import java.util.List;
 
 import org.esigate.HttpErrorPage;
 
@@ -30,4 +31,18 @@ public class ReplaceElementTest extends AbstractElementTest {
         }
         fail("We should have had a EsiSyntaxError");
     }
+
+    public void testIncludeInsideReplaceIsRendered() throws IOException, HttpErrorPage {
+        String page = "before <esi:include src='$(PROVIDER{mock})/outer'>"
+                + "<esi:include src='$(PROVIDER{mock})/ignored' />"
+                + "<esi:replace fragment='f'><esi:include src='$(PROVIDER{mock})/inner' /></esi:replace>"
+                + "</esi:include> after";
+        addResource("/outer", "<esi:fragment name='f'>OUTER</esi:fragment>");
+        addResource("/inner", "INNER");
+        addResource("/ignored", "IGNORED");
+        List<String> skipped = recordSkippedIncludes();
+        assertEquals("before INNER after", render(page));
+        // The rest of the body of the include is still not fetched
+        assertEquals(1, skipped.size());
+    }
 }
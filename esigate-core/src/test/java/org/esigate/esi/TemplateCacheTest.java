@@ -0,0 +1,94 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.esigate.esi;
+
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.apache.http.HttpResponse;
+import org.esigate.HttpErrorPage;
+import org.esigate.parser.CompiledDocument;
+import org.esigate.parser.EsiParser;
+import org.esigate.test.http.HttpResponseBuilder;
+
+public class TemplateCacheTest extends TestCase {
+
+    private static CompiledDocument compile(String page) throws IOException, HttpErrorPage {
+        return new EsiParser(CommentElement.TYPE).compile(page, new StringBuilder());
+    }
+
+    public void testGetKey() {
+        HttpResponse response = new HttpResponseBuilder().build();
+        assertNull(TemplateCache.getKey("/page", response));
+        response.setHeader("Last-Modified", "Wed, 01 Jan 2014 00:00:00 GMT");
+        assertEquals("/page Wed, 01 Jan 2014 00:00:00 GMT", TemplateCache.getKey("/page", response));
+        response.setHeader("ETag", "\"1\"");
+        assertEquals("/page \"1\"", TemplateCache.getKey("/page", response));
+        assertNull(TemplateCache.getKey("/page", null));
+    }
+
+    public void testTemplateIsOnlyUsedForTheSamePage() throws Exception {
+        TemplateCache cache = new TemplateCache(1000, Long.MAX_VALUE);
+        cache.put("a", compile("page a"));
+        assertNotNull(cache.get("a", "page a"));
+        assertNull(cache.get("a", "page a modified"));
+        assertNull(cache.get("a", "page b"));
+        assertNull(cache.get("b", "page a"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getCompilationCount());
+    }
+
+    public void testMaxEntries() throws Exception {
+        TemplateCache cache = new TemplateCache(2, Long.MAX_VALUE);
+        cache.put("a", compile("a"));
+        cache.put("b", compile("b"));
+        // Access "a" so that "b" becomes the least recently used entry
+        assertNotNull(cache.get("a", "a"));
+        cache.put("c", compile("c"));
+        assertEquals(2, cache.getEntryCount());
+        assertNotNull(cache.get("a", "a"));
+        assertNull(cache.get("b", "b"));
+        assertNotNull(cache.get("c", "c"));
+    }
+
+    public void testMaxSize() throws Exception {
+        StringBuilder big = new StringBuilder();
+        for (int i = 0; i < 30; i++) {
+            big.append("x<!--esi y-->");
+        }
+        long weight = compile(big.toString()).getWeight();
+        TemplateCache cache = new TemplateCache(1000, weight * 3 / 2);
+        cache.put("a", compile(big.toString()));
+        cache.put("b", compile(big.toString()));
+        assertNull(cache.get("a", big.toString()));
+        assertNotNull(cache.get("b", big.toString()));
+        assertEquals(weight, cache.getSize());
+
+        // A template bigger than the cache is not stored at all
+        big.append(big).append(big);
+        cache.put("c", compile(big.toString()));
+        assertNull(cache.get("c", big.toString()));
+        assertEquals(1, cache.getEntryCount());
+    }
+
+    public void testDisabled() throws Exception {
+        TemplateCache cache = new TemplateCache(0, Long.MAX_VALUE);
+        assertFalse(cache.isEnabled());
+        cache.put("a", compile("a"));
+        assertEquals(0, cache.getEntryCount());
+    }
+
+}
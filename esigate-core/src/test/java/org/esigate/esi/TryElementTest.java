@@ -15,6 +15,8 @@
 package org.esigate.esi;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 
 import org.esigate.HttpErrorPage;
 
@@ -154,4 +156,13 @@ public class TryElementTest extends AbstractElementTest {
         assertEquals("begin NOT FOUNDend", result);
     }
 
+    public void testIncludeInUnusedExceptIsSkipped() throws IOException, HttpErrorPage {
+        List<String> skipped = recordSkippedIncludes();
+        String page = "begin <esi:try>" + "<esi:attempt><esi:include src=\"http://www.foo.com/test\" /></esi:attempt>"
+                + "<esi:except><esi:include src=\"http://www.foo.com/missing\" /></esi:except>" + "</esi:try> end";
+        String result = render(page);
+        assertEquals("begin test end", result);
+        assertEquals(Collections.singletonList("http://www.foo.com/missing"), skipped);
+    }
+
 }
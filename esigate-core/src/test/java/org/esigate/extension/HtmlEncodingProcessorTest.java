@@ -43,6 +43,31 @@ public class HtmlEncodingProcessorTest extends AbstractDriverTestCase {
                 "<html><head><metA content=\"text/html; charset=utf-8\" /></head><body>testéèà</body></html>");
     }
 
+    public void testFindCharset() throws Exception {
+        assertEquals("utf-8", findCharset("<html><head><meta charset=\"utf-8\" /></head></html>"));
+        assertEquals("UTF-8", findCharset("<html><head><META CHARSET=UTF-8></head></html>"));
+        assertEquals("utf-8", findCharset("<meta charset='utf-8'>"));
+        assertEquals("windows-1252", findCharset("<html><head><title>a</title><meta http-equiv=\"Content-Type\" "
+                + "content=\"text/html; charset=windows-1252\"></head></html>"));
+        assertEquals("utf-8", findCharset("<meta content=\"text/html;charset = utf-8\">"));
+        assertNull(findCharset("<html><head><meta name=\"description\" content=\"charset\"></head></html>"));
+        assertNull(findCharset("<html><head><!-- <meta charset=\"utf-8\"> --></head></html>"));
+        assertNull(findCharset("<html><head><metadata charset=\"utf-8\"></head></html>"));
+        assertNull(findCharset("<html><head></head><body><meta charset=\"utf-8\"></body></html>"));
+        assertNull(findCharset("<html><head><meta charset=\"\"></head></html>"));
+        assertNull(findCharset("<meta charset"));
+        StringBuilder tooFar = new StringBuilder("<html><head><title>");
+        for (int i = 0; i < 5000; i++) {
+            tooFar.append('a');
+        }
+        tooFar.append("</title><meta charset=\"utf-8\"></head></html>");
+        assertNull(findCharset(tooFar.toString()));
+    }
+
+    private static String findCharset(String document) throws Exception {
+        return HtmlCharsetProcessor.findCharset(document.getBytes("ISO-8859-1"));
+    }
+
     private void doEncodingTest(String contentType, String s) throws IOException, HttpErrorPage {
         Properties properties = new Properties();
         properties.put(Parameters.REMOTE_URL_BASE.getName(), "http://localhost/");
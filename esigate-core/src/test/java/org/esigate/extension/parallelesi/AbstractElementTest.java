@@ -16,6 +16,8 @@
 package org.esigate.extension.parallelesi;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
 
 import junit.framework.TestCase;
@@ -23,8 +25,17 @@ import junit.framework.TestCase;
 import org.apache.commons.io.output.StringBuilderWriter;
 import org.esigate.Driver;
 import org.esigate.HttpErrorPage;
+import org.esigate.esi.InlineCache;
 import org.esigate.MockRequestExecutor;
+import org.esigate.events.Event;
+import org.esigate.events.EventDefinition;
+import org.esigate.events.EventManager;
+import org.esigate.events.IEventListener;
+import org.esigate.events.impl.IncludeSkippedEvent;
+import org.esigate.events.impl.RenderEvent;
+import org.esigate.esi.InlineCache;
 import org.esigate.http.IncomingRequest;
+import org.esigate.http.RequestDeadline;
 import org.esigate.impl.DriverRequest;
 import org.esigate.test.TestUtils;
 
@@ -61,10 +72,60 @@ public abstract class AbstractElementTest extends TestCase {
         this.provider = provider;
     }
 
+    protected InlineCache getInlineCache() {
+        return provider.getInlineCache();
+    }
+
     protected IncomingRequest.Builder getRequestBuilder() {
         return requestBuilder;
     }
 
+    /**
+     * @return the src of the includes skipped from now on because their content was not used
+     */
+    protected List<String> recordSkippedIncludes() {
+        final List<String> skipped = new CopyOnWriteArrayList<String>();
+        provider.getEventManager().register(EventManager.EVENT_INCLUDE_SKIPPED, new IEventListener() {
+            @Override
+            public boolean event(EventDefinition id, Event event) {
+                skipped.add(((IncludeSkippedEvent) event).getSrc());
+                return true;
+            }
+        });
+        return skipped;
+    }
+
+    /**
+     * @return the url of the pages fetched and rendered from now on
+     */
+    protected List<String> recordRenderedPages() {
+        final List<String> rendered = new CopyOnWriteArrayList<String>();
+        provider.getEventManager().register(EventManager.EVENT_RENDER_PRE, new IEventListener() {
+            @Override
+            public boolean event(EventDefinition id, Event event) {
+                rendered.add(((RenderEvent) event).getRemoteUrl());
+                return true;
+            }
+        });
+        return rendered;
+    }
+
+    /**
+     * @return the time left before the deadline, or -1, when each page is rendered from now on
+     */
+    protected List<Long> recordRemainingTimes() {
+        final List<Long> remainingTimes = new CopyOnWriteArrayList<Long>();
+        provider.getEventManager().register(EventManager.EVENT_RENDER_PRE, new IEventListener() {
+            @Override
+            public boolean event(EventDefinition id, Event event) {
+                remainingTimes.add(RequestDeadline.getRemainingTime(((RenderEvent) event).getOriginalRequest()
+                        .getOriginalRequest()));
+                return true;
+            }
+        });
+        return remainingTimes;
+    }
+
     protected void setTested(EsiRenderer tested) {
         this.tested = tested;
     }
@@ -90,6 +90,11 @@ public class BaseElementTest extends TestCase {
             return null;
         }
 
+        @Override
+        public boolean isContentDiscarded() {
+            return false;
+        }
+
         @Override
         public HttpResponse getHttpResponse() {
             return null;
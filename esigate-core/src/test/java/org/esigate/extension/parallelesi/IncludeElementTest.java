@@ -96,17 +96,17 @@ public class IncludeElementTest extends AbstractElementTest {
 
     public void testIncludeInlineCache() throws IOException, HttpErrorPage {
         String page = "before <esi:include src='$(PROVIDER{mock})/inline-cache' /> after";
-        InlineCache.storeFragment("$(PROVIDER{mock})/inline-cache", null, false, null, "---inline cache item---");
+        getInlineCache().storeFragment("$(PROVIDER{mock})/inline-cache", null, false, null, "---inline cache item---");
         String result = render(page);
         assertEquals("before ---inline cache item--- after", result);
 
-        InlineCache.storeFragment("$(PROVIDER{mock})/inline-cache", new Date(System.currentTimeMillis() + 10L * 1000L),
-                false, null, "---updated inline cache item---");
+        getInlineCache().storeFragment("$(PROVIDER{mock})/inline-cache",
+                new Date(System.currentTimeMillis() + 10L * 1000L), false, null, "---updated inline cache item---");
         result = render(page);
         assertEquals("before ---updated inline cache item--- after", result);
 
-        InlineCache.storeFragment("$(PROVIDER{mock})/inline-cache", new Date(System.currentTimeMillis() - 10L * 1000L),
-                false, null, "---expired inline cache item---");
+        getInlineCache().storeFragment("$(PROVIDER{mock})/inline-cache",
+                new Date(System.currentTimeMillis() - 10L * 1000L), false, null, "---expired inline cache item---");
         addResource("/inline-cache", "---fetched inline cache item---");
         result = render(page);
         assertEquals("before ---fetched inline cache item--- after", result);
@@ -0,0 +1,65 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.esigate.extension.parallelesi;
+
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+import org.esigate.Driver;
+import org.esigate.MockRequestExecutor;
+import org.esigate.extension.Aggregate;
+
+public class IncludeExecutorTest extends TestCase {
+
+    private static Properties threads(String maxThreads) {
+        Properties properties = new Properties();
+        properties.setProperty(Esi.THREADS.getName(), maxThreads);
+        return properties;
+    }
+
+    public void testLinearProcessing() {
+        assertNull(IncludeExecutor.getInstance(MockRequestExecutor.createDriver(), threads("0")));
+    }
+
+    public void testExecutorIsSharedByTheExtensionsOfADriver() {
+        Driver driver = MockRequestExecutor.createDriver();
+        Properties properties = threads("2");
+        Esi esi = new Esi();
+        esi.init(driver, properties);
+        new Aggregate().init(driver, properties);
+        assertNotNull(esi.getExecutor());
+        assertSame(esi.getExecutor(), IncludeExecutor.getInstance(driver, properties));
+        assertNotSame(esi.getExecutor(), IncludeExecutor.getInstance(MockRequestExecutor.createDriver(), properties));
+    }
+
+    public void testExecutorIsShutDownWhenTheDriverIsClosed() {
+        Driver driver = MockRequestExecutor.createDriver();
+        IncludeExecutor executor = IncludeExecutor.getInstance(driver, threads("2"));
+        driver.close();
+        // Includes of the pages still being rendered are processed by the caller thread
+        final AtomicReference<Thread> thread = new AtomicReference<Thread>();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                thread.set(Thread.currentThread());
+            }
+        });
+        assertSame(Thread.currentThread(), thread.get());
+        assertEquals(1, executor.getCallerRunsCount());
+    }
+
+}
@@ -18,6 +18,7 @@ package org.esigate.extension.parallelesi;
 import java.io.IOException;
 
 import org.esigate.HttpErrorPage;
+import org.esigate.esi.InlineCache;
 
 public class InlineElementTest extends AbstractElementTest {
 
@@ -25,7 +26,7 @@ public class InlineElementTest extends AbstractElementTest {
         String page = "begin <esi:inline name=\"someUri\" fetchable=\"yes\">inside inline</esi:inline>end";
         String result = render(page);
         assertEquals("begin end", result);
-        InlineCache actual = InlineCache.getFragment("someUri");
+        InlineCache.Entry actual = getInlineCache().getFragment("someUri");
         assertNotNull(actual);
         assertTrue(actual.isFetchable());
         assertFalse(actual.isExpired());
@@ -19,10 +19,20 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.http.HttpStatus;
+import org.esigate.Driver;
 import org.esigate.HttpErrorPage;
+import org.esigate.MockRequestExecutor;
 import org.esigate.Parameters;
+import org.esigate.events.Event;
+import org.esigate.events.EventDefinition;
+import org.esigate.events.EventManager;
+import org.esigate.events.IEventListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -95,6 +105,60 @@ public class ParallelEsiTest extends AbstractElementTest {
         assertEquals(expect.toString(), result);
     }
 
+    /**
+     * When all the threads are busy, includes must be processed by the caller thread instead of being rejected.
+     * 
+     * @throws IOException
+     * @throws HttpErrorPage
+     */
+    public void testIncludesAreNotRejectedWhenAllThreadsAreBusy() throws IOException, HttpErrorPage,
+            InterruptedException {
+        final int threads = 2;
+        IncludeExecutor exe = new IncludeExecutor(threads, 60);
+        setTested(new EsiRenderer(exe));
+        Driver provider = MockRequestExecutor.createDriver();
+        setProvider(provider);
+
+        // The includes processed by the threads of the pool wait until an include is processed by the caller thread
+        final AtomicInteger started = new AtomicInteger();
+        final CountDownLatch allThreadsBusy = new CountDownLatch(1);
+        provider.getEventManager().register(EventManager.EVENT_RENDER_PRE, new IEventListener() {
+            @Override
+            public boolean event(EventDefinition id, Event event) {
+                if (started.incrementAndGet() <= threads) {
+                    try {
+                        allThreadsBusy.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                } else {
+                    allThreadsBusy.countDown();
+                }
+                return true;
+            }
+        });
+
+        StringBuilder expect = new StringBuilder(Parameters.DEFAULT_BUFFER_SIZE);
+        StringBuilder page = new StringBuilder(Parameters.DEFAULT_BUFFER_SIZE);
+        for (int i = 0; i < 10; i++) {
+            // Different urls, the includes of the same url would share the same request
+            addResource("/test" + i, "test" + i);
+            page.append("<esi:include src=\"$(PROVIDER{mock})/test" + i + "\" />");
+            expect.append("test" + i);
+        }
+
+        String result = render(page.toString());
+
+        assertEquals(expect.toString(), result);
+        assertTrue(exe.getCallerRunsCount() > 0);
+        // The last include is counted until its thread returns, which may happen just after the page is complete
+        for (int i = 0; i < 100 && exe.getInFlightCount() > 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, exe.getInFlightCount());
+        assertTrue(exe.getMaxInFlightCount() >= 1);
+    }
+
     /**
      * A blocking executor which will not start runnable unless {@link #perform()} is called.
      * 
@@ -131,4 +195,81 @@ public class ParallelEsiTest extends AbstractElementTest {
         }
     }
 
+    public void testIncludeMaxWaitFallsBackToAlt() throws IOException, HttpErrorPage {
+        addResource("/alt", "alt");
+        setTested(new EsiRenderer(new NeverRunningExecutor()));
+        String page = "before <esi:include src=\"$(PROVIDER{mock})/test\" alt=\"$(PROVIDER{mock})/alt\""
+                + " maxwait=\"50\" /> after";
+        assertEquals("before alt after", render(page));
+    }
+
+    public void testIncludeMaxWaitLimitsRequestTimeout() throws IOException, HttpErrorPage {
+        setTested(new EsiRenderer(new IncludeExecutor(2, 60)));
+        List<Long> remainingTimes = recordRemainingTimes();
+        String page = "before <esi:include src=\"$(PROVIDER{mock})/test\" maxwait=\"5000\" /> after";
+        assertEquals("before test after", render(page));
+        assertEquals(1, remainingTimes.size());
+        assertTrue("Wrong remaining time: " + remainingTimes, remainingTimes.get(0) > 0
+                && remainingTimes.get(0) <= 5000);
+    }
+
+    public void testAltIsFetchedWithTimeLeftAfterMaxWait() throws IOException, HttpErrorPage {
+        addResource("/alt", "alt");
+        setTested(new EsiRenderer(new NeverRunningExecutor()));
+        List<Long> remainingTimes = recordRemainingTimes();
+        String page = "before <esi:include src=\"$(PROVIDER{mock})/test\" alt=\"$(PROVIDER{mock})/alt\""
+                + " maxwait=\"50\" /> after";
+        assertEquals("before alt after", render(page));
+        assertEquals(1, remainingTimes.size());
+        assertTrue("Wrong remaining time: " + remainingTimes, remainingTimes.get(0) > 0);
+    }
+
+    public void testIncludeMaxWaitWithOnErrorContinue() throws IOException, HttpErrorPage {
+        setTested(new EsiRenderer(new NeverRunningExecutor()));
+        String page = "before <esi:include src=\"$(PROVIDER{mock})/test\" maxwait=\"50\" onerror=\"continue\" />"
+                + " after";
+        assertEquals("before  after", render(page));
+    }
+
+    public void testInvalidMaxWaitIsIgnored() throws IOException, HttpErrorPage {
+        addResource("/test1", "test1");
+        addResource("/test2", "test2");
+        setTested(new EsiRenderer(new IncludeExecutor(2, 60)));
+        String page = "before <esi:include src=\"$(PROVIDER{mock})/test1\" maxwait=\"2s\" />"
+                + "<esi:include src=\"$(PROVIDER{mock})/test2\" maxwait=\"\" /> after";
+        assertEquals("before test1test2 after", render(page));
+    }
+
+    public void testPageTimeoutIsHandledByTry() throws IOException, HttpErrorPage {
+        EsiRenderer tested = new EsiRenderer(new NeverRunningExecutor());
+        tested.setPageTimeout(50);
+        setTested(tested);
+        String page = "before <esi:try><esi:attempt><esi:include src=\"$(PROVIDER{mock})/test\" /></esi:attempt>"
+                + "<esi:except>except</esi:except></esi:try> after";
+        assertEquals("before except after", render(page));
+    }
+
+    public void testPageTimeoutWithoutFallback() throws IOException {
+        EsiRenderer tested = new EsiRenderer(new NeverRunningExecutor());
+        tested.setPageTimeout(50);
+        setTested(tested);
+        String page = "before <esi:include src=\"$(PROVIDER{mock})/test\" /> after";
+        try {
+            render(page);
+            fail("The include should have timed out");
+        } catch (HttpErrorPage e) {
+            assertEquals(HttpStatus.SC_GATEWAY_TIMEOUT, e.getHttpResponse().getStatusLine().getStatusCode());
+        }
+    }
+
+    /**
+     * An executor which never runs the includes, like a provider which never answers.
+     */
+    static class NeverRunningExecutor implements Executor {
+        @Override
+        public void execute(Runnable command) {
+            // Nothing to do
+        }
+    }
+
 }
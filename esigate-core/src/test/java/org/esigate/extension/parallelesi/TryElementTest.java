@@ -15,6 +15,8 @@
 package org.esigate.extension.parallelesi;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 
 import org.esigate.HttpErrorPage;
 
@@ -154,4 +156,23 @@ public class TryElementTest extends AbstractElementTest {
         assertEquals("begin NOT FOUNDend", result);
     }
 
+    public void testIncludeInUnusedExceptIsNotFetched() throws IOException, HttpErrorPage {
+        List<String> rendered = recordRenderedPages();
+        String page = "begin <esi:try>" + "<esi:attempt><esi:include src=\"http://www.foo.com/test\" /></esi:attempt>"
+                + "<esi:except><esi:include src=\"http://www.foo.com/except\" /></esi:except>" + "</esi:try> end";
+        addResource("http://www.foo.com/except", "except");
+        String result = render(page);
+        assertEquals("begin test end", result);
+        assertEquals(Collections.singletonList("http://www.foo.com/test"), rendered);
+    }
+
+    public void testIncludeInExceptIsFetchedWhenAttemptFails() throws IOException, HttpErrorPage {
+        String page = "begin <esi:try>"
+                + "<esi:attempt><esi:include src=\"http://www.foo.com/missing\" /></esi:attempt>"
+                + "<esi:except><esi:include src=\"http://www.foo.com/except\" /></esi:except>" + "</esi:try> end";
+        addResource("http://www.foo.com/except", "except");
+        String result = render(page);
+        assertEquals("begin except end", result);
+    }
+
 }
@@ -772,4 +772,64 @@ public class HttpClientRequestExecutorTest extends TestCase {
         assertEquals(HttpStatus.SC_NOT_MODIFIED, result2.getStatusLine().getStatusCode());
     }
 
+    public void testRequestDeadlineLimitsSocketTimeout() throws Exception {
+        properties = new Properties();
+        properties.put(Parameters.REMOTE_URL_BASE.getName(), "http://localhost:8080");
+        properties.put(Parameters.SOCKET_TIMEOUT.getName(), "10000");
+        createHttpClientRequestExecutor();
+
+        mockConnectionManager.setResponse(createMockResponse(""));
+        DriverRequest httpRequest = TestUtils.createDriverRequest("http://wwww.foo.com", driver);
+        RequestDeadline.setDeadline(httpRequest.getOriginalRequest(), System.currentTimeMillis() + 2000);
+        OutgoingRequest apacheHttpRequest = httpClientRequestExecutor.createHttpRequest(httpRequest,
+                "http://localhost:8080", true);
+        int socketTimeout = apacheHttpRequest.getConfig().getSocketTimeout();
+        assertTrue("Socket timeout should be limited by the deadline: " + socketTimeout, socketTimeout > 0
+                && socketTimeout <= 2000);
+        httpClientRequestExecutor.execute(apacheHttpRequest);
+        long sentTimeout = Long.parseLong(mockConnectionManager.getSentRequest().getFirstHeader(RequestDeadline.HEADER)
+                .getValue());
+        assertTrue("Wrong " + RequestDeadline.HEADER + " header: " + sentTimeout, sentTimeout > 0
+                && sentTimeout <= 2000);
+    }
+
+    public void testThreadDeadlineReplacesRequestDeadline() throws Exception {
+        properties = new Properties();
+        properties.put(Parameters.REMOTE_URL_BASE.getName(), "http://localhost:8080");
+        properties.put(Parameters.SOCKET_TIMEOUT.getName(), "10000");
+        createHttpClientRequestExecutor();
+
+        DriverRequest httpRequest = TestUtils.createDriverRequest("http://wwww.foo.com", driver);
+        RequestDeadline.setDeadline(httpRequest.getOriginalRequest(), System.currentTimeMillis() - 1000);
+        long previous = RequestDeadline.setThreadDeadline(System.currentTimeMillis() + 2000);
+        OutgoingRequest apacheHttpRequest;
+        try {
+            apacheHttpRequest = httpClientRequestExecutor.createHttpRequest(httpRequest, "http://localhost:8080", true);
+        } finally {
+            RequestDeadline.restoreThreadDeadline(previous);
+        }
+        int socketTimeout = apacheHttpRequest.getConfig().getSocketTimeout();
+        assertTrue("Socket timeout should be limited by the deadline of the thread: " + socketTimeout,
+                socketTimeout > 1000 && socketTimeout <= 2000);
+        long sentTimeout = Long.parseLong(apacheHttpRequest.getFirstHeader(RequestDeadline.HEADER).getValue());
+        assertTrue("Wrong " + RequestDeadline.HEADER + " header: " + sentTimeout, sentTimeout > 1000
+                && sentTimeout <= 2000);
+        assertEquals(0, RequestDeadline.getRemainingTime(httpRequest.getOriginalRequest()));
+    }
+
+    public void testNoDeadlineHeaderWithoutDeadline() throws Exception {
+        properties = new Properties();
+        properties.put(Parameters.REMOTE_URL_BASE.getName(), "http://localhost:8080");
+        createHttpClientRequestExecutor();
+
+        mockConnectionManager.setResponse(createMockResponse(""));
+        DriverRequest httpRequest = TestUtils.createDriverRequest("http://wwww.foo.com", driver);
+        OutgoingRequest apacheHttpRequest = httpClientRequestExecutor.createHttpRequest(httpRequest,
+                "http://localhost:8080", true);
+        assertEquals(Parameters.SOCKET_TIMEOUT.getDefaultValue().intValue(), apacheHttpRequest.getConfig()
+                .getSocketTimeout());
+        httpClientRequestExecutor.execute(apacheHttpRequest);
+        assertNull(mockConnectionManager.getSentRequest().getFirstHeader(RequestDeadline.HEADER));
+    }
+
 }
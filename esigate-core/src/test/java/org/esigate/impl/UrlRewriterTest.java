@@ -15,10 +15,16 @@
 
 package org.esigate.impl;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.Properties;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import junit.framework.TestCase;
 
+import org.apache.commons.io.output.StringBuilderWriter;
 import org.esigate.Parameters;
 
 /**
@@ -281,4 +287,66 @@ public class UrlRewriterTest extends TestCase {
         assertEquals(input, result);
     }
 
+    /**
+     * The urls are found in the same places as with the regular expression which was used before.
+     */
+    public void testSameTagsAsRegularExpression() throws IOException {
+        String[] inputs = {"<a href='a' src=\"b\">", "<img data-src=\"a\" src=\"b\" alt='c'>",
+                "<img src=\"a\" data-src=\"b\">", "<a href = 'a' >", "<a HREF=\"a>b\" title=\"c\">",
+                "<a href=\"a<b\">", "<!-- <a href=\"a\"> -->", "<!a href=\"a\">", "<a href=a>", "<a href=\"a\"",
+                "<>src=\"a\">", "<ab src=\"a\"> <br> <a\nhref=\"b\"\n>", "<a title=\"x\" href=\"a\" ><b src='b'/>",
+                "<a href=\"\">", "<a  src='a\"b'>", "<<<a href=\"a\">>>", "<a href=\"a\">text</a>src=\"b\">",
+                "<script>if (a<b) { x.src=\"c\" }</script>", "<a href=\"$1\\\">"};
+        for (String input : inputs) {
+            assertSameResult(input);
+        }
+        String[] tokens = {"<", ">", "!", " ", "=", "\"", "'", "a", "src", "HREF", "action", "background", "/", "\n"};
+        Random random = new Random(0);
+        for (int i = 0; i < 10000; i++) {
+            StringBuilder input = new StringBuilder();
+            for (int j = random.nextInt(20); j > 0; j--) {
+                input.append(tokens[random.nextInt(tokens.length)]);
+            }
+            assertSameResult(input.toString());
+        }
+    }
+
+    private static void assertSameResult(String input) throws IOException {
+        UrlRewriter tested = createUrlRewriter("http://myapp/context", "absolute");
+        Pattern pattern = Pattern.compile(
+                "<([^\\!][^>]+)(src|href|action|background)\\s*=\\s*('[^<']*'|\"[^<\"]*\")([^>]*)>",
+                Pattern.CASE_INSENSITIVE);
+        StringBuffer expected = new StringBuffer();
+        Matcher m = pattern.matcher(input);
+        while (m.find()) {
+            String url = tested.rewriteUrl(m.group(3).substring(1, m.group(3).length() - 1), "/page", "http://myapp/");
+            m.appendReplacement(expected, Matcher.quoteReplacement("<" + m.group(1) + m.group(2) + "=\"" + url + "\""
+                    + m.group(4) + ">"));
+        }
+        m.appendTail(expected);
+        assertEquals(input, expected.toString(), tested.rewriteHtml(input, "/page", "http://myapp/").toString());
+        // Same result when the page is written one character at a time
+        StringBuilderWriter out = new StringBuilderWriter();
+        Writer filter = tested.createHtmlFilter("/page", "http://myapp/", out);
+        for (int i = 0; i < input.length(); i++) {
+            filter.write(input.charAt(i));
+            filter.flush();
+        }
+        filter.close();
+        assertEquals(input, expected.toString(), out.toString());
+    }
+
+    public void testHtmlFilterWritesCompleteTags() throws IOException {
+        UrlRewriter tested = createUrlRewriter("http://myapp/context", "absolute");
+        StringBuilderWriter out = new StringBuilderWriter();
+        Writer filter = tested.createHtmlFilter("/page", "http://myapp/", out);
+        filter.write("<p>text</p><img src=\"a.png\" alt=\"a\"><a href=\"b");
+        filter.flush();
+        assertEquals("<p>text</p><img src=\"http://myapp/context/a.png\" alt=\"a\">", out.toString());
+        filter.write(".html\">link</a>");
+        filter.close();
+        assertEquals("<p>text</p><img src=\"http://myapp/context/a.png\" alt=\"a\">"
+                + "<a href=\"http://myapp/context/b.html\">link</a>", out.toString());
+    }
+
 }
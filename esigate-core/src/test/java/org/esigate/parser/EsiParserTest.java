@@ -0,0 +1,204 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.esigate.parser;
+
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+import org.esigate.HttpErrorPage;
+
+public class EsiParserTest extends TestCase {
+
+    // The regular expressions previously used by the esi renderer
+    private static final Pattern PATTERN = Pattern
+            .compile("(<esi:\\w+((\\s+\\w+(\\s*=\\s*(?:\".*?\"|'.*?'|[^'\">\\s]+))?)+\\s*|\\s*)/?>)|(</esi:[^>]*>)");
+    private static final Pattern PATTERN_COMMENTS = Pattern.compile("(<!--esi)|(-->)");
+
+    private static final TagElementType INCLUDE = new MockElementType("<esi:include", "</esi:include");
+    private static final TagElementType INLINE = new MockElementType("<esi:inline", "</esi:inline");
+    private static final TagElementType COMMENT = new MockElementType("<!--esi", "-->") {
+        @Override
+        public Element newInstance() {
+            return new TransparentElement();
+        }
+    };
+
+    private static final String[] PAGES = new String[] {"", "plain text", "<p>html</p>", "<esi:include src='a'/>",
+            "<esi:include src=\"a\" alt=b onerror=\"continue\" />", "<esi:include\tsrc = 'a'\n/>",
+            "<esi:include src='a'>text</esi:include>", "<esi:include src='a'>unclosed",
+            "<esi:include src='a'", "<esi:include src='a'/ >", "<esi:include src='a'alt='b'/>",
+            "<esi:include src='a' alt='b'c'/>",
+            "<esi:include src=a/>", "<esi:include src='a\nb'/>", "<esi:include data-x='a'/>",
+            "<esi:include =a/>", "<esi: src='a'/>", "<esi:inline name='x'><esi:include src='a'/></esi:inline>",
+            "</esi:inline>", "</esi:include <esi:include src='a'/>", "<esi:include src='a'></esi:includes>",
+            "<!--esi <esi:include src='a'/> -->", "<!--esi <!--esi a --> b --> c -->", "--> <!-- html -->",
+            "<!--esi <!-- html --> -->", "<<esi:include src='a'/>>", "<esi:include src='>'/>"};
+
+    private static String parse(String page) throws IOException, HttpErrorPage {
+        StringBuilder out = new StringBuilder();
+        new EsiParser(INCLUDE, INLINE).parse(page, out);
+        return out.toString();
+    }
+
+    private static String parseWithRegexps(String page) throws IOException, HttpErrorPage {
+        StringBuilder withoutComments = new StringBuilder();
+        new Parser(PATTERN_COMMENTS, COMMENT).parse(page, withoutComments);
+        StringBuilder out = new StringBuilder();
+        new Parser(PATTERN, INCLUDE, INLINE).parse(withoutComments, out);
+        return out.toString();
+    }
+
+    public void testParse() throws IOException, HttpErrorPage {
+        assertEquals("begin [<esi:include src='a'/>][/] end", parse("begin <esi:include src='a'/> end"));
+        assertEquals("[<esi:include src=\"a\">]body[/]", parse("<esi:include src=\"a\">body</esi:include>"));
+        assertEquals("[<esi:inline name=a fetchable>]x[/]",
+                parse("<esi:inline name=a fetchable>x</esi:inline>"));
+    }
+
+    public void testUnknownTagsAreWrittenAsText() throws IOException, HttpErrorPage {
+        assertEquals("<esi:unknown a='b'/> </esi:include>", parse("<esi:unknown a='b'/> </esi:include>"));
+        assertEquals("<esi:include src='a' ", parse("<esi:include src='a' "));
+    }
+
+    public void testComments() throws IOException, HttpErrorPage {
+        assertEquals("a  [<esi:include src='a'/>][/]  b -->",
+                parse("a <!--esi <esi:include src='a'/> --> b -->"));
+        assertEquals("ab", parse("<!--esia<!--esi-->b-->"));
+    }
+
+    public void testSameResultAsRegularExpressions() throws IOException, HttpErrorPage {
+        for (String page : PAGES) {
+            assertEquals(page, parseWithRegexps(page), parse(page));
+        }
+    }
+
+    public void testCompiledDocumentGivesSameResult() throws IOException, HttpErrorPage {
+        EsiParser parser = new EsiParser(INCLUDE, INLINE);
+        for (String page : PAGES) {
+            StringBuilder out = new StringBuilder();
+            CompiledDocument document = parser.compile(page, out);
+            assertEquals(page, parse(page), out.toString());
+            assertTrue(document.matches(page));
+            assertFalse(document.matches(page + " "));
+            // Rendered again, possibly by another parser
+            out.setLength(0);
+            new EsiParser(INCLUDE, INLINE).parse(document, page, out);
+            assertEquals(page, parse(page), out.toString());
+        }
+    }
+
+    public void testCompiledDocumentDoesNotMatchPageWithSameHashCode() throws IOException, HttpErrorPage {
+        String page = "<p>Aa</p>";
+        String other = "<p>BB</p>";
+        assertEquals(page.hashCode(), other.hashCode());
+        CompiledDocument document = new EsiParser(INCLUDE, INLINE).compile(page, new StringBuilder());
+        assertTrue(document.matches(page));
+        assertFalse(document.matches(other));
+    }
+
+    private static class MockElementType implements TagElementType {
+        private final String startTag;
+        private final String endTag;
+
+        protected MockElementType(String startTag, String endTag) {
+            this.startTag = startTag;
+            this.endTag = endTag;
+        }
+
+        @Override
+        public final boolean isStartTag(String tag) {
+            return tag.startsWith(startTag);
+        }
+
+        @Override
+        public final boolean isEndTag(String tag) {
+            return tag.startsWith(endTag);
+        }
+
+        @Override
+        public String getStartTag() {
+            return startTag;
+        }
+
+        @Override
+        public String getEndTag() {
+            return endTag;
+        }
+
+        @Override
+        public Element newInstance() {
+            return new TagWriterElement();
+        }
+    }
+
+    /**
+     * Writes the tags between brackets.
+     */
+    private static class TagWriterElement extends TransparentElement {
+        private boolean closed;
+
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        public void onTagStart(String tag, ParserContext ctx) throws IOException, HttpErrorPage {
+            super.onTagStart(tag, ctx);
+            closed = tag.endsWith("/>");
+            characters("[" + tag + "]", 0, tag.length() + 2);
+        }
+
+        @Override
+        public void onTagEnd(String tag, ParserContext ctx) throws IOException {
+            characters("[/]", 0, 3);
+        }
+    }
+
+    /**
+     * Writes its content to its parent.
+     */
+    private static class TransparentElement implements Element {
+        private Element parent;
+
+        @Override
+        public boolean isClosed() {
+            return false;
+        }
+
+        @SuppressWarnings("unused")
+        @Override
+        public void onTagStart(String tag, ParserContext ctx) throws IOException, HttpErrorPage {
+            parent = ctx.getCurrent();
+        }
+
+        @SuppressWarnings("unused")
+        @Override
+        public void onTagEnd(String tag, ParserContext ctx) throws IOException {
+        }
+
+        @Override
+        public void characters(CharSequence csq, int start, int end) throws IOException {
+            parent.characters(csq, start, end);
+        }
+
+        @Override
+        public boolean onError(Exception e, ParserContext ctx) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.esigate.parser;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+public class RopeTest extends TestCase {
+
+    private static final String LONG = "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ";
+
+    public void testAppend() {
+        Rope rope = new Rope();
+        assertEquals(0, rope.length());
+        assertEquals("", rope.toString());
+        rope.append("a").append(LONG, 10, 50).append('b').append(null);
+        String expected = "a" + LONG.substring(10, 50) + "bnull";
+        assertEquals(expected, rope.toString());
+        assertEquals(expected.length(), rope.length());
+        for (int i = expected.length() - 1; i >= 0; i--) {
+            assertEquals(expected.charAt(i), rope.charAt(i));
+        }
+    }
+
+    public void testSubSequence() {
+        Rope rope = new Rope().append(LONG).append("-").append(LONG);
+        String expected = LONG + "-" + LONG;
+        for (int start = 0; start < expected.length(); start += 7) {
+            for (int end = start; end <= expected.length(); end += 5) {
+                assertEquals(expected.substring(start, end), rope.subSequence(start, end).toString());
+            }
+        }
+    }
+
+    public void testAppendRope() {
+        Rope child = new Rope().append("<").append(LONG).append(">");
+        Rope parent = new Rope().append("[").append(child).append(child, 1, 11).append("]");
+        assertEquals("[<" + LONG + ">" + LONG.substring(0, 10) + "]", parent.toString());
+        // The ranges referenced by the parent do not change
+        child.append("more");
+        assertEquals("[<" + LONG + ">" + LONG.substring(0, 10) + "]", parent.toString());
+        parent.append(parent);
+        assertEquals("[<" + LONG + ">" + LONG.substring(0, 10) + "][<" + LONG + ">" + LONG.substring(0, 10) + "]",
+                parent.toString());
+    }
+
+    public void testMutableSequencesAreCopied() {
+        StringBuilder builder = new StringBuilder(LONG);
+        Rope rope = new Rope().append(builder);
+        builder.setLength(0);
+        builder.append("modified");
+        assertEquals(LONG, rope.toString());
+    }
+
+    public void testAppendTo() throws IOException {
+        Rope rope = new Rope().append(LONG).append(new StringBuilder("builder")).append(LONG);
+        StringWriter writer = new StringWriter();
+        rope.appendTo(writer);
+        assertEquals(LONG + "builder" + LONG, writer.toString());
+        writer = new StringWriter();
+        rope.appendTo(writer, 60, 70);
+        assertEquals((LONG + "builder" + LONG).substring(60, 70), writer.toString());
+        StringBuilder builder = new StringBuilder();
+        rope.appendTo(builder, 0, 0);
+        assertEquals("", builder.toString());
+    }
+
+    public void testRegexp() {
+        Rope rope = new Rope().append("<a href='").append(LONG).append("'>link</a>");
+        assertEquals("<a href='" + LONG + "'>anchor</a>", Pattern.compile("link").matcher(rope).replaceAll("anchor"));
+    }
+
+    public void testOutOfBounds() {
+        Rope rope = new Rope().append("abc");
+        try {
+            rope.charAt(3);
+            fail("IndexOutOfBoundsException expected");
+        } catch (IndexOutOfBoundsException e) {
+            // Expected
+        }
+        try {
+            rope.subSequence(2, 1);
+            fail("IndexOutOfBoundsException expected");
+        } catch (IndexOutOfBoundsException e) {
+            // Expected
+        }
+    }
+
+}
@@ -1,6 +1,13 @@
 package org.esigate.parser.future;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
 
 import junit.framework.Assert;
 
@@ -26,4 +33,65 @@ public class FutureAppendableAdapterTest {
         Assert.assertEquals("test1test2test3test4", sw.toString());
     }
 
+    @Test
+    public void testCompletedAppendsStopAtFirstPendingFuture() throws IOException, HttpErrorPage {
+        StringBuilderWriter sw = new StringBuilderWriter();
+        FutureAppendableAdapter adapter = new FutureAppendableAdapter(sw);
+        FutureTask<CharSequence> pending = new FutureTask<CharSequence>(new Callable<CharSequence>() {
+            @Override
+            public CharSequence call() {
+                return "test2";
+            }
+        });
+
+        adapter.enqueueAppend(new CharSequenceFuture("test1"));
+        adapter.enqueueAppend(pending);
+        adapter.enqueueAppend(new CharSequenceFuture("test3"));
+        adapter.performCompletedAppends();
+        Assert.assertEquals("test1", sw.toString());
+
+        pending.run();
+        adapter.performCompletedAppends();
+        Assert.assertEquals("test1test2test3", sw.toString());
+        Assert.assertFalse(adapter.hasPending());
+    }
+
+    @Test
+    public void testOutputIsFlushedBeforeWaiting() throws Exception {
+        final List<String> flushed = new ArrayList<String>();
+        final StringBuilderWriter sw = new StringBuilderWriter() {
+            @Override
+            public void flush() {
+                flushed.add(toString());
+            }
+        };
+        FutureAppendableAdapter adapter = new FutureAppendableAdapter(sw);
+        final FutureTask<CharSequence> pending = new FutureTask<CharSequence>(new Callable<CharSequence>() {
+            @Override
+            public CharSequence call() {
+                return "test2";
+            }
+        });
+
+        adapter.enqueueAppend(new CharSequenceFuture("test1"));
+        adapter.enqueueAppend(pending);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                pending.run();
+            }
+        });
+        adapter.performAppends();
+        executor.shutdown();
+
+        Assert.assertEquals("test1test2", sw.toString());
+        Assert.assertEquals(Collections.singletonList("test1"), flushed);
+    }
+
 }
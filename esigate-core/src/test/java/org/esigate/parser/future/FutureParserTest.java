@@ -52,7 +52,7 @@ public class FutureParserTest extends TestCase {
 
         tested.parse(page, sbf);
 
-        assertEquals("begin this text should be updated <test:unknown name='value' /> end", sbf.get());
+        assertEquals("begin this text should be updated <test:unknown name='value' /> end", sbf.get().toString());
     }
 
     private static final FutureElementType SIMPLE = new MockElementType("<test:simple", "</test:simple") {
@@ -21,6 +21,9 @@ import junit.framework.TestCase;
 
 import org.apache.commons.io.output.StringBuilderWriter;
 import org.esigate.HttpErrorPage;
+import org.esigate.MockRequestExecutor;
+import org.esigate.impl.DriverRequest;
+import org.esigate.test.TestUtils;
 
 public class BlockRendererTest extends TestCase {
 
@@ -43,6 +46,25 @@ public class BlockRendererTest extends TestCase {
         assertEquals(expectedOutput, out.toString());
     }
 
+    public void testRenderSeveralBlocksOfTheSamePage() throws IOException, HttpErrorPage {
+        final String input = "abc <!--$beginblock$a$-->A<!--$beginblock$b$-->B<!--$endblock$b$-->A<!--$endblock$a$-->"
+                + " cdf <!--$beginblock$c$-->C<!--$endblock$c$-->";
+        DriverRequest request = TestUtils.createDriverRequest(MockRequestExecutor.createDriver());
+        assertEquals("ABA", render(request, "a", input));
+        assertEquals("B", render(request, "b", input));
+        assertEquals("C", render(request, "c", input));
+        assertEquals("", render(request, "d", input));
+        assertEquals("C", render(request, "c", new String(input)));
+        // Not the page which was indexed
+        assertEquals("X", render(request, "c", input.replace("C", "X")));
+    }
+
+    private String render(DriverRequest request, String name, String content) throws IOException, HttpErrorPage {
+        Writer out = new StringBuilderWriter();
+        new BlockRenderer(name, "/page").render(request, content, out);
+        return out.toString();
+    }
+
     public void testUnknownTag() throws IOException, HttpErrorPage {
         final String input = "abc some<!--$hello$world$-->some text goes here";
         Writer out = new StringBuilderWriter();
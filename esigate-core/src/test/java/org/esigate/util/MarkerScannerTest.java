@@ -0,0 +1,57 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.esigate.util;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+public class MarkerScannerTest extends TestCase {
+
+    private static boolean isFoundIn(String content, String... markers) throws Exception {
+        return new MarkerScanner(Arrays.asList(markers)).isFoundIn(content.getBytes("UTF-8"));
+    }
+
+    public void testIsFoundIn() throws Exception {
+        assertTrue(isFoundIn("a <esi:include src=\"x\"/>", "<esi:", "<!--esi"));
+        assertTrue(isFoundIn("a <!--esi b -->", "<esi:", "<!--esi"));
+        assertTrue(isFoundIn("<esi:", "<esi:"));
+        assertFalse(isFoundIn("a <esi b", "<esi:", "<!--esi"));
+        assertFalse(isFoundIn("a <es", "<esi:"));
+        assertFalse(isFoundIn("", "<esi:"));
+    }
+
+    public void testIsFoundInIgnoresCase() throws Exception {
+        assertTrue(isFoundIn("<IMG SRC=\"a.png\">", "src"));
+        assertTrue(isFoundIn("<a Href=\"a.html\">", "src", "HREF"));
+        assertFalse(isFoundIn("<p>été</p>", "src", "href"));
+    }
+
+    public void testNoMarkers() throws Exception {
+        assertFalse(new MarkerScanner(Collections.<String> emptyList()).isFoundIn("<esi:".getBytes("UTF-8")));
+    }
+
+    public void testIsAsciiCompatible() {
+        assertTrue(MarkerScanner.isAsciiCompatible(Charset.forName("UTF-8")));
+        assertTrue(MarkerScanner.isAsciiCompatible(Charset.forName("ISO-8859-1")));
+        assertTrue(MarkerScanner.isAsciiCompatible(Charset.forName("windows-1252")));
+        assertFalse(MarkerScanner.isAsciiCompatible(Charset.forName("UTF-16")));
+        assertFalse(MarkerScanner.isAsciiCompatible(Charset.forName("UTF-16LE")));
+    }
+
+}
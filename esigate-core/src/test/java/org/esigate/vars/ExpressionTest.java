@@ -0,0 +1,105 @@
+/* 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.esigate.vars;
+
+import java.util.Properties;
+
+import org.apache.http.impl.cookie.BasicClientCookie;
+import org.esigate.Driver;
+import org.esigate.HttpErrorPage;
+import org.esigate.Parameters;
+import org.esigate.impl.DriverRequest;
+import org.esigate.test.driver.AbstractDriverTestCase;
+
+public class ExpressionTest extends AbstractDriverTestCase {
+
+    private static final String[] EXPRESSIONS = new String[] {"1==1", "!(a==b)", "(1==1)&(2==2)", "(1==2)|(2==2)",
+            "!(1==1)&(2==2)", "(1==1)&", "$(HTTP_COOKIE{a})", "!$(HTTP_COOKIE{a})",
+            "$(HTTP_COOKIE{a})==$(HTTP_COOKIE{b})", "$(HTTP_COOKIE{a})!=1", "$(HTTP_COOKIE{a})>=$(HTTP_COOKIE{b})",
+            "$(HTTP_COOKIE{a})<10", "'$(HTTP_COOKIE{a})'=='x'", "$(HTTP_COOKIE{a})'==''",
+            "'$(HTTP_COOKIE{a})==x", "x$(HTTP_COOKIE{a})y==x1y", "a=$(HTTP_COOKIE{a})=a", "a<$(HTTP_COOKIE{a})=a",
+            "($(HTTP_COOKIE{a})==1)&($(HTTP_COOKIE{b})==2)", "($(HTTP_COOKIE{a})==1)|!($(HTTP_COOKIE{b})==2)",
+            "(1==1)$(HTTP_COOKIE{a})(2==2)", "$(HTTP_COOKIE{c}|'def')==def", "$(HTTP_COOKIE{a}) == 1",
+            "$(HTTP_COOKIE{a)==1", "'=='", "(a==a)(b==b)", "$(HTTP_COOKIE{a})==NaN", "0.0==-0.0"};
+
+    private static final String[] VALUES = new String[] {null, "", "1", "01", "2", "10", "x", "-0.0", "NaN", "1e1",
+            "abc", "a b", "1==1", "'x'", "(", ")", "!", "&", "|", "$(HTTP_COOKIE{b})", "1a", " 1"};
+
+    private Driver driver;
+
+    @Override
+    protected void setUp() {
+        Properties properties = new Properties();
+        properties.put(Parameters.REMOTE_URL_BASE.getName(), "http://localhost/");
+        driver = createMockDriver(properties, createHttpResponse().build());
+    }
+
+    private DriverRequest createDriverRequest(String a, String b) throws HttpErrorPage {
+        org.esigate.http.IncomingRequest.Builder builder = createRequest("http://localhost/page");
+        if (a != null) {
+            builder.addCookie(new BasicClientCookie("a", a));
+        }
+        if (b != null) {
+            builder.addCookie(new BasicClientCookie("b", b));
+        }
+        return new DriverRequest(builder.build(), driver, false);
+    }
+
+    public void testSameResultAsOperations() throws HttpErrorPage {
+        for (String test : EXPRESSIONS) {
+            Expression expression = Expression.compile(test);
+            for (String a : VALUES) {
+                for (String b : new String[] {null, "2", "1 0"}) {
+                    assertSameResult(test, expression, createDriverRequest(a, b), "a=" + a + " and b=" + b);
+                }
+            }
+        }
+    }
+
+    private static void assertSameResult(String test, Expression expression, DriverRequest request, String values) {
+        boolean expected;
+        try {
+            expected = Operations.processOperators(VariablesResolver.replaceAllVariables(test, request));
+        } catch (RuntimeException e) {
+            // Malformed variable
+            try {
+                expression.evaluate(request);
+                fail("Exception expected for " + test);
+            } catch (RuntimeException e2) {
+                return;
+            }
+            return;
+        }
+        assertEquals(test + " with " + values, expected, expression.evaluate(request));
+        assertEquals(test + " with " + values, expected, Operations.evaluate(test, request));
+    }
+
+    public void testCompiled() {
+        assertTrue(Expression.compile("1==1").isCompiled());
+        assertTrue(Expression.compile("($(HTTP_COOKIE{a})==1)|!($(HTTP_HOST)=='localhost')").isCompiled());
+        assertTrue(Expression.compile("'$(HTTP_COOKIE{a})'=='x'").isCompiled());
+        // The structure of these ones depends on the values of the variables
+        assertFalse(Expression.compile("$(HTTP_COOKIE{a})'==''").isCompiled());
+        assertFalse(Expression.compile("a=$(HTTP_COOKIE{a})=a").isCompiled());
+        assertFalse(Expression.compile("(1==1)$(HTTP_COOKIE{a})(2==2)").isCompiled());
+        assertFalse(Expression.compile("$(HTTP_COOKIE{a})").isCompiled());
+        assertFalse(Expression.compile("").isCompiled());
+    }
+
+    public void testNull() throws HttpErrorPage {
+        assertFalse(Operations.evaluate(null, createDriverRequest(null, null)));
+    }
+
+}
@@ -19,6 +19,13 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Properties;
+
+import org.esigate.Driver;
+import org.esigate.HttpErrorPage;
+import org.esigate.Parameters;
+import org.esigate.impl.DriverRequest;
+import org.esigate.test.TestUtils;
 import org.junit.Test;
 
 /**
@@ -58,4 +65,38 @@ public class VariablesResolverTest {
 
     }
 
+    @Test
+    public void testReplaceAllVariablesWithRequest() throws HttpErrorPage {
+        DriverRequest request = createDriverRequest("http://localhost/page?q=esigate&p=2");
+        String url = "/search?q=$(QUERY_STRING{q})&q2=$(QUERY_STRING{q})&p=$(QUERY_STRING{p})&u=$(HTTP_COOKIE{u}|'a')";
+        assertEquals("/search?q=esigate&q2=esigate&p=2&u=a", VariablesResolver.replaceAllVariables(url, request));
+        // Compiled once, resolved for each request
+        assertEquals("/search?q=other&q2=other&p=&u=a", VariablesResolver.replaceAllVariables(url,
+                createDriverRequest("http://localhost/page?q=other")));
+    }
+
+    @Test
+    public void testVariablesResolvedOncePerRequest() throws HttpErrorPage {
+        DriverRequest request = createDriverRequest("http://localhost/page");
+        request.setHeader("Referer", "http://first");
+        assertEquals("http://first", VariablesResolver.replaceAllVariables("$(HTTP_REFERER)", request));
+        request.setHeader("Referer", "http://second");
+        assertEquals("http://first", VariablesResolver.replaceAllVariables("$(HTTP_REFERER)", request));
+        assertEquals("[http://first]", VariablesResolver.replaceAllVariables("[$(HTTP_REFERER)]", request));
+        assertEquals("http://second",
+                VariablesResolver.replaceAllVariables("$(HTTP_REFERER)", new DriverRequest(request.getOriginalRequest(),
+                        request.getDriver(), false)));
+        // Missing values are remembered too
+        assertEquals("none", VariablesResolver.replaceAllVariables("$(HTTP_HEADER{X-Test}|none)", request));
+        request.setHeader("X-Test", "value");
+        assertEquals("none", VariablesResolver.replaceAllVariables("$(HTTP_HEADER{X-Test}|none)", request));
+    }
+
+    private static DriverRequest createDriverRequest(String uri) throws HttpErrorPage {
+        Properties properties = new Properties();
+        properties.put(Parameters.REMOTE_URL_BASE.getName(), "http://localhost/");
+        Driver driver = Driver.builder().setName("tested").setProperties(properties).build();
+        return TestUtils.createDriverRequest(uri, driver);
+    }
+
 }
@@ -0,0 +1,72 @@
+/* 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.esigate.xml;
+
+import javax.xml.transform.Templates;
+import javax.xml.xpath.XPathExpression;
+
+import junit.framework.TestCase;
+
+public class XmlCacheTest extends TestCase {
+    private static final String XSL = "<?xml version=\"1.0\"?>"
+            + "<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">"
+            + "<xsl:template match=\"/\">-</xsl:template></xsl:stylesheet>";
+
+    public void testStylesheetIsOnlyUsedForTheSameSource() {
+        XmlCache cache = new XmlCache(100);
+        Templates templates = cache.getTemplates("a", XSL);
+        assertSame(templates, cache.getTemplates("a", XSL));
+        assertNotSame(templates, cache.getTemplates("a", XSL.replace('-', '+')));
+        assertNotSame(cache.getTemplates(null, XSL), cache.getTemplates(null, XSL));
+        assertEquals(1, cache.getStylesheetHitCount());
+        assertEquals(4, cache.getStylesheetCompilationCount());
+        assertEquals(1, cache.getStylesheetCount());
+    }
+
+    public void testMaxEntries() {
+        XmlCache cache = new XmlCache(2);
+        Templates a = cache.getTemplates("a", XSL);
+        cache.getTemplates("b", XSL);
+        // Access "a" so that "b" becomes the least recently used entry
+        cache.getTemplates("a", XSL);
+        cache.getTemplates("c", XSL);
+        assertEquals(2, cache.getStylesheetCount());
+        assertSame(a, cache.getTemplates("a", XSL));
+        assertEquals(2, cache.getStylesheetHitCount());
+    }
+
+    public void testExpressionIsBorrowedOnce() {
+        XmlCache cache = new XmlCache(100);
+        XPathExpression first = cache.borrowExpression("//html:body");
+        // Already in use, another one is compiled
+        XPathExpression second = cache.borrowExpression("//html:body");
+        assertNotSame(first, second);
+        cache.release("//html:body", first);
+        assertSame(first, cache.borrowExpression("//html:body"));
+        assertEquals(1, cache.getExpressionHitCount());
+        assertEquals(2, cache.getExpressionCompilationCount());
+        assertEquals(1, cache.getExpressionCount());
+    }
+
+    public void testDisabled() {
+        XmlCache cache = new XmlCache(0);
+        assertFalse(cache.isEnabled());
+        cache.getTemplates("a", XSL);
+        cache.release("//html:body", cache.borrowExpression("//html:body"));
+        assertEquals(0, cache.getStylesheetCount());
+        assertEquals(0, cache.getExpressionCount());
+    }
+
+}
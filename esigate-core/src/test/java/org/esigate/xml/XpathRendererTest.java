@@ -65,4 +65,47 @@ public class XpathRendererTest extends TestCase {
         tested.render(null, src, out);
         assertEquals("test", out.toString());
     }
+
+    private static String render(String xpath, String src) throws Exception {
+        StringBuilderWriter out = new StringBuilderWriter();
+        new XpathRenderer(xpath).render(null, src, out);
+        return out.toString();
+    }
+
+    /**
+     * Tests nested matching elements are all written, in document order.
+     * 
+     * @throws Exception
+     */
+    public void testXpathNestedMatches() throws Exception {
+        String src = "<html><body><div>a<div>b<!--c--></div></div><p>d</p><div>e</div></body></html>";
+        assertEquals("<div>a<div>b<!--c--></div></div><div>b<!--c--></div><div>e</div>", render("//html:div", src));
+        assertEquals("<div>b<!--c--></div>", render("//html:div//html:div", src));
+        assertEquals("<div>a<div>b<!--c--></div></div><p>d</p><div>e</div>", render("/html:html/html:body/*", src));
+        assertEquals("", render("/html:body", src));
+    }
+
+    /**
+     * Tests invalid pages which cannot be parsed while streaming are evaluated as other pages.
+     * 
+     * @throws Exception
+     */
+    public void testXpathMisnestedTags() throws Exception {
+        String src = "<html><body><b>1<p>2</b>3</p><table>4<tr><td>5</td></tr></table></body></html>";
+        assertEquals("<p><b>2</b>3</p>", render("//html:p", src));
+        assertEquals("<p><b>2</b>3</p>", render("//html:p[1]", src));
+    }
+
+    public void testStreamingXpathCompile() {
+        assertNotNull(StreamingXpath.compile("/html:html/html:body"));
+        assertNotNull(StreamingXpath.compile("//html:div//*"));
+        assertNotNull(StreamingXpath.compile("//html:*"));
+        assertNull(StreamingXpath.compile("//html:body/@class"));
+        assertNull(StreamingXpath.compile("//html:div[1]"));
+        assertNull(StreamingXpath.compile("//body"));
+        assertNull(StreamingXpath.compile("//foo:body"));
+        assertNull(StreamingXpath.compile("html:body"));
+        assertNull(StreamingXpath.compile("///html:body"));
+        assertNull(StreamingXpath.compile(""));
+    }
 }
@@ -78,4 +78,16 @@ public class XsltRendererTest extends TestCase {
         assertEquals("<body><span id=\"test\">a</span><span id=\"test\">b</span></body>", result);
     }
 
+    /**
+     * Tests invalid pages which cannot be parsed while streaming are transformed as other pages.
+     * 
+     * @throws Exception
+     */
+    public void testMisnestedTags() throws Exception {
+        String src = "<html><body><b>1<p>2</b>3</p><table>4<tr><td>5</td></tr></table></body></html>";
+        String result = extractBody(src);
+        assertEquals("<body><b>1</b><p><b>2</b>3</p>4<table><tbody><tr><td>5</td></tr></tbody></table></body>",
+                result);
+    }
+
 }